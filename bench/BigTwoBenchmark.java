@@ -0,0 +1,496 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * This class benchmarks the rules engine and the serialization paths of the Big Two
+ * game, reporting the throughput (ops/s) and the bytes allocated per operation of
+ * each benchmark.
+ * <p>
+ * Each benchmark is warmed up, then measured over several iterations on the calling
+ * thread. Allocations are read from the per-thread allocation counter of the JVM
+ * (com.sun.management.ThreadMXBean), which is what the GC profiler of JMH reports as
+ * gc.alloc.rate.norm. The inputs of every benchmark are built once, from a fixed seed,
+ * before it is measured.
+ * <p>
+ * Usage: java BigTwoBenchmark [name filter]
+ * @author yuening
+ *
+ */
+public class BigTwoBenchmark {
+	//the number of warm-up iterations of each benchmark
+	private static final int WARMUP_ITERATIONS = 5;
+	//the number of measured iterations of each benchmark
+	private static final int MEASURED_ITERATIONS = 5;
+	//the target duration of an iteration, in nanoseconds
+	private static final long ITERATION_NANOS = 500000000L;
+	//the seed of the inputs of all benchmarks
+	private static final long SEED = 2396L;
+
+	//a sink for the results of the benchmarks, so that the JIT cannot drop them
+	private static volatile long sink;
+
+	/**
+	 * A benchmark: run() performs the specified number of operations.
+	 */
+	private static abstract class Benchmark {
+		private final String name;
+
+		Benchmark(String name) {
+			this.name = name;
+		}
+
+		abstract long run(int ops) throws Exception;
+	}
+
+	/**
+	 * run the benchmarks whose name contains the filter given as the first argument
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		String filter = args.length > 0 ? args[0] : "";
+		ArrayList<Benchmark> benchmarks = createBenchmarks();
+		System.out.println(String.format("%-36s %16s %12s", "Benchmark", "ops/s", "B/op"));
+		for (Benchmark benchmark : benchmarks) {
+			if (benchmark.name.contains(filter)) {
+				measure(benchmark);
+			}
+		}
+	}
+
+	/**
+	 * warm up and measure a benchmark, and print its throughput and allocations
+	 */
+	private static void measure(Benchmark benchmark) throws Exception {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		//find a batch size that takes about 1/10 of an iteration
+		int batch = 1;
+		while (true) {
+			long start = System.nanoTime();
+			sink += benchmark.run(batch);
+			if (System.nanoTime() - start > ITERATION_NANOS / 10 || batch >= (1 << 28)) {
+				break;
+			}
+			batch *= 2;
+		}
+
+		double totalOps = 0;
+		double totalNanos = 0;
+		double totalBytes = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			long ops = 0;
+			long bytes = threads.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			long elapsed;
+			do {
+				sink += benchmark.run(batch);
+				ops += batch;
+				elapsed = System.nanoTime() - start;
+			} while (elapsed < ITERATION_NANOS);
+			bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+			if (i >= WARMUP_ITERATIONS) {
+				totalOps += ops;
+				totalNanos += elapsed;
+				totalBytes += bytes;
+			}
+		}
+		System.out.println(String.format("%-36s %16.0f %12.1f", benchmark.name,
+				totalOps * 1e9 / totalNanos, totalBytes / totalOps));
+	}
+
+	/**
+	 * create the benchmarks
+	 */
+	private static ArrayList<Benchmark> createBenchmarks() {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		final Random random = new Random(SEED);
+
+		//composeHand for each hand size, over selections that form valid hands
+		for (final HandType type : HandType.values()) {
+			final CardList[] selections = selectionsOf(type, random, 256);
+			benchmarks.add(new Benchmark("composeHand." + type.name()) {
+				long run(int ops) {
+					long result = 0;
+					for (int i = 0; i < ops; i++) {
+						Hand hand = BigTwoClient.composeHand(null, selections[i & 255]);
+						result += hand == null ? 0 : hand.size();
+					}
+					return result;
+				}
+			});
+		}
+		//composeHand over random 5-card selections, most of which are not valid hands
+		final CardList[] randomFives = randomSelections(5, random, 256);
+		benchmarks.add(new Benchmark("composeHand.random5") {
+			long run(int ops) {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					Hand hand = BigTwoClient.composeHand(null, randomFives[i & 255]);
+					result += hand == null ? 0 : hand.size();
+				}
+				return result;
+			}
+		});
+
+		//isValid and beats for every subclass of Hand
+		for (final HandType type : HandType.values()) {
+			final Hand[] hands = handsOf(type, random, 256);
+			benchmarks.add(new Benchmark("Hand.isValid." + type.name()) {
+				long run(int ops) {
+					long result = 0;
+					for (int i = 0; i < ops; i++) {
+						result += hands[i & 255].isValid() ? 1 : 0;
+					}
+					return result;
+				}
+			});
+			benchmarks.add(new Benchmark("Hand.beats." + type.name()) {
+				long run(int ops) {
+					long result = 0;
+					for (int i = 0; i < ops; i++) {
+						result += hands[i & 255].beats(hands[(i * 7 + 3) & 255]) ? 1 : 0;
+					}
+					return result;
+				}
+			});
+		}
+
+		//Deck.shuffle
+		final BigTwoDeck deck = new BigTwoDeck();
+		benchmarks.add(new Benchmark("Deck.shuffle") {
+			long run(int ops) {
+				for (int i = 0; i < ops; i++) {
+					deck.shuffle();
+				}
+				return deck.getCard(0).getRank();
+			}
+		});
+
+		//Dealer.deal of a shuffled deck into the card masks of four hands
+		final Dealer dealer = new Dealer(SEED);
+		final long[] dealtHands = new long[4];
+		benchmarks.add(new Benchmark("Dealer.deal") {
+			long run(int ops) {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					dealer.deal(dealtHands, 0);
+					result += dealtHands[0];
+				}
+				return result;
+			}
+		});
+
+		//CardList.sort of 13 cards dealt in random order (includes refilling the list)
+		final Card[][] dealt = new Card[256][];
+		for (int i = 0; i < dealt.length; i++) {
+			dealt[i] = dealOf(13, random);
+		}
+		final CardList list = new CardList();
+		benchmarks.add(new Benchmark("CardList.sort") {
+			long run(int ops) {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					Card[] cards = dealt[i & 255];
+					list.removeAllCards();
+					for (int j = 0; j < cards.length; j++) {
+						list.addCard(cards[j]);
+					}
+					list.sort();
+					result += list.getCard(0).getRank();
+				}
+				return result;
+			}
+		});
+
+		//CardList.contains on a 13-card hand, half hits and half misses
+		final CardList hand13 = new CardList();
+		final Card[] probes = new Card[256];
+		final Card[] cards13 = dealOf(13, random);
+		for (int i = 0; i < cards13.length; i++) {
+			hand13.addCard(cards13[i]);
+		}
+		for (int i = 0; i < probes.length; i++) {
+			probes[i] = i % 2 == 0 ? cards13[random.nextInt(13)]
+					: new BigTwoCard(random.nextInt(4), random.nextInt(13));
+		}
+		benchmarks.add(new Benchmark("CardList.contains") {
+			long run(int ops) {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					result += hand13.contains(probes[i & 255]) ? 1 : 0;
+				}
+				return result;
+			}
+		});
+
+		//CardGamePlayer.removeCards of a 5-card hand from 13 cards (includes refilling)
+		final CardGamePlayer player = new CardGamePlayer("bench");
+		final CardList played = new CardList();
+		for (int i = 0; i < 5; i++) {
+			played.addCard(cards13[i * 2]);
+		}
+		benchmarks.add(new Benchmark("CardGamePlayer.removeCards") {
+			long run(int ops) {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					player.removeAllCards();
+					for (int j = 0; j < cards13.length; j++) {
+						player.addCard(cards13[j]);
+					}
+					player.removeCards(played);
+					result += player.getNumOfCards();
+				}
+				return result;
+			}
+		});
+
+		//Java serialization round trips of a START message and a MOVE message
+		final BigTwoDeck shuffled = new BigTwoDeck();
+		shuffled.shuffle();
+		final CardGameMessage start = new CardGameMessage(CardGameMessage.START, -1, shuffled);
+		final CardGameMessage move = new CardGameMessage(CardGameMessage.MOVE, 2, new int[] { 0, 3, 4, 7, 12 });
+		benchmarks.add(new Benchmark("serialize.START(BigTwoDeck)") {
+			long run(int ops) throws Exception {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					result += roundTrip(start);
+				}
+				return result;
+			}
+		});
+		benchmarks.add(new Benchmark("serialize.MOVE(int[])") {
+			long run(int ops) throws Exception {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					result += roundTrip(move);
+				}
+				return result;
+			}
+		});
+		//MessageCodec round trips of the same messages, as framed by the transports, with
+		//each version of the codec
+		final CardGameMessage moved = new CardGameMessage(CardGameMessage.MOVE, 2,
+				new BigTwoMove(0x1F000L, HandType.STRAIGHT));
+		for (final MessageCodec codec : new MessageCodec[] { MessageCodec.SERIALIZED, MessageCodec.BINARY }) {
+			String prefix = "frame.v" + codec.getVersion() + ".";
+			benchmarks.add(new Benchmark(prefix + "START(BigTwoDeck)") {
+				long run(int ops) throws Exception {
+					long result = 0;
+					for (int i = 0; i < ops; i++) {
+						result += frameRoundTrip(codec, start);
+					}
+					return result;
+				}
+			});
+			benchmarks.add(new Benchmark(prefix + "MOVE(int[])") {
+				long run(int ops) throws Exception {
+					long result = 0;
+					for (int i = 0; i < ops; i++) {
+						result += frameRoundTrip(codec, move);
+					}
+					return result;
+				}
+			});
+			benchmarks.add(new Benchmark(prefix + "MOVE(BigTwoMove)") {
+				long run(int ops) throws Exception {
+					long result = 0;
+					for (int i = 0; i < ops; i++) {
+						result += frameRoundTrip(codec, moved);
+					}
+					return result;
+				}
+			});
+		}
+		//a MOVE broadcast to the four players of a table, encoded for each of them or once
+		//for all of them (see BroadcastFrames)
+		final ClientConnection[] players = new ClientConnection[4];
+		for (int i = 0; i < players.length; i++) {
+			players[i] = new SinkConnection(MessageCodec.BINARY_VERSION);
+		}
+		benchmarks.add(new Benchmark("broadcast.perRecipient(MOVE)") {
+			long run(int ops) throws Exception {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					for (ClientConnection player : players) {
+						player.send(moved);
+					}
+					result += players.length;
+				}
+				return result;
+			}
+		});
+		benchmarks.add(new Benchmark("broadcast.shared(MOVE)") {
+			long run(int ops) throws Exception {
+				long result = 0;
+				for (int i = 0; i < ops; i++) {
+					BroadcastFrames frames = new BroadcastFrames(moved);
+					for (ClientConnection player : players) {
+						player.sendFrame(frames.frameFor(player));
+					}
+					result += frames.getNumOfEncodings();
+				}
+				return result;
+			}
+		});
+		return benchmarks;
+	}
+
+	/**
+	 * A connection of a non-blocking transport whose outbound queue is drained at once
+	 * into a direct buffer, as a channel copies the frames into the socket
+	 */
+	private static class SinkConnection extends ClientConnection {
+		private final ByteBuffer sink = ByteBuffer.allocateDirect(MessageCodec.MAX_FRAME_SIZE);
+		private final ByteBuffer[] gather = new ByteBuffer[16];
+
+		SinkConnection(int version) {
+			super(null, new ConnectionListener() {
+				public void connectionOpened(ClientConnection connection) {
+				}
+
+				public void messageReceived(ClientConnection connection, CardGameMessage message) {
+				}
+
+				public void connectionClosed(ClientConnection connection) {
+				}
+			}, OutboundQueue.Limits.DEFAULT);
+			//choose the codec with a HELLO frame, as a client does
+			ByteBuffer hello = MessageCodec.hello(version);
+			try {
+				frameReceived(hello.array(), MessageCodec.HEADER_SIZE, hello.limit() - MessageCodec.HEADER_SIZE);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		public boolean prefersDirectFrames() {
+			return true;
+		}
+
+		protected void framesQueued() {
+			OutboundQueue outbound = getOutboundQueue();
+			int n;
+			while ((n = outbound.drainTo(gather)) > 0) {
+				for (int i = 0; i < n; i++) {
+					sink.clear();
+					sink.put(gather[i].duplicate());
+				}
+				outbound.release(n);
+			}
+		}
+
+		protected void evict() {
+		}
+
+		public void reject(CardGameMessage message) {
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * write a message with an ObjectOutputStream and read it back
+	 * @return the number of bytes of the serialized message
+	 */
+	private static long roundTrip(CardGameMessage message) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(message);
+		oos.flush();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		ois.readObject();
+		return bytes.size();
+	}
+
+	/**
+	 * encode a message into a frame with a codec and decode it back
+	 * @return the number of bytes of the frame
+	 */
+	private static long frameRoundTrip(MessageCodec codec, CardGameMessage message) throws Exception {
+		ByteBuffer frame = codec.encode(message);
+		codec.decode(frame.array(), MessageCodec.HEADER_SIZE, frame.limit() - MessageCodec.HEADER_SIZE);
+		return frame.limit();
+	}
+
+	/**
+	 * deal n distinct Big Two cards in random order
+	 */
+	private static Card[] dealOf(int n, Random random) {
+		BigTwoDeck deck = new BigTwoDeck();
+		Card[] cards = new Card[n];
+		for (int i = 0; i < n; i++) {
+			cards[i] = deck.removeCard(random.nextInt(deck.size()));
+		}
+		return cards;
+	}
+
+	/**
+	 * draw selections of n distinct cards at random
+	 */
+	private static CardList[] randomSelections(int n, Random random, int count) {
+		CardList[] selections = new CardList[count];
+		for (int i = 0; i < count; i++) {
+			selections[i] = new CardList();
+			Card[] cards = dealOf(n, random);
+			for (int j = 0; j < n; j++) {
+				selections[i].addCard(cards[j]);
+			}
+		}
+		return selections;
+	}
+
+	/**
+	 * draw selections that form valid hands of the specified type, unsorted
+	 */
+	private static CardList[] selectionsOf(HandType type, Random random, int count) {
+		MoveGenerator generator = new MoveGenerator();
+		ArrayList<Long> masks = new ArrayList<Long>();
+		while (masks.size() < count) {
+			long holding = 0L;
+			for (Card card : dealOf(20, random)) {
+				holding |= CardSet.bitOf(card);
+			}
+			int n = generator.generate(holding, 0, 0L);
+			for (int i = 0; i < n && masks.size() < count; i++) {
+				long mask = generator.getMove(i);
+				if (HandClassifier.typeOf(HandClassifier.classify(mask)) == type && random.nextInt(4) == 0) {
+					masks.add(mask);
+				}
+			}
+		}
+		CardList[] selections = new CardList[count];
+		for (int i = 0; i < count; i++) {
+			ArrayList<Card> cards = new ArrayList<Card>();
+			for (long rest = masks.get(i); rest != 0L; rest &= rest - 1) {
+				cards.add(BigTwoCard.ofIndex(Long.numberOfTrailingZeros(rest)));
+			}
+			selections[i] = new CardList();
+			while (!cards.isEmpty()) {
+				selections[i].addCard(cards.remove(random.nextInt(cards.size())));
+			}
+		}
+		return selections;
+	}
+
+	/**
+	 * build valid hands of the specified type
+	 */
+	private static Hand[] handsOf(HandType type, Random random, int count) {
+		CardList[] selections = selectionsOf(type, random, count);
+		Hand[] hands = new Hand[count];
+		for (int i = 0; i < count; i++) {
+			hands[i] = BigTwoClient.composeHand(null, selections[i]);
+		}
+		return hands;
+	}
+}
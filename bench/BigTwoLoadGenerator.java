@@ -0,0 +1,408 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a load generator for BigTwoServer. It opens many client connections
+ * over the loopback interface, each driven by a bot which speaks the same protocol as
+ * BigTwoClient: a HELLO frame for the binary codec, then JOIN, READY, MOVE and MSG. The
+ * bots fill the tables and play complete games with a GreedyBot, waiting a think time
+ * before each move, and start a new game as soon as a game ends.
+ * <p>
+ * Every second it prints the connections, games and moves per second, the latency
+ * from sending a MOVE to receiving its broadcast, and the errors. At the end it prints
+ * the connect rate, the percentiles of the latencies and the totals.
+ * <p>
+ * The server is either a BigTwoServer already running on the local port, or an
+ * embedded headless BigTwoServer started on a free port with the given transport.
+ * <p>
+ * Usage: java BigTwoLoadGenerator [port|embedded[:blocking|virtual|nio]] [clients]
+ * [seconds] [think time in ms] [moves between chat messages, 0 for none]
+ * @author yuening
+ *
+ */
+public class BigTwoLoadGenerator {
+	//the number of threads opening the connections
+	private static final int CONNECT_THREADS = 16;
+
+	//the port of the server
+	private final int port;
+	//the time a bot waits before each move, in milliseconds
+	private final long thinkMillis;
+	//the number of moves of a bot between two chat messages, or 0 for none
+	private final int chatEvery;
+	//the threads sending the moves after their think time
+	private final ScheduledExecutorService scheduler;
+	//the factory of the threads reading the messages of the bots
+	private final ThreadFactory readerThreads = HandlerThreads.factory(true);
+	//the bots connected
+	private final ArrayList<BotClient> bots = new ArrayList<BotClient>();
+	//a boolean indicating if the bots are playing
+	private volatile boolean running = true;
+
+	//the time taken to connect and join a table
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+	//the time from sending a MOVE to receiving its broadcast
+	private final LatencyHistogram moveLatency = new LatencyHistogram();
+	//the same latency over the current second only, replaced every second
+	private volatile LatencyHistogram intervalLatency = new LatencyHistogram();
+	private final LongAdder connected = new LongAdder();
+	private final LongAdder connectErrors = new LongAdder();
+	private final LongAdder gamesFinished = new LongAdder();
+	private final LongAdder movesPlayed = new LongAdder();
+	private final LongAdder chatsReceived = new LongAdder();
+	private final LongAdder illegalMoves = new LongAdder();
+	private final LongAdder disconnects = new LongAdder();
+	private final LongAdder protocolErrors = new LongAdder();
+
+	/**
+	 * a constructor creating a load generator
+	 * @param port
+	 * 		the local port of the server
+	 * @param thinkMillis
+	 * 		the time a bot waits before each move, in milliseconds
+	 * @param chatEvery
+	 * 		the number of moves of a bot between two chat messages, or 0 for none
+	 */
+	public BigTwoLoadGenerator(int port, long thinkMillis, int chatEvery) {
+		this.port = port;
+		this.thinkMillis = thinkMillis;
+		this.chatEvery = chatEvery;
+		scheduler = Executors.newScheduledThreadPool(2, daemon("load-think"));
+	}
+
+	/**
+	 * connect a number of bots, let them play for a duration, and print the report
+	 * @param clients
+	 * 		the number of bots
+	 * @param seconds
+	 * 		the time the bots play once they are all connected
+	 * @throws InterruptedException
+	 */
+	public void run(int clients, int seconds) throws InterruptedException {
+		ExecutorService connectors = Executors.newFixedThreadPool(CONNECT_THREADS, daemon("load-connect"));
+		long start = System.nanoTime();
+		for(int i = 0; i < clients; i++) {
+			final String name = "bot" + i;
+			connectors.execute(() -> connect(name));
+		}
+		connectors.shutdown();
+		connectors.awaitTermination(10, TimeUnit.MINUTES);
+		double connectSeconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("connected %d of %d clients in %.2f s (%.0f connections/s), %d errors",
+				connected.sum(), clients, connectSeconds, connected.sum() / connectSeconds, connectErrors.sum()));
+
+		long playStart = System.nanoTime();
+		long lastGames = 0, lastMoves = 0;
+		for(int s = 1; s <= seconds; s++) {
+			Thread.sleep(1000);
+			long games = gamesFinished.sum(), moves = movesPlayed.sum();
+			LatencyHistogram interval = intervalLatency;
+			intervalLatency = new LatencyHistogram();
+			System.out.println(String.format("[%3d s] %d games/s, %d moves/s, MOVE->broadcast p50 %.2f ms"
+					+ " p99 %.2f ms, errors %d", s, games - lastGames, moves - lastMoves,
+					interval.getPercentile(0.5) / 1e6, interval.getPercentile(0.99) / 1e6, errors()));
+			lastGames = games;
+			lastMoves = moves;
+		}
+		double playSeconds = (System.nanoTime() - playStart) / 1e9;
+		running = false;
+		synchronized(bots) {
+			for(BotClient bot : bots) {
+				bot.close();
+			}
+		}
+		scheduler.shutdownNow();
+		report(playSeconds);
+	}
+
+	/**
+	 * print the summary of a run
+	 */
+	private void report(double playSeconds) {
+		System.out.println();
+		System.out.println(String.format("connect+join   p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms",
+				connectLatency.getPercentile(0.5) / 1e6, connectLatency.getPercentile(0.99) / 1e6,
+				connectLatency.getMax() / 1e6));
+		System.out.println(String.format("MOVE->broadcast p50 %8.2f ms  p90 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms"
+				+ "  max %8.2f ms", moveLatency.getPercentile(0.5) / 1e6, moveLatency.getPercentile(0.9) / 1e6,
+				moveLatency.getPercentile(0.99) / 1e6, moveLatency.getPercentile(0.999) / 1e6,
+				moveLatency.getMax() / 1e6));
+		System.out.println(String.format("%d games (%.1f games/s), %d moves (%.0f moves/s), %d chat messages received",
+				gamesFinished.sum(), gamesFinished.sum() / playSeconds, movesPlayed.sum(),
+				movesPlayed.sum() / playSeconds, chatsReceived.sum()));
+		System.out.println(String.format("errors: %d connect, %d illegal moves, %d disconnects, %d protocol",
+				connectErrors.sum(), illegalMoves.sum(), disconnects.sum(), protocolErrors.sum()));
+	}
+
+	private long errors() {
+		return connectErrors.sum() + illegalMoves.sum() + disconnects.sum() + protocolErrors.sum();
+	}
+
+	/**
+	 * connect a bot and start its reader thread once it has joined a table
+	 */
+	private void connect(String name) {
+		long start = System.nanoTime();
+		try {
+			BotClient bot = new BotClient(name);
+			connectLatency.recordSince(start);
+			connected.increment();
+			synchronized(bots) {
+				bots.add(bot);
+			}
+			readerThreads.newThread(bot).start();
+		} catch(IOException ex) {
+			connectErrors.increment();
+		}
+	}
+
+	private static ThreadFactory daemon(String name) {
+		AtomicLong count = new AtomicLong();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * A bot connected to the server, keeping the state of its game in a BigTwoEngine
+	 * updated by the messages of the server, as BigTwoClient does
+	 */
+	private class BotClient implements Runnable {
+		private final Socket socket;
+		private final DataOutputStream out;
+		private final DataInputStream in;
+		private final MessageCodec codec;
+		private final BigTwoEngine engine = new BigTwoEngine();
+		private final GreedyBot bot = new GreedyBot();
+		//the playerID of this bot at its table, or -1 until the player list is received
+		private int playerID = -1;
+		//the time the last MOVE of this bot was sent, or 0 if none is pending
+		private volatile long moveSentAt = 0;
+		//the number of moves sent by this bot
+		private int moves = 0;
+
+		/**
+		 * connect, choose the binary codec, and join a table
+		 */
+		BotClient(String name) throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			socket.setTcpNoDelay(true);
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			MessageCodec.writeFrame(out, MessageCodec.hello(MessageCodec.BINARY_VERSION));
+			byte[] reply = MessageCodec.readFrame(in);
+			if(reply == null || !MessageCodec.isHello(reply, 0, reply.length)) {
+				socket.close();
+				throw new IOException("No HELLO from the server");
+			}
+			codec = MessageCodec.forVersion(MessageCodec.versionOf(reply, 0));
+			send(new CardGameMessage(CardGameMessage.JOIN, -1, name));
+			send(new CardGameMessage(CardGameMessage.READY, -1, null));
+		}
+
+		public void run() {
+			try {
+				byte[] frame;
+				while((frame = MessageCodec.readFrame(in)) != null) {
+					parseMessage((CardGameMessage) codec.decode(frame, 0, frame.length));
+				}
+				if(running) {
+					disconnects.increment();
+				}
+			} catch(IOException | RuntimeException ex) {
+				if(running) {
+					if(ex instanceof IOException) {
+						disconnects.increment();
+					} else {
+						protocolErrors.increment();
+					}
+				}
+			}
+			close();
+		}
+
+		/**
+		 * update the game of this bot with a message of the server, and play if it is the
+		 * turn of this bot
+		 */
+		private void parseMessage(CardGameMessage message) throws IOException {
+			switch(message.getType()) {
+			case CardGameMessage.PLAYER_LIST:
+				playerID = message.getPlayerID();
+				break;
+			case CardGameMessage.START:
+				engine.start((Deck) message.getData());
+				playIfMyTurn();
+				break;
+			case CardGameMessage.MOVE:
+				BigTwoMove move = (BigTwoMove) message.getData();
+				if(message.getPlayerID() == playerID && moveSentAt != 0) {
+					long nanos = System.nanoTime() - moveSentAt;
+					moveLatency.record(nanos);
+					intervalLatency.record(nanos);
+					moveSentAt = 0;
+				}
+				if(!engine.playMove(message.getPlayerID(), move.getCardMask())) {
+					//the server accepted a move which this bot thinks is illegal
+					protocolErrors.increment();
+					return;
+				}
+				if(message.getPlayerID() == playerID) {
+					movesPlayed.increment();
+				}
+				if(!engine.isInProgress()) {
+					if(message.getPlayerID() == playerID) {
+						gamesFinished.increment();
+					}
+					send(new CardGameMessage(CardGameMessage.READY, -1, null));
+				} else {
+					playIfMyTurn();
+				}
+				break;
+			case CardGameMessage.ILLEGAL_MOVE:
+				illegalMoves.increment();
+				break;
+			case CardGameMessage.QUIT:
+				//a player left: the game is aborted, and the server deals again once the
+				//table is full and ready
+				engine.abort();
+				break;
+			case CardGameMessage.FULL:
+				protocolErrors.increment();
+				break;
+			case CardGameMessage.MSG:
+				chatsReceived.increment();
+				break;
+			default:
+				break;
+			}
+		}
+
+		/**
+		 * choose a move now, and send it after the think time
+		 */
+		private void playIfMyTurn() throws IOException {
+			if(!engine.isInProgress() || engine.getCurrentIdx() != playerID) {
+				return;
+			}
+			long mask = bot.chooseMove(engine, playerID);
+			//the server expects the indices of the cards in the sorted hand, as BigTwoClient sends
+			int[] cardIdx = null;
+			if(mask != 0L) {
+				CardList hand = engine.getPlayerList().get(playerID).getCardsInHand();
+				cardIdx = new int[Long.bitCount(mask)];
+				for(int i = 0, n = 0; i < hand.size(); i++) {
+					if((mask & CardSet.bitOf(hand.getCard(i))) != 0L) {
+						cardIdx[n++] = i;
+					}
+				}
+			}
+			final CardGameMessage message = new CardGameMessage(CardGameMessage.MOVE, -1, cardIdx);
+			final boolean chat = chatEvery > 0 && ++moves % chatEvery == 0;
+			if(thinkMillis <= 0) {
+				sendMove(message, chat);
+			} else {
+				scheduler.schedule(() -> {
+					try {
+						sendMove(message, chat);
+					} catch(IOException ex) {
+						close();
+					}
+				}, thinkMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private void sendMove(CardGameMessage message, boolean chat) throws IOException {
+			moveSentAt = System.nanoTime();
+			send(message);
+			if(chat) {
+				send(new CardGameMessage(CardGameMessage.MSG, -1, "gg"));
+			}
+		}
+
+		private void send(CardGameMessage message) throws IOException {
+			synchronized(out) {
+				codec.writeMessage(out, message);
+			}
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch(IOException ex) {
+				//already closed
+			}
+		}
+	}
+
+	/**
+	 * start an embedded headless server on a free local port
+	 * @return the port of the server
+	 */
+	private static int startEmbeddedServer(String transport) throws Exception {
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+		BigTwoServer server = new BigTwoServer(true);
+		server.getLogger().setLevel(AsyncLogger.WARN);
+		if(transport.equalsIgnoreCase("nio")) {
+			server.setTransport(CardGameServer.NIO);
+		} else if(transport.equalsIgnoreCase("virtual")) {
+			server.setTransport(CardGameServer.VIRTUAL_THREAD_PER_CONNECTION);
+		}
+		Thread t = new Thread(() -> server.start(port), "embedded-server");
+		t.setDaemon(true);
+		t.start();
+		//wait until the server accepts connections
+		for(int i = 0; i < 100; i++) {
+			try {
+				new Socket(InetAddress.getLoopbackAddress(), port).close();
+				return port;
+			} catch(IOException ex) {
+				Thread.sleep(100);
+			}
+		}
+		throw new IOException("The embedded server did not start");
+	}
+
+	/**
+	 * run a load test
+	 * @param args
+	 * 		the port of the server or "embedded[:transport]" (default: embedded:nio), the
+	 * 		number of clients (default 400), the duration in seconds (default 30), the think
+	 * 		time in milliseconds (default 0) and the number of moves between chat messages
+	 * 		(default 0)
+	 */
+	public static void main(String[] args) throws Exception {
+		String target = args.length > 0 ? args[0] : "embedded:nio";
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		long thinkMillis = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		int chatEvery = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+		int port;
+		if(target.startsWith("embedded")) {
+			String transport = target.contains(":") ? target.substring(target.indexOf(':') + 1) : "nio";
+			port = startEmbeddedServer(transport);
+			System.out.println("embedded " + transport + " server at localhost:" + port);
+		} else {
+			port = Integer.parseInt(target);
+		}
+		new BigTwoLoadGenerator(port, thinkMillis, chatEvery).run(clients, seconds);
+	}
+}
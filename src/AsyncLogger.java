@@ -0,0 +1,353 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * This class is a logger which never blocks the threads logging. Each record is added to
+ * a bounded lock-free ring buffer, and a background thread formats the records and
+ * writes them to a file, which is rotated when it grows too large.
+ * <p>
+ * A record is one line: the time (ISO-8601, UTC), the level, the name of the logging
+ * thread and the message, followed by the stack trace of an exception, if any. When the
+ * ring buffer is full, the record is dropped and counted rather than waited for, and
+ * the number of records dropped is logged once there is room again.
+ * <p>
+ * The ring buffer is a bounded multi-producer single-consumer queue: a producer claims a
+ * slot by a compare-and-set on the tail, and publishes its record by advancing the
+ * sequence number of the slot, which the writer thread reads before taking the record.
+ * @author yuening
+ *
+ */
+public class AsyncLogger {
+	/**
+	 * The level of the records tracing every message
+	 */
+	public static final int DEBUG = 0;
+	/**
+	 * The level of the records of the events of the lobby and the tables
+	 */
+	public static final int INFO = 1;
+	/**
+	 * The level of the records of the errors of a client
+	 */
+	public static final int WARN = 2;
+	/**
+	 * The level of the records of the errors of the server
+	 */
+	public static final int ERROR = 3;
+	//the names of the levels
+	private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+	//the time the writer thread sleeps when the ring buffer is empty, in nanoseconds
+	private static final long IDLE_NANOS = 1000000;
+
+	//the file written, and the prefix of the names of the rotated files
+	private final File file;
+	//the size of a file at which it is rotated, in bytes
+	private final long maxFileBytes;
+	//the number of rotated files kept besides the file written
+	private final int maxFiles;
+	//the slots of the ring buffer
+	private final Record[] records;
+	//the sequence number of each slot: its index plus a multiple of the capacity when it is
+	//free, and one more than that when it holds a record
+	private final AtomicLongArray sequences;
+	//the capacity of the ring buffer minus one
+	private final int mask;
+	//the position of the next record to be added
+	private final AtomicLong tail = new AtomicLong();
+	//the position of the next record to be written, used by the writer thread only
+	private long head = 0;
+	//the number of records dropped because the ring buffer was full
+	private final LongAdder dropped = new LongAdder();
+	//the number of dropped records already reported, used by the writer thread only
+	private long droppedReported = 0;
+	//the lowest level logged
+	private volatile int level = INFO;
+	//the receiver of a copy of the text written, e.g. a console, or null
+	private volatile Consumer<String> mirror;
+	//a boolean indicating if the logger is running
+	private volatile boolean running = true;
+	//the writer thread
+	private final Thread writerThread;
+	//the stream of the file written, used by the writer thread only
+	private OutputStream out;
+	//the size of the file written in bytes, used by the writer thread only
+	private long fileBytes;
+
+	/**
+	 * a constructor creating a logger and starting its writer thread
+	 * @param file
+	 * 		the file written; its directory is created if needed
+	 * @param capacity
+	 * 		the number of records the ring buffer holds, rounded up to a power of two
+	 * @param maxFileBytes
+	 * 		the size of a file at which it is renamed to file.1, file.1 to file.2, and so on
+	 * @param maxFiles
+	 * 		the number of rotated files kept
+	 */
+	public AsyncLogger(File file, int capacity, long maxFileBytes, int maxFiles) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.file = file;
+		this.maxFileBytes = maxFileBytes;
+		this.maxFiles = maxFiles;
+		records = new Record[size];
+		sequences = new AtomicLongArray(size);
+		mask = size - 1;
+		for(int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		writerThread = new Thread(this::drain, "async-logger");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * set the lowest level logged
+	 * @param level
+	 * 		DEBUG, INFO (the default), WARN or ERROR
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * check if the records of a level are logged, so that a caller can skip building a
+	 * message which would be discarded
+	 * @param level
+	 * 		the level
+	 * @return true if the level is at least the lowest level logged
+	 */
+	public boolean isEnabled(int level) {
+		return level >= this.level;
+	}
+
+	/**
+	 * set a receiver of a copy of the text written, which is called by the writer thread
+	 * with the lines of each batch of records
+	 * @param mirror
+	 * 		the receiver, or null
+	 */
+	public void setMirror(Consumer<String> mirror) {
+		this.mirror = mirror;
+	}
+
+	/**
+	 * log a message. It never blocks
+	 * @param level
+	 * 		the level of the message
+	 * @param message
+	 * 		the message
+	 */
+	public void log(int level, String message) {
+		log(level, message, null);
+	}
+
+	/**
+	 * log a message with the stack trace of an exception. It never blocks
+	 * @param level
+	 * 		the level of the message
+	 * @param message
+	 * 		the message
+	 * @param error
+	 * 		the exception, or null
+	 */
+	public void log(int level, String message, Throwable error) {
+		if(level < this.level || !running) {
+			return;
+		}
+		long position = tail.get();
+		int index;
+		while(true) {
+			index = (int) (position & mask);
+			long diff = sequences.get(index) - position;
+			if(diff == 0) {
+				if(tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = tail.get();
+			} else if(diff < 0) {
+				//the slot still holds a record of the previous lap: the ring buffer is full
+				dropped.increment();
+				return;
+			} else {
+				//another producer has claimed the slot
+				position = tail.get();
+			}
+		}
+		records[index] = new Record(System.currentTimeMillis(), level,
+				Thread.currentThread().getName(), message, error);
+		sequences.set(index, position + 1);
+	}
+
+	/**
+	 * retrieve the number of records dropped because the ring buffer was full
+	 * @return the number of records dropped
+	 */
+	public long getNumOfDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * stop the logger once the records logged so far have been written
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(5000);
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * write the records until the logger is closed
+	 */
+	private void drain() {
+		StringBuilder batch = new StringBuilder(4096);
+		while(true) {
+			boolean stopping = !running;
+			batch.setLength(0);
+			Record record;
+			while(batch.length() < 65536 && (record = poll()) != null) {
+				format(record, batch);
+			}
+			long numOfDropped = dropped.sum();
+			if(numOfDropped > droppedReported) {
+				format(new Record(System.currentTimeMillis(), WARN, "async-logger",
+						(numOfDropped - droppedReported) + " records dropped", null), batch);
+				droppedReported = numOfDropped;
+			}
+			if(batch.length() > 0) {
+				write(batch.toString());
+			} else if(stopping) {
+				break;
+			} else {
+				LockSupport.parkNanos(IDLE_NANOS);
+			}
+		}
+		try {
+			if(out != null) {
+				out.close();
+			}
+		} catch(IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * take the next record from the ring buffer
+	 * @return the record, or null if the ring buffer is empty
+	 */
+	private Record poll() {
+		int index = (int) (head & mask);
+		if(sequences.get(index) != head + 1) {
+			return null;
+		}
+		Record record = records[index];
+		records[index] = null;
+		sequences.set(index, head + records.length);
+		head++;
+		return record;
+	}
+
+	private static void format(Record record, StringBuilder batch) {
+		batch.append(Instant.ofEpochMilli(record.time)).append(' ')
+				.append(LEVEL_NAMES[record.level]).append(" [").append(record.thread).append("] ")
+				.append(record.message).append('\n');
+		if(record.error != null) {
+			StringWriter trace = new StringWriter();
+			record.error.printStackTrace(new PrintWriter(trace));
+			batch.append(trace);
+		}
+	}
+
+	/**
+	 * write a batch of lines to the file, rotating it first if it is full, and to the mirror
+	 */
+	private void write(String text) {
+		Consumer<String> mirror = this.mirror;
+		if(mirror != null) {
+			try {
+				mirror.accept(text);
+			} catch(RuntimeException ex) {
+				ex.printStackTrace();
+			}
+		}
+		try {
+			if(out == null || fileBytes >= maxFileBytes) {
+				rotate();
+			}
+			//each batch is encoded and written at once, so its size in the file is known
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			out.write(bytes);
+			fileBytes += bytes.length;
+		} catch(IOException ex) {
+			//the disk is unavailable; the lines are lost but the server goes on
+			ex.printStackTrace();
+			out = null;
+		}
+	}
+
+	/**
+	 * close the file written if it is full, shift the rotated files, and open the file
+	 */
+	private void rotate() throws IOException {
+		if(out != null) {
+			out.close();
+			out = null;
+		}
+		if(file.getParentFile() != null) {
+			Files.createDirectories(file.getParentFile().toPath());
+		}
+		if(file.length() >= maxFileBytes) {
+			for(int i = maxFiles - 1; i >= 1; i--) {
+				File older = new File(file.getPath() + "." + i);
+				if(older.exists()) {
+					Files.move(older.toPath(), new File(file.getPath() + "." + (i + 1)).toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			if(maxFiles > 0) {
+				Files.move(file.toPath(), new File(file.getPath() + ".1").toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.delete(file.toPath());
+			}
+		}
+		out = Files.newOutputStream(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+		fileBytes = file.length();
+	}
+
+	/**
+	 * A record waiting in the ring buffer
+	 */
+	private static class Record {
+		private final long time;
+		private final int level;
+		private final String thread;
+		private final String message;
+		private final Throwable error;
+
+		Record(long time, int level, String thread, String message, Throwable error) {
+			this.time = time;
+			this.level = level;
+			this.thread = thread;
+			this.message = message;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * An interface for a computer player of a Big Two card game.
+ * @author yuening
+ *
+ */
+public interface BigTwoBot {
+	/**
+	 * choose the move of a player for the current turn of a game
+	 * @param engine
+	 * 		the engine running the game
+	 * @param playerID
+	 * 		the index of the player for the current turn
+	 * @return the card mask (see CardSet) of the hand to be played, or 0 to pass
+	 */
+	public long chooseMove(BigTwoEngine engine, int playerID);
+
+	/**
+	 * choose the move of a player within a budget of CPU time, e.g. for a bot seated by a
+	 * server, which should stop searching when the budget is spent. The default
+	 * implementation ignores the budget
+	 * @param engine
+	 * 		the engine running the game
+	 * @param playerID
+	 * 		the index of the player for the current turn
+	 * @param budgetNanos
+	 * 		the CPU time the bot may take, in nanoseconds
+	 * @return the card mask (see CardSet) of the hand to be played, or 0 to pass
+	 */
+	public default long chooseMove(BigTwoEngine engine, int playerID, long budgetNanos) {
+		return chooseMove(engine, playerID);
+	}
+}
@@ -8,6 +8,16 @@ import java.io.Serializable;
  */
 public class BigTwoCard extends Card implements Serializable {
 	private static final long serialVersionUID = -7464391994945268241L;
+	//the canonical instances of the 52 Big Two cards, indexed by Card.ordinal()
+	private static final BigTwoCard[] CARDS = new BigTwoCard[52];
+	//the canonical instances of the 52 Big Two cards, indexed by CardSet.indexOf()
+	private static final BigTwoCard[] CARDS_BY_INDEX = new BigTwoCard[52];
+	static {
+		for (int i = 0; i < CARDS.length; i++) {
+			CARDS[i] = new BigTwoCard(i / 13, i % 13);
+			CARDS_BY_INDEX[CardSet.indexOf(CARDS[i])] = CARDS[i];
+		}
+	}
 
 	/**
 	 * a constructor for building a card with the specified suit and rank
@@ -20,6 +30,38 @@ public class BigTwoCard extends Card implements Serializable {
 		super(suit, rank);
 	}
 	
+	/**
+	 * return the canonical instance of the Big Two card with the specified suit and rank
+	 * @param suit
+	 * 		an integer between 0 and 3
+	 * @param rank
+	 * 		an integer between 0 and 12
+	 * @return the canonical instance of the card
+	 */
+	public static BigTwoCard of(int suit, int rank) {
+		return CARDS[ordinal(suit, rank)];
+	}
+
+	/**
+	 * return the canonical instance of the Big Two card with the specified ordinal
+	 * @param ordinal
+	 * 		an integer between 0 and 51, as returned by Card.ordinal()
+	 * @return the canonical instance of the card
+	 */
+	public static BigTwoCard ofOrdinal(int ordinal) {
+		return CARDS[ordinal];
+	}
+
+	/**
+	 * return the canonical instance of the Big Two card at the specified bit index
+	 * @param index
+	 * 		an integer between 0 and 51, as returned by CardSet.indexOf()
+	 * @return the canonical instance of the card
+	 */
+	public static BigTwoCard ofIndex(int index) {
+		return CARDS_BY_INDEX[index];
+	}
+
 	/**
 	 * compare the order of this card with the specified card
 	 * @param card
@@ -43,6 +85,17 @@ public class BigTwoCard extends Card implements Serializable {
 			return 0;
 		}
 	}
+
+	/**
+	 * replace a deserialized card with its canonical instance
+	 * @return the canonical instance of this card
+	 */
+	protected Object readResolve() {
+		if (suit >= 0 && suit < 4 && rank >= 0 && rank < 13) {
+			return of(suit, rank);
+		}
+		return this;
+	}
 	
 	
 	
@@ -1,17 +1,12 @@
 import java.util.ArrayList;
 import java.net.*;
 import java.io.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	private static final long serialVersionUID = 6337687344026903227L;
-	//the number of players
-	private int numOfPlayers;
-	//a deck of cards
-	private Deck deck;
-	//a list of players
-	private ArrayList<CardGamePlayer> playerList;
-	//a list of hands played on the table
-	private ArrayList<Hand> handsOnTable;
+	//the rules engine of the game, which holds the deck, the players and the hands on the table
+	private BigTwoEngine engine;
 	//the playerID (i.e., index) of the local player
 	private int playerID;
 	//the name of the local player
@@ -22,23 +17,50 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	private int serverPort;
 	//a socket connection to the game server
 	private Socket sock;
-	//an ObjectOutputStream for sending messages to the server
-	private ObjectOutputStream oos;
-	//the index of the player for the current turn
-	private int currentIdx;
+	//a DataOutputStream for sending framed messages (see MessageCodec) to the server
+	private DataOutputStream dos;
+	//the codec of the messages, chosen by the handshake with the server
+	private MessageCodec codec;
 	//a Big Two table which builds the GUI for the game and handles all user actions
 	private BigTwoTable table;
+	//the lock guarding the state of the client, which a virtual thread can wait for without pinning
+	private final ReentrantLock lock = new ReentrantLock();
+	//true to receive the messages from the server on a virtual thread, if available
+	private final boolean virtualThreads;
+	//the listener updating the GUI with the events of the rules engine
+	private EngineListener listener;
+	//the token with which the local player resumes its seat after losing the connection, or null
+	private volatile String reconnectToken;
+	//the sequence number of the last change of the game seen by the client (see BigTwoDelta), or -1
+	private int lastSeq = -1;
+	//a boolean indicating if a SYNC message has been sent and not yet answered, during which
+	//the changes broadcast are dropped, since the answer covers them
+	private boolean syncPending = false;
+	//a boolean indicating if a RESUME message has been sent and not yet answered
+	private boolean resuming = false;
+	//the number of attempts to reconnect after losing the connection, before giving up
+	private static final int RESUME_ATTEMPTS = 5;
+	//the time to wait for the server to accept a connection and to answer the handshake
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
 
 	/**
 	 * a constructor creating bigTwoClient
 	 * 4 users and Big Two table for GUI are created, a connection is made to the game server
 	 */
 	public BigTwoClient(int serverPort){
-		playerList = new ArrayList<CardGamePlayer>();
-		handsOnTable = new ArrayList<Hand>();
-		for(int i=0; i<4; i++) {
-			playerList.add(new CardGamePlayer(null));
-		}
+		this(serverPort, false);
+	}
+
+	/**
+	 * a constructor creating bigTwoClient, choosing the thread receiving the messages from the server
+	 * @param serverPort, the TCP port of the game server
+	 * @param virtualThreads, true to receive the messages on a virtual thread, if the JVM has them
+	 */
+	public BigTwoClient(int serverPort, boolean virtualThreads){
+		this.virtualThreads = virtualThreads;
+		engine = new BigTwoEngine();
+		listener = new EngineListener();
+		engine.setListener(listener);
 		table = new BigTwoTable(this);
 		table.setUserName();
 		table.repaint();
@@ -51,47 +73,50 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	 * Get the number of players
 	 */
 	public int getNumOfPlayers() {
-		return numOfPlayers;
+		return engine.getNumOfPlayers();
 	}
 
 	/**
 	 * Get the deck of cards being used
 	 */
 	public Deck getDeck() {
-		return deck;
+		return engine.getDeck();
 	}
 
 	/**
 	 * Get the list of player
 	 */
 	public ArrayList<CardGamePlayer> getPlayerList() {
-		return playerList;
+		return engine.getPlayerList();
 	}
 
 	/**
 	 * Get the list of hands played on the table
 	 */
 	public ArrayList<Hand> getHandsOnTable() {
-		return handsOnTable;
+		return engine.getHandsOnTable();
 	}
 
 	/**
 	 * Get the index of the player for the current turn
 	 */
 	public int getCurrentIdx() {
-		return currentIdx;
+		return engine.getCurrentIdx();
 	}
 
 	/**
 	 * Start or restart the game with a given shuffled deck of cards
 	 * @param deck. Notice that the deck is already shuffled
 	 */
-	public synchronized void start(Deck deck) {
-		this.deck = deck;
-		removeAllCards();
-		dealCards();
-		findBeginner();
-		table.repaintBigTwoPanel();
+	public void start(Deck deck) {
+		lock.lock();
+		try {
+			engine.start(deck);
+			lastSeq = -1;
+			table.repaintBigTwoPanel();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -100,25 +125,7 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	 * @param cardIdx, the index of cards chosen by the active player 
 	 */
 	public void makeMove(int playerID, int[] cardIdx) {
-		CardList select = playerList.get(playerID).play(cardIdx);
-		if(addValidMove(playerList.get(currentIdx), select)) {
-			if(currentIdx == this.playerID) {
-				table.disable();
-			}
-			if(!endOfGame()) {
-				currentIdx = (currentIdx+1)%4;
-				table.setActivePlayer(currentIdx);
-				table.repaintBigTwoPanel();
-			} else {
-				currentIdx = -1;
-				table.setActivePlayer(currentIdx);
-				table.showGameResult(null);
-				removeAllCards();
-				table.reset();
-				table.repaintBigTwoPanel();
-				sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
-			}	
-		}
+		engine.makeMove(playerID, cardIdx);
 	}
 
 	/**
@@ -126,12 +133,77 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	 * @param playerID, the playerId of the active player
 	 * @param cardIdx, the index of cards chosen by the active player 
 	 */
-	public synchronized void checkMove(int playerID, int[] cardIdx) {
-		if(playerID != this.playerID) {
+	public void checkMove(int playerID, int[] cardIdx) {
+		lock.lock();
+		try {
 			makeMove(playerID, cardIdx);
-			if(currentIdx == this.playerID) {
+			if(engine.getCurrentIdx() == this.playerID) {
+				table.enable();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * apply a move which has been checked and accepted by the game server
+	 * @param playerID, the playerId of the active player
+	 * @param move, the cards and the hand played
+	 */
+	private void applyMove(int playerID, BigTwoMove move) {
+		lock.lock();
+		try {
+			if(move instanceof BigTwoDelta) {
+				if(syncPending) {
+					//the answer to the SYNC message will apply this change
+					return;
+				}
+				int seq = ((BigTwoDelta)move).getSeq();
+				if(lastSeq >= 0 && seq != lastSeq + 1) {
+					//some changes have been missed: catch up, which also applies this one
+					requestSync(lastSeq);
+					return;
+				}
+				lastSeq = seq;
+			}
+			if(!engine.playMove(playerID, move.getCardMask())) {
+				//the game kept by the client differs from the server: ask for a snapshot
+				lastSeq = -1;
+				requestSync(-1);
+				return;
+			}
+			if(engine.getCurrentIdx() == this.playerID) {
 				table.enable();
 			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * ask the game server for the changes of the game since a sequence number, unless a
+	 * SYNC message is already waiting for its answer
+	 * @param since, the sequence number of the last change seen, or -1 for a snapshot
+	 */
+	private void requestSync(int since) {
+		if(!syncPending) {
+			syncPending = true;
+			sendMessage(new CardGameMessage(CardGameMessage.SYNC, -1, since));
+		}
+	}
+
+	/**
+	 * print a move of the local player which has been rejected by the game server
+	 * @param cardIdx, the index of cards chosen by the local player
+	 */
+	private void rejectMove(int[] cardIdx) {
+		lock.lock();
+		try {
+			CardGamePlayer player = getPlayerList().get(playerID);
+			CardList cards = player.play(cardIdx);
+			listener.illegalMove(playerID, cards, composeHand(player, cards));
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -140,8 +212,7 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	 * @return true if the game is end, and false, otherwise.
 	 */
 	public boolean endOfGame() {
-		return playerList.get(0).getNumOfCards()==0 || playerList.get(1).getNumOfCards()==0 
-				|| playerList.get(2).getNumOfCards()==0 || playerList.get(3).getNumOfCards()==0;
+		return engine.endOfGame();
 	}
 	
 	/**
@@ -207,67 +278,189 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	/**
 	 * Make a socket connection with the game server
 	 */
-	public synchronized void makeConnection() {
+	public void makeConnection() {
+		Connection connection;
 		try {
-			//connect to the server
-			sock = new Socket(serverIP, serverPort);
-			//create an ObjectOutputStream for sending message to the game server
-			oos = new ObjectOutputStream(sock.getOutputStream());
+			connection = connect();
 		} catch (Exception ex) {
 			table.failToConnectServer();
 			ex.printStackTrace();
 			return;
 		}
+		startSession(connection);
+	}
+
+	/**
+	 * Connect to the game server, and choose the codec of the messages with a handshake.
+	 * It is called without holding the lock, so that the GUI is not blocked meanwhile
+	 * @return the connection to the server, after the handshake
+	 * @throws IOException if the server cannot be reached or the handshake fails
+	 */
+	private Connection connect() throws IOException {
+		//connect to the server
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(serverIP, serverPort), CONNECT_TIMEOUT_MILLIS);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+			//create a DataOutputStream for sending message to the game server
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			//offer the binary codec, and use the version chosen by the server
+			MessageCodec.writeFrame(out, MessageCodec.hello(MessageCodec.BINARY_VERSION));
+			byte[] reply = MessageCodec.readFrame(in);
+			MessageCodec chosen = null;
+			if(reply == null || !MessageCodec.isHello(reply, 0, reply.length)
+					|| (chosen = MessageCodec.forVersion(MessageCodec.versionOf(reply, 0))) == null) {
+				throw new IOException("Handshake with the server failed");
+			}
+			//the messages of the server may be far apart once the session starts
+			socket.setSoTimeout(0);
+			return new Connection(socket, out, in, chosen);
+		} catch (IOException ex) {
+			socket.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Switch to a new connection to the game server, start receiving the messages from it,
+	 * and join the game, or resume the seat of the local player if it holds a reconnect token
+	 * @param connection, the connection to the server, after the handshake
+	 */
+	private void startSession(Connection connection) {
+		lock.lock();
 		try {
+			if(sock != null) {
+				//the previous connection has been lost or replaced
+				sock.close();
+			}
+			sock = connection.socket;
+			dos = connection.out;
+			codec = connection.codec;
+			//a SYNC message sent on the previous connection is never answered
+			syncPending = false;
 			//create a thread for receiving messages from the game server
-			Thread t = new Thread(new ServerHandler(sock));
-			t.start();
+			HandlerThreads.start(new ServerHandler(connection.in), virtualThreads);
 			//enable chatting
 			table.enableAfterConnect();
-			//send a message of JOIN and READY
-			sendMessage(new CardGameMessage(CardGameMessage.JOIN, -1, playerName));
-			sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
+			if(reconnectToken != null) {
+				//send a message of RESUME with the token
+				resuming = true;
+				sendMessage(new CardGameMessage(CardGameMessage.RESUME, -1, reconnectToken));
+			} else {
+				//send a message of JOIN and READY
+				sendMessage(new CardGameMessage(CardGameMessage.JOIN, -1, playerName));
+				sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
+			}
 		} catch (Exception ex) {
 			ex.printStackTrace();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Try to reconnect after losing the connection to the game server, waiting longer
+	 * after each failed attempt, so that the local player resumes its seat within the
+	 * grace period of the server. It is called by the thread receiving the messages
+	 */
+	private void connectionLost() {
+		if(reconnectToken != null) {
+			table.printMsg(" Lost the connection to the server. Reconnecting...\n");
+			for(int i=0; i<RESUME_ATTEMPTS; i++) {
+				try {
+					Thread.sleep(Math.min(1000L << i, 8000L));
+				} catch (InterruptedException ex) {
+					break;
+				}
+				Connection connection;
+				try {
+					connection = connect();
+				} catch (IOException ex) {
+					//the server cannot be reached yet
+					continue;
+				}
+				startSession(connection);
+				return;
+			}
 		}
+		table.failToConnectServer();
 	}
 
 	/**
 	 * parse the message received from the game server
 	 * @param message, which is received from the game server 
 	 */
-	public synchronized void parseMessage(GameMessage message) {
-		switch (message.getType()) {
-		case CardGameMessage.PLAYER_LIST:
-			setPlayersInfo(message);
-			break;
-		case CardGameMessage.JOIN:
-			addNewPalyer(message);
-			break;
-		case CardGameMessage.FULL:
-			table.printMsg(" The server is full. No new join is allowed.\n");
-			break;
-		case CardGameMessage.QUIT:
-			removePlayer(message);
-			break;
-		case CardGameMessage.READY:
-			if(message.getPlayerID() > -1 && message.getPlayerID() < 4) { 
-				table.printMsg(String.format(" %s is ready for the game.\n", 
-						playerList.get(message.getPlayerID()).getName()));
+	public void parseMessage(GameMessage message) {
+		lock.lock();
+		try {
+			switch (message.getType()) {
+			case CardGameMessage.PLAYER_LIST:
+				setPlayersInfo(message);
+				if(resuming) {
+					//the seat has been released: join the game as a new player
+					resuming = false;
+					clearGame();
+					sendMessage(new CardGameMessage(CardGameMessage.JOIN, -1, playerName));
+					sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
+				}
+				break;
+			case CardGameMessage.JOIN:
+				addNewPalyer(message);
+				break;
+			case CardGameMessage.FULL:
+				table.printMsg(" The server is full. No new join is allowed.\n");
+				break;
+			case CardGameMessage.QUIT:
+				removePlayer(message);
+				break;
+			case CardGameMessage.READY:
+				if(message.getPlayerID() > -1 && message.getPlayerID() < 4) { 
+					table.printMsg(String.format(" %s is ready for the game.\n", 
+							getPlayerList().get(message.getPlayerID()).getName()));
+				}
+				break;
+			case CardGameMessage.START:
+				table.printMsg("\n All players are ready. Game starts\n");
+				start((BigTwoDeck)message.getData());
+				break;
+			case CardGameMessage.MOVE:
+				applyMove(message.getPlayerID(), (BigTwoMove)message.getData());
+				break;
+			case CardGameMessage.ILLEGAL_MOVE:
+				//the move is echoed as sent, so anything but card indices or a pass is ignored
+				if(message.getData() == null || message.getData() instanceof int[]) {
+					rejectMove((int[])message.getData());
+				}
+				break;
+			case CardGameMessage.MSG:
+				table.printChatMsg(" " + (String)message.getData() + "\n");
+				break;
+			case CardGameMessage.TOKEN:
+				reconnectToken = (String)message.getData();
+				break;
+			case CardGameMessage.AWAY:
+				if(message.getPlayerID() > -1 && message.getPlayerID() < 4) {
+					table.printMsg(String.format(" %s loses the connection. Waiting for the player to come back.\n",
+							getPlayerList().get(message.getPlayerID()).getName()));
+				}
+				break;
+			case CardGameMessage.RESUME:
+				if(message.getData() instanceof String) {
+					table.printMsg(String.format(" %s is back.\n", (String)message.getData()));
+				} else if(resuming) {
+					resumeGame(message.getPlayerID(), (BigTwoSnapshot)message.getData());
+				}
+				break;
+			case CardGameMessage.SYNC:
+				syncGame((BigTwoSync)message.getData());
+				break;
+			default:
+				break;
 			}
-			break;
-		case CardGameMessage.START:
-			table.printMsg("\n All players are ready. Game starts\n");
-			start((BigTwoDeck)message.getData());
-			break;
-		case CardGameMessage.MOVE:
-			checkMove(message.getPlayerID(), (int[])message.getData());
-			break;
-		case CardGameMessage.MSG:
-			table.printChatMsg(" " + (String)message.getData() + "\n");
-			break;
-		default:
-			break;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -275,40 +468,139 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	 * Send the specified message to the game server
 	 * @param message
 	 */
-	public synchronized void sendMessage(GameMessage message) {
+	public void sendMessage(GameMessage message) {
+		lock.lock();
 		try {
-			oos.writeObject(message);
-		} catch (Exception ex) {
-			ex.printStackTrace();
+			try {
+				codec.writeMessage(dos, message);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 	
+	/**
+	 * Restore the game after the local player has resumed its seat
+	 * @param playerID, the playerID of the local player
+	 * @param snapshot, the game in progress, or null if no game is in progress
+	 */
+	private void resumeGame(int playerID, BigTwoSnapshot snapshot) {
+		lock.lock();
+		try {
+			resuming = false;
+			this.playerID = playerID;
+			if(snapshot != null) {
+				restoreGame(snapshot);
+			} else {
+				//the game has ended or been aborted meanwhile: get ready for the next one
+				clearGame();
+				sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
+			}
+			table.printMsg(" Reconnected. The game continues.\n");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Catch up with the game kept by the server, from the answer to a SYNC message
+	 * @param sync, the changes since the last change seen by the client, or a snapshot
+	 */
+	private void syncGame(BigTwoSync sync) {
+		lock.lock();
+		try {
+			syncPending = false;
+			if(sync.isIncremental()) {
+				for(BigTwoDelta delta : sync.getDeltas()) {
+					if(delta.getSeq() > lastSeq) {
+						lastSeq = delta.getSeq();
+						if(!engine.playMove(delta.getPlayerID(), delta.getCardMask())) {
+							//the game kept by the client differs from the server: ask for a snapshot
+							lastSeq = -1;
+							requestSync(-1);
+							return;
+						}
+					}
+				}
+				if(engine.getCurrentIdx() == playerID) {
+					table.enable();
+				}
+			} else if(sync.getSnapshot() != null) {
+				restoreGame(sync.getSnapshot());
+			} else {
+				//no game is in progress
+				lastSeq = sync.getSeq();
+				clearGame();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Restore the game in progress from a snapshot, and update the GUI
+	 * @param snapshot, the snapshot of the game kept by the server
+	 */
+	private void restoreGame(BigTwoSnapshot snapshot) {
+		table.reset();
+		engine.restore(snapshot);
+		lastSeq = snapshot.getSeq();
+		table.setActivePlayer(engine.getCurrentIdx());
+		if(engine.getCurrentIdx() == playerID) {
+			table.enable();
+		}
+		table.repaintBigTwoPanel();
+	}
+
+	/**
+	 * Stop the game in progress, if any, and clear the table
+	 */
+	private void clearGame() {
+		engine.abort();
+		engine.removeAllCards();
+		table.setActivePlayer(-1);
+		table.reset();
+		table.repaintBigTwoPanel();
+	}
+
 	/**
 	 * Set the local playerID, and update the name of the players
 	 * @param message
 	 */
-	private synchronized void setPlayersInfo(GameMessage message) {
-		playerID = message.getPlayerID();
-		String[] data = (String[])message.getData();
-		for(int i=0; i<4; i++) {
-			playerList.get(i).setName(data[i]);;
+	private void setPlayersInfo(GameMessage message) {
+		lock.lock();
+		try {
+			playerID = message.getPlayerID();
+			String[] data = (String[])message.getData();
+			for(int i=0; i<4; i++) {
+				getPlayerList().get(i).setName(data[i]);
+			}
+			table.repaintBigTwoPanel();
+		} finally {
+			lock.unlock();
 		}
-		table.repaintBigTwoPanel();
 	}
 	
 	/**
 	 * Add a new player to the player list by updating his/her name
 	 * @param message
 	 */
-	private synchronized void addNewPalyer(GameMessage message) {
-		table.clearMsgArea();
-		table.clearChatArea();
-		if(message.getPlayerID() > -1 && message.getPlayerID() < 4) {
-			if(playerList.get(message.getPlayerID()).getName() == null) {
-				playerList.get(message.getPlayerID()).setName((String)message.getData());
+	private void addNewPalyer(GameMessage message) {
+		lock.lock();
+		try {
+			table.clearMsgArea();
+			table.clearChatArea();
+			if(message.getPlayerID() > -1 && message.getPlayerID() < 4) {
+				if(getPlayerList().get(message.getPlayerID()).getName() == null) {
+					getPlayerList().get(message.getPlayerID()).setName((String)message.getData());
+				}
 			}
+			table.repaintBigTwoPanel();
+		} finally {
+			lock.unlock();
 		}
-		table.repaintBigTwoPanel();
 	}
 	
 	/**
@@ -316,74 +608,95 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	 * If the game is in progress, stop the game and send a READY message to the server
 	 * @param message
 	 */
-	private synchronized void removePlayer(GameMessage message) {
-		table.repaintBigTwoPanel();
-		if(message.getPlayerID() > -1 && message.getPlayerID() < 4) { 
-			table.printMsg(String.format(" %s leaves the game.\n", 
-					playerList.get(message.getPlayerID()).getName()));
-		}
-		if (currentIdx > -1 && currentIdx < 4) {
-			currentIdx = -1;
-			table.setActivePlayer(currentIdx);
-			if(currentIdx == playerID) {
-				table.disable();
-			}
-			String player = playerList.get(message.getPlayerID()).getName() + " (" + (String)message.getData() + ")";
-			table.showGameResult(player);
-			removeAllCards();
-			table.reset();
+	private void removePlayer(GameMessage message) {
+		lock.lock();
+		try {
 			table.repaintBigTwoPanel();
-			sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
-		}
-		if(message.getPlayerID() > -1 && message.getPlayerID() < 4) {
-			if(playerList.get(message.getPlayerID()).getName() != null) {
-				playerList.get(message.getPlayerID()).setName(null);
+			if(message.getPlayerID() > -1 && message.getPlayerID() < 4) { 
+				table.printMsg(String.format(" %s leaves the game.\n", 
+						getPlayerList().get(message.getPlayerID()).getName()));
+			}
+			if (engine.isInProgress()) {
+				if(engine.getCurrentIdx() == playerID) {
+					table.disable();
+				}
+				engine.abort();
+				table.setActivePlayer(-1);
+				String player = getPlayerList().get(message.getPlayerID()).getName() + " (" + (String)message.getData() + ")";
+				table.showGameResult(player);
+				engine.removeAllCards();
+				table.reset();
+				table.repaintBigTwoPanel();
+				sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
 			}
+			if(message.getPlayerID() > -1 && message.getPlayerID() < 4) {
+				if(getPlayerList().get(message.getPlayerID()).getName() != null) {
+					getPlayerList().get(message.getPlayerID()).setName(null);
+				}
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 	
+	/**
+	 * A connection to the server after the handshake, not yet used by the client
+	 */
+	private static class Connection {
+		private final Socket socket;
+		private final DataOutputStream out;
+		private final DataInputStream in;
+		private final MessageCodec codec;
+
+		Connection(Socket socket, DataOutputStream out, DataInputStream in, MessageCodec codec) {
+			this.socket = socket;
+			this.out = out;
+			this.in = in;
+			this.codec = codec;
+		}
+	}
+
 	/**
 	 * An inner class handles message receiving from the server
 	 * @author yuening
 	 */
 	private class ServerHandler implements Runnable {
-		private ObjectInputStream ois;
+		private DataInputStream dis;
 		/**
 		 * Creates and returns an instance of the ServerHandler class.
-		 * @param clientSocket, the socket connection to the server
+		 * @param dis, the stream of the socket connection to the server, after the handshake
 		 */
-		public ServerHandler(Socket sock) {
-			try {
-				ois = new ObjectInputStream(sock.getInputStream());
-			} catch (Exception ex) {
-				ex.printStackTrace();
-			}
+		public ServerHandler(DataInputStream dis) {
+			this.dis = dis;
 		}
 		
 		public void run() {
-			 CardGameMessage msg;
+			 byte[] frame;
 			 try {
 				 //waits for the messages from server
-				 while((msg = (CardGameMessage)ois.readObject()) != null) {
-					 parseMessage(msg);
+				 while((frame = MessageCodec.readFrame(dis)) != null) {
+					 parseMessage(codec.decode(frame, 0, frame.length));
 				 }	 
+				 //the server has closed the connection
 			 } catch (Exception ex) {
-				 table.failToConnectServer();
 				 ex.printStackTrace();
 			 }
+			 connectionLost();
 		}
 	 }
 	
 	/**
 	 * Start a Big Two card game. 
 	 * Create an instance of BigTwoClient
-	 * @param args
+	 * @param args, the TCP port of the game server (default 2396), and "virtual" to receive
+	 * 		the messages on a virtual thread
 	 */
 	public static void main(String[] args) {
+		boolean virtualThreads = args.length > 1 && args[1].equalsIgnoreCase("virtual");
 		if(args.length > 0) {
-			new BigTwoClient(Integer.parseInt(args[0]));
+			new BigTwoClient(Integer.parseInt(args[0]), virtualThreads);
 		} else {
-			new BigTwoClient(2396);
+			new BigTwoClient(2396, virtualThreads);
 		}
 		
 	}
@@ -396,127 +709,70 @@ public class BigTwoClient implements CardGame, NetworkGame, Serializable {
 	 * 		if no valid hand can be composed from the specified list of cards
 	 */
 	public static Hand composeHand(CardGamePlayer player, CardList cards) {
-		Hand matchedHand;
-		if(cards == null) {
-			return null;
-		}
-		if(cards.size()==1) {
-			matchedHand = new Single(player, cards);
-			return matchedHand;
-		} else if (cards.size()==2) {
-			matchedHand = new Pair(player, cards);
-			return matchedHand.isValid()?matchedHand:null;		
-		} else if (cards.size()==3) {
-			matchedHand = new Triple(player, cards);
-			return matchedHand.isValid()?matchedHand:null;	
-		} else if (cards.size()==5) {		
-			matchedHand = new Straight(player, cards);
-			if(matchedHand.isValid())
-				return matchedHand;	
-			matchedHand = new Flush(player, cards);
-			if(matchedHand.isValid())
-				return matchedHand;		
-			matchedHand = new FullHouse(player, cards);
-			if(matchedHand.isValid())
-				return matchedHand;		
-			matchedHand = new Quad(player, cards);
-			if(matchedHand.isValid())
-				return matchedHand;		
-			matchedHand = new StraightFlush(player, cards);
-			return matchedHand.isValid()?matchedHand:null;	
-		}
-		return null;
+		return BigTwoEngine.composeHand(player, cards);
 	}
 	
 	/**
-	 * Remove all cards from the table as well as from the players
-	 */
-	private void removeAllCards() {
-		handsOnTable = new ArrayList<Hand>();
-		for(int i=0; i<4; i++) {
-			playerList.get(i).removeAllCards();
-		}
-	}
-	/**
-	 * Deal the cards from the deck to the four users.Each player gets one card in each round
-	 * After dealing, all players sort the cards in hand
+	 * An inner class updates the GUI with the events of the rules engine
+	 * @author yuening
 	 */
-	private void dealCards() {
-		for(int j=0; j<13; j++) {
-			for(int i=0; i<4; i++) {	
-				playerList.get(i).addCard(deck.getCard(i+4*j));
+	private class EngineListener implements BigTwoEngineListener {
+		/**
+		 * Set the beginner as the active player
+		 */
+		public void gameStarted(int beginnerIdx) {
+			table.setActivePlayer(beginnerIdx);
+			if(playerID == beginnerIdx) {
+				table.enable();
 			}
 		}
-		for(int i=0; i<4; i++) {
-			playerList.get(i).sortCardsInHand();
-		}
-	}
-	/**
-	 * Set the user with Three of Diamonds as the beginner.
-	 * Set the value of currentIdx equal to the beginner.
-	 */
-	private void findBeginner() {
-		for(int i=0; i<4; i++) {
-			Card card = new Card(0, 2);
-			if(playerList.get(i).getCardsInHand().contains(card)) {
-				currentIdx = i;
-				break;
+
+		/**
+		 * Print the hand played, and disable the local player after his/her move
+		 */
+		public void movePlayed(int playerID, Hand hand) {
+			if(hand != null) {
+				table.printMsg(" {"+ hand.getType() +"} "+ hand + "\n");
+			} else {
+				table.printMsg(" {Pass} \n");
 			}
-		}
-		table.setActivePlayer(currentIdx);
-		if(playerID == currentIdx) {
-			table.enable();
-		}
-	}
-	/**
-	 * private function so that it can only be accessed by start()
-	 * 
-	 * change the index of player's card list into the card list
-	 * judge whether this move is legal and the hand is valid.
-	 * if legal and valid, add the newest hand into the 'handsOnTable'
-	 * @param: select
-	 * 		the list of the index of the current player's card list, which they selected as their newest move.
-	 * @return: true if this move is legal and the hand is valid. false, otherwise
-	 */
-	private boolean addValidMove(CardGamePlayer currentPlayer, CardList selectedCards) {
-		Hand newHand = composeHand(currentPlayer, selectedCards);
-		Card threeOfDiamond = new Card(0, 2);
-		if(newHand != null) {
-			table.printMsg(" {"+ newHand.getType() +"} "+ selectedCards);
-		} else if (selectedCards == null) {
-			table.printMsg(" {Pass} ");
-		} else {
-			table.printMsg(" " + selectedCards.toString());
-		}
-		if(handsOnTable.size() == 0){
-			if(newHand != null && newHand.contains(threeOfDiamond)) {
-				handsOnTable.add(newHand);
-				playerList.get(currentIdx).removeCards(newHand);
-				table.printMsg("\n");
-				return true;
+			if(playerID == BigTwoClient.this.playerID) {
+				table.disable();
 			}
-		} else {
-			if(playerList.get(currentIdx) == handsOnTable.get(handsOnTable.size()-1).getPlayer()) {
-				if(newHand != null) {
-					handsOnTable.add(newHand);
-					playerList.get(currentIdx).removeCards(newHand);
-					table.printMsg("\n");
-					return true;
-				}
+		}
+
+		/**
+		 * Print the cards selected, marked as an illegal move
+		 */
+		public void illegalMove(int playerID, CardList cards, Hand hand) {
+			if(hand != null) {
+				table.printMsg(" {"+ hand.getType() +"} "+ cards);
+			} else if (cards == null) {
+				table.printMsg(" {Pass} ");
 			} else {
-				if (selectedCards == null) {
-					table.printMsg("\n");
-					return true;
-				} else if (newHand != null && newHand.beats(handsOnTable.get(handsOnTable.size()-1))) {
-					handsOnTable.add(newHand);
-					playerList.get(currentIdx).removeCards(newHand);
-					table.printMsg("\n");
-					return true;
-				}
+				table.printMsg(" " + cards.toString());
 			}
+			table.printMsg(" <== No a legal move!!!\n");
+		}
+
+		/**
+		 * Set the player for the current turn as the active player
+		 */
+		public void turnChanged(int currentIdx) {
+			table.setActivePlayer(currentIdx);
+			table.repaintBigTwoPanel();
+		}
+
+		/**
+		 * Show the result of the game, clear the table and get ready for the next game
+		 */
+		public void gameEnded(int winnerIdx) {
+			table.setActivePlayer(-1);
+			table.showGameResult(null);
+			engine.removeAllCards();
+			table.reset();
+			table.repaintBigTwoPanel();
+			sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
 		}
-		table.printMsg(" <== No a legal move!!!\n");
-		return false;
 	}
-	
 }
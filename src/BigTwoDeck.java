@@ -17,8 +17,7 @@ public class BigTwoDeck extends Deck implements Serializable {
 		removeAllCards();
 		for (int i = 0; i < 4; i++) {
 			for (int j = 0; j < 13; j++) {
-				Card card = new BigTwoCard(i, (j+2)%13);
-				addCard(card);
+				addCard(BigTwoCard.of(i, (j+2)%13));
 			}
 		}
 
@@ -0,0 +1,92 @@
+/**
+ * This class models a move accepted by the server of a Big Two card game as a change
+ * of the state of its table. Besides the cards played, it carries the sequence number
+ * of the change at its table, the player for the next turn and a summary of the top
+ * hand on the table, so that a client can check that it has missed no change, and a
+ * client keeping no rules engine can still follow the game.
+ * <p>
+ * The server broadcasts it as the data of a MOVE message, and keeps the changes of the
+ * current game of each table in a DeltaLog, which a client can ask for with SYNC.
+ * @author yuening
+ *
+ */
+public class BigTwoDelta extends BigTwoMove {
+	private static final long serialVersionUID = 6120985513380471906L;
+	//the sequence number of this change at its table
+	private final int seq;
+	//the playerID of the player who made the move
+	private final int playerID;
+	//the index of the player for the next turn, or -1 if the move ends the game
+	private final int nextIdx;
+	//the playerID of the player of the top hand on the table after the move, or -1 if none
+	private final int topPlayer;
+	//the card mask of the top hand on the table after the move, or 0 if none
+	private final long topMask;
+
+	/**
+	 * a constructor creating a change
+	 * @param seq
+	 * 		the sequence number of this change at its table
+	 * @param playerID
+	 * 		the playerID of the player who made the move
+	 * @param cardMask
+	 * 		the card mask (see CardSet) of the cards played, or 0 for a pass
+	 * @param handType
+	 * 		the type of the hand played, or null for a pass
+	 * @param nextIdx
+	 * 		the index of the player for the next turn, or -1 if the move ends the game
+	 * @param topPlayer
+	 * 		the playerID of the player of the top hand on the table after the move, or -1
+	 * @param topMask
+	 * 		the card mask of the top hand on the table after the move, or 0
+	 */
+	public BigTwoDelta(int seq, int playerID, long cardMask, HandType handType, int nextIdx, int topPlayer,
+			long topMask) {
+		super(cardMask, handType);
+		this.seq = seq;
+		this.playerID = playerID;
+		this.nextIdx = nextIdx;
+		this.topPlayer = topPlayer;
+		this.topMask = topMask;
+	}
+
+	/**
+	 * retrieve the sequence number of this change
+	 * @return the sequence number of this change at its table
+	 */
+	public int getSeq() {
+		return seq;
+	}
+
+	/**
+	 * retrieve the player who made the move
+	 * @return the playerID of the player who made the move
+	 */
+	public int getPlayerID() {
+		return playerID;
+	}
+
+	/**
+	 * retrieve the player for the next turn
+	 * @return the index of the player for the next turn, or -1 if the move ends the game
+	 */
+	public int getNextIdx() {
+		return nextIdx;
+	}
+
+	/**
+	 * retrieve the player of the top hand on the table after the move
+	 * @return the playerID of the player, or -1 if no hand has been played
+	 */
+	public int getTopPlayer() {
+		return topPlayer;
+	}
+
+	/**
+	 * retrieve the top hand on the table after the move
+	 * @return the card mask (see CardSet) of the top hand, or 0 if no hand has been played
+	 */
+	public long getTopMask() {
+		return topMask;
+	}
+}
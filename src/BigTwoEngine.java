@@ -0,0 +1,493 @@
+import java.util.ArrayList;
+
+/**
+ * This class implements the rules of a Big Two card game without any GUI or network
+ * connection. It deals the cards, finds the beginner, checks and applies the moves of
+ * the players and detects the end of a game, and reports what happens through a
+ * BigTwoEngineListener.
+ * <p>
+ * The client, the server and the bots share this class as their rules core. An engine
+ * without a listener does no work besides the rules, so that a single thread can play
+ * thousands of games per second. An engine is not thread-safe.
+ * @author yuening
+ *
+ */
+public class BigTwoEngine implements CardGame {
+	//the number of players
+	private static final int NUM_OF_PLAYERS = 4;
+	//the Three of Diamonds, which begins the game
+	private static final Card THREE_OF_DIAMONDS = BigTwoCard.of(0, 2);
+	//a deck of cards
+	private Deck deck;
+	//a list of players
+	private ArrayList<CardGamePlayer> playerList;
+	//a list of hands played on the table
+	private ArrayList<Hand> handsOnTable;
+	//the index of the player for the current turn, or -1 if no game is in progress
+	private int currentIdx = -1;
+	//the listener of the events of this engine, or null
+	private BigTwoEngineListener listener;
+	//whether the hand of each player was restored from a snapshot not showing it, so that
+	//it holds stand-in cards until the player plays them
+	private boolean[] hidden = new boolean[NUM_OF_PLAYERS];
+
+	/**
+	 * a constructor creating an engine with 4 players without names
+	 */
+	public BigTwoEngine() {
+		playerList = new ArrayList<CardGamePlayer>();
+		handsOnTable = new ArrayList<Hand>();
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			playerList.add(new CardGamePlayer(null));
+		}
+	}
+
+	/**
+	 * Set the listener of the events of this engine
+	 * @param listener, or null to stop reporting events
+	 */
+	public void setListener(BigTwoEngineListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Get the number of players
+	 */
+	public int getNumOfPlayers() {
+		return NUM_OF_PLAYERS;
+	}
+
+	/**
+	 * Get the deck of cards being used
+	 * @return the deck, or null if the game was started from hands that were already dealt
+	 */
+	public Deck getDeck() {
+		return deck;
+	}
+
+	/**
+	 * Get the list of player
+	 */
+	public ArrayList<CardGamePlayer> getPlayerList() {
+		return playerList;
+	}
+
+	/**
+	 * Get the list of hands played on the table
+	 */
+	public ArrayList<Hand> getHandsOnTable() {
+		return handsOnTable;
+	}
+
+	/**
+	 * Get the last hand played on the table
+	 * @return the last hand played on the table, or null if no hand has been played
+	 */
+	public Hand getLastHand() {
+		return handsOnTable.isEmpty() ? null : handsOnTable.get(handsOnTable.size()-1);
+	}
+
+	/**
+	 * Get the index of the player for the current turn
+	 * @return the index of the player for the current turn, or -1 if no game is in progress
+	 */
+	public int getCurrentIdx() {
+		return currentIdx;
+	}
+
+	/**
+	 * Check if a game is in progress
+	 * @return true if a game has started and has not ended or been aborted
+	 */
+	public boolean isInProgress() {
+		return currentIdx > -1;
+	}
+
+	/**
+	 * Start or restart the game with a given shuffled deck of cards
+	 * @param deck. Notice that the deck is already shuffled
+	 */
+	public void start(Deck deck) {
+		this.deck = deck;
+		removeAllCards();
+		dealCards();
+		findBeginner();
+		if(listener != null) {
+			listener.gameStarted(currentIdx);
+		}
+	}
+
+	/**
+	 * Start or restart the game with hands that have already been dealt, e.g. by a Dealer
+	 * @param hands, the card masks (see CardSet) of the hands of the four players
+	 * @param offset, the position of the hand of the first player in the array
+	 */
+	public void start(long[] hands, int offset) {
+		this.deck = null;
+		removeAllCards();
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			//the bits of a card mask are in Big Two order, so the hand is dealt sorted
+			for(long rest = hands[offset+i]; rest != 0L; rest &= rest - 1) {
+				playerList.get(i).addCard(BigTwoCard.ofIndex(Long.numberOfTrailingZeros(rest)));
+			}
+		}
+		findBeginner();
+		if(listener != null) {
+			listener.gameStarted(currentIdx);
+		}
+	}
+
+	/**
+	 * Take a snapshot of the game in progress showing the hands of all players, e.g. for a
+	 * checkpoint of a replay
+	 * @param seq, the sequence number of the last change of the game (see DeltaLog)
+	 * @return the snapshot, or null if no game is in progress
+	 */
+	public BigTwoSnapshot snapshot(int seq) {
+		return snapshot(seq, -1);
+	}
+
+	/**
+	 * Take a snapshot of the game in progress for the player at a seat, e.g. for a player
+	 * resuming the game: it shows the hand of that player, and only the number of cards in
+	 * the hands of the others
+	 * @param seq, the sequence number of the last change of the game (see DeltaLog)
+	 * @param playerID, the playerID of the player, or -1 to show the hands of all players
+	 * @return the snapshot, or null if no game is in progress
+	 */
+	public BigTwoSnapshot snapshot(int seq, int playerID) {
+		if(!isInProgress()) {
+			return null;
+		}
+		long[] hands = new long[NUM_OF_PLAYERS];
+		int[] handSizes = new int[NUM_OF_PLAYERS];
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			if(playerID < 0 || playerID == i) {
+				hands[i] = playerList.get(i).getCardsInHand().getMask();
+			}
+			handSizes[i] = playerList.get(i).getNumOfCards();
+		}
+		long[] tableMasks = new long[handsOnTable.size()];
+		int[] tablePlayers = new int[handsOnTable.size()];
+		for(int i=0; i<handsOnTable.size(); i++) {
+			tableMasks[i] = handsOnTable.get(i).getMask();
+			tablePlayers[i] = playerList.indexOf(handsOnTable.get(i).getPlayer());
+		}
+		return new BigTwoSnapshot(seq, hands, handSizes, tableMasks, tablePlayers, currentIdx);
+	}
+
+	/**
+	 * Restore a game in progress from a snapshot, without reporting any event to the listener.
+	 * A hand not shown by the snapshot is filled with stand-in cards, taken from the cards
+	 * neither shown nor played, which are swapped for the cards the player actually plays
+	 * @param snapshot, the snapshot taken by the engine keeping the game
+	 */
+	public void restore(BigTwoSnapshot snapshot) {
+		this.deck = null;
+		removeAllCards();
+		long unseen = CardSet.FULL_MASK;
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			unseen &= ~snapshot.getHands()[i];
+		}
+		for(int i=0; i<snapshot.getTableMasks().length; i++) {
+			unseen &= ~snapshot.getTableMasks()[i];
+		}
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			long hand = snapshot.getHands()[i];
+			hidden[i] = Long.bitCount(hand) < snapshot.getHandSizes()[i];
+			for(int n = snapshot.getHandSizes()[i] - Long.bitCount(hand); n > 0 && unseen != 0L; n--) {
+				hand |= Long.lowestOneBit(unseen);
+				unseen &= unseen - 1;
+			}
+			for(long rest = hand; rest != 0L; rest &= rest - 1) {
+				playerList.get(i).addCard(BigTwoCard.ofIndex(Long.numberOfTrailingZeros(rest)));
+			}
+		}
+		for(int i=0; i<snapshot.getTableMasks().length; i++) {
+			CardList cards = new CardList();
+			for(long rest = snapshot.getTableMasks()[i]; rest != 0L; rest &= rest - 1) {
+				cards.addCard(BigTwoCard.ofIndex(Long.numberOfTrailingZeros(rest)));
+			}
+			handsOnTable.add(composeHand(playerList.get(snapshot.getTablePlayers()[i]), cards));
+		}
+		currentIdx = snapshot.getCurrentIdx();
+	}
+
+	/**
+	 * swap the stand-in cards of a hand restored without being shown for the cards played
+	 * from it, which are held as stand-in cards by the other hands not shown
+	 * @param playerID, the playerId of the player
+	 * @param cardMask, the card mask of the cards played
+	 */
+	private void revealCards(int playerID, long cardMask) {
+		CardGamePlayer player = playerList.get(playerID);
+		long missing = cardMask & ~player.getCardsInHand().getMask();
+		for(; missing != 0L; missing &= missing - 1) {
+			Card card = BigTwoCard.ofIndex(Long.numberOfTrailingZeros(missing));
+			long spare = player.getCardsInHand().getMask() & ~cardMask;
+			for(int i=0; i<NUM_OF_PLAYERS && spare != 0L; i++) {
+				CardGamePlayer other = playerList.get(i);
+				if(i != playerID && hidden[i] && other.getCardsInHand().removeCard(card)) {
+					Card standIn = BigTwoCard.ofIndex(Long.numberOfTrailingZeros(spare));
+					player.getCardsInHand().removeCard(standIn);
+					other.addCard(standIn);
+					player.addCard(card);
+					other.sortCardsInHand();
+					player.sortCardsInHand();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Make a move by a player with the specified playerID using the cards specified by the list of indices.
+	 * @param playerID, the playerId of the active player
+	 * @param cardIdx, the index of cards chosen by the active player, or null to pass
+	 */
+	public void makeMove(int playerID, int[] cardIdx) {
+		playMove(playerID, cardIdx);
+	}
+
+	/**
+	 * Check a move made by a player, and make it if it is legal.
+	 * @param playerID, the playerId of the active player
+	 * @param cardIdx, the index of cards chosen by the active player, or null to pass
+	 */
+	public void checkMove(int playerID, int[] cardIdx) {
+		playMove(playerID, cardIdx);
+	}
+
+	/**
+	 * Make a move by a player with the specified playerID using the cards specified by the list of indices.
+	 * @param playerID, the playerId of the active player
+	 * @param cardIdx, the index of cards chosen by the active player, or null to pass
+	 * @return true if the move is legal and has been made, and false, otherwise
+	 */
+	public boolean playMove(int playerID, int[] cardIdx) {
+		if(!isValidPlayer(playerID)) {
+			return false;
+		}
+		return playCards(playerID, playerList.get(playerID).play(cardIdx));
+	}
+
+	/**
+	 * Make a move by a player with the specified playerID using the cards of a card mask.
+	 * @param playerID, the playerId of the active player
+	 * @param cardMask, the card mask (see CardSet) of the cards chosen by the active player,
+	 * 		or 0 to pass
+	 * @return true if the move is legal and has been made, and false, otherwise
+	 */
+	public boolean playMove(int playerID, long cardMask) {
+		if(!isValidPlayer(playerID)) {
+			return false;
+		}
+		if(hidden[playerID]) {
+			revealCards(playerID, cardMask);
+		}
+		CardList cardsInHand = playerList.get(playerID).getCardsInHand();
+		if((cardsInHand.getMask() & cardMask) != cardMask) {
+			if(listener != null) {
+				listener.illegalMove(playerID, null, null);
+			}
+			return false;
+		}
+		CardList selected = null;
+		if(cardMask != 0L) {
+			selected = new CardList();
+			for(int i=0; i<cardsInHand.size(); i++) {
+				if((cardMask & CardSet.bitOf(cardsInHand.getCard(i))) != 0) {
+					selected.addCard(cardsInHand.getCard(i));
+				}
+			}
+		}
+		return playCards(playerID, selected);
+	}
+
+	/**
+	 * Generate the legal moves of a player for the current state of the game
+	 * @param playerID, the playerId of the player
+	 * @param generator, the generator to be filled with the legal moves
+	 * @return the number of legal moves, excluding passing (see canPass())
+	 */
+	public int generateMoves(int playerID, MoveGenerator generator) {
+		long holding = playerList.get(playerID).getCardsInHand().getMask();
+		Hand lastHand = getLastHand();
+		if(lastHand == null) {
+			return generator.generate(holding, 0, CardSet.bitOf(THREE_OF_DIAMONDS));
+		} else if(playerList.get(playerID) == lastHand.getPlayer()) {
+			return generator.generate(holding, 0, 0L);
+		} else {
+			return generator.generate(holding, lastHand.getStrengthKey(), 0L);
+		}
+	}
+
+	/**
+	 * Check if a player may pass
+	 * @param playerID, the playerId of the player
+	 * @return true if a hand has been played and the player did not play the last hand
+	 */
+	public boolean canPass(int playerID) {
+		Hand lastHand = getLastHand();
+		return lastHand != null && playerList.get(playerID) != lastHand.getPlayer();
+	}
+
+	/**
+	 * Check if the game ends
+	 * @return true if the game is end, and false, otherwise.
+	 */
+	public boolean endOfGame() {
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			if(playerList.get(i).getNumOfCards() == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stop the game in progress, e.g. because a player leaves. The cards are kept until
+	 * removeAllCards() is called, so that the result can still be shown
+	 */
+	public void abort() {
+		currentIdx = -1;
+	}
+
+	/**
+	 * Remove all cards from the table as well as from the players
+	 */
+	public void removeAllCards() {
+		handsOnTable.clear();
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			playerList.get(i).removeAllCards();
+			hidden[i] = false;
+		}
+	}
+
+	/**
+	 * Return a valid hand from the specified list of cards of the player
+	 * @param player
+	 * @param cards
+	 * @return a valid hand from the specified list of cards of the player. return null
+	 * 		if no valid hand can be composed from the specified list of cards
+	 */
+	public static Hand composeHand(CardGamePlayer player, CardList cards) {
+		//classify the cards once, and only build the hand that matches
+		HandType type = HandClassifier.typeOf(HandClassifier.classify(cards));
+		if(type == null) {
+			return null;
+		}
+		switch (type) {
+		case SINGLE:
+			return new Single(player, cards);
+		case PAIR:
+			return new Pair(player, cards);
+		case TRIPLE:
+			return new Triple(player, cards);
+		case STRAIGHT:
+			return new Straight(player, cards);
+		case FLUSH:
+			return new Flush(player, cards);
+		case FULL_HOUSE:
+			return new FullHouse(player, cards);
+		case QUAD:
+			return new Quad(player, cards);
+		case STRAIGHT_FLUSH:
+			return new StraightFlush(player, cards);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * check that a move is made by the player for the current turn
+	 */
+	private boolean isValidPlayer(int playerID) {
+		if(currentIdx < 0 || playerID != currentIdx) {
+			if(listener != null && playerID >= 0 && playerID < NUM_OF_PLAYERS) {
+				listener.illegalMove(playerID, null, null);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * judge whether a move of the current player is legal, and make it if so:
+	 * the hand is added to the table, the turn passes to the next player, or the game ends
+	 */
+	private boolean playCards(int playerID, CardList selectedCards) {
+		Hand newHand = composeHand(playerList.get(playerID), selectedCards);
+		if(!isLegal(playerID, selectedCards, newHand)) {
+			if(listener != null) {
+				listener.illegalMove(playerID, selectedCards, newHand);
+			}
+			return false;
+		}
+		if(newHand != null) {
+			handsOnTable.add(newHand);
+			playerList.get(playerID).removeCards(newHand);
+		}
+		if(listener != null) {
+			listener.movePlayed(playerID, newHand);
+		}
+		if(!endOfGame()) {
+			currentIdx = (currentIdx+1)%NUM_OF_PLAYERS;
+			if(listener != null) {
+				listener.turnChanged(currentIdx);
+			}
+		} else {
+			currentIdx = -1;
+			if(listener != null) {
+				listener.gameEnded(playerID);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * judge whether a move is legal.
+	 * the first hand of a game must include the Three of Diamonds; a player who played the
+	 * last hand on the table may play any valid hand but cannot pass; any other player may
+	 * pass or play a hand that beats the last hand on the table
+	 */
+	private boolean isLegal(int playerID, CardList selectedCards, Hand newHand) {
+		Hand lastHand = getLastHand();
+		if(lastHand == null) {
+			return newHand != null && newHand.contains(THREE_OF_DIAMONDS);
+		} else if(playerList.get(playerID) == lastHand.getPlayer()) {
+			return newHand != null;
+		} else {
+			return selectedCards == null || (newHand != null && newHand.beats(lastHand));
+		}
+	}
+
+	/**
+	 * Deal the cards from the deck to the four users.Each player gets one card in each round
+	 * After dealing, all players sort the cards in hand
+	 */
+	private void dealCards() {
+		for(int j=0; j<13; j++) {
+			for(int i=0; i<NUM_OF_PLAYERS; i++) {
+				playerList.get(i).addCard(deck.getCard(i+NUM_OF_PLAYERS*j));
+			}
+		}
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			playerList.get(i).sortCardsInHand();
+		}
+	}
+
+	/**
+	 * Set the user with Three of Diamonds as the beginner.
+	 * Set the value of currentIdx equal to the beginner.
+	 */
+	private void findBeginner() {
+		currentIdx = -1;
+		for(int i=0; i<NUM_OF_PLAYERS; i++) {
+			if(playerList.get(i).getCardsInHand().contains(THREE_OF_DIAMONDS)) {
+				currentIdx = i;
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * An interface for receiving the events of a BigTwoEngine, e.g. to update a GUI,
+ * to send messages to the players, or to collect statistics.
+ * @author yuening
+ *
+ */
+public interface BigTwoEngineListener {
+	/**
+	 * called when a game starts, after the cards have been dealt
+	 * @param beginnerIdx
+	 * 		the index of the player holding the Three of Diamonds
+	 */
+	public void gameStarted(int beginnerIdx);
+
+	/**
+	 * called when a player makes a legal move
+	 * @param playerID
+	 * 		the index of the player
+	 * @param hand
+	 * 		the hand played, or null if the player passes
+	 */
+	public void movePlayed(int playerID, Hand hand);
+
+	/**
+	 * called when a player tries to make an illegal move. The state of the game is unchanged
+	 * @param playerID
+	 * 		the index of the player
+	 * @param cards
+	 * 		the cards selected by the player, or null if the player tries to pass
+	 * @param hand
+	 * 		the hand composed from the cards, or null if they do not form a valid hand
+	 */
+	public void illegalMove(int playerID, CardList cards, Hand hand);
+
+	/**
+	 * called when the turn passes to the next player
+	 * @param currentIdx
+	 * 		the index of the player for the current turn
+	 */
+	public void turnChanged(int currentIdx);
+
+	/**
+	 * called when a game ends because a player has played all his/her cards
+	 * @param winnerIdx
+	 * 		the index of the winner
+	 */
+	public void gameEnded(int winnerIdx);
+}
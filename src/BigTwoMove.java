@@ -0,0 +1,63 @@
+import java.io.Serializable;
+
+/**
+ * This class models a move accepted by the server of a Big Two card game. It is the
+ * data of the MOVE messages broadcast by the server, and carries the cards played
+ * together with the hand they form, so that a client can apply the move without
+ * checking it again.
+ * @author yuening
+ *
+ */
+public class BigTwoMove implements Serializable {
+	private static final long serialVersionUID = 4402181932516305781L;
+	//the card mask (see CardSet) of the cards played, or 0 for a pass
+	private final long cardMask;
+	//the type of the hand played, or null for a pass
+	private final HandType handType;
+
+	/**
+	 * a constructor creating a move
+	 * @param cardMask
+	 * 		the card mask (see CardSet) of the cards played, or 0 for a pass
+	 * @param handType
+	 * 		the type of the hand played, or null for a pass
+	 */
+	public BigTwoMove(long cardMask, HandType handType) {
+		this.cardMask = cardMask;
+		this.handType = handType;
+	}
+
+	/**
+	 * retrieve the card mask of the cards played
+	 * @return the card mask (see CardSet) of the cards played, or 0 for a pass
+	 */
+	public long getCardMask() {
+		return cardMask;
+	}
+
+	/**
+	 * retrieve the type of the hand played
+	 * @return the type of the hand played, or null for a pass
+	 */
+	public HandType getHandType() {
+		return handType;
+	}
+
+	/**
+	 * check if the move is a pass
+	 * @return true if no cards are played
+	 */
+	public boolean isPass() {
+		return cardMask == 0L;
+	}
+
+	/**
+	 * return a string of the hand type and the cards played
+	 */
+	public String toString() {
+		if(isPass()) {
+			return "{Pass}";
+		}
+		return "{" + handType + "} " + new CardSet(cardMask);
+	}
+}
@@ -1,15 +1,52 @@
+import java.awt.GraphicsEnvironment;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * This class is used to model a Big Two card game server.
+ * This class is used to model a Big Two card game server. The server keeps the
+ * authoritative state of the game of each table in a BigTwoEngine, checks every
+ * move once, and broadcasts only the legal ones. Each legal move is broadcast as
+ * a BigTwoDelta numbered in sequence at its table, and the changes of the game
+ * in progress are kept in a DeltaLog for the clients catching up with SYNC.
+ * The deals, the legal moves and the results are also written to the
+ * GameJournal of the server, if it has one. The bots seated by the server play
+ * with the BigTwoBot returned by createBot(), on a copy of the game restored
+ * from a snapshot in each bot worker.
  * @author Kenneth Wong
  *
  */
 public class BigTwoServer extends CardGameServer {
+	// the rules engines holding the authoritative state of the games, by table ID
+	private final ConcurrentHashMap<Integer, BigTwoEngine> engines =
+			new ConcurrentHashMap<Integer, BigTwoEngine>();
+	// the changes of the games, by table ID
+	private final ConcurrentHashMap<Integer, DeltaLog> deltaLogs =
+			new ConcurrentHashMap<Integer, DeltaLog>();
+	// the copy of a game on which each bot worker chooses the moves of bots
+	private final ThreadLocal<BigTwoEngine> botEngines =
+			ThreadLocal.withInitial(BigTwoEngine::new);
+	// the bot of each bot worker
+	private final ThreadLocal<BigTwoBot> bots =
+			ThreadLocal.withInitial(this::createBot);
+	// the bot of each bot worker replacing a bot choosing an illegal move
+	private final ThreadLocal<BigTwoBot> fallbackBots =
+			ThreadLocal.withInitial(GreedyBot::new);
+
 	/**
 	 * Creates and returns an instance of the BigTwoServer class.
 	 */
 	public BigTwoServer() {
 		super("Big Two Server", 4);
 	}
+
+	/**
+	 * Creates and returns an instance of the BigTwoServer class, with or
+	 * without a GUI.
+	 * @param headless true to log to the standard output instead of building
+	 * a GUI
+	 */
+	public BigTwoServer(boolean headless) {
+		super("Big Two Server", 4, headless);
+	}
 	
 	/**
 	 * Creates and returns an instance of the BigTwoDeck class.
@@ -18,16 +55,267 @@ public class BigTwoServer extends CardGameServer {
 	public Deck createDeck() {
 		return new BigTwoDeck(); 
 	}
+
+	/**
+	 * Returns the rules engine of a table, which is created for the first game
+	 * of the table and reused when the table is recycled.
+	 * @param tableID the ID of the table
+	 * @return the rules engine of the table
+	 */
+	private BigTwoEngine engineOf(int tableID) {
+		return engines.computeIfAbsent(tableID, id -> new BigTwoEngine());
+	}
+
+	/**
+	 * Creates the bot choosing the moves of the bots seated by the server.
+	 * Overrides this method to seat stronger bots. A bot is created for each
+	 * bot worker, so it need not be thread-safe.
+	 * @return a GreedyBot
+	 */
+	protected BigTwoBot createBot() {
+		return new GreedyBot();
+	}
+
+	/**
+	 * Returns the log of the changes of the games of a table, which is created
+	 * with the table and kept when the table is recycled, so that the sequence
+	 * numbers of a table never repeat.
+	 * @param tableID the ID of the table
+	 * @return the log of the changes of the table
+	 */
+	private DeltaLog deltaLogOf(int tableID) {
+		return deltaLogs.computeIfAbsent(tableID, id -> new DeltaLog());
+	}
+
+	/**
+	 * Starts the game kept by the server for a table with the shuffled deck.
+	 * @param tableID the ID of the table
+	 * @param deck the shuffled deck of the new game
+	 * @param seed the seed with which the deck was shuffled
+	 */
+	protected void gameStarted(int tableID, Deck deck, long seed) {
+		engineOf(tableID).start(deck);
+		DeltaLog log = deltaLogOf(tableID);
+		log.gameStarted();
+		GameJournal journal = getJournal();
+		if (journal != null) {
+			journal.deal(tableID, log.getSeq(), seed, deck);
+		}
+	}
+
+	/**
+	 * Stops the game kept by the server for a table.
+	 * @param tableID the ID of the table
+	 */
+	protected void gameAborted(int tableID) {
+		BigTwoEngine engine = engineOf(tableID);
+		if (engine.isInProgress()) {
+			DeltaLog log = deltaLogOf(tableID);
+			log.gameAborted();
+			GameJournal journal = getJournal();
+			if (journal != null) {
+				journal.abort(tableID, log.getSeq());
+			}
+		}
+		engine.abort();
+		engine.removeAllCards();
+	}
+
+	/**
+	 * Returns a snapshot of the game kept by the server for a table, showing
+	 * only the hand of the player at a seat.
+	 * @param tableID the ID of the table
+	 * @param seat the playerID of the player
+	 * @return a BigTwoSnapshot, or null if no game is in progress
+	 */
+	protected Object gameSnapshot(int tableID, int seat) {
+		return engineOf(tableID).snapshot(deltaLogOf(tableID).getSeq(), seat);
+	}
+
+	/**
+	 * Returns the changes of the game of a table since a sequence number, or
+	 * a snapshot of the game if they are not all kept.
+	 * @param tableID the ID of the table
+	 * @param seat the playerID of the client
+	 * @param since the sequence number of the last change seen by the client
+	 * @return a BigTwoSync
+	 */
+	protected Object gameSync(int tableID, int seat, int since) {
+		DeltaLog log = deltaLogOf(tableID);
+		BigTwoDelta[] deltas = log.since(since);
+		if (deltas != null) {
+			return new BigTwoSync(log.getSeq(), null, deltas);
+		}
+		return new BigTwoSync(log.getSeq(), engineOf(tableID).snapshot(log.getSeq(), seat), null);
+	}
+
+	/**
+	 * Returns the player for the current turn of the game kept by the server
+	 * for a table.
+	 * @param tableID the ID of the table
+	 * @return the playerID of the player for the current turn, or -1 if no
+	 * game is in progress
+	 */
+	protected int currentPlayer(int tableID) {
+		BigTwoEngine engine = engineOf(tableID);
+		return engine.isInProgress() ? engine.getCurrentIdx() : -1;
+	}
+
+	/**
+	 * Chooses the move of a bot on a copy of the game restored from a
+	 * snapshot. A move which the bot chooses but the rules reject is replaced
+	 * with the move of a GreedyBot, so that a bot never stalls its table.
+	 * @param tableID the ID of the table
+	 * @param seat the playerID of the bot
+	 * @param snapshot the BigTwoSnapshot of the game
+	 * @param budgetNanos the CPU time the bot may take, in nanoseconds
+	 * @return the indices of the cards played, or null to pass
+	 */
+	protected Object chooseBotMove(int tableID, int seat, Object snapshot,
+			long budgetNanos) {
+		if (!(snapshot instanceof BigTwoSnapshot)) {
+			return null;
+		}
+		BigTwoEngine engine = botEngines.get();
+		engine.restore((BigTwoSnapshot) snapshot);
+		long cardMask = bots.get().chooseMove(engine, seat, budgetNanos);
+		// the hand restored is sorted as the hand kept by the server, so the
+		// indices of the cards are the same
+		int[] cardIdx = indicesOf(engine, seat, cardMask);
+		if (!engine.playMove(seat, cardMask)) {
+			log(AsyncLogger.WARN, "Replaces an illegal move of the bot at seat "
+					+ seat + " of table " + tableID);
+			engine.restore((BigTwoSnapshot) snapshot);
+			cardMask = fallbackBots.get().chooseMove(engine, seat);
+			cardIdx = indicesOf(engine, seat, cardMask);
+		}
+		return cardIdx;
+	}
+
+	/**
+	 * Converts a card mask into the indices of the cards in the hand of a
+	 * player.
+	 * @param engine the engine holding the hand
+	 * @param playerID the playerID of the player
+	 * @param cardMask the card mask, or 0 to pass
+	 * @return the indices of the cards, or null to pass
+	 */
+	private static int[] indicesOf(BigTwoEngine engine, int playerID,
+			long cardMask) {
+		if (cardMask == 0L) {
+			return null;
+		}
+		CardList cardsInHand = engine.getPlayerList().get(playerID).getCardsInHand();
+		int[] cardIdx = new int[Long.bitCount(cardMask)];
+		int n = 0;
+		for (int i = 0; i < cardsInHand.size() && n < cardIdx.length; i++) {
+			if ((cardMask & CardSet.bitOf(cardsInHand.getCard(i))) != 0L) {
+				cardIdx[n++] = i;
+			}
+		}
+		return cardIdx;
+	}
+
+	/**
+	 * Checks a move against the game kept by the server and makes it if it is
+	 * legal. The data of a legal move is replaced with a BigTwoMove, which
+	 * carries the cards and the hand played.
+	 * @param tableID the ID of the table
+	 * @param message the MOVE message received
+	 * @return true if the move is legal, and false otherwise
+	 */
+	protected boolean checkMove(int tableID, CardGameMessage message) {
+		BigTwoEngine engine = engineOf(tableID);
+		int playerID = message.getPlayerID();
+		if (playerID != engine.getCurrentIdx() || !(message.getData() == null
+				|| message.getData() instanceof int[])) {
+			return false;
+		}
+		// converts the indices of the cards into a card mask, rejecting
+		// indices out of range and repeated indices
+		CardList cardsInHand = engine.getPlayerList().get(playerID).getCardsInHand();
+		long cardMask = 0L;
+		if (message.getData() != null) {
+			for (int idx : (int[]) message.getData()) {
+				if (idx < 0 || idx >= cardsInHand.size()) {
+					return false;
+				}
+				long bit = CardSet.bitOf(cardsInHand.getCard(idx));
+				if ((cardMask & bit) != 0L) {
+					return false;
+				}
+				cardMask |= bit;
+			}
+		}
+		if (!engine.playMove(playerID, cardMask)) {
+			return false;
+		}
+		Hand topHand = engine.getLastHand();
+		HandType handType = cardMask == 0L ? null : topHand.getHandType();
+		int topPlayer = topHand == null ? -1
+				: engine.getPlayerList().indexOf(topHand.getPlayer());
+		BigTwoDelta delta = deltaLogOf(tableID).append(playerID, cardMask,
+				handType, engine.getCurrentIdx(), topPlayer,
+				topHand == null ? 0L : topHand.getMask());
+		message.setData(delta);
+		GameJournal journal = getJournal();
+		if (journal != null) {
+			journal.move(tableID, delta.getSeq(), playerID, cardMask, handType);
+		}
+		if (!engine.isInProgress()) {
+			getMetrics().gameFinished();
+			if (journal != null) {
+				int[] cardsLeft = new int[engine.getNumOfPlayers()];
+				for (int i = 0; i < cardsLeft.length; i++) {
+					cardsLeft[i] = engine.getPlayerList().get(i).getNumOfCards();
+				}
+				journal.result(tableID, delta.getSeq(), playerID, cardsLeft);
+			}
+		}
+		return true;
+	}
 	
 	/**
 	 * main() method for starting the server.
 	 * 
 	 * @param args
-	 *            the port to be used by the server. The default port 5000 will
-	 *            be used if no arguments has been supplied
+	 *            the port to be used by the server, optionally the
+	 *            transport ("blocking", "virtual" or "nio"), "headless" to
+	 *            run without a GUI, "metrics=PORT" to serve the metrics
+	 *            as text at a local port, and "journal=DIR" to write the
+	 *            journal of the games to another directory than "journal",
+	 *            or "journal=off" to disable it, and "bots=MILLIS" to fill
+	 *            the empty seats of a table with bots a while after a player
+	 *            joins it. The default port 2396 and the
+	 *            blocking transport will be used if no arguments has been
+	 *            supplied, and the server is headless anyway if the JVM has
+	 *            no display
 	 */
 	public static void main(String[] args) {
-		BigTwoServer server = new BigTwoServer();
+		boolean headless = GraphicsEnvironment.isHeadless();
+		int metricsPort = -1;
+		String journalDirectory = "journal";
+		long botFillMillis = -1;
+		for (String arg : args) {
+			headless |= arg.equalsIgnoreCase("headless");
+			if (arg.startsWith("metrics=")) {
+				metricsPort = Integer.parseInt(arg.substring(8));
+			} else if (arg.startsWith("journal=")) {
+				journalDirectory = arg.substring(8);
+			} else if (arg.startsWith("bots=")) {
+				botFillMillis = Long.parseLong(arg.substring(5));
+			}
+		}
+		BigTwoServer server = new BigTwoServer(headless);
+		server.setMetricsPort(metricsPort);
+		server.setJournalDirectory(journalDirectory.equalsIgnoreCase("off")
+				? null : new java.io.File(journalDirectory));
+		server.setBotFillDelay(botFillMillis);
+		if (args.length > 1 && args[1].equalsIgnoreCase("nio")) {
+			server.setTransport(NIO);
+		} else if (args.length > 1 && args[1].equalsIgnoreCase("virtual")) {
+			server.setTransport(VIRTUAL_THREAD_PER_CONNECTION);
+		}
 		if (args.length > 0) {
 			server.start(Integer.parseInt(args[0]));
 		} else {
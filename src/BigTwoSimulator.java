@@ -0,0 +1,146 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class plays Big Two games between bots, in parallel on all cores, and collects
+ * their statistics.
+ * <p>
+ * The games are split into chunks on a ForkJoinPool. Each chunk plays its games on its
+ * own BigTwoEngine, with its own bots and its own Dealer seeded from the seed of the
+ * simulation and the index of its first game, and collects them into its own
+ * SimulationStats, which are merged when the chunks are joined. The workers share no
+ * mutable state, and the results for a given seed do not depend on the number of threads.
+ * <p>
+ * Usage: java BigTwoSimulator [games] [seed] [threads]
+ * @author yuening
+ *
+ */
+public class BigTwoSimulator {
+	//the number of games played by a chunk that is not split any further
+	private static final int CHUNK_SIZE = 1024;
+	//the maximum number of moves of a game before it is aborted
+	private static final int MAX_MOVES = 10000;
+	//the increment of the golden ratio sequence, used to derive the seeds of the chunks
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	//the seed of the simulation
+	private final long seed;
+
+	/**
+	 * a constructor creating a simulator
+	 * @param seed
+	 * 		the seed of the simulation; the same seed always plays the same games
+	 */
+	public BigTwoSimulator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * play a number of games on a ForkJoinPool
+	 * @param games
+	 * 		the number of games to be played
+	 * @param pool
+	 * 		the pool running the games
+	 * @return the statistics of the games
+	 */
+	public SimulationStats run(long games, ForkJoinPool pool) {
+		return pool.invoke(new SimulationTask(0, games));
+	}
+
+	/**
+	 * play the games with the specified indices on the calling thread
+	 * @param from
+	 * 		the index of the first game, inclusive
+	 * @param to
+	 * 		the index of the last game, exclusive
+	 * @return the statistics of the games
+	 */
+	public SimulationStats play(long from, long to) {
+		Dealer dealer = new Dealer(seed ^ (from * GOLDEN_GAMMA));
+		SimulationStats stats = new SimulationStats();
+		BigTwoEngine engine = new BigTwoEngine();
+		engine.setListener(stats);
+		BigTwoBot[] bots = new BigTwoBot[engine.getNumOfPlayers()];
+		for(int i = 0; i < bots.length; i++) {
+			bots[i] = createBot(i);
+		}
+		//the hands of all games of the chunk are dealt in one batch
+		long[] hands = new long[(int) (to - from) * engine.getNumOfPlayers()];
+		dealer.dealBatch(hands, (int) (to - from));
+		for(long game = from; game < to; game++) {
+			engine.start(hands, (int) (game - from) * engine.getNumOfPlayers());
+			int moves = 0;
+			while(engine.isInProgress() && moves < MAX_MOVES) {
+				int playerID = engine.getCurrentIdx();
+				if(!engine.playMove(playerID, bots[playerID].chooseMove(engine, playerID))) {
+					break;
+				}
+				moves++;
+			}
+			if(engine.isInProgress()) {
+				engine.abort();
+				stats.gameAborted();
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * create the bot of a seat. Overrides this method to simulate other bots
+	 * @param seat
+	 * 		an index between 0 and 3
+	 * @return a new bot
+	 */
+	protected BigTwoBot createBot(int seat) {
+		return new GreedyBot();
+	}
+
+	/**
+	 * A task playing a range of games, splitting it into halves until it has at most
+	 * CHUNK_SIZE games
+	 */
+	private class SimulationTask extends RecursiveTask<SimulationStats> {
+		private static final long serialVersionUID = -2207658312406563409L;
+		private final long from;
+		private final long to;
+
+		SimulationTask(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		protected SimulationStats compute() {
+			if(to - from <= CHUNK_SIZE) {
+				return play(from, to);
+			}
+			long middle = (from + to) >>> 1;
+			//split at a multiple of CHUNK_SIZE, so that the chunks do not depend on the threads
+			middle = Math.max(from + CHUNK_SIZE, middle - (middle - from) % CHUNK_SIZE);
+			SimulationTask left = new SimulationTask(from, middle);
+			SimulationTask right = new SimulationTask(middle, to);
+			left.fork();
+			SimulationStats stats = right.compute();
+			return stats.merge(left.join());
+		}
+	}
+
+	/**
+	 * run a simulation and print its statistics and throughput
+	 * @param args
+	 * 		the number of games (default 100000), the seed (default 2396) and the number of
+	 * 		threads (default: all cores)
+	 */
+	public static void main(String[] args) {
+		long games = args.length > 0 ? Long.parseLong(args[0]) : 100000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 2396;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		SimulationStats stats = new BigTwoSimulator(seed).run(games, pool);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+		System.out.print(stats);
+		System.out.println(String.format("%d games on %d threads in %.2f s (%.0f games/s)",
+				games, threads, seconds, games / seconds));
+	}
+}
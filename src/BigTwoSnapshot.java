@@ -0,0 +1,102 @@
+import java.io.Serializable;
+
+/**
+ * This class models a snapshot of a Big Two game in progress, which the server sends to
+ * a client resuming its seat after losing the connection (see CardGameMessage.RESUME).
+ * It holds the sequence number of the last change of the game at its table (see
+ * DeltaLog), the cards in the hand of each player, the hands played on the table and the
+ * player for the current turn, as card masks (see CardSet), so that a client can
+ * restore its BigTwoEngine and continue the game.
+ * <p>
+ * A snapshot taken for a seat only holds the cards of the player at that seat, and the
+ * number of cards of the other players, so that a player never learns the cards of the
+ * others (see BigTwoEngine.snapshot(int, int)).
+ * @author yuening
+ *
+ */
+public class BigTwoSnapshot implements Serializable {
+	private static final long serialVersionUID = 4417021356619283930L;
+	//the sequence number of the last change of the game at its table
+	private final int seq;
+	//the card masks of the hands of the players, by playerID, or 0 for a hand not shown
+	private final long[] hands;
+	//the number of cards in the hands of the players, by playerID
+	private final int[] handSizes;
+	//the card masks of the hands played on the table, in the order they were played
+	private final long[] tableMasks;
+	//the playerIDs of the players of the hands on the table
+	private final int[] tablePlayers;
+	//the index of the player for the current turn
+	private final int currentIdx;
+
+	/**
+	 * a constructor creating a snapshot
+	 * @param seq
+	 * 		the sequence number of the last change of the game at its table
+	 * @param hands
+	 * 		the card masks of the hands of the players, by playerID, or 0 for a hand not shown
+	 * @param handSizes
+	 * 		the number of cards in the hands of the players, by playerID
+	 * @param tableMasks
+	 * 		the card masks of the hands played on the table, in the order they were played
+	 * @param tablePlayers
+	 * 		the playerIDs of the players of the hands on the table
+	 * @param currentIdx
+	 * 		the index of the player for the current turn
+	 */
+	public BigTwoSnapshot(int seq, long[] hands, int[] handSizes, long[] tableMasks, int[] tablePlayers, int currentIdx) {
+		this.seq = seq;
+		this.hands = hands;
+		this.handSizes = handSizes;
+		this.tableMasks = tableMasks;
+		this.tablePlayers = tablePlayers;
+		this.currentIdx = currentIdx;
+	}
+
+	/**
+	 * retrieve the sequence number of the last change of the game at its table
+	 */
+	public int getSeq() {
+		return seq;
+	}
+
+	/**
+	 * retrieve the cards in the hands of the players
+	 * @return the card masks of the hands of the players, by playerID, or 0 for a hand not shown
+	 */
+	public long[] getHands() {
+		return hands;
+	}
+
+	/**
+	 * retrieve the number of cards in the hands of the players, including the hands not shown
+	 * @return the number of cards in the hands of the players, by playerID
+	 */
+	public int[] getHandSizes() {
+		return handSizes;
+	}
+
+	/**
+	 * retrieve the cards of the hands played on the table
+	 * @return the card masks of the hands played, in the order they were played
+	 */
+	public long[] getTableMasks() {
+		return tableMasks;
+	}
+
+	/**
+	 * retrieve the players of the hands played on the table
+	 * @return the playerIDs of the players of the hands played, in the order they were played
+	 */
+	public int[] getTablePlayers() {
+		return tablePlayers;
+	}
+
+	/**
+	 * retrieve the player for the current turn
+	 * @return the index of the player for the current turn
+	 */
+	public int getCurrentIdx() {
+		return currentIdx;
+	}
+}
@@ -0,0 +1,68 @@
+import java.io.Serializable;
+
+/**
+ * This class models the answer of the server to a SYNC message of a client: either the
+ * changes of the game of its table since the sequence number known to the client, or
+ * else a snapshot of the game, so that a client which has missed messages catches up
+ * with a few hundred bytes instead of a replay of every message.
+ * @author yuening
+ *
+ */
+public class BigTwoSync implements Serializable {
+	private static final long serialVersionUID = 3185573021463787319L;
+	//the sequence number of the last change at the table
+	private final int seq;
+	//the snapshot of the game, or null if the changes are sent or no game is in progress
+	private final BigTwoSnapshot snapshot;
+	//the changes since the sequence number known to the client, in order, or null if the
+	//snapshot is sent instead
+	private final BigTwoDelta[] deltas;
+
+	/**
+	 * a constructor creating an answer
+	 * @param seq
+	 * 		the sequence number of the last change at the table
+	 * @param snapshot
+	 * 		the snapshot of the game, or null if the changes are sent or no game is in progress
+	 * @param deltas
+	 * 		the changes since the sequence number known to the client, or null if the snapshot
+	 * 		is sent instead
+	 */
+	public BigTwoSync(int seq, BigTwoSnapshot snapshot, BigTwoDelta[] deltas) {
+		this.seq = seq;
+		this.snapshot = snapshot;
+		this.deltas = deltas;
+	}
+
+	/**
+	 * retrieve the sequence number of the last change at the table
+	 */
+	public int getSeq() {
+		return seq;
+	}
+
+	/**
+	 * retrieve the snapshot of the game
+	 * @return the snapshot, or null if the changes are sent instead or no game is in progress
+	 */
+	public BigTwoSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * retrieve the changes since the sequence number known to the client
+	 * @return the changes, in order, or null if the snapshot is sent instead
+	 */
+	public BigTwoDelta[] getDeltas() {
+		return deltas;
+	}
+
+	/**
+	 * check if the answer holds the changes since the sequence number known to the client
+	 * @return true if the changes are sent, and false if the client must restore the
+	 * 		snapshot instead, or clear its game if the snapshot is null
+	 */
+	public boolean isIncremental() {
+		return deltas != null;
+	}
+}
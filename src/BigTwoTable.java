@@ -595,7 +595,6 @@ public class BigTwoTable implements CardGameTable, Serializable {
 			}
 			if(isSelected) {
 				int[] selectedCards = getSelected();
-				game.makeMove(activePlayer, selectedCards);
 				game.sendMessage(new CardGameMessage(CardGameMessage.MOVE, -1, selectedCards));
 			}
 		}
@@ -612,7 +611,6 @@ public class BigTwoTable implements CardGameTable, Serializable {
 		 */
 		public void actionPerformed(ActionEvent e) {
 			resetSelected();
-			game.makeMove(activePlayer, null);
 			game.sendMessage(new CardGameMessage(CardGameMessage.MOVE, -1, null));
 		}
 	}
@@ -0,0 +1,447 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is version 1 of the codec of the messages (see MessageCodec), which writes
+ * each CardGameMessage in a compact binary form instead of Java serialization:
+ * <pre>
+ * payload      = type (1 byte) playerID (1 byte, -1 as 0xFF) data
+ * PLAYER_LIST  : number of names (1 byte), then each name as a string
+ * JOIN, QUIT, MSG, TOKEN, AWAY : a string
+ * FULL, READY  : nothing
+ * START        : number of cards (1 byte), then the ordinal of each card (1 byte each)
+ * MOVE, ILLEGAL_MOVE : a move
+ * SYNC         : 0 (1 byte), then the sequence number known to the client (4 bytes)
+ *              | 1, sequence number (4 bytes), then 0 (1 byte) and nothing if no game is in
+ *                progress, 1 and a snapshot, or 2, number of changes (2 bytes) and each change
+ * RESUME       : 0 (1 byte) for null
+ *              | 1, then a string (the token sent by a client, or the name broadcast by the server)
+ *              | 2, then a snapshot
+ * move         = 0 (1 byte) for a pass sent as null
+ *              | 1, number of indices (1 byte), then each index (1 byte)
+ *              | 2, card mask (8 bytes, see CardSet), hand type (1 byte, -1 for a pass)
+ *              | 3, then a change
+ * change       = card mask (8 bytes), hand type (1 byte, -1 for a pass), sequence number (4
+ *                bytes), playerID of the player who made the move (1 byte), index of the
+ *                player for the next turn (1 byte, -1 at the end of the game), then for a pass only
+ *                the playerID of the top hand (1 byte) and, unless it is -1, its card mask
+ *                (8 bytes)
+ * snapshot     = sequence number (4 bytes), card mask of the hand of each player (8 bytes each, 0 for a hand
+ *                not shown) and its number of cards (1 byte each), number of hands on the
+ *                table (1 byte), then for each hand its playerID (1 byte) and card mask (8
+ *                bytes), then the index of the player for the current turn (1 byte)
+ * string       = -1 (2 bytes) for null
+ *              | length in bytes (2 bytes), then the UTF-8 bytes
+ * </pre>
+ * A START message is about 60 bytes instead of several kilobytes, a MOVE message about
+ * 20 bytes, and a snapshot about 45 bytes plus 9 bytes per hand on the table.
+ * @author yuening
+ *
+ */
+public class BinaryMessageCodec extends MessageCodec {
+	//the kinds of moves
+	private static final int PASS = 0;
+	private static final int CARD_INDICES = 1;
+	private static final int CARD_MASK = 2;
+	private static final int DELTA = 3;
+	//the kinds of data of a RESUME message
+	private static final int NO_DATA = 0;
+	private static final int STRING = 1;
+	private static final int SNAPSHOT = 2;
+	//the kinds of data of a SYNC message
+	private static final int SYNC_REQUEST = 0;
+	private static final int SYNC_ANSWER = 1;
+	//the kinds of answers to a SYNC message
+	private static final int NO_GAME = 0;
+	private static final int GAME_SNAPSHOT = 1;
+	private static final int CHANGES = 2;
+	//the number of players of a snapshot
+	private static final int NUM_OF_PLAYERS = 4;
+	//the hand types, by ordinal
+	private static final HandType[] HAND_TYPES = HandType.values();
+
+	public int getVersion() {
+		return BINARY_VERSION;
+	}
+
+	protected void encodePayload(GameMessage message, ByteArrayOutputStream out) throws IOException {
+		Object data = message.getData();
+		out.write(message.getType());
+		out.write(message.getPlayerID());
+		try {
+			switch(message.getType()) {
+			case CardGameMessage.PLAYER_LIST:
+				String[] names = (String[]) data;
+				out.write(names.length);
+				for(String name : names) {
+					writeString(name, out);
+				}
+				break;
+			case CardGameMessage.JOIN:
+			case CardGameMessage.QUIT:
+			case CardGameMessage.MSG:
+			case CardGameMessage.TOKEN:
+			case CardGameMessage.AWAY:
+				writeString((String) data, out);
+				break;
+			case CardGameMessage.FULL:
+			case CardGameMessage.READY:
+				break;
+			case CardGameMessage.START:
+				Deck deck = (Deck) data;
+				out.write(deck.size());
+				for(int i = 0; i < deck.size(); i++) {
+					out.write(deck.getCard(i).ordinal());
+				}
+				break;
+			case CardGameMessage.MOVE:
+			case CardGameMessage.ILLEGAL_MOVE:
+				writeMove(data, out);
+				break;
+			case CardGameMessage.RESUME:
+				writeResume(data, out);
+				break;
+			case CardGameMessage.SYNC:
+				writeSync(data, out);
+				break;
+			default:
+				throw new IOException("Unknown message type: " + message.getType());
+			}
+		} catch(ClassCastException ex) {
+			throw new IOException("Invalid data for message type " + message.getType(), ex);
+		}
+	}
+
+	public GameMessage decode(byte[] payload, int offset, int length) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(payload, offset, length);
+		try {
+			int type = in.get();
+			int playerID = in.get();
+			Object data;
+			switch(type) {
+			case CardGameMessage.PLAYER_LIST:
+				String[] names = new String[in.get() & 0xFF];
+				for(int i = 0; i < names.length; i++) {
+					names[i] = readString(in);
+				}
+				data = names;
+				break;
+			case CardGameMessage.JOIN:
+			case CardGameMessage.QUIT:
+			case CardGameMessage.MSG:
+			case CardGameMessage.TOKEN:
+			case CardGameMessage.AWAY:
+				data = readString(in);
+				break;
+			case CardGameMessage.FULL:
+			case CardGameMessage.READY:
+				data = null;
+				break;
+			case CardGameMessage.START:
+				data = readDeck(in);
+				break;
+			case CardGameMessage.MOVE:
+			case CardGameMessage.ILLEGAL_MOVE:
+				data = readMove(in);
+				break;
+			case CardGameMessage.RESUME:
+				data = readResume(in);
+				break;
+			case CardGameMessage.SYNC:
+				data = readSync(in);
+				break;
+			default:
+				throw new IOException("Unknown message type: " + type);
+			}
+			if(in.hasRemaining()) {
+				throw new IOException("Trailing bytes in message type " + type);
+			}
+			return new CardGameMessage(type, playerID, data);
+		} catch(BufferUnderflowException ex) {
+			throw new IOException("Truncated message", ex);
+		}
+	}
+
+	/**
+	 * write a move, sent as indices by a client or as a BigTwoMove by the server
+	 */
+	private static void writeMove(Object data, ByteArrayOutputStream out) throws IOException {
+		if(data == null) {
+			out.write(PASS);
+		} else if(data instanceof int[]) {
+			int[] cardIdx = (int[]) data;
+			out.write(CARD_INDICES);
+			out.write(cardIdx.length);
+			for(int idx : cardIdx) {
+				out.write(idx);
+			}
+		} else if(data instanceof BigTwoDelta) {
+			out.write(DELTA);
+			writeDelta((BigTwoDelta) data, out);
+		} else {
+			BigTwoMove move = (BigTwoMove) data;
+			out.write(CARD_MASK);
+			writeLong(move.getCardMask(), out);
+			out.write(move.getHandType() == null ? -1 : move.getHandType().ordinal());
+		}
+	}
+
+	private static Object readMove(ByteBuffer in) throws IOException {
+		int kind = in.get();
+		switch(kind) {
+		case PASS:
+			return null;
+		case CARD_INDICES:
+			int[] cardIdx = new int[in.get() & 0xFF];
+			for(int i = 0; i < cardIdx.length; i++) {
+				cardIdx[i] = in.get() & 0xFF;
+			}
+			return cardIdx;
+		case CARD_MASK:
+			long mask = in.getLong();
+			int type = in.get();
+			if((mask & ~CardSet.FULL_MASK) != 0L || type >= HAND_TYPES.length) {
+				throw new IOException("Invalid move");
+			}
+			return new BigTwoMove(mask, type < 0 ? null : HAND_TYPES[type]);
+		case DELTA:
+			return readDelta(in);
+		default:
+			throw new IOException("Unknown kind of move: " + kind);
+		}
+	}
+
+	/**
+	 * write the data of a RESUME message: the token or name of a player, or a snapshot
+	 */
+	private static void writeResume(Object data, ByteArrayOutputStream out) throws IOException {
+		if(data == null) {
+			out.write(NO_DATA);
+		} else if(data instanceof String) {
+			out.write(STRING);
+			writeString((String) data, out);
+		} else {
+			out.write(SNAPSHOT);
+			writeSnapshot((BigTwoSnapshot) data, out);
+		}
+	}
+
+	private static Object readResume(ByteBuffer in) throws IOException {
+		int kind = in.get();
+		switch(kind) {
+		case NO_DATA:
+			return null;
+		case STRING:
+			return readString(in);
+		case SNAPSHOT:
+			return readSnapshot(in);
+		default:
+			throw new IOException("Unknown kind of resume data: " + kind);
+		}
+	}
+
+	/**
+	 * write the data of a SYNC message: the sequence number known to a client, or the answer
+	 * of the server
+	 */
+	private static void writeSync(Object data, ByteArrayOutputStream out) throws IOException {
+		if(data instanceof Integer) {
+			out.write(SYNC_REQUEST);
+			writeInt((Integer) data, out);
+			return;
+		}
+		BigTwoSync sync = (BigTwoSync) data;
+		out.write(SYNC_ANSWER);
+		writeInt(sync.getSeq(), out);
+		if(sync.isIncremental()) {
+			out.write(CHANGES);
+			out.write(sync.getDeltas().length >>> 8);
+			out.write(sync.getDeltas().length);
+			for(BigTwoDelta delta : sync.getDeltas()) {
+				writeDelta(delta, out);
+			}
+		} else if(sync.getSnapshot() != null) {
+			out.write(GAME_SNAPSHOT);
+			writeSnapshot(sync.getSnapshot(), out);
+		} else {
+			out.write(NO_GAME);
+		}
+	}
+
+	private static Object readSync(ByteBuffer in) throws IOException {
+		int kind = in.get();
+		switch(kind) {
+		case SYNC_REQUEST:
+			return in.getInt();
+		case SYNC_ANSWER:
+			int seq = in.getInt();
+			int answer = in.get();
+			switch(answer) {
+			case NO_GAME:
+				return new BigTwoSync(seq, null, null);
+			case GAME_SNAPSHOT:
+				return new BigTwoSync(seq, readSnapshot(in), null);
+			case CHANGES:
+				BigTwoDelta[] deltas = new BigTwoDelta[in.getShort() & 0xFFFF];
+				for(int i = 0; i < deltas.length; i++) {
+					deltas[i] = readDelta(in);
+				}
+				return new BigTwoSync(seq, null, deltas);
+			default:
+				throw new IOException("Unknown kind of sync answer: " + answer);
+			}
+		default:
+			throw new IOException("Unknown kind of sync data: " + kind);
+		}
+	}
+
+	private static void writeDelta(BigTwoDelta delta, ByteArrayOutputStream out) {
+		writeLong(delta.getCardMask(), out);
+		out.write(delta.getHandType() == null ? -1 : delta.getHandType().ordinal());
+		writeInt(delta.getSeq(), out);
+		out.write(delta.getPlayerID());
+		out.write(delta.getNextIdx());
+		if(delta.isPass()) {
+			//the top hand of a move which is not a pass is the move itself
+			out.write(delta.getTopPlayer());
+			if(delta.getTopPlayer() >= 0) {
+				writeLong(delta.getTopMask(), out);
+			}
+		}
+	}
+
+	private static BigTwoDelta readDelta(ByteBuffer in) throws IOException {
+		long mask = readMask(in);
+		int type = in.get();
+		if(type >= HAND_TYPES.length || (type < 0) != (mask == 0L)) {
+			throw new IOException("Invalid move");
+		}
+		int seq = in.getInt();
+		int playerID = readPlayerID(in);
+		int nextIdx = in.get();
+		if(nextIdx < -1 || nextIdx >= NUM_OF_PLAYERS) {
+			throw new IOException("Invalid playerID: " + nextIdx);
+		}
+		int topPlayer = playerID;
+		long topMask = mask;
+		if(mask == 0L) {
+			topPlayer = in.get();
+			if(topPlayer < -1 || topPlayer >= NUM_OF_PLAYERS) {
+				throw new IOException("Invalid playerID: " + topPlayer);
+			}
+			topMask = topPlayer < 0 ? 0L : readMask(in);
+		}
+		return new BigTwoDelta(seq, playerID, mask, type < 0 ? null : HAND_TYPES[type], nextIdx, topPlayer, topMask);
+	}
+
+	private static void writeSnapshot(BigTwoSnapshot snapshot, ByteArrayOutputStream out) {
+		writeInt(snapshot.getSeq(), out);
+		for(int i = 0; i < NUM_OF_PLAYERS; i++) {
+			writeLong(snapshot.getHands()[i], out);
+			out.write(snapshot.getHandSizes()[i]);
+		}
+		out.write(snapshot.getTableMasks().length);
+		for(int i = 0; i < snapshot.getTableMasks().length; i++) {
+			out.write(snapshot.getTablePlayers()[i]);
+			writeLong(snapshot.getTableMasks()[i], out);
+		}
+		out.write(snapshot.getCurrentIdx());
+	}
+
+	private static BigTwoSnapshot readSnapshot(ByteBuffer in) throws IOException {
+		int seq = in.getInt();
+		long[] hands = new long[NUM_OF_PLAYERS];
+		int[] handSizes = new int[NUM_OF_PLAYERS];
+		for(int i = 0; i < NUM_OF_PLAYERS; i++) {
+			hands[i] = readMask(in);
+			handSizes[i] = in.get() & 0xFF;
+			if(handSizes[i] < Long.bitCount(hands[i]) || handSizes[i] > CardSet.NUM_OF_CARDS) {
+				throw new IOException("Invalid number of cards: " + handSizes[i]);
+			}
+		}
+		int n = in.get() & 0xFF;
+		long[] tableMasks = new long[n];
+		int[] tablePlayers = new int[n];
+		for(int i = 0; i < n; i++) {
+			tablePlayers[i] = readPlayerID(in);
+			tableMasks[i] = readMask(in);
+		}
+		return new BigTwoSnapshot(seq, hands, handSizes, tableMasks, tablePlayers, readPlayerID(in));
+	}
+
+	private static void writeInt(int value, ByteArrayOutputStream out) {
+		for(int shift = 24; shift >= 0; shift -= 8) {
+			out.write(value >>> shift);
+		}
+	}
+
+	private static void writeLong(long value, ByteArrayOutputStream out) {
+		for(int shift = 56; shift >= 0; shift -= 8) {
+			out.write((int) (value >>> shift));
+		}
+	}
+
+	private static long readMask(ByteBuffer in) throws IOException {
+		long mask = in.getLong();
+		if((mask & ~CardSet.FULL_MASK) != 0L) {
+			throw new IOException("Invalid card mask");
+		}
+		return mask;
+	}
+
+	private static int readPlayerID(ByteBuffer in) throws IOException {
+		int playerID = in.get();
+		if(playerID < 0 || playerID >= NUM_OF_PLAYERS) {
+			throw new IOException("Invalid playerID: " + playerID);
+		}
+		return playerID;
+	}
+
+	/**
+	 * read a deck of canonical Big Two cards from their ordinals
+	 */
+	private static Deck readDeck(ByteBuffer in) throws IOException {
+		BigTwoDeck deck = new BigTwoDeck();
+		deck.removeAllCards();
+		int n = in.get() & 0xFF;
+		for(int i = 0; i < n; i++) {
+			int ordinal = in.get();
+			if(ordinal < 0 || ordinal >= 52) {
+				throw new IOException("Invalid card ordinal: " + ordinal);
+			}
+			deck.addCard(BigTwoCard.ofOrdinal(ordinal));
+		}
+		return deck;
+	}
+
+	private static void writeString(String s, ByteArrayOutputStream out) throws IOException {
+		if(s == null) {
+			out.write(0xFF);
+			out.write(0xFF);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > Short.MAX_VALUE) {
+			throw new IOException("String too long: " + bytes.length + " bytes");
+		}
+		out.write(bytes.length >>> 8);
+		out.write(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) throws IOException {
+		int length = in.getShort();
+		if(length < 0) {
+			return null;
+		}
+		if(length > in.remaining()) {
+			throw new IOException("Truncated string");
+		}
+		String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return s;
+	}
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class encodes a message broadcast to many connections once for each codec
+ * version (see MessageCodec) in use among the recipients, rather than once for each
+ * recipient, so that the cost of a broadcast grows with the bytes copied rather than
+ * with the encoding work times the recipients.
+ * <p>
+ * The frames are shared by the recipients, which write duplicates of them and never
+ * modify them. A recipient writing to a non-blocking channel gets a direct buffer,
+ * which the channel writes without copying it; the direct buffers are sliced from a
+ * per-thread slab, so that a broadcast does not allocate direct memory of its own.
+ * @author yuening
+ *
+ */
+public class BroadcastFrames {
+	//the size of a slab of direct memory
+	private static final int SLAB_SIZE = 1 << 16;
+	//the slab each thread slices its direct frames from
+	private static final ThreadLocal<ByteBuffer> SLAB = new ThreadLocal<ByteBuffer>();
+
+	//the message broadcast
+	private final CardGameMessage message;
+	//the frames encoded so far, by codec version and kind of buffer (heap, direct)
+	private final ByteBuffer[] frames = new ByteBuffer[(MessageCodec.BINARY_VERSION + 1) * 2];
+	//the number of times the message has been encoded
+	private int numOfEncodings = 0;
+
+	/**
+	 * a constructor for building the frames of a message
+	 * @param message
+	 * 		the message to be broadcast
+	 */
+	public BroadcastFrames(CardGameMessage message) {
+		this.message = message;
+	}
+
+	/**
+	 * retrieve the frame of the message for a recipient, encoding it only if no
+	 * recipient with the same codec has been served yet
+	 * @param connection
+	 * 		the recipient, whose codec has been chosen
+	 * @return the shared frame, which must not be modified
+	 * @throws IOException
+	 * 		if the message cannot be encoded
+	 */
+	public ByteBuffer frameFor(ClientConnection connection) throws IOException {
+		MessageCodec codec = connection.getCodec();
+		int heapIdx = codec.getVersion() * 2;
+		if(frames[heapIdx] == null) {
+			frames[heapIdx] = codec.encode(message);
+			numOfEncodings++;
+		}
+		if(!connection.prefersDirectFrames()) {
+			return frames[heapIdx];
+		}
+		if(frames[heapIdx + 1] == null) {
+			frames[heapIdx + 1] = toDirect(frames[heapIdx]);
+		}
+		return frames[heapIdx + 1];
+	}
+
+	/**
+	 * retrieve the number of times the message has been encoded
+	 * @return the number of distinct codecs among the recipients served so far
+	 */
+	public int getNumOfEncodings() {
+		return numOfEncodings;
+	}
+
+	/**
+	 * copy a frame into a direct buffer sliced from the slab of the calling thread
+	 */
+	private static ByteBuffer toDirect(ByteBuffer frame) {
+		int size = frame.remaining();
+		if(size > SLAB_SIZE / 4) {
+			return ByteBuffer.allocateDirect(size).put(frame.duplicate()).flip();
+		}
+		ByteBuffer slab = SLAB.get();
+		if(slab == null || slab.remaining() < size) {
+			//the old slab is freed once the frames sliced from it have been written
+			slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+			SLAB.set(slab);
+		}
+		ByteBuffer direct = slab.slice();
+		direct.limit(size);
+		direct.put(frame.duplicate()).flip();
+		slab.position(slab.position() + size);
+		return direct;
+	}
+}
@@ -16,6 +16,14 @@ public class Card implements Comparable<Card>, Serializable {
 	protected final int suit; // 0 - 3
 	protected final int rank; // 0 - 12
 
+	// the canonical instances of the 52 cards, indexed by ordinal()
+	private static final Card[] CARDS = new Card[52];
+	static {
+		for (int i = 0; i < CARDS.length; i++) {
+			CARDS[i] = new Card(i / 13, i % 13);
+		}
+	}
+
 	/**
 	 * Creates and returns an instance of the Card class.
 	 * 
@@ -34,6 +42,42 @@ public class Card implements Comparable<Card>, Serializable {
 		this.rank = rank;
 	}
 
+	/**
+	 * Returns the canonical instance of the card with the specified suit and
+	 * rank. Unlike the constructor, this method never creates a new object.
+	 * 
+	 * @param suit
+	 *            an int value between 0 and 3 representing the suit of a card
+	 * @param rank
+	 *            an int value between 0 and 12 representing the rank of a card
+	 * @return the canonical instance of the card
+	 */
+	public static Card of(int suit, int rank) {
+		return CARDS[ordinal(suit, rank)];
+	}
+
+	/**
+	 * Returns the ordinal of the card with the specified suit and rank.
+	 * 
+	 * @param suit
+	 *            an int value between 0 and 3 representing the suit of a card
+	 * @param rank
+	 *            an int value between 0 and 12 representing the rank of a card
+	 * @return an int value between 0 and 51, which is suit * 13 + rank
+	 */
+	public static int ordinal(int suit, int rank) {
+		return suit * 13 + rank;
+	}
+
+	/**
+	 * Returns the ordinal of this card.
+	 * 
+	 * @return an int value between 0 and 51, which is suit * 13 + rank
+	 */
+	public int ordinal() {
+		return ordinal(suit, rank);
+	}
+
 	/**
 	 * Returns the suit of a card.
 	 * 
@@ -106,11 +150,25 @@ public class Card implements Comparable<Card>, Serializable {
 	}
 
 	/**
-	 * Returns a hash code value for the card.
+	 * Returns a hash code value for the card. The hash code is the ordinal of
+	 * the card, so that distinct cards never collide.
 	 * 
 	 * @return a hash code value for the card
 	 */
 	public int hashCode() {
-		return rank;
+		return ordinal();
+	}
+
+	/**
+	 * Replaces a deserialized card with its canonical instance.
+	 * 
+	 * @return the canonical instance of this card
+	 */
+	protected Object readResolve() {
+		if (getClass() == Card.class && suit >= 0 && suit < 4 && rank >= 0
+				&& rank < 13) {
+			return of(suit, rank);
+		}
+		return this;
 	}
 }
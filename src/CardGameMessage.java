@@ -45,9 +45,12 @@ public class CardGameMessage extends GameMessage {
 	 */
 	public static final int START = 5;
 	/**
-	 * Sent by a client when the local player makes a move. The server will broadcast this message upon
-	 * receiving it. In this message, playerID specifies the player who makes the move, and data is a
-	 * reference to an array of int specifying the indices of the cards being played.
+	 * Sent by a client when the local player makes a move. The server will check the move against
+	 * the state of the game it keeps, and broadcast this message if the move is legal. In this message,
+	 * playerID specifies the player who makes the move, and data is a reference to an array of int
+	 * specifying the indices of the cards being played (for the message sent by a client), or a
+	 * reference to a BigTwoMove object specifying the cards and the hand being played (for the message
+	 * broadcast by the server), which a Big Two server sends as a BigTwoDelta numbered in sequence.
 	 */
 	public static final int MOVE = 6;
 	/**
@@ -57,6 +60,44 @@ public class CardGameMessage extends GameMessage {
 	 * sent this chat message, and data is a reference to a string containing a formated chat message.
 	 */
 	public static final int MSG = 7;
+	/**
+	 * Sent by the server to a client only, when the move made by the local player is illegal. In this
+	 * message, playerID specifies the player who makes the move, and data is a reference to the array
+	 * of int specifying the indices of the cards of the illegal move.
+	 */
+	public static final int ILLEGAL_MOVE = 8;
+	/**
+	 * Sent by the server to a client only, after the client joins the game or resumes its seat. In
+	 * this message, playerID specifies the player, and data is a string, the reconnect token with
+	 * which the client can resume its seat after losing the connection (see RESUME).
+	 */
+	public static final int TOKEN = 9;
+	/**
+	 * Broadcast by the server when a player who has joined the game loses the connection. The seat
+	 * of the player is held for a grace period, during which the game is paused at the turn of this
+	 * player; the server broadcasts QUIT if the player does not resume in time. In this message,
+	 * playerID specifies the player, and data is a string representation of the IP address and TCP
+	 * port of this player.
+	 */
+	public static final int AWAY = 10;
+	/**
+	 * Sent by a client, as its first message after connecting, to resume the seat it held before
+	 * losing the connection. In this message, playerID is -1 and data is the reconnect token (see
+	 * TOKEN). The server replies to the client with RESUME, in which playerID specifies the seat and
+	 * data is a snapshot of the game in progress showing only the hand of that seat (a
+	 * BigTwoSnapshot), or null if no game is in progress, followed by PLAYER_LIST; and it
+	 * broadcasts RESUME to the other clients, in which data is the name of the player. A client whose token is unknown or expired is seated as a new
+	 * client and only receives PLAYER_LIST.
+	 */
+	public static final int RESUME = 11;
+	/**
+	 * Sent by a client to the server to catch up with the game at its table, e.g. after missing
+	 * messages. In this message, playerID is -1 and data is an Integer, the sequence number of the
+	 * last change seen by the client (see BigTwoDelta), or -1 if none. The server replies to the
+	 * client only with SYNC, in which playerID specifies the player and data is a BigTwoSync
+	 * holding either the changes since that sequence number or a snapshot of the game.
+	 */
+	public static final int SYNC = 12;
 
 	/**
 	 * Creates and returns an instance of CardGameMessage.
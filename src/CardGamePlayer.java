@@ -65,16 +65,14 @@ public class CardGamePlayer {
 	 *            the list of cards to be removed from this player
 	 */
 	public void removeCards(CardList cards) {
-		for (int i = 0; i < cards.size(); i++) {
-			cardsInHand.removeCard(cards.getCard(i));
-		}
+		cardsInHand.removeCards(cards);
 	}
 
 	/**
 	 * Removes all cards from this player.
 	 */
 	public void removeAllCards() {
-		cardsInHand = new CardList();
+		cardsInHand.removeAllCards();
 	}
 
 	/**
@@ -1,10 +1,36 @@
+import java.awt.GraphicsEnvironment;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.management.ObjectName;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -12,34 +38,139 @@ import javax.swing.JMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
 
 /**
- * This class is used to model a card game server.
+ * This class is used to model a card game server. The server hosts many
+ * independent tables in a lobby: a new connection is seated at a table which
+ * has an empty seat, a new table is opened when all tables are full, and a
+ * table is recycled when its last player leaves.
+ * <p>
+ * The messages are sent as frames (see MessageCodec) over one of three
+ * transports, chosen before the server starts: a platform thread or a virtual
+ * thread per connection with blocking sockets, or a few I/O threads with
+ * non-blocking channels (see NioServerTransport). The state of the lobby and
+ * of each table is guarded by a ReentrantLock, which a virtual thread can
+ * wait for without pinning its carrier thread.
+ * <p>
+ * The server logs through an AsyncLogger to a rotating file under the logs
+ * directory, so that no network thread waits for the disk or the GUI. A
+ * headless server has no GUI and copies its log to the standard output. Its
+ * metrics (see ServerMetrics) are registered with JMX when it starts, and can
+ * also be served as text on a local port (see MetricsEndpoint).
+ * <p>
+ * A client is seated on its first message. A player who has joined receives
+ * a reconnect token (see CardGameMessage.TOKEN), and when its connection drops
+ * the seat is held for a grace period instead of aborting the game: a client
+ * connecting again with the token (see CardGameMessage.RESUME) takes the seat
+ * back and receives a snapshot of the game, and the seat is released only if
+ * the grace period ends first.
+ * <p>
+ * The server can also seat bots, which have no connection, in the empty seats
+ * of a table a while after a player joins it, so that the game starts without
+ * waiting for more players. The moves of the bots are chosen by a shared pool
+ * with a thread per core, whatever the number of bots, within a budget of CPU
+ * time per move. The bots leave when the last player does.
  * 
  * @author Kenneth Wong
  *
  */
 public class CardGameServer {
+	/**
+	 * The transport running a thread with a blocking socket per connection
+	 */
+	public static final int THREAD_PER_CONNECTION = 0;
+	/**
+	 * The transport running a few I/O threads with non-blocking channels
+	 */
+	public static final int NIO = 1;
+	/**
+	 * The transport running a virtual thread with a blocking socket per
+	 * connection, or a platform thread if the JVM has no virtual threads
+	 */
+	public static final int VIRTUAL_THREAD_PER_CONNECTION = 2;
 	// The name of this card game server
 	private String serverName;
 	// The maximum number of players in a card game
 	private final int maxNumOfPlayers;
-	// Array for holding sockets of the clients
-	private Socket[] clientSockets;
-	// Array for holding ObjectOutputStreams of the clients
-	private ObjectOutputStream[] clientOutputStreams;
-	// Array for holding player names of the clients
-	private String[] clientNames;
-	// Array for holding ready states of the clients
-	private boolean[] clientReadyStates;
-	// number of current players
-	private int numOfPlayers = 0;
-	// the main frame of the server
+	// The maximum number of tables hosted by this server
+	private int maxNumOfTables = Integer.MAX_VALUE;
+	// List of all tables ever opened, indexed by their table IDs
+	private ArrayList<Table> tables = new ArrayList<Table>();
+	// Tables in use with at least one empty seat, in the order they opened
+	private LinkedHashSet<Table> openTables = new LinkedHashSet<Table>();
+	// Empty tables which can be recycled
+	private ArrayDeque<Table> freeTables = new ArrayDeque<Table>();
+	// number of tables in use
+	private int numOfTables = 0;
+	// the lock of the lobby, taken before the lock of any table
+	private final ReentrantLock lobbyLock = new ReentrantLock();
+	// the maximum number of lines kept in the text area
+	private static final int MAX_CONSOLE_LINES = 1000;
+	// the main frame of the server, or null if the server is headless
 	private JFrame frame = null;
 	// text area for displaying server states
 	private JTextArea textArea = null;
 	// a boolean indicating if the server is up
 	private boolean serverUp = false;
+	// the transport carrying the messages
+	private int transport = THREAD_PER_CONNECTION;
+	// the handler of the events of the connections
+	private final ConnectionListener connectionHandler = new ConnectionHandler();
+	// the factory of the threads of the blocking transports
+	private ThreadFactory handlerThreads = HandlerThreads.factory(false);
+	// the limits of the outbound queue of each connection
+	private OutboundQueue.Limits outboundLimits = OutboundQueue.Limits.DEFAULT;
+	// the logger of the server
+	private final AsyncLogger logger;
+	// the metrics of the server
+	private final ServerMetrics metrics = new ServerMetrics(this);
+	// the local port of the metrics endpoint, or -1 if it is disabled
+	private int metricsPort = -1;
+	// the directory of the journal of the games, or null if it is disabled
+	private File journalDirectory = new File("journal");
+	// the journal of the games, or null if it is disabled or not opened yet
+	private volatile GameJournal journal = null;
+	// the time a seat is held for a player who loses the connection, in
+	// milliseconds, or 0 to release the seat at once
+	private long resumeGraceMillis = 30000;
+	// the seats of the players who have joined, by reconnect token
+	private final ConcurrentHashMap<String, Seat> reconnectTokens =
+			new ConcurrentHashMap<String, Seat>();
+	// the generator of the reconnect tokens
+	private final SecureRandom tokenRandom = new SecureRandom();
+	// the thread releasing the seats held for too long, filling the empty
+	// seats with bots and retrying the bot turns which the bot workers could
+	// not queue, created when first needed (see seatScheduler())
+	private ScheduledExecutorService seatScheduler = null;
+	// the delay before the empty seats of a table are filled with bots after a
+	// player joins, in milliseconds, or -1 to seat no bots
+	private long botFillMillis = -1;
+	// the CPU time a bot may take to choose a move, in nanoseconds
+	private long botMoveBudgetNanos = TimeUnit.MILLISECONDS.toNanos(50);
+	// the threads choosing the moves of the bots of all the tables, created
+	// when first needed (see botWorkers())
+	private ExecutorService botWorkers = null;
+	// a boolean indicating if the server has stopped, after which no thread
+	// is created for the seats and the bots
+	private boolean executorsStopped = false;
+	// the lock guarding the creation and the shutdown of the seat scheduler
+	// and the bot workers, taken after the lock of any table
+	private final ReentrantLock executorLock = new ReentrantLock();
+	// the number of illegal moves in a row after which a bot is removed
+	private static final int BOT_MOVE_ATTEMPTS = 3;
+	// the number of bot turns queued for each bot worker, beyond which a
+	// turn is retried later by the seat scheduler
+	private static final int BOT_TURNS_PER_WORKER = 4;
+	// the delay before a bot turn which could not be queued is retried, in
+	// milliseconds
+	private static final long BOT_TURN_RETRY_MILLIS = 10;
+	// the source of the CPU time of the bot workers
+	private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+	// the attachment of a connection which is no longer seated, e.g. after
+	// being rejected or replaced by a resumed connection
+	private static final Object DETACHED = new Object();
 
 	/**
 	 * Creates and returns an instance of the BigTwoServer class.
@@ -50,17 +181,211 @@ public class CardGameServer {
 	 *            the maximum number of players in a card game
 	 */
 	public CardGameServer(String serverName, int maxNumOfPlayers) {
+		this(serverName, maxNumOfPlayers, GraphicsEnvironment.isHeadless());
+	}
+
+	/**
+	 * Creates and returns an instance of the BigTwoServer class, with or
+	 * without a GUI.
+	 * 
+	 * @param serverName
+	 *            the name of this card game server
+	 * @param maxNumOfPlayers
+	 *            the maximum number of players in a card game
+	 * @param headless
+	 *            true to log to the standard output instead of building a GUI
+	 */
+	public CardGameServer(String serverName, int maxNumOfPlayers,
+			boolean headless) {
 		this.serverName = serverName;
 		this.maxNumOfPlayers = maxNumOfPlayers;
+		this.logger = new AsyncLogger(new File("logs", serverName.toLowerCase()
+				.replace(' ', '-') + ".log"), 8192, 10 << 20, 5);
+
+		if (headless) {
+			logger.setMirror(text -> System.out.print(text));
+		} else {
+			buildGUI();
+			logger.setMirror(text -> SwingUtilities.invokeLater(() -> append(text)));
+		}
+	}
+
+	/**
+	 * Returns the metrics of this server.
+	 * 
+	 * @return the metrics of this server
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the local port at which the metrics are served as text. It must be
+	 * called before the server starts.
+	 * 
+	 * @param metricsPort
+	 *            the port, 0 for any free port, or -1 (the default) to serve
+	 *            the metrics through JMX only
+	 */
+	public void setMetricsPort(int metricsPort) {
+		this.metricsPort = metricsPort;
+	}
+
+	/**
+	 * Sets the directory of the journal of the deals, moves and results of
+	 * the games (see GameJournal). It must be called before the server starts.
+	 * 
+	 * @param journalDirectory
+	 *            the directory, or null to disable the journal. The default
+	 *            directory is "journal"
+	 */
+	public void setJournalDirectory(File journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
+
+	/**
+	 * Returns the journal of the games of this server.
+	 * 
+	 * @return the journal, or null if it is disabled or could not be opened
+	 */
+	public GameJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Returns the logger of this server, e.g. to change its level.
+	 * 
+	 * @return the logger of this server
+	 */
+	public AsyncLogger getLogger() {
+		return logger;
+	}
+
+	/**
+	 * Sets the maximum number of tables hosted by this server. A client
+	 * connecting when all these tables are full receives a FULL message. By
+	 * default the number of tables is not limited.
+	 * 
+	 * @param maxNumOfTables
+	 *            the maximum number of tables
+	 */
+	public void setMaxNumOfTables(int maxNumOfTables) {
+		lobbyLock.lock();
+		try {
+			this.maxNumOfTables = maxNumOfTables;
+		} finally {
+			lobbyLock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the transport carrying the messages. It must be called before the
+	 * server starts.
+	 * 
+	 * @param transport
+	 *            THREAD_PER_CONNECTION (the default), VIRTUAL_THREAD_PER_CONNECTION
+	 *            or NIO
+	 */
+	public void setTransport(int transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Sets the limits of the outbound queue of each connection, which bound
+	 * the messages waiting for a slow client before chat messages are dropped
+	 * and the client is evicted. It must be called before the server starts.
+	 * 
+	 * @param outboundLimits
+	 *            the limits of the queues, OutboundQueue.Limits.DEFAULT by
+	 *            default
+	 */
+	public void setOutboundLimits(OutboundQueue.Limits outboundLimits) {
+		this.outboundLimits = outboundLimits;
+	}
+
+	/**
+	 * Sets the time a seat is held for a player who loses the connection, so
+	 * that the player can resume the game. The game is paused at the turn of
+	 * this player meanwhile.
+	 * 
+	 * @param resumeGraceMillis
+	 *            the grace period in milliseconds (30000 by default), or 0 to
+	 *            release the seat and abort the game at once
+	 */
+	public void setResumeGracePeriod(long resumeGraceMillis) {
+		this.resumeGraceMillis = resumeGraceMillis;
+	}
+
+	/**
+	 * Sets the delay before the empty seats of a table are filled with bots
+	 * after a player joins it. The bots are always ready, play through the
+	 * shared pool of bot workers, and leave when the last player does.
+	 * 
+	 * @param botFillMillis
+	 *            the delay in milliseconds, 0 to fill the seats at once, or -1
+	 *            (the default) to seat no bots
+	 */
+	public void setBotFillDelay(long botFillMillis) {
+		this.botFillMillis = botFillMillis;
+	}
+
+	/**
+	 * Sets the CPU time a bot may take to choose a move. The budget is passed
+	 * to the bot, and the moves exceeding it are counted by the metrics.
+	 * 
+	 * @param budgetMillis
+	 *            the budget in milliseconds (50 by default)
+	 */
+	public void setBotMoveBudget(long budgetMillis) {
+		this.botMoveBudgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+	}
 
-		// creates arrays for holding client sockets, output streams, player
-		// names, and ready states
-		clientSockets = new Socket[maxNumOfPlayers];
-		clientOutputStreams = new ObjectOutputStream[maxNumOfPlayers];
-		clientNames = new String[maxNumOfPlayers];
-		clientReadyStates = new boolean[maxNumOfPlayers];
+	/**
+	 * Returns the depths of the outbound queues of the seated clients.
+	 * 
+	 * @return the number of bytes waiting to be written to each seated
+	 *         client, in the order of the tables and their seats
+	 */
+	public long[] getOutboundQueueDepths() {
+		ArrayList<Table> snapshot;
+		lobbyLock.lock();
+		try {
+			snapshot = new ArrayList<Table>(tables);
+		} finally {
+			lobbyLock.unlock();
+		}
+		ArrayList<Long> depths = new ArrayList<Long>();
+		for (Table table : snapshot) {
+			table.lock.lock();
+			try {
+				for (ClientConnection connection : table.clientConnections) {
+					if (connection != null) {
+						depths.add(connection.getOutboundQueue().getQueuedBytes());
+					}
+				}
+			} finally {
+				table.lock.unlock();
+			}
+		}
+		long[] result = new long[depths.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = depths.get(i);
+		}
+		return result;
+	}
 
-		buildGUI();
+	/**
+	 * Returns the number of tables in use.
+	 * 
+	 * @return the number of tables with at least one player
+	 */
+	public int getNumOfTables() {
+		lobbyLock.lock();
+		try {
+			return numOfTables;
+		} finally {
+			lobbyLock.unlock();
+		}
 	}
 
 	/**
@@ -102,390 +427,1486 @@ public class CardGameServer {
 	 *            the specified port at which the server starts
 	 */
 	public void start(int port) {
+		startMetrics();
+		startJournal();
 		// start the server
 		try {
+			if (transport == NIO) {
+				// creates a transport with an I/O thread per core
+				NioServerTransport nioTransport = new NioServerTransport(port,
+						Runtime.getRuntime().availableProcessors(),
+						connectionHandler, outboundLimits);
+				println("Starts up the server at localhost:"
+						+ nioTransport.getLocalPort() + " (NIO)");
+				serverUp = true;
+				nioTransport.run();
+				return;
+			}
 			// creates a ServerScoket
 			ServerSocket serverSocket = new ServerSocket(port);
+			boolean virtual = transport == VIRTUAL_THREAD_PER_CONNECTION
+					&& HandlerThreads.isVirtualAvailable();
+			handlerThreads = HandlerThreads.factory(virtual);
 			println("Starts up the server at localhost:"
-					+ serverSocket.getLocalPort());
+					+ serverSocket.getLocalPort()
+					+ (virtual ? " (virtual threads)" : ""));
 			serverUp = true;
 			while (serverUp) {
 				// waits for clients to connect
 				Socket clientSocket = serverSocket.accept();
-				addConnection(clientSocket);
+				SocketConnection connection = new SocketConnection(clientSocket);
+				// creates a thread for writing the outbound queue of this client
+				handlerThreads.newThread(new ClientWriter(connection)).start();
+				// creates a thread for receiving messages from this client,
+				// which opens the connection on the first frame
+				Thread t = handlerThreads.newThread(new ClientHandler(
+						connection));
+				t.start();
 			} // while
 			serverSocket.close();
 		} catch (Exception ex) {
-			println("Error in starting up the server at localhost:" + port);
-			ex.printStackTrace();
+			log(AsyncLogger.ERROR, "Error in starting up the server at localhost:"
+					+ port, ex);
+		} finally {
+			stopExecutors();
 		}
 	} // start
 
 	/**
-	 * Parses the incoming message from the specified client.
+	 * Returns the thread scheduling the seats: it releases the seats held for
+	 * too long, fills the empty seats with bots and retries the bot turns
+	 * which could not be queued. It is created on first use.
 	 * 
-	 * @param clientSocket
-	 *            the socket connection to the specified client
-	 * @param message
-	 *            the message received from the specified client
-	 */
-	private synchronized void parseMessage(Socket clientSocket,
-			CardGameMessage message) {
-		// updates the playerID
-		for (int i = 0; i < maxNumOfPlayers; i++) {
-			if (clientSockets[i] == clientSocket) {
-				message.setPlayerID(i);
-				break;
-			}
-		}
-
-		// parses the message based on it type
-		switch (message.getType()) {
-		case CardGameMessage.JOIN:
-			// adds a player to the game
-			addPlayer(clientSocket, (String) message.getData());
-			break;
-		case CardGameMessage.READY:
-			// marks the specified player as ready for a new game
-			setReadyState(clientSocket);
-			break;
-		case CardGameMessage.MOVE:
-			println("Broadcasts a \"MOVE\" message from "
-					+ clientSocket.getRemoteSocketAddress());
-			// broadcast the MOVE message to all clients
-			broadcastMessage(message);
-			break;
-		case CardGameMessage.MSG:
-			println("Broadcasts a user message from "
-					+ clientSocket.getRemoteSocketAddress());
-			// broadcast the user message to all clients
-			broadcastUserMessage(clientSocket, (String) message.getData());
-			break;
-		default:
-			println("Wrong message type: " + message.getType());
-			// invalid message
-			break;
+	 * @return the scheduler of the seats
+	 * @throws RejectedExecutionException
+	 *             if the server has stopped
+	 */
+	private ScheduledExecutorService seatScheduler() {
+		executorLock.lock();
+		try {
+			if (executorsStopped) {
+				throw new RejectedExecutionException("The server has stopped");
+			}
+			if (seatScheduler == null) {
+				seatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread t = new Thread(r, "seat-scheduler");
+					t.setDaemon(true);
+					return t;
+				});
+			}
+			return seatScheduler;
+		} finally {
+			executorLock.unlock();
 		}
-	} // parseMessage
+	}
 
 	/**
-	 * Broadcasts the specified message to all clients.
+	 * Returns the pool of threads choosing the moves of the bots, creating it
+	 * on first use with a thread per core. Its queue holds a few bot turns per
+	 * thread; a turn which does not fit is handed to the seat scheduler, which
+	 * queues it again shortly after, so that a table never loses its turn.
 	 * 
-	 * @param message
-	 *            the specified message to be broadcast to all clients
+	 * @return the pool of bot workers
+	 * @throws RejectedExecutionException
+	 *             if the server has stopped
 	 */
-	private synchronized void broadcastMessage(CardGameMessage message) {
-		if (numOfPlayers > 0) {
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] != null && clientOutputStreams[i] != null) {
-					try {
-						clientOutputStreams[i].writeObject(message);
-					} catch (Exception ex) {
-						println("Error in broadcasting a message to the client at "
-								+ clientSockets[i].getRemoteSocketAddress());
-						ex.printStackTrace();
-					}
-				}
+	private ExecutorService botWorkers() {
+		executorLock.lock();
+		try {
+			if (executorsStopped) {
+				throw new RejectedExecutionException("The server has stopped");
+			}
+			if (botWorkers == null) {
+				int n = Runtime.getRuntime().availableProcessors();
+				botWorkers = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+						new LinkedBlockingQueue<Runnable>(n * BOT_TURNS_PER_WORKER),
+						r -> {
+							Thread t = new Thread(r, "bot-worker");
+							t.setDaemon(true);
+							return t;
+						}, (task, pool) -> retryBotTurn(task));
 			}
+			return botWorkers;
+		} finally {
+			executorLock.unlock();
 		}
-	} // broadcastMessage
+	}
 
 	/**
-	 * Adds a new socket connection to the server
+	 * Queues a bot turn again after a short delay, when the queue of the bot
+	 * workers is full.
 	 * 
-	 * @param clientSocket
-	 *            the socket connection to be added to the server
+	 * @param task
+	 *            the bot turn
+	 * @throws RejectedExecutionException
+	 *             if the server has stopped
 	 */
-	private synchronized void addConnection(Socket clientSocket) {
-		// adds this connection to the server if the server is not full
-		if (numOfPlayers < maxNumOfPlayers) {
-			// locates the first empty slot for the new connection
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == null) {
-					try {
-						// creates an ObjectOutputStream for this client socket
-						ObjectOutputStream oostream = new ObjectOutputStream(
-								clientSocket.getOutputStream());
-
-						clientSockets[i] = clientSocket;
-						clientOutputStreams[i] = oostream;
-						clientNames[i] = null;
-						clientReadyStates[i] = false;
-						numOfPlayers++;
-						println("Establishes a connection with a client at "
-								+ clientSocket.getRemoteSocketAddress());
-
-						// creates a thread for receiving messages from this
-						// client
-						Thread t = new Thread(new ClientHandler(clientSocket));
-						t.start();
+	private void retryBotTurn(Runnable task) {
+		seatScheduler().schedule(() -> {
+			try {
+				botWorkers().execute(task);
+			} catch (RejectedExecutionException ex) {
+				// the server has stopped
+			}
+		}, BOT_TURN_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+	}
 
-						// sends the player list to the new player
-						oostream.writeObject(new CardGameMessage(
-								CardGameMessage.PLAYER_LIST, i, clientNames));
-					} catch (Exception ex) {
-						println("Error in establishing a connection with a client at "
-								+ clientSocket.getRemoteSocketAddress());
-						ex.printStackTrace();
-					}
-					break;
-				}
-			} // for
-		} else {
-			// Max. no. of players reached
-			println("Server is full: cannot establish a connection with a client at "
-					+ clientSocket.getRemoteSocketAddress());
+	/**
+	 * Stops the threads of the seats and the bots when the server stops.
+	 */
+	private void stopExecutors() {
+		executorLock.lock();
+		try {
+			executorsStopped = true;
+			if (seatScheduler != null) {
+				seatScheduler.shutdownNow();
+			}
+			if (botWorkers != null) {
+				botWorkers.shutdownNow();
+			}
+		} finally {
+			executorLock.unlock();
+		}
+	}
 
-			// creates a thread for sending a FULL message to this client, waits
-			// for 1000 milliseconds and closes the socket
-			Thread t = new Thread(new ClientHandler2(clientSocket));
-			t.start();
+	/**
+	 * Registers the metrics of this server with the platform MBean server,
+	 * and starts the metrics endpoint if a port has been set
+	 */
+	private void startMetrics() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+					new ObjectName("BigTwo:type=ServerMetrics,name="
+							+ ObjectName.quote(serverName)));
+		} catch (Exception ex) {
+			log(AsyncLogger.WARN, "Error in registering the metrics with JMX", ex);
+		}
+		if (metricsPort >= 0) {
+			try {
+				MetricsEndpoint endpoint = new MetricsEndpoint(metricsPort,
+						metrics);
+				println("Serves the metrics at http://localhost:"
+						+ endpoint.getPort() + "/metrics");
+			} catch (IOException ex) {
+				log(AsyncLogger.ERROR, "Error in starting the metrics endpoint at localhost:"
+						+ metricsPort, ex);
+			}
 		}
+	}
 
-	} // addConnection
+	/**
+	 * Opens the journal of the games if a directory has been set, and closes
+	 * it when the JVM exits so that its last records are forced to the disk
+	 */
+	private void startJournal() {
+		if (journalDirectory == null) {
+			return;
+		}
+		try {
+			GameJournal journal = new GameJournal(journalDirectory,
+					64 << 20, 10);
+			Runtime.getRuntime().addShutdownHook(new Thread(journal::close,
+					"journal-closer"));
+			this.journal = journal;
+			println("Journals the games to " + journalDirectory.getPath());
+		} catch (IOException ex) {
+			log(AsyncLogger.ERROR, "Error in opening the journal at "
+					+ journalDirectory.getPath(), ex);
+		}
+	}
 
 	/**
-	 * Removes a connection from the server (possibly due to connection loss).
+	 * Adds a new connection to the server, seating it at a table with an
+	 * empty seat
 	 * 
-	 * @param clientSocket
-	 *            the socket connection being removed from the server
+	 * @param connection
+	 *            the connection to be added to the server
 	 */
-	private synchronized void removeConnection(Socket clientSocket) {
-		if (numOfPlayers > 0) {
-			// locates the client socket in the array
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == clientSocket) {
-					String name = clientNames[i];
-
-					clientSockets[i] = null;
-					clientOutputStreams[i] = null;
-					clientNames[i] = null;
-					clientReadyStates[i] = false;
-					numOfPlayers--;
-
-					println(name + " (" + clientSocket.getRemoteSocketAddress()
-							+ ") leaves the game.");
-
-					String remoteAddress = clientSocket
-							.getRemoteSocketAddress().toString();
+	private void addConnection(ClientConnection connection) {
+		lobbyLock.lock();
+		try {
+			Table table = findTable();
+			if (table != null) {
+				table.addConnection(connection);
+				updateLobby(table);
+			} else {
+				// Max. no. of tables reached
+				println("Server is full: cannot establish a connection with a client at "
+						+ connection.getRemoteSocketAddress());
 
-					// broadcasts a message about the leaving of this player
-					broadcastMessage(new CardGameMessage(CardGameMessage.QUIT,
-							i, remoteAddress));
-					break;
-				}
+				// sends a FULL message to this client, and closes the connection
+				// after 1000 milliseconds
+				connection.attach(DETACHED);
+				connection.reject(new CardGameMessage(CardGameMessage.FULL, -1,
+						null));
 			}
+		} finally {
+			lobbyLock.unlock();
 		}
-	} // removeConnection
+	} // addConnection
 
 	/**
-	 * adds a player to the game.
+	 * Seats a connection at the seat held for a reconnect token, or else at a
+	 * table with an empty seat as a new connection
 	 * 
-	 * @param clientSocket
-	 *            the socket connection to the player who is joining the game
-	 * @param name
-	 *            the name of the player who is joining the game
+	 * @param connection
+	 *            the connection resuming a seat
+	 * @param token
+	 *            the reconnect token sent by the client
 	 */
-	private synchronized void addPlayer(Socket clientSocket, String name) {
-		if (numOfPlayers > 0) {
-			// locates the client socket in the array
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == clientSocket) {
-					// updates the name of the new player
-					clientNames[i] = name;
-
-					println(name + " (" + clientSocket.getRemoteSocketAddress()
-							+ ") joins the game.");
+	private void resumeConnection(ClientConnection connection, String token) {
+		Seat seat = token == null ? null : reconnectTokens.get(token);
+		if (seat == null
+				|| !seat.table.resumeConnection(seat.index, token, connection)) {
+			println("Unknown or expired reconnect token from a client at "
+					+ connection.getRemoteSocketAddress());
+			addConnection(connection);
+		}
+	} // resumeConnection
 
-					// broadcasts a message about this player joining the game
-					broadcastMessage(new CardGameMessage(CardGameMessage.JOIN,
-							i, name));
-					break;
+	/**
+	 * Finds a table for a new connection: the table which has been waiting
+	 * longest for players, or else a recycled table, or else a new table.
+	 * 
+	 * @return a table with an empty seat, or null if the server is full
+	 */
+	private Table findTable() {
+		lobbyLock.lock();
+		try {
+			if (!openTables.isEmpty()) {
+				return openTables.iterator().next();
+			}
+			Table table = freeTables.poll();
+			if (table == null) {
+				if (tables.size() >= maxNumOfTables) {
+					return null;
 				}
+				table = new Table(tables.size());
+				tables.add(table);
 			}
+			table.inUse = true;
+			numOfTables++;
+			return table;
+		} finally {
+			lobbyLock.unlock();
 		}
-	} // addPlayer
+	} // findTable
 
 	/**
-	 * Marks the specified player as ready for a new game.
+	 * Updates the lobby after players join or leave a table: a table with an
+	 * empty seat is open for new connections, and a table without players is
+	 * recycled.
 	 * 
-	 * @param clientSocket
-	 *            the socket connection to the player who becomes ready for a
-	 *            new game
+	 * @param table
+	 *            the table whose players have changed
 	 */
-	private synchronized void setReadyState(Socket clientSocket) {
-		if (numOfPlayers > 0) {
-			// locates the client socket in the array
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == clientSocket) {
-					clientReadyStates[i] = true;
-					println(clientNames[i] + " ("
-							+ clientSocket.getRemoteSocketAddress()
-							+ " ) is ready for the next game.");
-					broadcastMessage(new CardGameMessage(CardGameMessage.READY,
-							i, null));
-					break;
+	private void updateLobby(Table table) {
+		lobbyLock.lock();
+		try {
+			table.lock.lock();
+			try {
+				if (table.numOfPlayers == 0) {
+					openTables.remove(table);
+					if (table.inUse) {
+						table.inUse = false;
+						freeTables.push(table);
+						numOfTables--;
+					}
+				} else if (table.numOfPlayers < maxNumOfPlayers) {
+					openTables.add(table);
+				} else {
+					openTables.remove(table);
 				}
+			} finally {
+				table.lock.unlock();
 			}
+		} finally {
+			lobbyLock.unlock();
 		}
+	} // updateLobby
 
-		// checks if all players are ready
-		if (numOfPlayers == maxNumOfPlayers) {
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientReadyStates[i] == false) {
-					// returns if any of the players is not ready
-					return;
-				}
-			}
+	/**
+	 * Fills the empty seats of a table with bots, unless its players have all
+	 * left meanwhile.
+	 * 
+	 * @param table
+	 *            the table to be filled
+	 */
+	private void fillWithBots(Table table) {
+		lobbyLock.lock();
+		try {
+			table.fillWithBots();
+			updateLobby(table);
+		} finally {
+			lobbyLock.unlock();
+		}
+	} // fillWithBots
 
-			// resets the ready states of all the players for the next game
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				clientReadyStates[i] = false;
-			}
+	/**
+	 * Starts the game kept by the server for a table with the shuffled deck
+	 * broadcast to its clients. Overrides this method to keep the state of a
+	 * specific card game. It is called while holding the lock of the table.
+	 * 
+	 * @param tableID
+	 *            the ID of the table
+	 * @param deck
+	 *            the shuffled deck of the new game
+	 * @param seed
+	 *            the seed with which the deck was shuffled
+	 */
+	protected void gameStarted(int tableID, Deck deck, long seed) {
+	}
 
-			// creates a new deck, shuffles the deck, and starts a new game
-			Deck deck = createDeck();
-			deck.shuffle();
-			println("All players are ready. Game starts.");
-			broadcastMessage(new CardGameMessage(CardGameMessage.START, -1,
-					deck));
-		}
+	/**
+	 * Stops the game kept by the server for a table, e.g. because a player
+	 * leaves. Overrides this method to keep the state of a specific card game.
+	 * It is called while holding the lock of the table.
+	 * 
+	 * @param tableID
+	 *            the ID of the table
+	 */
+	protected void gameAborted(int tableID) {
 	}
 
 	/**
-	 * Creates and returns an instance of the Deck class. Overrides this method
-	 * if a different type of deck is needed.
+	 * Returns a snapshot of the game kept by the server for a table, as seen
+	 * by the player at a seat, which is sent to a player resuming its seat and
+	 * given to a bot choosing its move. It must not show the cards of the
+	 * other players. The default implementation keeps no game and returns
+	 * null. It is called while holding the lock of the table.
 	 * 
-	 * @return an instance of the Deck class
+	 * @param tableID
+	 *            the ID of the table
+	 * @param seat
+	 *            the playerID of the player
+	 * @return the snapshot, or null if no game is in progress
 	 */
-	public Deck createDeck() {
-		return new Deck();
+	protected Object gameSnapshot(int tableID, int seat) {
+		return null;
 	}
 
-	private synchronized void broadcastUserMessage(Socket clientSocket,
-			String msg) {
-		if (numOfPlayers > 0) {
-			// locates the client in the array
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == clientSocket) {
-					String longMsg = clientNames[i] + " ("
-							+ clientSocket.getRemoteSocketAddress() + "): "
-							+ msg;
-					broadcastMessage(new CardGameMessage(CardGameMessage.MSG,
-							i, longMsg));
-					break;
-				}
-			}
-		}
+	/**
+	 * Returns the changes of the game kept by the server for a table since a
+	 * sequence number, or a snapshot of the game, which is sent to a client
+	 * catching up with SYNC. The default implementation keeps no game and
+	 * returns null. It is called while holding the lock of the table.
+	 * 
+	 * @param tableID
+	 *            the ID of the table
+	 * @param seat
+	 *            the playerID of the client, for whom a snapshot is taken
+	 * @param since
+	 *            the sequence number of the last change seen by the client,
+	 *            or -1 if none
+	 * @return the changes or the snapshot
+	 */
+	protected Object gameSync(int tableID, int seat, int since) {
+		return null;
 	}
 
 	/**
-	 * Prints the specified message to the text area.
+	 * Returns the player for the current turn of the game kept by the server
+	 * for a table, so that the bots know when to move. The default
+	 * implementation keeps no game and returns -1. It is called while holding
+	 * the lock of the table.
 	 * 
-	 * @param msg
+	 * @param tableID
+	 *            the ID of the table
+	 * @return the playerID of the player for the current turn, or -1 if no
+	 *         game is in progress
 	 */
-	private void println(String msg) {
-		textArea.append(msg + "\n");
-		textArea.setCaretPosition(textArea.getDocument().getLength());
+	protected int currentPlayer(int tableID) {
+		return -1;
 	}
 
 	/**
-	 * This inner class is used for receiving incoming messages from a client
+	 * Chooses the move of a bot from a snapshot of the game. Overrides this
+	 * method to let bots play a specific card game. It is called by a bot
+	 * worker without holding the lock of the table, so it must only use the
+	 * snapshot, and the move is checked by checkMove() as any other move. The
+	 * default implementation passes.
+	 * 
+	 * @param tableID
+	 *            the ID of the table
+	 * @param seat
+	 *            the playerID of the bot
+	 * @param snapshot
+	 *            the snapshot of the game, as returned by gameSnapshot()
+	 * @param budgetNanos
+	 *            the CPU time the bot may take, in nanoseconds
+	 * @return the data of the MOVE message of the bot
+	 */
+	protected Object chooseBotMove(int tableID, int seat, Object snapshot,
+			long budgetNanos) {
+		return null;
+	}
+
+	/**
+	 * Checks a MOVE message against the game kept by the server for a table,
+	 * and makes the move if it is legal. The default implementation accepts
+	 * every move. Overrides this method to validate the moves of a specific
+	 * card game; it may replace the data of the message with the move to be
+	 * broadcast. It is called while holding the lock of the table.
+	 * 
+	 * @param tableID
+	 *            the ID of the table
+	 * @param message
+	 *            the MOVE message received, whose playerID has been set to
+	 *            the player who makes the move
+	 * @return true if the move is legal and should be broadcast, and false if
+	 *         it should only be rejected to its sender
+	 */
+	protected boolean checkMove(int tableID, CardGameMessage message) {
+		return true;
+	}
+
+	/**
+	 * Creates and returns an instance of the Deck class. Overrides this method
+	 * if a different type of deck is needed.
+	 * 
+	 * @return an instance of the Deck class
+	 */
+	public Deck createDeck() {
+		return new Deck();
+	}
+
+	/**
+	 * This inner class is used to model a table of the server, holding the
+	 * connections, names and ready states of its players. A table is locked
+	 * on its own, so that the tables of the server run independently.
 	 * 
 	 * @author Kenneth Wong
 	 *
 	 */
-	private class ClientHandler implements Runnable {
-		private Socket clientSocket; // socket connection to the client
-		private ObjectInputStream oistream; // ObjectInputStream of the client
+	private class Table {
+		// The ID of this table
+		private final int tableID;
+		// Array for holding connections of the clients
+		private ClientConnection[] clientConnections = new ClientConnection[maxNumOfPlayers];
+		// Array for holding player names of the clients
+		private String[] clientNames = new String[maxNumOfPlayers];
+		// Array for holding ready states of the clients
+		private boolean[] clientReadyStates = new boolean[maxNumOfPlayers];
+		// Array for holding reconnect tokens of the players who have joined
+		private String[] clientTokens = new String[maxNumOfPlayers];
+		// Array for holding lost connections of the players whose seats are
+		// held, or null for the other seats
+		private ClientConnection[] awayConnections = new ClientConnection[maxNumOfPlayers];
+		// Array for holding whether each seat is taken by a bot
+		private boolean[] botSeats = new boolean[maxNumOfPlayers];
+		// number of current players, bots included
+		private int numOfPlayers = 0;
+		// number of bots
+		private int numOfBots = 0;
+		// number of changes of the game, so that a bot move chosen for an
+		// earlier state is discarded
+		private int version = 0;
+		// a boolean indicating if the empty seats are to be filled with bots
+		private boolean botFillPending = false;
+		// a boolean indicating if a bot worker is choosing a move
+		private boolean botTurnPending = false;
+		// number of illegal moves made in a row by the bot for the current turn
+		private int botRejections = 0;
+		// a boolean indicating if the table is in use, i.e. not recycled
+		private boolean inUse = false;
+		// the lock of this table
+		private final ReentrantLock lock = new ReentrantLock();
 
 		/**
-		 * Creates and returns an instance of the ClientHandler class.
+		 * Creates and returns an instance of the Table class.
 		 * 
-		 * @param clientSocket
-		 *            the socket connection to the client
+		 * @param tableID
+		 *            the ID of this table
 		 */
-		public ClientHandler(Socket clientSocket) {
-			this.clientSocket = clientSocket;
-			try {
-				// creates an ObjectInputStream and chains it to the InputStream
-				// of the client socket
-				oistream = new ObjectInputStream(clientSocket.getInputStream());
-			} catch (Exception ex) {
-				println("Error in creating an ObjectInputStream for the client at "
-						+ clientSocket.getRemoteSocketAddress());
-				ex.printStackTrace();
-			}
-		} // constructor
-
-		// implementation of method from the Runnable interface
-		public void run() {
-			CardGameMessage message;
-			try {
-				// waits for messages from the client
-				while ((message = (CardGameMessage) oistream.readObject()) != null) {
-					println("Message received from "
-							+ clientSocket.getRemoteSocketAddress());
-					parseMessage(clientSocket, message);
-				} // close while
-			} catch (Exception ex) {
-				println("Error in receiving messages from the client at "
-						+ clientSocket.getRemoteSocketAddress());
-				ex.printStackTrace();
-				// possible connection loss, removes the connection
-				removeConnection(clientSocket);
-			}
-		} // run
-	} // ClientHandler
-
-	private class ClientHandler2 implements Runnable {
-		private Socket clientSocket; // socket connection to the client
+		public Table(int tableID) {
+			this.tableID = tableID;
+		}
 
 		/**
-		 * Creates and returns an instance of the ClientHandler2 class.
+		 * Parses the incoming message from the specified client.
 		 * 
-		 * @param clientSocket
-		 *            the socket connection to the client
+		 * @param seat
+		 *            the playerID of the client at this table
+		 * @param message
+		 *            the message received from the specified client
 		 */
-		public ClientHandler2(Socket clientSocket) {
-			this.clientSocket = clientSocket;
-		} // constructor
+		private void parseMessage(int seat, CardGameMessage message) {
+			lock.lock();
+			try {
+				// updates the playerID
+				message.setPlayerID(seat);
+
+				// parses the message based on it type
+				switch (message.getType()) {
+				case CardGameMessage.JOIN:
+					// adds a player to the game
+					addPlayer(seat, (String) message.getData());
+					break;
+				case CardGameMessage.READY:
+					// marks the specified player as ready for a new game
+					setReadyState(seat);
+					break;
+				case CardGameMessage.MOVE:
+					if (!makeMove(message)) {
+						log(AsyncLogger.DEBUG, "Rejects an illegal move from "
+								+ addressOf(seat));
+						// tells the sender only that its move is illegal
+						sendMessage(seat, new CardGameMessage(
+								CardGameMessage.ILLEGAL_MOVE, seat,
+								message.getData()));
+					}
+					break;
+				case CardGameMessage.SYNC:
+					// sends the changes since the sequence number known to the
+					// client, or a snapshot
+					int since = message.getData() instanceof Integer ? (Integer) message
+							.getData() : -1;
+					sendMessage(seat, new CardGameMessage(CardGameMessage.SYNC, seat,
+							gameSync(tableID, seat, since)));
+					break;
+				case CardGameMessage.MSG:
+					if (logger.isEnabled(AsyncLogger.DEBUG)) {
+						log(AsyncLogger.DEBUG, "Broadcasts a user message from "
+								+ addressOf(seat));
+					}
+					// broadcast the user message to all clients
+					broadcastUserMessage(seat, (String) message.getData());
+					break;
+				default:
+					log(AsyncLogger.WARN, "Wrong message type: " + message.getType());
+					// invalid message
+					break;
+				}
+			} finally {
+				lock.unlock();
+			}
+		} // parseMessage
+
+		/**
+		 * Broadcasts the specified message to all clients at this table. The
+		 * message is encoded once for each codec in use at the table, and the
+		 * frames are shared by the clients (see BroadcastFrames).
+		 * 
+		 * @param message
+		 *            the specified message to be broadcast to all clients
+		 */
+		private void broadcastMessage(CardGameMessage message) {
+			long start = System.nanoTime();
+			BroadcastFrames frames = new BroadcastFrames(message);
+			int recipients = 0;
+			lock.lock();
+			try {
+				for (int i = 0; i < maxNumOfPlayers; i++) {
+					if (clientConnections[i] != null) {
+						try {
+							clientConnections[i].sendFrame(
+									frames.frameFor(clientConnections[i]),
+									ClientConnection.isDroppable(message));
+							recipients++;
+						} catch (Exception ex) {
+							log(AsyncLogger.WARN, "Error in broadcasting a message to the client at "
+									+ clientConnections[i].getRemoteSocketAddress(), ex);
+						}
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			metrics.messageSent(message.getType(), recipients);
+			metrics.getBroadcastLatency().recordSince(start);
+		} // broadcastMessage
+
+		/**
+		 * Sends the specified message to one client only.
+		 * 
+		 * @param seat
+		 *            the playerID of the client at this table
+		 * @param message
+		 *            the specified message to be sent to the client
+		 */
+		private void sendMessage(int seat, CardGameMessage message) {
+			lock.lock();
+			try {
+				if (clientConnections[seat] != null) {
+					try {
+						clientConnections[seat].send(message);
+						metrics.messageSent(message.getType(), 1);
+					} catch (Exception ex) {
+						log(AsyncLogger.WARN, "Error in sending a message to the client at "
+								+ clientConnections[seat].getRemoteSocketAddress(), ex);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		} // sendMessage
+
+		/**
+		 * Adds a new connection to the first empty seat of this table
+		 * 
+		 * @param connection
+		 *            the connection to be added to this table
+		 */
+		private void addConnection(ClientConnection connection) {
+			lock.lock();
+			try {
+				// locates the first empty slot for the new connection, skipping
+				// the seats held for players and the seats of bots
+				for (int i = 0; i < maxNumOfPlayers; i++) {
+					if (clientConnections[i] == null && awayConnections[i] == null
+							&& !botSeats[i]) {
+						clientConnections[i] = connection;
+						clientNames[i] = null;
+						clientReadyStates[i] = false;
+						clientTokens[i] = null;
+						awayConnections[i] = null;
+						numOfPlayers++;
+						connection.attach(new Seat(this, i));
+						println("Establishes a connection with a client at "
+								+ connection.getRemoteSocketAddress());
+
+						// sends the player list to the new player
+						sendMessage(i, new CardGameMessage(
+								CardGameMessage.PLAYER_LIST, i, clientNames));
+						break;
+					}
+				} // for
+			} finally {
+				lock.unlock();
+			}
+		} // addConnection
+
+		/**
+		 * Removes a connection from this table (possibly due to connection
+		 * loss).
+		 * 
+		 * @param seat
+		 *            the playerID of the client at this table
+		 * @param connection
+		 *            the connection being removed from this table
+		 */
+		private void removeConnection(int seat,
+				ClientConnection connection) {
+			lock.lock();
+			try {
+				if (clientConnections[seat] == connection) {
+					clientConnections[seat] = null;
+					if (clientNames[seat] != null && resumeGraceMillis > 0) {
+						// holds the seat until the player resumes or the grace
+						// period ends
+						awayConnections[seat] = connection;
+						println(clientNames[seat] + " ("
+								+ connection.getRemoteSocketAddress()
+								+ ") loses the connection. The seat is held for "
+								+ resumeGraceMillis + " ms.");
+						String token = clientTokens[seat];
+						try {
+							seatScheduler().schedule(() -> {
+								if (expireSeat(seat, token)) {
+									updateLobby(this);
+								}
+							}, resumeGraceMillis, TimeUnit.MILLISECONDS);
+						} catch (RejectedExecutionException ex) {
+							// the server has stopped: the seat is never released
+						}
+
+						// broadcasts a message about the absence of this player
+						broadcastMessage(new CardGameMessage(CardGameMessage.AWAY,
+								seat, connection.getRemoteSocketAddress().toString()));
+					} else {
+						releaseSeat(seat, connection);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		} // removeConnection
+
+		/**
+		 * Releases the seat of a player who leaves, and aborts the game in
+		 * progress. It is called while holding the lock of this table.
+		 * 
+		 * @param seat
+		 *            the playerID of the player who leaves
+		 * @param connection
+		 *            the last connection of the player
+		 */
+		private void releaseSeat(int seat, ClientConnection connection) {
+			String name = clientNames[seat];
+
+			if (clientTokens[seat] != null) {
+				reconnectTokens.remove(clientTokens[seat]);
+			}
+			clientTokens[seat] = null;
+			awayConnections[seat] = null;
+			clientNames[seat] = null;
+			clientReadyStates[seat] = false;
+			numOfPlayers--;
+
+			println(name + " (" + connection.getRemoteSocketAddress()
+					+ ") leaves the game.");
+
+			// stops the game in progress, if any
+			gameAborted(tableID);
+			version++;
+
+			String remoteAddress = connection.getRemoteSocketAddress()
+					.toString();
+
+			// broadcasts a message about the leaving of this player
+			broadcastMessage(new CardGameMessage(CardGameMessage.QUIT,
+					seat, remoteAddress));
+
+			if (numOfPlayers == numOfBots) {
+				// the bots leave with the last player, so that the table
+				// can be recycled
+				for (int i = 0; i < maxNumOfPlayers; i++) {
+					if (botSeats[i]) {
+						botSeats[i] = false;
+						clientNames[i] = null;
+						clientReadyStates[i] = false;
+					}
+				}
+				numOfPlayers = 0;
+				numOfBots = 0;
+			} else {
+				scheduleBotFill();
+			}
+		} // releaseSeat
+
+		/**
+		 * Releases a seat held for a player at the end of its grace period,
+		 * unless the player has resumed meanwhile.
+		 * 
+		 * @param seat
+		 *            the playerID of the player
+		 * @param token
+		 *            the reconnect token of the player when the seat was held
+		 * @return true if the seat has been released
+		 */
+		private boolean expireSeat(int seat, String token) {
+			lock.lock();
+			try {
+				if (awayConnections[seat] == null || token == null
+						|| !token.equals(clientTokens[seat])) {
+					return false;
+				}
+				releaseSeat(seat, awayConnections[seat]);
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		} // expireSeat
+
+		/**
+		 * Seats a connection at the seat of a player who has lost the
+		 * connection, replacing the previous connection if it has not been
+		 * seen to drop yet. The client receives a snapshot of the game, the
+		 * player list and a new reconnect token, and the other players are
+		 * told that the player is back.
+		 * 
+		 * @param seat
+		 *            the playerID of the player
+		 * @param token
+		 *            the reconnect token sent by the client
+		 * @param connection
+		 *            the new connection of the player
+		 * @return true if the token is the current token of the seat
+		 */
+		private boolean resumeConnection(int seat, String token,
+				ClientConnection connection) {
+			lock.lock();
+			try {
+				if (!token.equals(clientTokens[seat])) {
+					return false;
+				}
+				ClientConnection previous = clientConnections[seat];
+				if (previous != null) {
+					previous.attach(DETACHED);
+					previous.close();
+				}
+				clientConnections[seat] = connection;
+				awayConnections[seat] = null;
+				connection.attach(new Seat(this, seat));
+				println(clientNames[seat] + " ("
+						+ connection.getRemoteSocketAddress()
+						+ ") resumes the game.");
+
+				// sends the game and the player list to the player, and
+				// replaces its token, so that the timer of the seat expires
+				sendMessage(seat, new CardGameMessage(CardGameMessage.RESUME,
+						seat, gameSnapshot(tableID, seat)));
+				sendMessage(seat, new CardGameMessage(
+						CardGameMessage.PLAYER_LIST, seat, clientNames));
+				issueToken(seat);
+
+				// tells the other players that the player is back
+				for (int i = 0; i < maxNumOfPlayers; i++) {
+					if (i != seat) {
+						sendMessage(i, new CardGameMessage(
+								CardGameMessage.RESUME, seat, clientNames[seat]));
+					}
+				}
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		} // resumeConnection
+
+		/**
+		 * Issues a new reconnect token for a player who has joined, and sends
+		 * it to the player. It is called while holding the lock of this table.
+		 * 
+		 * @param seat
+		 *            the playerID of the player
+		 */
+		private void issueToken(int seat) {
+			if (clientTokens[seat] != null) {
+				reconnectTokens.remove(clientTokens[seat]);
+			}
+			byte[] bytes = new byte[16];
+			tokenRandom.nextBytes(bytes);
+			String token = HexFormat.of().formatHex(bytes);
+			clientTokens[seat] = token;
+			reconnectTokens.put(token, new Seat(this, seat));
+			sendMessage(seat, new CardGameMessage(CardGameMessage.TOKEN, seat,
+					token));
+		} // issueToken
+
+		/**
+		 * adds a player to the game.
+		 * 
+		 * @param seat
+		 *            the playerID of the player who is joining the game
+		 * @param name
+		 *            the name of the player who is joining the game
+		 */
+		private void addPlayer(int seat, String name) {
+			lock.lock();
+			try {
+				// updates the name of the new player
+				clientNames[seat] = name;
+
+				println(name + " (" + clientConnections[seat].getRemoteSocketAddress()
+						+ ") joins the game.");
+
+				// broadcasts a message about this player joining the game
+				broadcastMessage(new CardGameMessage(CardGameMessage.JOIN, seat,
+						name));
+
+				// sends a reconnect token to this player
+				issueToken(seat);
+
+				// fills the empty seats with bots after a while
+				scheduleBotFill();
+			} finally {
+				lock.unlock();
+			}
+		} // addPlayer
+
+		/**
+		 * Makes a move if it is legal, broadcasting it to all clients and
+		 * letting the bot for the next turn, if any, choose its move. It is
+		 * called while holding the lock of this table.
+		 * 
+		 * @param message
+		 *            the MOVE message of the player
+		 * @return true if the move is legal, and false otherwise
+		 */
+		private boolean makeMove(CardGameMessage message) {
+			if (!checkMove(tableID, message)) {
+				return false;
+			}
+			if (logger.isEnabled(AsyncLogger.DEBUG)) {
+				log(AsyncLogger.DEBUG, "Broadcasts a \"MOVE\" message from "
+						+ addressOf(message.getPlayerID()));
+			}
+			// broadcast the accepted MOVE message to all clients
+			broadcastMessage(message);
+			version++;
+			scheduleBotTurn();
+			return true;
+		} // makeMove
+
+		/**
+		 * Schedules the empty seats of this table to be filled with bots, if
+		 * the server seats bots. It is called while holding the lock of this
+		 * table.
+		 */
+		private void scheduleBotFill() {
+			if (botFillMillis < 0 || botFillPending
+					|| numOfPlayers == maxNumOfPlayers) {
+				return;
+			}
+			try {
+				seatScheduler().schedule(() -> CardGameServer.this.fillWithBots(this),
+						botFillMillis, TimeUnit.MILLISECONDS);
+				botFillPending = true;
+			} catch (RejectedExecutionException ex) {
+				// the server has stopped
+			}
+		} // scheduleBotFill
+
+		/**
+		 * Seats a bot in each empty seat of this table, unless its players
+		 * have all left. The bots are ready at once, so the game starts if the
+		 * players are ready.
+		 */
+		private void fillWithBots() {
+			lock.lock();
+			try {
+				botFillPending = false;
+				if (!inUse || numOfPlayers == numOfBots) {
+					return;
+				}
+				for (int i = 0; i < maxNumOfPlayers; i++) {
+					if (clientConnections[i] == null && awayConnections[i] == null
+							&& !botSeats[i]) {
+						botSeats[i] = true;
+						clientNames[i] = "Bot " + (i + 1);
+						clientReadyStates[i] = false;
+						numOfPlayers++;
+						numOfBots++;
+						println(clientNames[i] + " joins the game.");
+						broadcastMessage(new CardGameMessage(CardGameMessage.JOIN, i,
+								clientNames[i]));
+					}
+				}
+				for (int i = 0; i < maxNumOfPlayers; i++) {
+					if (botSeats[i] && !clientReadyStates[i]) {
+						setReadyState(i);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		} // fillWithBots
+
+		/**
+		 * Lets a bot worker choose the move of the bot for the current turn,
+		 * if any. It is called while holding the lock of this table.
+		 */
+		private void scheduleBotTurn() {
+			int seat = currentPlayer(tableID);
+			if (seat < 0 || !botSeats[seat] || botTurnPending) {
+				return;
+			}
+			int expected = version;
+			try {
+				botWorkers().execute(() -> playBotTurn(seat, expected));
+				botTurnPending = true;
+			} catch (RejectedExecutionException ex) {
+				// the server has stopped
+			}
+		} // scheduleBotTurn
+
+		/**
+		 * Chooses and makes the move of a bot on a bot worker. The move is
+		 * chosen from a snapshot without holding the lock of this table, and
+		 * is discarded if the game has changed meanwhile.
+		 * 
+		 * @param seat
+		 *            the playerID of the bot
+		 * @param expected
+		 *            the version of the game when the turn was scheduled
+		 */
+		private void playBotTurn(int seat, int expected) {
+			Object snapshot;
+			lock.lock();
+			try {
+				if (version != expected || !botSeats[seat]) {
+					botTurnPending = false;
+					scheduleBotTurn();
+					return;
+				}
+				snapshot = gameSnapshot(tableID, seat);
+			} finally {
+				lock.unlock();
+			}
+			long start = cpuTime();
+			Object move = null;
+			try {
+				move = chooseBotMove(tableID, seat, snapshot, botMoveBudgetNanos);
+			} catch (RuntimeException ex) {
+				log(AsyncLogger.ERROR, "Error in choosing the move of "
+						+ addressOf(seat), ex);
+			}
+			long cpuNanos = cpuTime() - start;
+			metrics.botMoved(cpuNanos, cpuNanos > botMoveBudgetNanos);
+			boolean removed = false;
+			lock.lock();
+			try {
+				botTurnPending = false;
+				if (version != expected || !botSeats[seat]) {
+					scheduleBotTurn();
+					return;
+				}
+				if (makeMove(new CardGameMessage(CardGameMessage.MOVE, seat, move))) {
+					botRejections = 0;
+				} else if (++botRejections < BOT_MOVE_ATTEMPTS) {
+					// the state has not changed, so the bot chooses again
+					log(AsyncLogger.WARN, "Rejects an illegal move from "
+							+ addressOf(seat) + ", which chooses again");
+					scheduleBotTurn();
+				} else {
+					// the bot would stall the table: it leaves, which aborts
+					// the game, and another bot takes the seat
+					log(AsyncLogger.ERROR, "Removes " + addressOf(seat)
+							+ ", which makes no legal move");
+					botRejections = 0;
+					removeBot(seat);
+					removed = true;
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (removed) {
+				updateLobby(this);
+			}
+		} // playBotTurn
+
+		/**
+		 * Removes a bot from this table, aborting the game in progress, and
+		 * schedules its seat to be filled again. It is called while holding
+		 * the lock of this table.
+		 * 
+		 * @param seat
+		 *            the playerID of the bot
+		 */
+		private void removeBot(int seat) {
+			println(clientNames[seat] + " leaves the game.");
+			botSeats[seat] = false;
+			clientNames[seat] = null;
+			clientReadyStates[seat] = false;
+			numOfPlayers--;
+			numOfBots--;
+			gameAborted(tableID);
+			version++;
+			broadcastMessage(new CardGameMessage(CardGameMessage.QUIT, seat,
+					"bot"));
+			scheduleBotFill();
+		} // removeBot
+
+		/**
+		 * Returns the CPU time of the current thread, or the wall-clock time
+		 * if the JVM does not measure it.
+		 * 
+		 * @return the time in nanoseconds
+		 */
+		private long cpuTime() {
+			return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean
+					.getCurrentThreadCpuTime() : System.nanoTime();
+		}
+
+		/**
+		 * Returns the address of the client at a seat for the log, or a
+		 * description of the bot at the seat.
+		 * 
+		 * @param seat
+		 *            the playerID of the client or the bot
+		 * @return the address or the description
+		 */
+		private String addressOf(int seat) {
+			if (botSeats[seat]) {
+				return "the bot at seat " + seat;
+			}
+			ClientConnection connection = clientConnections[seat];
+			return connection == null ? "an away player"
+					: connection.getRemoteSocketAddress().toString();
+		}
+
+		/**
+		 * Marks the specified player as ready for a new game.
+		 * 
+		 * @param seat
+		 *            the playerID of the player who becomes ready for a new
+		 *            game
+		 */
+		private void setReadyState(int seat) {
+			lock.lock();
+			try {
+				clientReadyStates[seat] = true;
+				println(clientNames[seat] + " (" + addressOf(seat)
+						+ " ) is ready for the next game.");
+				broadcastMessage(new CardGameMessage(CardGameMessage.READY, seat,
+						null));
+
+				// checks if all players are ready
+				if (numOfPlayers == maxNumOfPlayers) {
+					for (int i = 0; i < maxNumOfPlayers; i++) {
+						if (clientReadyStates[i] == false) {
+							// returns if any of the players is not ready
+							return;
+						}
+					}
+
+					// resets the ready states of all the players for the next
+					// game, except the bots which are always ready
+					for (int i = 0; i < maxNumOfPlayers; i++) {
+						clientReadyStates[i] = botSeats[i];
+					}
+
+					// creates a new deck, shuffles the deck with a fresh seed, and
+					// starts a new game. The seed is logged so that the deal can be
+					// reproduced.
+					long seed = ThreadLocalRandom.current().nextLong();
+					Deck deck = createDeck();
+					deck.shuffle(new SplittableRandom(seed));
+					println("All players are ready. Game starts (deal seed " + seed
+							+ ").");
+					gameStarted(tableID, deck, seed);
+					metrics.gameStarted();
+					broadcastMessage(new CardGameMessage(CardGameMessage.START, -1,
+							deck));
+					version++;
+					scheduleBotTurn();
+				}
+			} finally {
+				lock.unlock();
+			}
+		} // setReadyState
+
+		private void broadcastUserMessage(int seat, String msg) {
+			lock.lock();
+			try {
+				String longMsg = clientNames[seat] + " ("
+						+ clientConnections[seat].getRemoteSocketAddress() + "): " + msg;
+				broadcastMessage(new CardGameMessage(CardGameMessage.MSG, seat,
+						longMsg));
+			} finally {
+				lock.unlock();
+			}
+		} // broadcastUserMessage
+
+		/**
+		 * Logs the specified message at the INFO level, marked with the ID of
+		 * this table.
+		 * 
+		 * @param msg
+		 */
+		private void println(String msg) {
+			log(AsyncLogger.INFO, msg);
+		}
+
+		/**
+		 * Logs the specified message, marked with the ID of this table.
+		 * 
+		 * @param level
+		 *            the level of the message
+		 * @param msg
+		 * @param ex
+		 *            the exception of the message, or none
+		 */
+		private void log(int level, String msg, Throwable... ex) {
+			CardGameServer.this.log(level, "[Table " + tableID + "] " + msg, ex);
+		}
+	} // Table
+
+	/**
+	 * Logs the specified message at the INFO level.
+	 * 
+	 * @param msg
+	 */
+	private void println(String msg) {
+		logger.log(AsyncLogger.INFO, msg);
+	}
+
+	/**
+	 * Logs the specified message.
+	 * 
+	 * @param level
+	 *            the level of the message
+	 * @param msg
+	 * @param ex
+	 *            the exception of the message, or none
+	 */
+	protected void log(int level, String msg, Throwable... ex) {
+		logger.log(level, msg, ex.length > 0 ? ex[0] : null);
+	}
+
+	/**
+	 * Appends a batch of lines of the log to the text area, dropping the
+	 * oldest lines beyond MAX_CONSOLE_LINES. It is called on the event
+	 * dispatch thread.
+	 * 
+	 * @param text
+	 */
+	private void append(String text) {
+		textArea.append(text);
+		int excess = textArea.getLineCount() - MAX_CONSOLE_LINES;
+		if (excess > 0) {
+			try {
+				textArea.replaceRange(null, 0,
+						textArea.getLineEndOffset(excess - 1));
+			} catch (BadLocationException ex) {
+				ex.printStackTrace();
+			}
+		}
+		textArea.setCaretPosition(textArea.getDocument().getLength());
+	}
+
+	/**
+	 * This inner class is used to model the seat of a connection at a table,
+	 * which is attached to the connection
+	 * 
+	 * @author Kenneth Wong
+	 *
+	 */
+	private class Seat {
+		private final Table table; // table of the client
+		private final int index; // playerID of the client at its table
+
+		public Seat(Table table, int index) {
+			this.table = table;
+			this.index = index;
+		}
+	} // Seat
+
+	/**
+	 * This inner class is used for handling the events of the connections of
+	 * either transport, routing each message to the table of its connection
+	 * 
+	 * @author Kenneth Wong
+	 *
+	 */
+	private class ConnectionHandler implements ConnectionListener {
+		public void connectionOpened(ClientConnection connection) {
+			// the connection is seated on its first message
+			metrics.connectionOpened();
+		}
+
+		public void messageReceived(ClientConnection connection,
+				CardGameMessage message) {
+			metrics.messageReceived(message.getType());
+			if (connection.attachment() == null) {
+				if (message.getType() == CardGameMessage.RESUME) {
+					resumeConnection(connection,
+							message.getData() instanceof String ? (String) message
+									.getData() : null);
+					return;
+				}
+				addConnection(connection);
+			}
+			if (connection.attachment() instanceof Seat) {
+				Seat seat = (Seat) connection.attachment();
+				if (logger.isEnabled(AsyncLogger.DEBUG)) {
+					log(AsyncLogger.DEBUG, "Message received from "
+							+ connection.getRemoteSocketAddress());
+				}
+				long start = System.nanoTime();
+				seat.table.parseMessage(seat.index, message);
+				metrics.getParseLatency().recordSince(start);
+			}
+		}
+
+		public void frameReceived(ClientConnection connection, int bytes,
+				long decodeNanos) {
+			metrics.frameReceived(bytes, decodeNanos);
+		}
+
+		public void frameSent(ClientConnection connection, int bytes) {
+			metrics.frameSent(bytes);
+		}
+
+		public void transportError(String msg, Exception ex) {
+			log(AsyncLogger.ERROR, msg, ex);
+		}
+
+		public void connectionClosed(ClientConnection connection) {
+			if (connection.getCodec() != null) {
+				// the connection had been opened
+				metrics.connectionClosed();
+			}
+			if (connection.isEvicted()) {
+				log(AsyncLogger.WARN, "Evicted a slow client at "
+						+ connection.getRemoteSocketAddress());
+			}
+			if (connection.attachment() instanceof Seat) {
+				Seat seat = (Seat) connection.attachment();
+				connection.attach(null);
+				seat.table.removeConnection(seat.index, connection);
+				updateLobby(seat.table);
+			}
+		}
+	} // ConnectionHandler
+
+	/**
+	 * This inner class is used to model a connection with a blocking socket,
+	 * whose outbound queue is written by a thread of its own (see ClientWriter)
+	 * 
+	 * @author Kenneth Wong
+	 *
+	 */
+	private class SocketConnection extends ClientConnection {
+		private Socket clientSocket; // socket connection to the client
+		private DataOutputStream dostream; // DataOutputStream of the client
+
+		/**
+		 * Creates and returns an instance of the SocketConnection class.
+		 * 
+		 * @param clientSocket
+		 *            the socket connection to the client
+		 */
+		public SocketConnection(Socket clientSocket) throws IOException {
+			super(clientSocket.getRemoteSocketAddress(), connectionHandler,
+					outboundLimits);
+			this.clientSocket = clientSocket;
+			clientSocket.setTcpNoDelay(true);
+			dostream = new DataOutputStream(new BufferedOutputStream(
+					clientSocket.getOutputStream()));
+		} // constructor
+
+		protected void framesQueued() {
+			// the writer thread is woken by the queue
+		}
+
+		protected void evict() {
+			// the receiving thread sees the closed socket and removes the client
+			close();
+		}
+
+		public void reject(CardGameMessage message) {
+			// creates a thread for sending the message to this client, waits
+			// for 1000 milliseconds and closes the socket
+			Thread t = handlerThreads.newThread(new ClientHandler2(this,
+					message));
+			t.start();
+		}
+
+		public void close() {
+			getOutboundQueue().close();
+			try {
+				clientSocket.close();
+			} catch (Exception ex) {
+				log(AsyncLogger.WARN, "Error in closing the client socket at "
+						+ getRemoteSocketAddress(), ex);
+			}
+		}
+	} // SocketConnection
+
+	/**
+	 * This inner class is used for receiving incoming messages from a client
+	 * 
+	 * @author Kenneth Wong
+	 *
+	 */
+	private class ClientHandler implements Runnable {
+		private SocketConnection connection; // connection to the client
+		private DataInputStream distream; // DataInputStream of the client
+
+		/**
+		 * Creates and returns an instance of the ClientHandler class.
+		 * 
+		 * @param connection
+		 *            the connection to the client
+		 */
+		public ClientHandler(SocketConnection connection) {
+			this.connection = connection;
+			try {
+				// creates a DataInputStream and chains it to the InputStream
+				// of the client socket
+				distream = new DataInputStream(new BufferedInputStream(
+						connection.clientSocket.getInputStream()));
+			} catch (Exception ex) {
+				log(AsyncLogger.WARN, "Error in creating a DataInputStream for the client at "
+						+ connection.getRemoteSocketAddress(), ex);
+			}
+		} // constructor
 
 		// implementation of method from the Runnable interface
 		public void run() {
+			byte[] frame;
 			try {
-				// creates an ObjectOutputStream and chains it to the
-				// OutputStream
-				// of the client socket
-				ObjectOutputStream oostream = new ObjectOutputStream(
-						clientSocket.getOutputStream());
-				// sends a FULL message to the client
-				oostream.writeObject(new CardGameMessage(CardGameMessage.FULL,
-						-1, null));
-				oostream.flush();
+				// waits for messages from the client
+				while ((frame = MessageCodec.readFrame(distream)) != null) {
+					connection.frameReceived(frame, 0, frame.length);
+				} // close while
 			} catch (Exception ex) {
-				println("Error in sending a FULL message to the client at "
-						+ clientSocket.getRemoteSocketAddress());
-				ex.printStackTrace();
+				log(AsyncLogger.WARN, "Error in receiving messages from the client at "
+						+ connection.getRemoteSocketAddress(), ex);
 			}
+			// connection closed or lost, removes the connection
+			connection.close();
+			connectionHandler.connectionClosed(connection);
+		} // run
+	} // ClientHandler
 
-			// sleeps for 1000 milliseconds before closing the socket
+	/**
+	 * This inner class is used for writing the outbound queue of a client,
+	 * flushing the socket once for all the frames queued at a time
+	 * 
+	 * @author Kenneth Wong
+	 *
+	 */
+	private class ClientWriter implements Runnable {
+		private SocketConnection connection; // connection to the client
+
+		/**
+		 * Creates and returns an instance of the ClientWriter class.
+		 * 
+		 * @param connection
+		 *            the connection to the client
+		 */
+		public ClientWriter(SocketConnection connection) {
+			this.connection = connection;
+		} // constructor
+
+		// implementation of method from the Runnable interface
+		public void run() {
+			ByteBuffer[] frames = new ByteBuffer[16];
+			OutboundQueue outbound = connection.getOutboundQueue();
 			try {
-				Thread.sleep(1000);
+				int n;
+				// waits for frames until the connection is closed
+				while ((n = outbound.awaitDrainTo(frames)) > 0) {
+					MessageCodec.writeFrames(connection.dostream, frames, n);
+					outbound.release(n);
+				}
 			} catch (Exception ex) {
-				println("Error in sleeping before closing the client socket at "
-						+ clientSocket.getRemoteSocketAddress());
-				ex.printStackTrace();
+				// connection lost, the receiving thread removes the client
+				connection.close();
+			}
+		} // run
+	} // ClientWriter
+
+	private class ClientHandler2 implements Runnable {
+		private SocketConnection connection; // connection to the client
+		private CardGameMessage message; // last message to the client
+
+		/**
+		 * Creates and returns an instance of the ClientHandler2 class.
+		 * 
+		 * @param connection
+		 *            the connection to the client
+		 * @param message
+		 *            the last message to be sent to the client
+		 */
+		public ClientHandler2(SocketConnection connection,
+				CardGameMessage message) {
+			this.connection = connection;
+			this.message = message;
+		} // constructor
+
+		// implementation of method from the Runnable interface
+		public void run() {
+			try {
+				// sends the message to the client
+				connection.send(message);
+			} catch (Exception ex) {
+				log(AsyncLogger.WARN, "Error in sending a message to the client at "
+						+ connection.getRemoteSocketAddress(), ex);
 			}
 
-			// closes the socket
+			// sleeps for 1000 milliseconds before closing the socket
 			try {
-				clientSocket.close();
+				Thread.sleep(1000);
 			} catch (Exception ex) {
-				println("Error in closing the client socket at "
-						+ clientSocket.getRemoteSocketAddress());
-				ex.printStackTrace();
+				log(AsyncLogger.WARN, "Error in sleeping before closing the client socket at "
+						+ connection.getRemoteSocketAddress(), ex);
 			}
+
+			// closes the socket
+			connection.close();
 		} // run
 	} // ClientHandler2
 
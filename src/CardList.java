@@ -1,5 +1,5 @@
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class is used to represent a list of cards.
@@ -7,8 +7,16 @@ import java.util.ArrayList;
  * @author Kenneth Wong
  */
 public class CardList implements Serializable {
-	private static final long serialVersionUID = -3711761437629470849L;
-	private ArrayList<Card> cards = new ArrayList<Card>();
+	private static final long serialVersionUID = 5189412287705336516L;
+	private static final int DEFAULT_CAPACITY = 13;
+	// the cards in this list, in list order; only the first size slots are used
+	private Card[] cards = new Card[DEFAULT_CAPACITY];
+	// the number of cards in this list
+	private int size = 0;
+	// the set of distinct cards in this list, for O(1) membership tests
+	private CardSet cardSet = new CardSet();
+	// true if the list is known to be sorted, so that sort() can return at once
+	private boolean sorted = true;
 
 	/**
 	 * Appends the specified card to the end of this list.
@@ -18,7 +26,14 @@ public class CardList implements Serializable {
 	 */
 	public void addCard(Card card) {
 		if (card != null) {
-			cards.add(card);
+			if (size == cards.length) {
+				cards = Arrays.copyOf(cards, Math.max(DEFAULT_CAPACITY, size * 2));
+			}
+			if (sorted && size > 0 && cards[size - 1].compareTo(card) > 0) {
+				sorted = false;
+			}
+			cards[size++] = card;
+			cardSet.add(card);
 		}
 	}
 
@@ -31,8 +46,8 @@ public class CardList implements Serializable {
 	 *         index is invalid
 	 */
 	public Card getCard(int i) {
-		if (i >= 0 && i < cards.size()) {
-			return cards.get(i);
+		if (i >= 0 && i < size) {
+			return cards[i];
 		} else {
 			return null;
 		}
@@ -48,8 +63,13 @@ public class CardList implements Serializable {
 	 *         invalid
 	 */
 	public Card removeCard(int i) {
-		if (i >= 0 && i < cards.size()) {
-			return cards.remove(i);
+		if (i >= 0 && i < size) {
+			Card card = cards[i];
+			boolean mayRepeat = size > cardSet.size();
+			System.arraycopy(cards, i + 1, cards, i, size - i - 1);
+			cards[--size] = null;
+			unmark(card, mayRepeat);
+			return card;
 		} else {
 			return null;
 		}
@@ -66,14 +86,69 @@ public class CardList implements Serializable {
 	 * @return true if this list contained the specified card; otherwise false
 	 */
 	public boolean removeCard(Card card) {
-		return cards.remove(card);
+		if (!cardSet.contains(card)) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (card.equals(cards[i])) {
+				removeCard(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the cards in the specified list from this list. If this list
+	 * holds no duplicated cards, this is done in a single pass using the card
+	 * masks of both lists.
+	 * 
+	 * @param cards
+	 *            the list of cards to be removed from this list
+	 */
+	public void removeCards(CardList cards) {
+		if (cards == null) {
+			return;
+		}
+		if (size != cardSet.size() || cards.size != cards.cardSet.size()) {
+			for (int i = 0; i < cards.size; i++) {
+				removeCard(cards.cards[i]);
+			}
+			return;
+		}
+		long toRemove = cardSet.getMask() & cards.cardSet.getMask();
+		if (toRemove == 0L) {
+			return;
+		}
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			Card card = this.cards[i];
+			if (card == null || (toRemove & CardSet.bitOf(card)) == 0) {
+				this.cards[j++] = card;
+			}
+		}
+		Arrays.fill(this.cards, j, size, null);
+		size = j;
+		cardSet.removeAll(toRemove);
+	}
+
+	/**
+	 * Returns the mask of the distinct cards in this list (see CardSet).
+	 * 
+	 * @return the mask of the distinct cards in this list
+	 */
+	public long getMask() {
+		return cardSet.getMask();
 	}
 
 	/**
 	 * Removes all cards from this list.
 	 */
 	public void removeAllCards() {
-		cards = new ArrayList<Card>();
+		Arrays.fill(cards, 0, size, null);
+		size = 0;
+		cardSet.clear();
+		sorted = true;
 	}
 
 	/**
@@ -88,8 +163,18 @@ public class CardList implements Serializable {
 	 *         the index is invalid
 	 */
 	public Card setCard(int i, Card card) {
-		if (i >= 0 && i < cards.size()) {
-			return cards.set(i, card);
+		if (i >= 0 && i < size) {
+			Card previous = cards[i];
+			boolean mayRepeat = size > cardSet.size();
+			cards[i] = card;
+			if (previous != null && !previous.equals(card)) {
+				unmark(previous, mayRepeat);
+			}
+			if (card != null) {
+				cardSet.add(card);
+			}
+			sorted = false;
+			return previous;
 		} else {
 			return null;
 		}
@@ -103,7 +188,7 @@ public class CardList implements Serializable {
 	 * @return true if this list contains the specified card; otherwise false
 	 */
 	public boolean contains(Card card) {
-		return cards.contains(card);
+		return cardSet.contains(card);
 	}
 
 	/**
@@ -112,14 +197,17 @@ public class CardList implements Serializable {
 	 * @return true if this list contains no cards; otherwise false
 	 */
 	public boolean isEmpty() {
-		return cards.isEmpty();
+		return size == 0;
 	}
 
 	/**
 	 * Sorts this list according to the order of the cards.
 	 */
 	public void sort() {
-		cards.sort(null);
+		if (!sorted) {
+			Arrays.sort(cards, 0, size);
+			sorted = true;
+		}
 	}
 
 	/**
@@ -128,7 +216,7 @@ public class CardList implements Serializable {
 	 * @return the number of cards in this list
 	 */
 	public int size() {
-		return cards.size();
+		return size;
 	}
 
 	/**
@@ -150,14 +238,14 @@ public class CardList implements Serializable {
 	 *            of each card
 	 */
 	public void print(boolean printFront, boolean printIndex) {
-		if (cards.size() > 0) {
-			for (int i = 0; i < cards.size(); i++) {
+		if (size > 0) {
+			for (int i = 0; i < size; i++) {
 				String string = "";
 				if (printIndex) {
 					string = i + " ";
 				}
 				if (printFront) {
-					string = string + "[" + cards.get(i) + "]";
+					string = string + "[" + cards[i] + "]";
 				} else {
 					string = string + "[  ]";
 				}
@@ -165,7 +253,7 @@ public class CardList implements Serializable {
 					string = " " + string;
 				}
 				System.out.print(string);
-				if (i % 13 == 12 || i == cards.size() - 1) {
+				if (i % 13 == 12 || i == size - 1) {
 					System.out.println("");
 				}
 			}
@@ -181,10 +269,10 @@ public class CardList implements Serializable {
 	 */
 	public String toString() {
 		String string = "";
-		if (cards.size() > 0) {
-			for (int i = 0; i < cards.size(); i++) {
-				string = string + "[" + cards.get(i) + "]";
-				if (i != cards.size() - 1) {
+		if (size > 0) {
+			for (int i = 0; i < size; i++) {
+				string = string + "[" + cards[i] + "]";
+				if (i != size - 1) {
 					string = string + " ";
 				}
 			}
@@ -194,4 +282,46 @@ public class CardList implements Serializable {
 
 		return string;
 	}
+
+	/**
+	 * Swaps the cards at the specified positions in this list. The set of
+	 * cards in the list is unchanged.
+	 * 
+	 * @param i
+	 *            the index of the first card
+	 * @param j
+	 *            the index of the second card
+	 */
+	public void swapCards(int i, int j) {
+		if (i >= 0 && i < size && j >= 0 && j < size && i != j) {
+			Card card = cards[i];
+			cards[i] = cards[j];
+			cards[j] = card;
+			sorted = false;
+		}
+	}
+
+	/**
+	 * Clears the bit of a card that has just been taken out of the list,
+	 * unless another copy of the same card is still in the list.
+	 * 
+	 * @param card
+	 *            the card that has been taken out of the list
+	 * @param mayRepeat
+	 *            whether the list held more cards than distinct cards before
+	 *            the card was taken out, i.e., whether a copy may remain
+	 */
+	private void unmark(Card card, boolean mayRepeat) {
+		if (card == null) {
+			return;
+		}
+		if (mayRepeat) {
+			for (int i = 0; i < size; i++) {
+				if (card.equals(cards[i])) {
+					return;
+				}
+			}
+		}
+		cardSet.remove(card);
+	}
 }
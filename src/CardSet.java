@@ -0,0 +1,290 @@
+import java.io.Serializable;
+
+/**
+ * This class is used to represent a set of cards as a 52-bit mask.
+ * <p>
+ * Each card occupies one bit of a long. The bit index of a card follows the
+ * Big Two order (see BigTwoCard.compareTo): the 3 of Diamonds is bit 0, the 3
+ * of Clubs is bit 1, ..., and the 2 of Spades is bit 51. Membership, adding and
+ * removing are therefore O(1), the size is a popcount, and iterating the set
+ * bits from low to high visits the cards in Big Two order without allocating.
+ *
+ * @author yuening
+ */
+public class CardSet implements Serializable {
+	private static final long serialVersionUID = 2481239005561047381L;
+	/**
+	 * The number of distinct cards that can be held by a card set.
+	 */
+	public static final int NUM_OF_CARDS = 52;
+	/**
+	 * A mask with all 52 card bits set.
+	 */
+	public static final long FULL_MASK = (1L << NUM_OF_CARDS) - 1;
+
+	private long mask;
+
+	/**
+	 * Creates and returns an empty card set.
+	 */
+	public CardSet() {
+		this.mask = 0L;
+	}
+
+	/**
+	 * Creates and returns a card set holding the cards of the specified mask.
+	 *
+	 * @param mask
+	 *            a mask of card bits, as returned by getMask() or combined from
+	 *            bitOf()
+	 */
+	public CardSet(long mask) {
+		this.mask = mask & FULL_MASK;
+	}
+
+	/**
+	 * Returns the bit index of the specified card in the Big Two order.
+	 *
+	 * @param card
+	 *            the card whose index is to be returned
+	 * @return an int value between 0 and 51, which is (rank + 11) % 13 * 4 +
+	 *         suit, so that the 3 of Diamonds is 0 and the 2 of Spades is 51
+	 */
+	public static int indexOf(Card card) {
+		return indexOf(card.getSuit(), card.getRank());
+	}
+
+	/**
+	 * Returns the bit index of the card with the specified suit and rank.
+	 *
+	 * @param suit
+	 *            an int value between 0 and 3 representing the suit
+	 * @param rank
+	 *            an int value between 0 and 12 representing the rank
+	 * @return the bit index of the card in the Big Two order
+	 */
+	public static int indexOf(int suit, int rank) {
+		return ((rank + 11) % 13) * 4 + suit;
+	}
+
+	/**
+	 * Returns the single-bit mask of the specified card.
+	 *
+	 * @param card
+	 *            the card whose bit is to be returned
+	 * @return a long value with only the bit of the card set
+	 */
+	public static long bitOf(Card card) {
+		return 1L << indexOf(card);
+	}
+
+	/**
+	 * Returns the suit of the card at the specified bit index.
+	 *
+	 * @param index
+	 *            an int value between 0 and 51
+	 * @return an int value between 0 and 3 representing the suit
+	 */
+	public static int suitOf(int index) {
+		return index & 3;
+	}
+
+	/**
+	 * Returns the rank of the card at the specified bit index.
+	 *
+	 * @param index
+	 *            an int value between 0 and 51
+	 * @return an int value between 0 and 12 representing the rank (0 = 'A')
+	 */
+	public static int rankOf(int index) {
+		return ((index >> 2) + 2) % 13;
+	}
+
+	/**
+	 * Adds the specified card to this set.
+	 *
+	 * @param card
+	 *            the card to be added
+	 * @return true if this set did not already contain the card
+	 */
+	public boolean add(Card card) {
+		long bit = bitOf(card);
+		boolean added = (mask & bit) == 0;
+		mask |= bit;
+		return added;
+	}
+
+	/**
+	 * Removes the specified card from this set.
+	 *
+	 * @param card
+	 *            the card to be removed
+	 * @return true if this set contained the card
+	 */
+	public boolean remove(Card card) {
+		long bit = bitOf(card);
+		boolean removed = (mask & bit) != 0;
+		mask &= ~bit;
+		return removed;
+	}
+
+	/**
+	 * Returns true if this set contains the specified card.
+	 *
+	 * @param card
+	 *            the card whose presence is to be tested
+	 * @return true if this set contains the card; otherwise false
+	 */
+	public boolean contains(Card card) {
+		return card != null && (mask & bitOf(card)) != 0;
+	}
+
+	/**
+	 * Returns true if this set contains all cards of the specified mask.
+	 *
+	 * @param other
+	 *            a mask of card bits
+	 * @return true if every bit of the mask is held by this set
+	 */
+	public boolean containsAll(long other) {
+		return (mask & other) == other;
+	}
+
+	/**
+	 * Adds all cards of the specified mask to this set.
+	 *
+	 * @param other
+	 *            a mask of card bits
+	 */
+	public void addAll(long other) {
+		mask |= other & FULL_MASK;
+	}
+
+	/**
+	 * Removes all cards of the specified mask from this set.
+	 *
+	 * @param other
+	 *            a mask of card bits
+	 */
+	public void removeAll(long other) {
+		mask &= ~other;
+	}
+
+	/**
+	 * Removes all cards from this set.
+	 */
+	public void clear() {
+		mask = 0L;
+	}
+
+	/**
+	 * Returns the number of cards in this set.
+	 *
+	 * @return the number of cards in this set
+	 */
+	public int size() {
+		return Long.bitCount(mask);
+	}
+
+	/**
+	 * Returns true if this set contains no cards.
+	 *
+	 * @return true if this set contains no cards; otherwise false
+	 */
+	public boolean isEmpty() {
+		return mask == 0L;
+	}
+
+	/**
+	 * Returns the mask of card bits held by this set.
+	 *
+	 * @return the mask of card bits held by this set
+	 */
+	public long getMask() {
+		return mask;
+	}
+
+	/**
+	 * Replaces the content of this set with the specified mask.
+	 *
+	 * @param mask
+	 *            a mask of card bits
+	 */
+	public void setMask(long mask) {
+		this.mask = mask & FULL_MASK;
+	}
+
+	/**
+	 * Returns the bit index of the lowest card in this set. Together with
+	 * next(), this iterates over the set in Big Two order:
+	 * <p>
+	 * for (int i = set.first(); i >= 0; i = set.next(i)) { ... }
+	 *
+	 * @return the bit index of the lowest card, or -1 if this set is empty
+	 */
+	public int first() {
+		return mask == 0L ? -1 : Long.numberOfTrailingZeros(mask);
+	}
+
+	/**
+	 * Returns the bit index of the lowest card in this set that is higher than
+	 * the card at the specified index.
+	 *
+	 * @param index
+	 *            the bit index of the previous card
+	 * @return the bit index of the next card, or -1 if there are no more cards
+	 */
+	public int next(int index) {
+		long rest = index >= NUM_OF_CARDS - 1 ? 0L : mask & (-1L << (index + 1));
+		return rest == 0L ? -1 : Long.numberOfTrailingZeros(rest);
+	}
+
+	/**
+	 * Returns the bit index of the highest card in this set.
+	 *
+	 * @return the bit index of the highest card, or -1 if this set is empty
+	 */
+	public int last() {
+		return mask == 0L ? -1 : 63 - Long.numberOfLeadingZeros(mask);
+	}
+
+	/**
+	 * Indicates whether the specified object is a card set with the same cards.
+	 *
+	 * @param obj
+	 *            the reference object with which to compare
+	 * @return true if the object is a card set holding the same cards
+	 */
+	public boolean equals(Object obj) {
+		return obj instanceof CardSet && ((CardSet) obj).mask == mask;
+	}
+
+	/**
+	 * Returns a hash code value for the card set.
+	 *
+	 * @return a hash code value for the card set
+	 */
+	public int hashCode() {
+		return Long.hashCode(mask);
+	}
+
+	/**
+	 * Returns a string representation of the cards in this set, in Big Two
+	 * order.
+	 *
+	 * @return a string representation of the cards in this set
+	 */
+	public String toString() {
+		if (mask == 0L) {
+			return "[Empty]";
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int i = first(); i >= 0; i = next(i)) {
+			if (builder.length() > 0) {
+				builder.append(' ');
+			}
+			builder.append('[').append(BigTwoCard.ofIndex(i)).append(']');
+		}
+		return builder.toString();
+	}
+}
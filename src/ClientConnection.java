@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * This class models the connection of a client to a server, whatever the transport
+ * carrying its frames (see MessageCodec). The server can attach the state of the
+ * client to its connection, so that routing a message to that state takes no lookup.
+ * <p>
+ * The transport hands every frame it reads to frameReceived(). The first frame
+ * chooses the codec of the connection (a HELLO frame, or else a serialized message),
+ * and only then is the connection reported as opened to the listener.
+ * <p>
+ * The frames sent to the client are added to a bounded OutboundQueue, which the I/O
+ * layer of the transport drains, so that sending never waits for the client. Chat
+ * messages are dropped while the queue is congested, and a client whose queue
+ * overflows is evicted.
+ * @author yuening
+ *
+ */
+public abstract class ClientConnection {
+	//the address of the client
+	private final SocketAddress remoteAddress;
+	//the listener of the events of this connection
+	private final ConnectionListener listener;
+	//the codec of this connection, or null until the first frame has been received
+	private volatile MessageCodec codec;
+	//the object attached by the server, or null
+	private volatile Object attachment;
+	//the frames waiting to be written to the client
+	private final OutboundQueue outbound;
+	//a boolean indicating if the client has been evicted for reading too slowly
+	private volatile boolean evicted = false;
+
+	/**
+	 * a constructor for building a connection
+	 * @param remoteAddress
+	 * 		the address of the client
+	 * @param listener
+	 * 		the listener of the events of this connection
+	 * @param limits
+	 * 		the limits of the outbound queue of this connection
+	 */
+	protected ClientConnection(SocketAddress remoteAddress, ConnectionListener listener,
+			OutboundQueue.Limits limits) {
+		this.remoteAddress = remoteAddress;
+		this.listener = listener;
+		this.outbound = new OutboundQueue(limits);
+	}
+
+	/**
+	 * retrieve the address of the client, which is kept after the connection is closed
+	 * @return the address of the client
+	 */
+	public SocketAddress getRemoteSocketAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * attach an object to this connection
+	 * @param attachment
+	 * 		the object, or null to discard the attachment
+	 */
+	public void attach(Object attachment) {
+		this.attachment = attachment;
+	}
+
+	/**
+	 * retrieve the object attached to this connection
+	 * @return the object, or null if none has been attached
+	 */
+	public Object attachment() {
+		return attachment;
+	}
+
+	/**
+	 * retrieve the codec of this connection
+	 * @return the codec chosen by the first frame, or null if no frame has been received
+	 */
+	public MessageCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * retrieve the outbound queue of this connection, e.g. to report its depth
+	 * @return the queue of the frames waiting to be written
+	 */
+	public OutboundQueue getOutboundQueue() {
+		return outbound;
+	}
+
+	/**
+	 * check if the client has been evicted because its outbound queue overflowed
+	 * @return true if the client has been evicted
+	 */
+	public boolean isEvicted() {
+		return evicted;
+	}
+
+	/**
+	 * check if a message may be dropped when the outbound queue of a client is congested
+	 * @param message
+	 * 		the message
+	 * @return true for a chat message, which the game does not depend on
+	 */
+	public static boolean isDroppable(CardGameMessage message) {
+		return message.getType() == CardGameMessage.MSG;
+	}
+
+	/**
+	 * send a message to the client with the codec of this connection. It may be called by
+	 * any thread once the connection has been opened
+	 * @param message
+	 * 		the message to be sent
+	 * @throws IOException
+	 * 		if the message cannot be encoded
+	 */
+	public void send(CardGameMessage message) throws IOException {
+		sendFrame(codec.encode(message), isDroppable(message));
+	}
+
+	/**
+	 * handle a frame read by the transport: choose the codec on the first frame, and
+	 * report the message of any other frame to the listener
+	 * @param payload
+	 * 		the array holding the payload of the frame
+	 * @param offset
+	 * 		the position of the payload in the array
+	 * @param length
+	 * 		the length of the payload
+	 * @throws IOException
+	 * 		if the frame is not valid for the codec of this connection
+	 */
+	protected void frameReceived(byte[] payload, int offset, int length) throws IOException {
+		if(codec == null) {
+			if(MessageCodec.isHello(payload, offset, length)) {
+				codec = MessageCodec.negotiate(MessageCodec.versionOf(payload, offset));
+				sendFrame(MessageCodec.hello(codec.getVersion()));
+				listener.connectionOpened(this);
+				return;
+			}
+			//a client without a handshake speaks serialization
+			codec = MessageCodec.SERIALIZED;
+			listener.connectionOpened(this);
+		}
+		long start = System.nanoTime();
+		GameMessage message = codec.decode(payload, offset, length);
+		listener.frameReceived(this, MessageCodec.HEADER_SIZE + length, System.nanoTime() - start);
+		if(message instanceof CardGameMessage) {
+			listener.messageReceived(this, (CardGameMessage) message);
+		}
+	}
+
+	/**
+	 * report that this connection has been closed to the listener
+	 */
+	protected void closed() {
+		listener.connectionClosed(this);
+	}
+
+	/**
+	 * check if the transport of this connection writes direct buffers without copying
+	 * them, in which case a broadcast shares a direct frame (see BroadcastFrames)
+	 * @return false, unless the transport overrides it
+	 */
+	public boolean prefersDirectFrames() {
+		return false;
+	}
+
+	/**
+	 * queue a frame, encoded with the codec of this connection, to be written to the
+	 * client. It may be called by any thread, and never waits for the client
+	 * @param frame
+	 * 		a buffer holding the frame between its position and its limit. The frame may be
+	 * 		shared by several connections, so it is never modified
+	 * @param droppable
+	 * 		true if the frame may be dropped when the outbound queue is congested
+	 */
+	public void sendFrame(ByteBuffer frame, boolean droppable) {
+		int size = frame.remaining();
+		switch(outbound.offer(frame, droppable)) {
+		case OutboundQueue.QUEUED:
+			listener.frameSent(this, size);
+			break;
+		case OutboundQueue.QUEUED_FIRST:
+			listener.frameSent(this, size);
+			framesQueued();
+			break;
+		case OutboundQueue.OVERFLOW:
+			evicted = true;
+			evict();
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * queue a frame which must not be dropped (see sendFrame(ByteBuffer, boolean))
+	 * @param frame
+	 * 		a buffer holding the frame between its position and its limit
+	 */
+	public void sendFrame(ByteBuffer frame) {
+		sendFrame(frame, false);
+	}
+
+	/**
+	 * tell the I/O layer that a frame has been added to the empty outbound queue
+	 */
+	protected abstract void framesQueued();
+
+	/**
+	 * close the connection of a client whose outbound queue has overflowed. It is called
+	 * by the thread sending the message, which may hold the lock of a table, so the
+	 * listener must be told on the I/O layer and not on the calling thread
+	 */
+	protected abstract void evict();
+
+	/**
+	 * send a last message to the client, and close the connection after a grace period
+	 * which lets the client read the message
+	 * @param message
+	 * 		the last message
+	 */
+	public abstract void reject(CardGameMessage message);
+
+	/**
+	 * close the connection
+	 */
+	public abstract void close();
+}
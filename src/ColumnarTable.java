@@ -0,0 +1,428 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class stores a table of integer columns in a file, column by column, so that a
+ * query reads and decompresses only the columns it needs.
+ * <p>
+ * The rows are split into blocks of up to BLOCK_ROWS rows. Each column of a block is
+ * stored as fixed-width big-endian values (1, 2, 4 or 8 bytes, as declared by the
+ * table), compressed with Deflater. For each column of each block, the footer of the
+ * file keeps the minimum and the maximum of the values, and the bitwise OR and AND of
+ * the values, so that a query can skip the blocks which cannot match its predicates
+ * (see HistoryQuery) without reading them.
+ * <pre>
+ * file   = magic "BTHC" (4 bytes), version (4 bytes), number of columns (4 bytes), width
+ *          of each column (1 byte each), blocks, footer, position of the footer (8 bytes)
+ * block  = the compressed values of each column, in order
+ * footer = number of blocks (4 bytes), then for each block its position (8 bytes), its
+ *          number of rows (4 bytes), and for each column the minimum, the maximum, the
+ *          OR and the AND of its values (8 bytes each) and its compressed size (4 bytes)
+ * </pre>
+ * A table is written once by a Writer, and is immutable afterwards. The footer is read
+ * into memory when the table is opened, and the blocks are read with positional reads of
+ * the file, so a table may be larger than 2 GB. Reading a table is thread-safe.
+ * @author yuening
+ *
+ */
+public class ColumnarTable implements Closeable {
+	/**
+	 * The maximum number of rows of a block
+	 */
+	public static final int BLOCK_ROWS = 65536;
+	//the magic number of a table file, "BTHC"
+	private static final int MAGIC = 0x42544843;
+	//the version of the format
+	private static final int VERSION = 1;
+	//the size of the statistics of a column of a block in the footer
+	private static final int STATS_SIZE = 4 * 8 + 4;
+	//the buffer of each thread for the compressed values of a column
+	private static final ThreadLocal<byte[]> COMPRESSED = ThreadLocal.withInitial(() -> new byte[1 << 16]);
+
+	//the table file
+	private final FileChannel channel;
+	//the footer of the table file
+	private final ByteBuffer footer;
+	//the width of each column, in bytes
+	private final int[] widths;
+	//the position of each block
+	private final long[] blockPositions;
+	//the number of rows of each block
+	private final int[] blockRows;
+	//the position of the statistics of each block in the footer buffer
+	private final int[] statsPositions;
+	//the number of rows
+	private final long rows;
+
+	/**
+	 * a constructor opening a table file for reading
+	 * @param path
+	 * 		the table file
+	 * @throws IOException
+	 * 		if the file cannot be read or is not a table
+	 */
+	public ColumnarTable(File path) throws IOException {
+		channel = FileChannel.open(path.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer header = size < 20 ? null : read(0, 12);
+			if(header == null || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not a columnar table: " + path);
+			}
+			widths = new int[header.getInt(8)];
+			ByteBuffer widthBytes = read(12, widths.length);
+			for(int i = 0; i < widths.length; i++) {
+				widths[i] = widthBytes.get(i);
+			}
+			long footerPosition = read(size - 8, 8).getLong(0);
+			if(footerPosition < 12 + widths.length || size - 8 - footerPosition > Integer.MAX_VALUE) {
+				throw new IOException("Corrupted footer: " + path);
+			}
+			footer = read(footerPosition, (int) (size - 8 - footerPosition));
+			int numOfBlocks = footer.getInt(0);
+			blockPositions = new long[numOfBlocks];
+			blockRows = new int[numOfBlocks];
+			statsPositions = new int[numOfBlocks];
+			long total = 0;
+			int position = 4;
+			for(int b = 0; b < numOfBlocks; b++) {
+				blockPositions[b] = footer.getLong(position);
+				blockRows[b] = footer.getInt(position + 8);
+				statsPositions[b] = position + 12;
+				total += blockRows[b];
+				position += 12 + widths.length * STATS_SIZE;
+			}
+			rows = total;
+		} catch(IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * read bytes of the table file
+	 * @param position
+	 * 		the position of the bytes in the file
+	 * @param size
+	 * 		the number of bytes
+	 * @return a buffer holding the bytes
+	 * @throws IOException
+	 * 		if the file ends before the bytes
+	 */
+	private ByteBuffer read(long position, int size) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(size);
+		readFully(bytes, position);
+		return bytes;
+	}
+
+	/**
+	 * fill a buffer with the bytes of the table file from a position
+	 */
+	private void readFully(ByteBuffer bytes, long position) throws IOException {
+		while(bytes.hasRemaining()) {
+			if(channel.read(bytes, position + bytes.position()) < 0) {
+				throw new IOException("Truncated table file");
+			}
+		}
+	}
+
+	/**
+	 * retrieve the number of columns
+	 */
+	public int getNumOfColumns() {
+		return widths.length;
+	}
+
+	/**
+	 * retrieve the number of rows
+	 */
+	public long getNumOfRows() {
+		return rows;
+	}
+
+	/**
+	 * retrieve the number of blocks
+	 */
+	public int getNumOfBlocks() {
+		return blockRows.length;
+	}
+
+	/**
+	 * retrieve the number of rows of a block
+	 * @param block
+	 * 		the index of the block
+	 */
+	public int getBlockRows(int block) {
+		return blockRows[block];
+	}
+
+	/**
+	 * retrieve the minimum of the values of a column of a block
+	 */
+	public long getMin(int block, int column) {
+		return footer.getLong(statsPositions[block] + column * STATS_SIZE);
+	}
+
+	/**
+	 * retrieve the maximum of the values of a column of a block
+	 */
+	public long getMax(int block, int column) {
+		return footer.getLong(statsPositions[block] + column * STATS_SIZE + 8);
+	}
+
+	/**
+	 * retrieve the bitwise OR of the values of a column of a block
+	 */
+	public long getOr(int block, int column) {
+		return footer.getLong(statsPositions[block] + column * STATS_SIZE + 16);
+	}
+
+	/**
+	 * retrieve the bitwise AND of the values of a column of a block
+	 */
+	public long getAnd(int block, int column) {
+		return footer.getLong(statsPositions[block] + column * STATS_SIZE + 24);
+	}
+
+	/**
+	 * retrieve the compressed size of a column of a block, in bytes
+	 */
+	public int getCompressedSize(int block, int column) {
+		return footer.getInt(statsPositions[block] + column * STATS_SIZE + 32);
+	}
+
+	/**
+	 * read and decompress the values of a column of a block
+	 * @param block
+	 * 		the index of the block
+	 * @param column
+	 * 		the index of the column
+	 * @param values
+	 * 		the array receiving the values, with at least getBlockRows(block) elements
+	 * @param buffer
+	 * 		a buffer for the decompressed bytes, with at least BLOCK_ROWS * 8 bytes, which
+	 * 		may be reused between calls by the same thread
+	 * @throws IOException
+	 * 		if the column is corrupted
+	 */
+	public void readColumn(int block, int column, long[] values, byte[] buffer) throws IOException {
+		long position = blockPositions[block];
+		for(int c = 0; c < column; c++) {
+			position += getCompressedSize(block, c);
+		}
+		int compressedSize = getCompressedSize(block, column);
+		byte[] compressed = COMPRESSED.get();
+		if(compressed.length < compressedSize) {
+			compressed = new byte[compressedSize];
+			COMPRESSED.set(compressed);
+		}
+		readFully(ByteBuffer.wrap(compressed, 0, compressedSize), position);
+		int width = widths[column];
+		int size = blockRows[block] * width;
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed, 0, compressedSize);
+			int read = 0;
+			while(read < size && !inflater.finished()) {
+				int n = inflater.inflate(buffer, read, size - read);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					//the compressed bytes end before the column does
+					break;
+				}
+				read += n;
+			}
+			if(read != size) {
+				throw new IOException("Truncated column " + column + " of block " + block);
+			}
+		} catch(DataFormatException ex) {
+			throw new IOException("Corrupted column " + column + " of block " + block, ex);
+		} finally {
+			inflater.end();
+		}
+		ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, size);
+		for(int i = 0; i < blockRows[block]; i++) {
+			switch(width) {
+			case 1:
+				values[i] = bytes.get();
+				break;
+			case 2:
+				values[i] = bytes.getShort();
+				break;
+			case 4:
+				values[i] = bytes.getInt();
+				break;
+			default:
+				values[i] = bytes.getLong();
+			}
+		}
+	}
+
+	/**
+	 * close the table file
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * This class writes a table file, a row at a time: set() the value of each column,
+	 * then endRow(). The rows are buffered as primitive columns, and a block is compressed
+	 * and written whenever BLOCK_ROWS rows are buffered.
+	 */
+	public static class Writer implements AutoCloseable {
+		private final DataOutputStream out;
+		private final int[] widths;
+		private final long[][] columns;
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private final byte[] raw = new byte[BLOCK_ROWS * 8];
+		private byte[] compressed = new byte[BLOCK_ROWS * 8 + 64];
+		private final ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+		private final DataOutputStream footer = new DataOutputStream(footerBytes);
+		private long position;
+		private int numOfBlocks = 0;
+		private int row = 0;
+		private long rawBytes = 0;
+		private long compressedBytes = 0;
+
+		/**
+		 * a constructor creating a table file
+		 * @param path
+		 * 		the table file, which is replaced if it exists
+		 * @param widths
+		 * 		the width of each column, in bytes: 1, 2, 4 or 8
+		 * @throws IOException
+		 * 		if the file cannot be created
+		 */
+		public Writer(File path, int... widths) throws IOException {
+			for(int width : widths) {
+				if(width != 1 && width != 2 && width != 4 && width != 8) {
+					throw new IllegalArgumentException("Illegal width: " + width);
+				}
+			}
+			this.widths = widths.clone();
+			this.columns = new long[widths.length][BLOCK_ROWS];
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(widths.length);
+			for(int width : widths) {
+				out.writeByte(width);
+			}
+			position = 12 + widths.length;
+		}
+
+		/**
+		 * set the value of a column of the current row
+		 * @param column
+		 * 		the index of the column
+		 * @param value
+		 * 		the value, which must fit in the width of the column
+		 */
+		public void set(int column, long value) {
+			columns[column][row] = value;
+		}
+
+		/**
+		 * end the current row, writing a block if it is full
+		 * @throws IOException
+		 */
+		public void endRow() throws IOException {
+			if(++row == BLOCK_ROWS) {
+				writeBlock();
+			}
+		}
+
+		/**
+		 * retrieve the number of bytes of the values written, before compression
+		 */
+		public long getRawBytes() {
+			return rawBytes;
+		}
+
+		/**
+		 * retrieve the number of bytes of the values written, after compression
+		 */
+		public long getCompressedBytes() {
+			return compressedBytes;
+		}
+
+		private void writeBlock() throws IOException {
+			footer.writeLong(position);
+			footer.writeInt(row);
+			for(int c = 0; c < widths.length; c++) {
+				long[] values = columns[c];
+				long min = Long.MAX_VALUE, max = Long.MIN_VALUE, or = 0L, and = -1L;
+				ByteBuffer bytes = ByteBuffer.wrap(raw);
+				for(int i = 0; i < row; i++) {
+					long value = values[i];
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+					or |= value;
+					and &= value;
+					switch(widths[c]) {
+					case 1:
+						bytes.put((byte) value);
+						break;
+					case 2:
+						bytes.putShort((short) value);
+						break;
+					case 4:
+						bytes.putInt((int) value);
+						break;
+					default:
+						bytes.putLong(value);
+					}
+				}
+				deflater.reset();
+				deflater.setInput(raw, 0, bytes.position());
+				deflater.finish();
+				int size = 0;
+				while(!deflater.finished()) {
+					if(size == compressed.length) {
+						compressed = Arrays.copyOf(compressed, compressed.length * 2);
+					}
+					size += deflater.deflate(compressed, size, compressed.length - size);
+				}
+				out.write(compressed, 0, size);
+				position += size;
+				rawBytes += bytes.position();
+				compressedBytes += size;
+				footer.writeLong(min);
+				footer.writeLong(max);
+				footer.writeLong(or);
+				footer.writeLong(and);
+				footer.writeInt(size);
+			}
+			numOfBlocks++;
+			row = 0;
+		}
+
+		/**
+		 * write the last block and the footer, and close the file
+		 * @throws IOException
+		 */
+		public void close() throws IOException {
+			if(row > 0) {
+				writeBlock();
+			}
+			out.writeInt(numOfBlocks);
+			footerBytes.writeTo(out);
+			out.writeLong(position);
+			out.close();
+			deflater.end();
+		}
+	}
+}
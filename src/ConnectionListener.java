@@ -0,0 +1,65 @@
+/**
+ * This interface is implemented by a server to receive the events of the connections
+ * of a transport (see ClientConnection). The events of a connection are reported by
+ * one thread at a time, in the order they happen.
+ * @author yuening
+ *
+ */
+public interface ConnectionListener {
+	/**
+	 * report a connection accepted by the transport
+	 * @param connection
+	 * 		the new connection
+	 */
+	void connectionOpened(ClientConnection connection);
+
+	/**
+	 * report a message received from a connection
+	 * @param connection
+	 * 		the connection
+	 * @param message
+	 * 		the message received
+	 */
+	void messageReceived(ClientConnection connection, CardGameMessage message);
+
+	/**
+	 * report a connection which has been closed, by the client, by an error or by the server
+	 * @param connection
+	 * 		the connection
+	 */
+	void connectionClosed(ClientConnection connection);
+
+	/**
+	 * report a frame holding a message read from a connection, before the message is
+	 * reported, e.g. to count the bytes received
+	 * @param connection
+	 * 		the connection
+	 * @param bytes
+	 * 		the size of the frame, including its header
+	 * @param decodeNanos
+	 * 		the time taken to decode the message, in nanoseconds
+	 */
+	default void frameReceived(ClientConnection connection, int bytes, long decodeNanos) {
+	}
+
+	/**
+	 * report a frame queued to be written to a connection, e.g. to count the bytes sent
+	 * @param connection
+	 * 		the connection
+	 * @param bytes
+	 * 		the size of the frame, including its header
+	 */
+	default void frameSent(ClientConnection connection, int bytes) {
+	}
+
+	/**
+	 * report an error of the transport which does not belong to the events of a
+	 * connection, e.g. an error of an I/O thread, so that it reaches the log of the server
+	 * @param msg
+	 * 		a description of the error
+	 * @param ex
+	 * 		the exception
+	 */
+	default void transportError(String msg, Exception ex) {
+	}
+}
@@ -0,0 +1,158 @@
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * This class shuffles and deals cards with the Fisher-Yates algorithm, drawing from a
+ * random generator that is owned by the caller.
+ * <p>
+ * Unlike Math.random(), the generator is not shared between threads, so that each
+ * server table or simulation worker can shuffle without contention, and a deal can be
+ * reproduced from its seed. The cards are shuffled as a primitive array of card
+ * ordinals (see Card.ordinal()), and batches of deals can be written directly into the
+ * card masks (see CardSet) of the four hands.
+ * <p>
+ * A dealer is not thread-safe; each thread should use its own.
+ * @author yuening
+ *
+ */
+public class Dealer {
+	//the number of cards in a deck
+	private static final int NUM_OF_CARDS = 52;
+	//the number of players receiving the cards
+	private static final int NUM_OF_PLAYERS = 4;
+	//the bit index (see CardSet) of the card with each ordinal
+	private static final int[] INDEX_OF_ORDINAL = new int[NUM_OF_CARDS];
+	static {
+		for(int i = 0; i < NUM_OF_CARDS; i++) {
+			INDEX_OF_ORDINAL[i] = CardSet.indexOf(i / 13, i % 13);
+		}
+	}
+
+	//the generator drawing the random numbers
+	private final RandomGenerator random;
+	//the ordinals of the cards of the last shuffle
+	private final byte[] ordinals = new byte[NUM_OF_CARDS];
+
+	/**
+	 * a constructor creating a dealer with a SplittableRandom of the specified seed
+	 * @param seed
+	 * 		the seed; the same seed always produces the same deals
+	 */
+	public Dealer(long seed) {
+		this(new SplittableRandom(seed));
+	}
+
+	/**
+	 * a constructor creating a dealer drawing from the specified generator
+	 * @param random
+	 * 		the generator, e.g. a SplittableRandom owned by the caller's thread
+	 */
+	public Dealer(RandomGenerator random) {
+		this.random = random;
+		for(int i = 0; i < NUM_OF_CARDS; i++) {
+			ordinals[i] = (byte) i;
+		}
+	}
+
+	/**
+	 * shuffle an array of card ordinals in place
+	 * @param cards
+	 * 		the array of card ordinals
+	 * @param random
+	 * 		the generator drawing the random numbers
+	 */
+	public static void shuffle(byte[] cards, RandomGenerator random) {
+		for(int i = cards.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			byte card = cards[i];
+			cards[i] = cards[j];
+			cards[j] = card;
+		}
+	}
+
+	/**
+	 * shuffle a deck in place
+	 * @param deck
+	 * 		the deck of cards
+	 * @param random
+	 * 		the generator drawing the random numbers
+	 */
+	public static void shuffle(CardList deck, RandomGenerator random) {
+		for(int i = deck.size() - 1; i > 0; i--) {
+			deck.swapCards(i, random.nextInt(i + 1));
+		}
+	}
+
+	/**
+	 * shuffle a deck in place with the generator of this dealer
+	 * @param deck
+	 */
+	public void shuffle(CardList deck) {
+		shuffle(deck, random);
+	}
+
+	/**
+	 * shuffle the 52 card ordinals of this dealer and copy them into an array
+	 * @param cards
+	 * 		the array receiving the ordinals of the shuffled deck
+	 * @param offset
+	 * 		the position of the first ordinal in the array
+	 */
+	public void shuffleOrdinals(byte[] cards, int offset) {
+		shuffle(ordinals, random);
+		System.arraycopy(ordinals, 0, cards, offset, NUM_OF_CARDS);
+	}
+
+	/**
+	 * shuffle a deck and deal it into four hands, the same way as BigTwoEngine: the card at
+	 * position i + 4 * j goes to player i
+	 * @param hands
+	 * 		the array receiving the card masks of the four hands
+	 * @param offset
+	 * 		the position of the first hand in the array
+	 */
+	public void deal(long[] hands, int offset) {
+		shuffle(ordinals, random);
+		long hand0 = 0L, hand1 = 0L, hand2 = 0L, hand3 = 0L;
+		for(int i = 0; i < NUM_OF_CARDS; i += NUM_OF_PLAYERS) {
+			hand0 |= 1L << INDEX_OF_ORDINAL[ordinals[i]];
+			hand1 |= 1L << INDEX_OF_ORDINAL[ordinals[i + 1]];
+			hand2 |= 1L << INDEX_OF_ORDINAL[ordinals[i + 2]];
+			hand3 |= 1L << INDEX_OF_ORDINAL[ordinals[i + 3]];
+		}
+		hands[offset] = hand0;
+		hands[offset + 1] = hand1;
+		hands[offset + 2] = hand2;
+		hands[offset + 3] = hand3;
+	}
+
+	/**
+	 * deal a batch of games
+	 * @param hands
+	 * 		the array receiving the card masks of the hands, four per game
+	 * @param games
+	 * 		the number of games to be dealt
+	 */
+	public void dealBatch(long[] hands, int games) {
+		for(int i = 0; i < games; i++) {
+			deal(hands, i * NUM_OF_PLAYERS);
+		}
+	}
+
+	/**
+	 * build a deck of Big Two cards from card ordinals
+	 * @param cards
+	 * 		the array of card ordinals
+	 * @param offset
+	 * 		the position of the first ordinal in the array
+	 * @return a deck holding the canonical Big Two cards in the order of the ordinals
+	 */
+	public static BigTwoDeck toDeck(byte[] cards, int offset) {
+		BigTwoDeck deck = new BigTwoDeck();
+		deck.removeAllCards();
+		for(int i = 0; i < NUM_OF_CARDS; i++) {
+			deck.addCard(BigTwoCard.ofOrdinal(cards[offset + i]));
+		}
+		return deck;
+	}
+}
@@ -1,3 +1,6 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
 /**
  * This class is used to represent a deck of cards in general card games.
  * 
@@ -20,22 +23,28 @@ public class Deck extends CardList {
 		removeAllCards();
 		for (int i = 0; i < 4; i++) {
 			for (int j = 0; j < 13; j++) {
-				Card card = new Card(i, j);
-				addCard(card);
+				addCard(Card.of(i, j));
 			}
 		}
 	}
 
 	/**
-	 * Shuffles the deck of cards.
+	 * Shuffles the deck of cards, using the random generator of the calling
+	 * thread.
 	 */
 	public void shuffle() {
-		for (int i = 0; i < this.size(); i++) {
-			int j = (int) (Math.random() * this.size());
-			if (i != j) {
-				Card card = setCard(i, getCard(j));
-				setCard(j, card);
-			}
-		}
+		shuffle(ThreadLocalRandom.current());
+	}
+
+	/**
+	 * Shuffles the deck of cards with the Fisher-Yates algorithm, so that every
+	 * order of the cards is equally likely.
+	 * 
+	 * @param random
+	 *            the random generator to be used, e.g. a SplittableRandom with
+	 *            a known seed to reproduce the order of the cards
+	 */
+	public void shuffle(RandomGenerator random) {
+		Dealer.shuffle(this, random);
 	}
 }
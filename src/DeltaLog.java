@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+
+/**
+ * This class keeps the changes of the game of a table of a Big Two server, numbered in
+ * sequence (see BigTwoDelta). The sequence number grows by one with every START, MOVE
+ * and aborted game at the table, and is never reset, so that a client can name the last
+ * change it has seen.
+ * <p>
+ * Only the changes of the current game are kept, which is at most a few hundred moves,
+ * so a client which has seen an earlier change than the START of the current game
+ * receives a snapshot instead. A log is not thread-safe: the server uses it while
+ * holding the lock of the table.
+ * @author yuening
+ *
+ */
+public class DeltaLog {
+	//the sequence number of the last change
+	private int seq = 0;
+	//the sequence number of the START or abort of the current game
+	private int baseSeq = 0;
+	//the changes since the START of the current game, in order
+	private final ArrayList<BigTwoDelta> deltas = new ArrayList<BigTwoDelta>();
+
+	/**
+	 * record the START of a new game, which discards the changes of the previous game
+	 */
+	public void gameStarted() {
+		baseSeq = ++seq;
+		deltas.clear();
+	}
+
+	/**
+	 * record an aborted game, after which no game is in progress
+	 */
+	public void gameAborted() {
+		baseSeq = ++seq;
+		deltas.clear();
+	}
+
+	/**
+	 * record a move and number it
+	 * @param playerID
+	 * 		the playerID of the player who made the move
+	 * @param cardMask
+	 * 		the card mask (see CardSet) of the cards played, or 0 for a pass
+	 * @param handType
+	 * 		the type of the hand played, or null for a pass
+	 * @param nextIdx
+	 * 		the index of the player for the next turn, or -1 if the move ends the game
+	 * @param topPlayer
+	 * 		the playerID of the player of the top hand on the table after the move, or -1
+	 * @param topMask
+	 * 		the card mask of the top hand on the table after the move, or 0
+	 * @return the change, to be broadcast
+	 */
+	public BigTwoDelta append(int playerID, long cardMask, HandType handType, int nextIdx, int topPlayer,
+			long topMask) {
+		BigTwoDelta delta = new BigTwoDelta(++seq, playerID, cardMask, handType, nextIdx, topPlayer, topMask);
+		deltas.add(delta);
+		return delta;
+	}
+
+	/**
+	 * retrieve the sequence number of the last change
+	 */
+	public int getSeq() {
+		return seq;
+	}
+
+	/**
+	 * retrieve the changes after a sequence number
+	 * @param since
+	 * 		the sequence number of the last change seen by a client
+	 * @return the changes after it, in order, or null if they are not all kept, i.e. the
+	 * 		client has not seen the START of the current game or the number is unknown
+	 */
+	public BigTwoDelta[] since(int since) {
+		if(since < baseSeq || since > seq) {
+			return null;
+		}
+		return deltas.subList(since - baseSeq, deltas.size()).toArray(new BigTwoDelta[0]);
+	}
+}
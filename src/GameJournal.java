@@ -0,0 +1,441 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * This class is an append-only binary journal of the games of a server: the deals, the
+ * moves and the results of every table, so that a game can be checked after a dispute,
+ * analysed, or recovered after a crash.
+ * <p>
+ * The records are written into segment files mapped into memory, so that appending a
+ * record only copies a few dozen bytes under a lock, and never waits for the disk. A
+ * segment is preallocated to a fixed size, and the journal moves on to a new segment
+ * (journal-00000001.dat, journal-00000002.dat, ...) when a record does not fit. A
+ * background thread forces the appended records to the disk at a fixed interval, so
+ * that the records appended meanwhile share one write to the disk (a group commit);
+ * sync() waits for the records appended so far to be forced. The disk is only waited
+ * for by that thread, without holding the lock, which also forces and closes the full
+ * segments. When the journal is closed, its last segment is truncated after its
+ * records.
+ * <p>
+ * Each record is framed as follows, the numbers being big-endian:
+ * <pre>
+ * record = length of the body (2 bytes), CRC-32C of the body (4 bytes), body
+ * body   = type (1 byte), tableID (4 bytes), sequence number of the change at the table
+ *          (4 bytes, see DeltaLog), time in milliseconds since the epoch (8 bytes), data
+ * DEAL   : seed of the shuffle (8 bytes), number of cards (1 byte), then the ordinal of
+ *          each card (1 byte each)
+ * MOVE   : playerID (1 byte), card mask (8 bytes, see CardSet), hand type (1 byte, -1
+ *          for a pass)
+ * RESULT : playerID of the winner (1 byte), then the number of cards left to each
+ *          player (1 byte each)
+ * ABORT  : nothing
+ * </pre>
+ * A length of 0 marks the end of the records of a segment. A record whose checksum
+ * does not match was torn by a crash, and ends the journal.
+ * @author yuening
+ *
+ */
+public class GameJournal {
+	/**
+	 * The type of the record of a deal
+	 */
+	public static final int DEAL = 1;
+	/**
+	 * The type of the record of a legal move
+	 */
+	public static final int MOVE = 2;
+	/**
+	 * The type of the record of the end of a game
+	 */
+	public static final int RESULT = 3;
+	/**
+	 * The type of the record of a game aborted because a player left
+	 */
+	public static final int ABORT = 4;
+	/**
+	 * The size of the header of a record: its length and its checksum
+	 */
+	public static final int RECORD_HEADER_SIZE = 6;
+	/**
+	 * The size of the common part of the body of a record
+	 */
+	public static final int BODY_HEADER_SIZE = 17;
+	//the largest body of a record: a deal of 52 cards
+	private static final int MAX_BODY_SIZE = BODY_HEADER_SIZE + 8 + 1 + 52;
+
+	//the directory of the segments
+	private final File directory;
+	//the size of a segment, in bytes
+	private final int segmentBytes;
+	//the interval at which the records are forced to the disk, in milliseconds
+	private final long flushIntervalMillis;
+	//the lock guarding the segment written
+	private final ReentrantLock lock = new ReentrantLock();
+	//signalled when records have been forced to the disk
+	private final Condition forced = lock.newCondition();
+	//the checksum of the records, used while holding the lock
+	private final CRC32C crc = new CRC32C();
+	//the index of the segment written
+	private int segmentIndex;
+	//the channel of the segment written
+	private FileChannel channel;
+	//the segment written, mapped into memory
+	private MappedByteBuffer segment;
+	//the full segments, which the flusher thread has yet to force and close
+	private final ArrayList<FullSegment> fullSegments = new ArrayList<FullSegment>();
+	//a view of the segment for computing the checksums
+	private ByteBuffer view;
+	//the number of records appended since the journal was opened
+	private long appended = 0;
+	//the number of records forced to the disk since the journal was opened
+	private long flushed = 0;
+	//a boolean indicating if the journal is open
+	private volatile boolean open = true;
+	//the thread forcing the records to the disk
+	private final Thread flusherThread;
+
+	/**
+	 * a constructor opening a journal, which starts a new segment after the segments
+	 * already in the directory, and starting its flusher thread
+	 * @param directory
+	 * 		the directory of the segments, which is created if needed
+	 * @param segmentBytes
+	 * 		the size of a segment, in bytes
+	 * @param flushIntervalMillis
+	 * 		the interval at which the records are forced to the disk, in milliseconds
+	 * @throws IOException
+	 * 		if the first segment cannot be created
+	 */
+	public GameJournal(File directory, int segmentBytes, long flushIntervalMillis) throws IOException {
+		if(segmentBytes < RECORD_HEADER_SIZE + MAX_BODY_SIZE + 2) {
+			throw new IllegalArgumentException("Segment too small: " + segmentBytes);
+		}
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.flushIntervalMillis = flushIntervalMillis;
+		directory.mkdirs();
+		File[] segments = listSegments(directory);
+		segmentIndex = segments.length == 0 ? 0 : indexOf(segments[segments.length - 1]);
+		openSegment(++segmentIndex);
+		flusherThread = new Thread(this::flushLoop, "journal-flusher");
+		flusherThread.setDaemon(true);
+		flusherThread.start();
+	}
+
+	/**
+	 * list the segments of a journal in the order they were written
+	 * @param directory
+	 * 		the directory of the segments
+	 * @return the segment files, or an empty array if there are none
+	 */
+	public static File[] listSegments(File directory) {
+		File[] files = directory.listFiles((dir, name) -> name.matches("journal-\\d{8}\\.dat"));
+		if(files == null) {
+			return new File[0];
+		}
+		java.util.Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * retrieve the index of a segment from its name
+	 */
+	private static int indexOf(File segment) {
+		String name = segment.getName();
+		return Integer.parseInt(name.substring(8, 16));
+	}
+
+	/**
+	 * record a deal
+	 * @param tableID
+	 * 		the ID of the table
+	 * @param seq
+	 * 		the sequence number of the START at the table
+	 * @param seed
+	 * 		the seed with which the deck was shuffled
+	 * @param deck
+	 * 		the shuffled deck
+	 */
+	public void deal(int tableID, int seq, long seed, Deck deck) {
+		lock.lock();
+		try {
+			int start = begin(DEAL, tableID, seq, BODY_HEADER_SIZE + 9 + deck.size());
+			segment.putLong(seed);
+			segment.put((byte) deck.size());
+			for(int i = 0; i < deck.size(); i++) {
+				segment.put((byte) deck.getCard(i).ordinal());
+			}
+			end(start);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * record a legal move
+	 * @param tableID
+	 * 		the ID of the table
+	 * @param seq
+	 * 		the sequence number of the move at the table
+	 * @param playerID
+	 * 		the player who made the move
+	 * @param cardMask
+	 * 		the card mask (see CardSet) of the cards played, or 0 for a pass
+	 * @param handType
+	 * 		the type of the hand played, or null for a pass
+	 */
+	public void move(int tableID, int seq, int playerID, long cardMask, HandType handType) {
+		lock.lock();
+		try {
+			int start = begin(MOVE, tableID, seq, BODY_HEADER_SIZE + 10);
+			segment.put((byte) playerID);
+			segment.putLong(cardMask);
+			segment.put((byte) (handType == null ? -1 : handType.ordinal()));
+			end(start);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * record the end of a game
+	 * @param tableID
+	 * 		the ID of the table
+	 * @param seq
+	 * 		the sequence number of the last move of the game
+	 * @param winner
+	 * 		the playerID of the winner
+	 * @param cardsLeft
+	 * 		the number of cards left to each player
+	 */
+	public void result(int tableID, int seq, int winner, int[] cardsLeft) {
+		lock.lock();
+		try {
+			int start = begin(RESULT, tableID, seq, BODY_HEADER_SIZE + 1 + cardsLeft.length);
+			segment.put((byte) winner);
+			for(int n : cardsLeft) {
+				segment.put((byte) n);
+			}
+			end(start);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * record a game aborted because a player left
+	 * @param tableID
+	 * 		the ID of the table
+	 * @param seq
+	 * 		the sequence number of the abort at the table
+	 */
+	public void abort(int tableID, int seq) {
+		lock.lock();
+		try {
+			end(begin(ABORT, tableID, seq, BODY_HEADER_SIZE));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * wait until the records appended so far have been forced to the disk
+	 * @throws InterruptedException
+	 */
+	public void sync() throws InterruptedException {
+		lock.lock();
+		try {
+			long target = appended;
+			flusherThread.interrupt();
+			while(flushed < target && open) {
+				forced.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * retrieve the number of records appended since the journal was opened
+	 */
+	public long getNumOfRecords() {
+		lock.lock();
+		try {
+			return appended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * force the records to the disk and close the journal, truncating its last segment
+	 * after its records
+	 */
+	public void close() {
+		int end;
+		lock.lock();
+		try {
+			if(!open) {
+				return;
+			}
+			open = false;
+			end = segment.position();
+			segment.putShort(end, (short) 0);
+		} finally {
+			lock.unlock();
+		}
+		//no record is appended any more: the flusher thread forces the last ones as it stops
+		flusherThread.interrupt();
+		try {
+			flusherThread.join();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		try {
+			channel.truncate(end + 2);
+		} catch(IOException ex) {
+			ex.printStackTrace();
+		}
+		closeSegment(channel);
+	}
+
+	/**
+	 * start a record, moving on to a new segment if it does not fit in the current one
+	 * @return the position of the record in the segment
+	 */
+	private int begin(int type, int tableID, int seq, int bodySize) {
+		if(!open) {
+			throw new IllegalStateException("Journal closed");
+		}
+		//keeps room for the end marker
+		if(segment.remaining() < RECORD_HEADER_SIZE + bodySize + 2) {
+			rotate();
+		}
+		int start = segment.position();
+		segment.putShort((short) bodySize);
+		segment.putInt(0);
+		segment.put((byte) type);
+		segment.putInt(tableID);
+		segment.putInt(seq);
+		segment.putLong(System.currentTimeMillis());
+		return start;
+	}
+
+	/**
+	 * finish a record by writing the checksum of its body
+	 */
+	private void end(int start) {
+		int bodyStart = start + RECORD_HEADER_SIZE;
+		view.limit(segment.position()).position(bodyStart);
+		crc.reset();
+		crc.update(view);
+		segment.putInt(start + 2, (int) crc.getValue());
+		appended++;
+	}
+
+	/**
+	 * hand the current segment to the flusher thread, which forces and closes it, and move
+	 * on to a new one. It is called while holding the lock
+	 */
+	private void rotate() {
+		segment.putShort(segment.position(), (short) 0);
+		fullSegments.add(new FullSegment(channel, segment));
+		try {
+			openSegment(++segmentIndex);
+		} catch(IOException ex) {
+			open = false;
+			throw new IllegalStateException("Cannot create a segment of the journal", ex);
+		}
+	}
+
+	private void openSegment(int index) throws IOException {
+		File file = new File(directory, String.format("journal-%08d.dat", index));
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		view = segment.duplicate();
+	}
+
+	private static void closeSegment(FileChannel channel) {
+		try {
+			channel.close();
+		} catch(IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * force the records appended so far to the disk, and close the full segments. Only the
+	 * positions are read and published under the lock, so that appending a record never
+	 * waits for the disk
+	 */
+	private void flush() {
+		long target;
+		MappedByteBuffer written;
+		FullSegment[] full;
+		lock.lock();
+		try {
+			target = appended;
+			written = segment;
+			full = fullSegments.toArray(new FullSegment[fullSegments.size()]);
+			fullSegments.clear();
+			if(target == flushed && full.length == 0) {
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		//the records of the full segments come before those of the segment written
+		for(FullSegment fullSegment : full) {
+			fullSegment.buffer.force();
+			closeSegment(fullSegment.channel);
+		}
+		written.force();
+		lock.lock();
+		try {
+			flushed = target;
+			forced.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * force the records appended at the interval, or earlier when sync() is called
+	 */
+	private void flushLoop() {
+		while(open) {
+			try {
+				Thread.sleep(flushIntervalMillis);
+			} catch(InterruptedException ex) {
+				//sync() wants the records forced now
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * a segment which is full, to be forced and closed by the flusher thread
+	 */
+	private static class FullSegment {
+		//the channel of the segment
+		private final FileChannel channel;
+		//the segment, mapped into memory
+		private final MappedByteBuffer buffer;
+
+		private FullSegment(FileChannel channel, MappedByteBuffer buffer) {
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,489 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class replays the games recorded in a GameJournal through the rules of
+ * BigTwoEngine, without any GUI or network connection, to check that every deal matches
+ * its seed, every move is legal and every result is right, e.g. after a change of the
+ * rules.
+ * <p>
+ * The records are read straight from the segments mapped into memory (see
+ * JournalReader), and the deals and moves are replayed as card masks (see CardSet). The
+ * segments are replayed in parallel on a ForkJoinPool: the task of a segment replays the
+ * games dealt in the segment, following a game into the next segments if it does not end
+ * in its own, and skips the moves of the games dealt before. The results are collected
+ * into a ReplayReport.
+ * <p>
+ * The replayer can also keep a checkpoint (a BigTwoSnapshot and the position of the next
+ * record) every few moves of each game, so that seek() can rebuild the state of a game
+ * after any move by replaying at most a few moves.
+ * <p>
+ * Usage: java GameReplayer [directory] [threads] [table:dealSeq:move]
+ * @author yuening
+ *
+ */
+public class GameReplayer {
+	//the number of players of a game
+	private static final int NUM_OF_PLAYERS = 4;
+	//the ordinals of the cards of a new BigTwoDeck, before it is shuffled
+	private static final byte[] DECK_ORDER = new byte[CardSet.NUM_OF_CARDS];
+	static {
+		BigTwoDeck deck = new BigTwoDeck();
+		for(int i = 0; i < DECK_ORDER.length; i++) {
+			DECK_ORDER[i] = (byte) deck.getCard(i).ordinal();
+		}
+	}
+
+	//the segments of the journal, in the order they were written
+	private final File[] segments;
+	//the number of moves between the checkpoints of a game, or 0 to keep no checkpoints
+	private final int checkpointInterval;
+
+	/**
+	 * a constructor creating a replayer of the segments of a journal
+	 * @param directory
+	 * 		the directory of the journal
+	 * @param checkpointInterval
+	 * 		the number of moves between the checkpoints of a game, or 0 to keep neither
+	 * 		the games nor their checkpoints, which is enough to verify them
+	 */
+	public GameReplayer(File directory, int checkpointInterval) {
+		this.segments = GameJournal.listSegments(directory);
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * retrieve the number of segments of the journal
+	 */
+	public int getNumOfSegments() {
+		return segments.length;
+	}
+
+	/**
+	 * replay all the segments on a ForkJoinPool
+	 * @param pool
+	 * 		the pool replaying the segments
+	 * @return the results of the replay
+	 */
+	public ReplayReport replay(ForkJoinPool pool) {
+		return pool.invoke(new ReplayTask(0, segments.length));
+	}
+
+	/**
+	 * replay the games dealt in a segment on the calling thread
+	 * @param segment
+	 * 		the index of the segment
+	 * @return the results of the replay
+	 * @throws IOException
+	 * 		if a segment cannot be read
+	 */
+	public ReplayReport replay(int segment) throws IOException {
+		ReplayReport report = new ReplayReport();
+		HashMap<Integer, GameState> games = new HashMap<Integer, GameState>();
+		ArrayDeque<BigTwoEngine> engines = new ArrayDeque<BigTwoEngine>();
+		JournalReader reader = new JournalReader(segments[segment]);
+		while(reader.next()) {
+			report.recordRead();
+			int tableID = reader.getTableID();
+			GameState state = games.get(tableID);
+			if(reader.getType() == GameJournal.DEAL) {
+				if(state != null) {
+					finish(state, ReplayedGame.UNFINISHED, null, games, engines, report);
+				}
+				state = new GameState(engines.isEmpty() ? new BigTwoEngine() : engines.pop(),
+						new ReplayedGame(tableID, reader.getSeq(), segment, reader.getPosition()));
+				games.put(tableID, state);
+				deal(state, reader, games, engines, report);
+			} else if(state != null) {
+				replay(state, segment, reader, games, engines, report);
+			}
+		}
+		if(reader.isTorn()) {
+			report.segmentTorn();
+		}
+		//follows the games which do not end in the segment into the next segments
+		for(int next = segment + 1; next < segments.length && !games.isEmpty(); next++) {
+			reader = new JournalReader(segments[next]);
+			while(reader.next() && !games.isEmpty()) {
+				GameState state = games.get(reader.getTableID());
+				if(state == null) {
+					continue;
+				}
+				if(reader.getType() == GameJournal.DEAL) {
+					finish(state, ReplayedGame.UNFINISHED, null, games, engines, report);
+				} else {
+					replay(state, next, reader, games, engines, report);
+				}
+			}
+		}
+		for(GameState state : games.values().toArray(new GameState[0])) {
+			finish(state, ReplayedGame.UNFINISHED, null, games, engines, report);
+		}
+		return report;
+	}
+
+	/**
+	 * start a game from a DEAL, checking that the order of the cards matches the seed
+	 */
+	private void deal(GameState state, JournalReader reader, HashMap<Integer, GameState> games,
+			ArrayDeque<BigTwoEngine> engines, ReplayReport report) {
+		if(reader.getNumOfCards() != CardSet.NUM_OF_CARDS) {
+			finish(state, ReplayedGame.MISMATCH, "deal of " + reader.getNumOfCards() + " cards",
+					games, engines, report);
+			return;
+		}
+		byte[] shuffled = DECK_ORDER.clone();
+		Dealer.shuffle(shuffled, new SplittableRandom(reader.getSeed()));
+		long[] hands = new long[NUM_OF_PLAYERS];
+		for(int i = 0; i < CardSet.NUM_OF_CARDS; i++) {
+			int ordinal = reader.getCardOrdinal(i);
+			if(ordinal != shuffled[i]) {
+				finish(state, ReplayedGame.MISMATCH, "deal does not match seed " + reader.getSeed(),
+						games, engines, report);
+				return;
+			}
+			hands[i % NUM_OF_PLAYERS] |= 1L << CardSet.indexOf(ordinal / 13, ordinal % 13);
+		}
+		state.game.seed = reader.getSeed();
+		state.game.time = reader.getTime();
+		state.engine.start(hands, 0);
+	}
+
+	/**
+	 * replay a MOVE, RESULT or ABORT of a game in progress
+	 */
+	private void replay(GameState state, int segment, JournalReader reader, HashMap<Integer, GameState> games,
+			ArrayDeque<BigTwoEngine> engines, ReplayReport report) {
+		BigTwoEngine engine = state.engine;
+		ReplayedGame game = state.game;
+		switch(reader.getType()) {
+		case GameJournal.MOVE:
+			int playerID = reader.getPlayerID();
+			long cardMask = reader.getCardMask();
+			if(reader.getSeq() != game.dealSeq + game.moves + 1) {
+				finish(state, ReplayedGame.MISMATCH, "sequence number " + reader.getSeq(), games, engines,
+						report);
+			} else if(playerID != engine.getCurrentIdx() || !engine.playMove(playerID, cardMask)) {
+				finish(state, ReplayedGame.MISMATCH, "illegal move by player " + playerID, games, engines,
+						report);
+			} else if((cardMask == 0L ? -1 : engine.getLastHand().getHandType().ordinal())
+					!= reader.getHandType()) {
+				finish(state, ReplayedGame.MISMATCH, "hand type of the move by player " + playerID, games,
+						engines, report);
+			} else {
+				game.moves++;
+				report.moveReplayed();
+				if(checkpointInterval > 0 && game.moves % checkpointInterval == 0 && engine.isInProgress()) {
+					game.addCheckpoint(engine.snapshot(reader.getSeq()), segment, reader.getNextPosition());
+				}
+			}
+			break;
+		case GameJournal.RESULT:
+			String mismatch = null;
+			if(engine.isInProgress()) {
+				mismatch = "result before the end of the game";
+			} else if(engine.getPlayerList().get(reader.getPlayerID()).getNumOfCards() != 0) {
+				mismatch = "winner " + reader.getPlayerID();
+			} else {
+				for(int i = 0; i < NUM_OF_PLAYERS && mismatch == null; i++) {
+					if(engine.getPlayerList().get(i).getNumOfCards() != reader.getCardsLeft(i)) {
+						mismatch = "cards left to player " + i;
+					}
+				}
+			}
+			game.winner = reader.getPlayerID();
+			finish(state, mismatch == null ? ReplayedGame.VERIFIED : ReplayedGame.MISMATCH, mismatch, games,
+					engines, report);
+			break;
+		case GameJournal.ABORT:
+			finish(state, ReplayedGame.ABORTED, null, games, engines, report);
+			break;
+		default:
+			finish(state, ReplayedGame.MISMATCH, "record of type " + reader.getType(), games, engines,
+					report);
+		}
+	}
+
+	/**
+	 * end the replay of a game and recycle its engine
+	 */
+	private void finish(GameState state, int status, String mismatch, HashMap<Integer, GameState> games,
+			ArrayDeque<BigTwoEngine> engines, ReplayReport report) {
+		state.game.status = status;
+		state.game.mismatch = mismatch;
+		state.engine.abort();
+		games.remove(state.game.tableID);
+		engines.push(state.engine);
+		report.gameReplayed(state.game, checkpointInterval > 0);
+	}
+
+	/**
+	 * rebuild the state of a game after a number of its moves, from its last checkpoint
+	 * before the move
+	 * @param game
+	 * 		the game, as kept by the ReplayReport of this replayer
+	 * @param moveNumber
+	 * 		the number of moves made, between 0 (just dealt) and the number of moves of the game
+	 * @return an engine holding the state of the game after the move
+	 * @throws IOException
+	 * 		if a segment cannot be read
+	 */
+	public BigTwoEngine seek(ReplayedGame game, int moveNumber) throws IOException {
+		if(moveNumber < 0 || moveNumber > game.moves) {
+			throw new IllegalArgumentException("No move " + moveNumber + " in a game of " + game.moves
+					+ " moves");
+		}
+		BigTwoEngine engine = new BigTwoEngine();
+		int checkpoint = game.checkpoints - 1;
+		while(checkpoint >= 0 && game.checkpointMoves[checkpoint] > moveNumber) {
+			checkpoint--;
+		}
+		int segment;
+		int moves;
+		JournalReader reader;
+		if(checkpoint >= 0) {
+			engine.restore(game.checkpointSnapshots[checkpoint]);
+			segment = game.checkpointSegments[checkpoint];
+			moves = game.checkpointMoves[checkpoint];
+			reader = new JournalReader(segments[segment]);
+			reader.seek(game.checkpointPositions[checkpoint]);
+		} else {
+			segment = game.segment;
+			moves = 0;
+			reader = new JournalReader(segments[segment]);
+			reader.seek(game.position);
+			reader.next();
+			ReplayReport report = new ReplayReport();
+			GameState state = new GameState(engine, new ReplayedGame(game.tableID, game.dealSeq, segment,
+					game.position));
+			deal(state, reader, new HashMap<Integer, GameState>(), new ArrayDeque<BigTwoEngine>(), report);
+		}
+		while(moves < moveNumber) {
+			while(!reader.next()) {
+				reader = new JournalReader(segments[++segment]);
+			}
+			if(reader.getTableID() == game.tableID && reader.getType() == GameJournal.MOVE) {
+				engine.playMove(reader.getPlayerID(), reader.getCardMask());
+				moves++;
+			}
+		}
+		return engine;
+	}
+
+	/**
+	 * The state of a game being replayed
+	 */
+	private static class GameState {
+		private final BigTwoEngine engine;
+		private final ReplayedGame game;
+
+		GameState(BigTwoEngine engine, ReplayedGame game) {
+			this.engine = engine;
+			this.game = game;
+		}
+	}
+
+	/**
+	 * This class describes a game replayed: where it was dealt in the journal, how it
+	 * ended, and its checkpoints.
+	 */
+	public static class ReplayedGame {
+		/**
+		 * The status of a game whose moves and result match the rules
+		 */
+		public static final int VERIFIED = 0;
+		/**
+		 * The status of a game aborted because a player left
+		 */
+		public static final int ABORTED = 1;
+		/**
+		 * The status of a game without a result, e.g. in progress at a crash
+		 */
+		public static final int UNFINISHED = 2;
+		/**
+		 * The status of a game which does not match the rules
+		 */
+		public static final int MISMATCH = 3;
+
+		private final int tableID;
+		private final int dealSeq;
+		private final int segment;
+		private final int position;
+		private long seed;
+		private long time;
+		private int moves = 0;
+		private int winner = -1;
+		private int status = UNFINISHED;
+		private String mismatch;
+		//the checkpoints: the number of moves made, the state of the game and the
+		//position of the next record
+		private int checkpoints = 0;
+		private int[] checkpointMoves = new int[0];
+		private BigTwoSnapshot[] checkpointSnapshots = new BigTwoSnapshot[0];
+		private int[] checkpointSegments = new int[0];
+		private int[] checkpointPositions = new int[0];
+
+		ReplayedGame(int tableID, int dealSeq, int segment, int position) {
+			this.tableID = tableID;
+			this.dealSeq = dealSeq;
+			this.segment = segment;
+			this.position = position;
+		}
+
+		private void addCheckpoint(BigTwoSnapshot snapshot, int segment, int position) {
+			if(checkpoints == checkpointMoves.length) {
+				int capacity = Math.max(8, checkpoints * 2);
+				checkpointMoves = Arrays.copyOf(checkpointMoves, capacity);
+				checkpointSnapshots = Arrays.copyOf(checkpointSnapshots, capacity);
+				checkpointSegments = Arrays.copyOf(checkpointSegments, capacity);
+				checkpointPositions = Arrays.copyOf(checkpointPositions, capacity);
+			}
+			checkpointMoves[checkpoints] = moves;
+			checkpointSnapshots[checkpoints] = snapshot;
+			checkpointSegments[checkpoints] = segment;
+			checkpointPositions[checkpoints] = position;
+			checkpoints++;
+		}
+
+		/**
+		 * retrieve the ID of the table of the game
+		 */
+		public int getTableID() {
+			return tableID;
+		}
+
+		/**
+		 * retrieve the sequence number of the deal at the table
+		 */
+		public int getDealSeq() {
+			return dealSeq;
+		}
+
+		/**
+		 * retrieve the seed of the shuffle of the deal
+		 */
+		public long getSeed() {
+			return seed;
+		}
+
+		/**
+		 * retrieve the time of the deal, in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * retrieve the number of moves replayed
+		 */
+		public int getMoves() {
+			return moves;
+		}
+
+		/**
+		 * retrieve the playerID of the winner recorded, or -1 if the game has no result
+		 */
+		public int getWinner() {
+			return winner;
+		}
+
+		/**
+		 * retrieve the status of the game (VERIFIED, ABORTED, UNFINISHED or MISMATCH)
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * retrieve the number of checkpoints of the game
+		 */
+		public int getNumOfCheckpoints() {
+			return checkpoints;
+		}
+
+		/**
+		 * return a description of the game
+		 */
+		public String toString() {
+			String[] statuses = {"verified", "aborted", "unfinished", "mismatch"};
+			return "table " + tableID + " deal " + dealSeq + " after " + moves + " moves: " + statuses[status]
+					+ (mismatch == null ? "" : " (" + mismatch + ")");
+		}
+	}
+
+	/**
+	 * A task replaying a range of segments, splitting it into halves until it has a
+	 * single segment
+	 */
+	private class ReplayTask extends RecursiveTask<ReplayReport> {
+		private static final long serialVersionUID = 2906339180411374032L;
+		private final int from;
+		private final int to;
+
+		ReplayTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		protected ReplayReport compute() {
+			if(to - from <= 1) {
+				try {
+					return to > from ? replay(from) : new ReplayReport();
+				} catch(IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}
+			int middle = (from + to) >>> 1;
+			ReplayTask left = new ReplayTask(from, middle);
+			ReplayTask right = new ReplayTask(middle, to);
+			left.fork();
+			ReplayReport report = right.compute();
+			return left.join().merge(report);
+		}
+	}
+
+	/**
+	 * replay a journal and print the results and the throughput, and optionally the state
+	 * of a game after a move
+	 * @param args
+	 * 		the directory of the journal (default "journal"), the number of threads (default:
+	 * 		all cores), and a game and a move to seek as TABLE:DEALSEQ:MOVE
+	 */
+	public static void main(String[] args) throws IOException {
+		File directory = new File(args.length > 0 ? args[0] : "journal");
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		String[] target = args.length > 2 ? args[2].split(":") : null;
+		GameReplayer replayer = new GameReplayer(directory, target == null ? 0 : 8);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		ReplayReport report = replayer.replay(pool);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+		System.out.print(report);
+		System.out.println(String.format("%d segments on %d threads in %.2f s (%.0f moves/s)",
+				replayer.getNumOfSegments(), threads, seconds, report.getMoves() / seconds));
+		if(target != null) {
+			ReplayedGame game = report.findGame(Integer.parseInt(target[0]), Integer.parseInt(target[1]));
+			if(game == null) {
+				System.out.println("No game dealt at table " + target[0] + " with sequence number " + target[1]);
+				return;
+			}
+			BigTwoEngine engine = replayer.seek(game, Integer.parseInt(target[2]));
+			System.out.println(game + ", after move " + target[2] + ":");
+			for(int i = 0; i < engine.getNumOfPlayers(); i++) {
+				System.out.println("Player " + i + ": " + engine.getPlayerList().get(i).getCardsInHand());
+			}
+			Hand lastHand = engine.getLastHand();
+			System.out.println("Table: " + (lastHand == null ? "[Empty]" : lastHand + " by Player "
+					+ engine.getPlayerList().indexOf(lastHand.getPlayer())));
+			System.out.println("Next: Player " + engine.getCurrentIdx());
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * This class is a simple computer player of a Big Two card game. It plays the weakest
+ * hand that beats the last hand on the table, and passes if there is none. When it may
+ * play any hand, it leads with the weakest hand among those with the most cards.
+ * <p>
+ * A bot keeps its own MoveGenerator, so it must not be shared between threads.
+ * @author yuening
+ *
+ */
+public class GreedyBot implements BigTwoBot {
+	private final MoveGenerator generator = new MoveGenerator();
+
+	/**
+	 * choose the move of a player for the current turn of a game
+	 */
+	public long chooseMove(BigTwoEngine engine, int playerID) {
+		int n = engine.generateMoves(playerID, generator);
+		int best = -1;
+		for(int i = 0; i < n; i++) {
+			if(best < 0 || isBetter(generator.getKey(i), generator.getKey(best))) {
+				best = i;
+			}
+		}
+		return best < 0 ? 0L : generator.getMove(best);
+	}
+
+	/**
+	 * a move is better if it has more cards, or the same number of cards and a lower strength
+	 */
+	private static boolean isBetter(int key, int bestKey) {
+		int size = HandType.sizeOfKey(key);
+		int bestSize = HandType.sizeOfKey(bestKey);
+		return size > bestSize || (size == bestSize && key < bestKey);
+	}
+}
@@ -2,28 +2,49 @@ import java.io.Serializable;
 
 /**
  * This class is a subclass of the CardList class, and is used to model a hand of cards
+ * <p>
+ * The cards of a hand are classified once when the hand is built. A valid hand keeps its
+ * HandType, its top card and a packed strength key (see HandType.keyOf()), so that
+ * getTopCard() and beats() neither validate nor sort the cards again.
  * @author yuening
  *
  */
 abstract class Hand extends CardList implements Serializable {
 	private static final long serialVersionUID = 3173433777192763273L;
 	private CardGamePlayer player;
-	
+	//the type of this hand
+	private final HandType type;
+	//the strength key of this hand, or 0 if this hand is not valid
+	private final int key;
+	//the top card of this hand, or null if this hand is not valid
+	private final Card topCard;
+
 	/**
 	 * a constructor for building a hand with the specified player and list of cards
 	 * @param player
 	 * @param cards
+	 * @param type
+	 * 		the type of the hand to be built
 	 */
-	public Hand(CardGamePlayer player, CardList cards) {
+	protected Hand(CardGamePlayer player, CardList cards, HandType type) {
 		this.player = player;
+		this.type = type;
 		removeAllCards();
 		if(!cards.isEmpty()) {
 			for(int i=0; i<cards.size(); i++) {
 				addCard(cards.getCard(i));
 			}
 		}
+		int classification = HandClassifier.classify(this);
+		if(HandClassifier.typeOf(classification) == type) {
+			key = HandClassifier.keyOf(classification);
+			topCard = findCard(HandClassifier.topIndexOf(classification));
+		} else {
+			key = 0;
+			topCard = null;
+		}
 	}
-	
+
 	/**
 	 * retrieve the player of this hand
 	 * @return the player of this hand
@@ -31,74 +52,80 @@ abstract class Hand extends CardList implements Serializable {
 	public CardGamePlayer getPlayer() {
 		return player;
 	}
-	
+
 	/**
 	 * retrieve the top card of this hand
-	 * @return the top card. If this hand contains no card, return null
+	 * @return the top card. If this is not a valid hand, return null
 	 */
 	public Card getTopCard() {
-		if(isValid()) {
-			sort();
-			return getCard(size()-1);
-		}
-		return null;
+		return topCard;
+	}
+
+	/**
+	 * retrieve the strength key of this hand
+	 * @return the strength key of this hand (see HandType.keyOf()), or 0 if this is not
+	 * 		a valid hand
+	 */
+	public int getStrengthKey() {
+		return key;
 	}
-	
+
 	/**
 	 * check if this hand beats a specified hand
 	 * @param hand
 	 * @return true if this hand beats a specified hand, and false, otherwise.
 	 */
 	public boolean beats(Hand hand) {
-		if(isValid() && size()==hand.size()) {
-			if(getType() == hand.getType()) {
-				return getTopCard().compareTo(hand.getTopCard())==1?true:false;
-			} else {
-				return beatType(hand)?true:false;
-			}
-		}
-		return false;
+		return key != 0 && hand != null && hand.key != 0
+				&& HandType.sizeOfKey(key) == HandType.sizeOfKey(hand.key) && key > hand.key;
 	}
-	
+
 	/**
-	 * an abstract method
-	 * check if this is a valid hand
+	 * check if this is a valid hand, i.e., the cards form a hand of the type of this hand
 	 * @return true when it is a valid hand, and false, otherwise.
 	 */
-	public abstract boolean isValid();
+	public boolean isValid() {
+		return key != 0;
+	}
+
+	/**
+	 * retrieve the type of this hand
+	 * @return the type of this hand
+	 */
+	public HandType getHandType() {
+		return type;
+	}
 
-	
 	/**
-	 * an abstract method
 	 * return a string specifying the type of this hand
 	 * @return a string specifying the type of this hand
 	 */
-	public abstract String getType();
-	
+	public String getType() {
+		return type.getName();
+	}
+
 	/**
 	 * when size is equal to 5, compare the type of the hand according to the
 	 * priority: Straight Flush > Quad > Full House > Flush > Straight
 	 * @param hand to be compared with
-	 * @return true if of higher priority than the hand compared with, false if 
+	 * @return true if of higher priority than the hand compared with, false if
 	 * 		could not compare or is not of higher priority
 	 */
 	public boolean beatType(Hand hand) {
-		if(size()==5 && hand.size()==5) {
-			if(getType() == "Straight Flush") {
-				if(hand.getType() != "Straight Flush")
-					return true;
-			} else if (getType() == "Quad") {
-				if(hand.getType() != "Straight Flush" && hand.getType() != "Quad")
-					return true;
-			} else if (getType() == "Full House") {
-				if(hand.getType() != "Straight" || hand.getType() != "Flush")
-					return true;
-			} else if (getType() == "Flush") {
-				if(hand.getType() != "Straight")
-					return true;
+		return size()==5 && hand.size()==5 && type.getTier() > hand.type.getTier();
+	}
+
+	/**
+	 * find the card of this hand at the specified bit index (see CardSet)
+	 * @param index
+	 * @return the card at the bit index, or null if no such card is in this hand
+	 */
+	private Card findCard(int index) {
+		for(int i=0; i<size(); i++) {
+			if(CardSet.indexOf(getCard(i)) == index) {
+				return getCard(i);
 			}
 		}
-		return false;
+		return null;
 	}
-
 }
@@ -0,0 +1,142 @@
+/**
+ * This class classifies a set of cards into a Big Two hand in a single pass.
+ * <p>
+ * The cards are read from a card mask (see CardSet) once, building a rank
+ * histogram and a rank mask, from which the type of the hand and its top card
+ * are derived directly. No Hand object is created and nothing is sorted, so
+ * that a Hand only needs to be built for a selection that is known to be
+ * valid.
+ *
+ * @author yuening
+ *
+ */
+public final class HandClassifier {
+	/**
+	 * The classification of cards that do not form a valid hand.
+	 */
+	public static final int INVALID = 0;
+
+	// the bits of all cards with the same suit as the 3 of Diamonds
+	private static final long SUIT_MASK = 0x1111111111111L;
+
+	private HandClassifier() {
+	}
+
+	/**
+	 * Classifies the cards of the specified mask.
+	 *
+	 * @param mask
+	 *            a mask of card bits, as held by a CardSet
+	 * @return INVALID if the cards do not form a valid hand; otherwise the
+	 *         type of the hand and the bit index of its top card packed into
+	 *         an int, to be read with typeOf() and topIndexOf()
+	 */
+	public static int classify(long mask) {
+		int n = Long.bitCount(mask);
+		if (n == 1 || n == 2 || n == 3) {
+			int low = Long.numberOfTrailingZeros(mask);
+			int top = 63 - Long.numberOfLeadingZeros(mask);
+			if ((low >> 2) != (top >> 2)) {
+				return INVALID;
+			}
+			return pack(n == 1 ? HandType.SINGLE : n == 2 ? HandType.PAIR : HandType.TRIPLE, top);
+		}
+		if (n != 5) {
+			return INVALID;
+		}
+
+		// a single pass over the five cards: the rank mask and a histogram of
+		// 4-bit counters, one per rank
+		int rankMask = 0;
+		long counts = 0L;
+		for (long rest = mask; rest != 0L; rest &= rest - 1) {
+			int rank = Long.numberOfTrailingZeros(rest) >> 2;
+			rankMask |= 1 << rank;
+			counts += 1L << (rank << 2);
+		}
+		int top = 63 - Long.numberOfLeadingZeros(mask);
+		int numOfRanks = Integer.bitCount(rankMask);
+
+		if (numOfRanks == 5) {
+			boolean straight = (rankMask >>> Integer.numberOfTrailingZeros(rankMask)) == 0x1F;
+			boolean flush = (mask & (SUIT_MASK << (top & 3))) == mask;
+			if (straight && flush) {
+				return pack(HandType.STRAIGHT_FLUSH, top);
+			} else if (straight) {
+				return pack(HandType.STRAIGHT, top);
+			} else if (flush) {
+				return pack(HandType.FLUSH, top);
+			}
+			return INVALID;
+		} else if (numOfRanks == 2) {
+			// the rank holding three or four cards decides the top card
+			for (int rank = 0; rank < 13; rank++) {
+				int count = (int) (counts >>> (rank << 2)) & 0xF;
+				if (count >= 3) {
+					long rankCards = mask & (0xFL << (rank << 2));
+					int rankTop = 63 - Long.numberOfLeadingZeros(rankCards);
+					return pack(count == 3 ? HandType.FULL_HOUSE : HandType.QUAD, rankTop);
+				}
+			}
+		}
+		return INVALID;
+	}
+
+	/**
+	 * Classifies the cards of the specified list.
+	 *
+	 * @param cards
+	 *            a list of cards
+	 * @return the classification of the cards as returned by classify(long),
+	 *         or INVALID if the list is null or holds duplicated cards
+	 */
+	public static int classify(CardList cards) {
+		if (cards == null || Long.bitCount(cards.getMask()) != cards.size()) {
+			return INVALID;
+		}
+		return classify(cards.getMask());
+	}
+
+	/**
+	 * Returns the type of the hand of a classification.
+	 *
+	 * @param classification
+	 *            a value returned by classify()
+	 * @return the type of the hand, or null if the classification is INVALID
+	 */
+	public static HandType typeOf(int classification) {
+		return HandType.of((classification >>> 6) - 1);
+	}
+
+	/**
+	 * Returns the bit index of the top card of a classification.
+	 *
+	 * @param classification
+	 *            a value returned by classify()
+	 * @return the bit index of the top card (see CardSet), or -1 if the
+	 *         classification is INVALID
+	 */
+	public static int topIndexOf(int classification) {
+		return classification == INVALID ? -1 : classification & 0x3F;
+	}
+
+	/**
+	 * Returns the strength key of the hand of a classification.
+	 *
+	 * @param classification
+	 *            a value returned by classify()
+	 * @return the strength key of the hand (see HandType.keyOf()), or 0 if the
+	 *         classification is INVALID
+	 */
+	public static int keyOf(int classification) {
+		HandType type = typeOf(classification);
+		return type == null ? 0 : type.keyOf(classification & 0x3F);
+	}
+
+	/**
+	 * Packs a hand type and a top card index into a classification.
+	 */
+	private static int pack(HandType type, int topIndex) {
+		return ((type.ordinal() + 1) << 6) | topIndex;
+	}
+}
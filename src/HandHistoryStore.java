@@ -0,0 +1,353 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+
+/**
+ * This class keeps the history of the games finished on a server in three columnar
+ * tables (see ColumnarTable) for analytics, and creates the queries on them (see
+ * HistoryQuery).
+ * <ul>
+ * <li>moves.col has a row per move, passes included: the game, the seat, the turn
+ * (the number of moves of the game before it), the hand type (the ordinal of the
+ * HandType of the Hand played, or -1 for a pass), the ordinal of the top card of the hand
+ * (see Card.ordinal(), or -1 for a pass), the card mask of the hand (see CardSet) and a
+ * pass flag</li>
+ * <li>seats.col has a row per player per game: the game, the seat, the card mask of
+ * the hand dealt, the number of cards left at the end and a win flag</li>
+ * <li>games.col has a row per game: the game, the table, the time of the deal, the
+ * number of turns, the winner and the hand type of the opening move</li>
+ * </ul>
+ * The games are numbered from 0 in the order they finished. The store is built from a
+ * GameJournal with build(); the games which were aborted or did not finish are left out.
+ * <p>
+ * Usage: java HandHistoryStore [journal directory] [store directory]
+ * @author yuening
+ *
+ */
+public class HandHistoryStore implements Closeable {
+	/**
+	 * The column of the moves holding the game
+	 */
+	public static final int MOVE_GAME = 0;
+	/**
+	 * The column of the moves holding the seat of the player
+	 */
+	public static final int MOVE_SEAT = 1;
+	/**
+	 * The column of the moves holding the number of moves of the game before the move
+	 */
+	public static final int MOVE_TURN = 2;
+	/**
+	 * The column of the moves holding the ordinal of the hand type, or -1 for a pass
+	 */
+	public static final int MOVE_HAND_TYPE = 3;
+	/**
+	 * The column of the moves holding the ordinal of the top card, or -1 for a pass
+	 */
+	public static final int MOVE_TOP_CARD = 4;
+	/**
+	 * The column of the moves holding the card mask of the hand, or 0 for a pass
+	 */
+	public static final int MOVE_CARD_MASK = 5;
+	/**
+	 * The column of the moves holding 1 for a pass, and 0 otherwise
+	 */
+	public static final int MOVE_PASS = 6;
+	/**
+	 * The column of the seats holding the game
+	 */
+	public static final int SEAT_GAME = 0;
+	/**
+	 * The column of the seats holding the seat
+	 */
+	public static final int SEAT_ID = 1;
+	/**
+	 * The column of the seats holding the card mask of the hand dealt
+	 */
+	public static final int SEAT_HAND = 2;
+	/**
+	 * The column of the seats holding the number of cards left at the end
+	 */
+	public static final int SEAT_CARDS_LEFT = 3;
+	/**
+	 * The column of the seats holding 1 for the winner, and 0 otherwise
+	 */
+	public static final int SEAT_WON = 4;
+	/**
+	 * The column of the games holding the game
+	 */
+	public static final int GAME_ID = 0;
+	/**
+	 * The column of the games holding the ID of the table
+	 */
+	public static final int GAME_TABLE = 1;
+	/**
+	 * The column of the games holding the time of the deal, in milliseconds since the epoch
+	 */
+	public static final int GAME_TIME = 2;
+	/**
+	 * The column of the games holding the number of moves
+	 */
+	public static final int GAME_TURNS = 3;
+	/**
+	 * The column of the games holding the seat of the winner
+	 */
+	public static final int GAME_WINNER = 4;
+	/**
+	 * The column of the games holding the ordinal of the hand type of the first move
+	 */
+	public static final int GAME_OPENING_TYPE = 5;
+	//the widths of the columns of each table, in bytes
+	private static final int[] MOVE_WIDTHS = {4, 1, 2, 1, 1, 8, 1};
+	private static final int[] SEAT_WIDTHS = {4, 1, 8, 1, 1};
+	private static final int[] GAME_WIDTHS = {4, 4, 8, 2, 1, 1};
+	//the number of players of a game
+	private static final int NUM_OF_PLAYERS = 4;
+
+	//the table of moves
+	private final ColumnarTable moves;
+	//the table of seats
+	private final ColumnarTable seats;
+	//the table of games
+	private final ColumnarTable games;
+
+	/**
+	 * a constructor opening a store
+	 * @param directory
+	 * 		the directory of the store
+	 * @throws IOException
+	 * 		if a table cannot be read
+	 */
+	public HandHistoryStore(File directory) throws IOException {
+		moves = new ColumnarTable(new File(directory, "moves.col"));
+		try {
+			seats = new ColumnarTable(new File(directory, "seats.col"));
+			try {
+				games = new ColumnarTable(new File(directory, "games.col"));
+			} catch(IOException ex) {
+				seats.close();
+				throw ex;
+			}
+		} catch(IOException ex) {
+			moves.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * close the tables of the store
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		moves.close();
+		seats.close();
+		games.close();
+	}
+
+	/**
+	 * create a query on the table of moves
+	 */
+	public HistoryQuery moves() {
+		return new HistoryQuery(moves);
+	}
+
+	/**
+	 * create a query on the table of seats
+	 */
+	public HistoryQuery seats() {
+		return new HistoryQuery(seats);
+	}
+
+	/**
+	 * create a query on the table of games
+	 */
+	public HistoryQuery games() {
+		return new HistoryQuery(games);
+	}
+
+	/**
+	 * retrieve the number of games in the store
+	 */
+	public long getNumOfGames() {
+		return games.getNumOfRows();
+	}
+
+	/**
+	 * retrieve the number of moves in the store
+	 */
+	public long getNumOfMoves() {
+		return moves.getNumOfRows();
+	}
+
+	/**
+	 * build a store from the games finished in a journal, replacing the tables of the store
+	 * @param journalDirectory
+	 * 		the directory of the journal
+	 * @param directory
+	 * 		the directory of the store, which is created if needed
+	 * @return the number of bytes of the columns before and after compression
+	 * @throws IOException
+	 * 		if the journal cannot be read or the store cannot be written
+	 */
+	public static long[] build(File journalDirectory, File directory) throws IOException {
+		directory.mkdirs();
+		HashMap<Integer, GameHistory> inProgress = new HashMap<Integer, GameHistory>();
+		int numOfGames = 0;
+		ColumnarTable.Writer moveWriter = new ColumnarTable.Writer(new File(directory, "moves.col"), MOVE_WIDTHS);
+		ColumnarTable.Writer seatWriter = new ColumnarTable.Writer(new File(directory, "seats.col"), SEAT_WIDTHS);
+		ColumnarTable.Writer gameWriter = new ColumnarTable.Writer(new File(directory, "games.col"), GAME_WIDTHS);
+		try {
+			for(File segment : GameJournal.listSegments(journalDirectory)) {
+				JournalReader reader = new JournalReader(segment);
+				while(reader.next()) {
+					int tableID = reader.getTableID();
+					GameHistory game = inProgress.get(tableID);
+					switch(reader.getType()) {
+					case GameJournal.DEAL:
+						if(game == null) {
+							game = new GameHistory();
+							inProgress.put(tableID, game);
+						}
+						game.deal(reader);
+						break;
+					case GameJournal.MOVE:
+						if(game != null && game.isDealt()) {
+							game.move(reader);
+						}
+						break;
+					case GameJournal.RESULT:
+						if(game != null && game.isDealt()) {
+							game.write(numOfGames++, tableID, reader, moveWriter, seatWriter, gameWriter);
+						}
+						break;
+					default:
+						if(game != null) {
+							game.clear();
+						}
+					}
+				}
+			}
+		} finally {
+			moveWriter.close();
+			seatWriter.close();
+			gameWriter.close();
+		}
+		return new long[] {moveWriter.getRawBytes() + seatWriter.getRawBytes() + gameWriter.getRawBytes(),
+				moveWriter.getCompressedBytes() + seatWriter.getCompressedBytes() + gameWriter.getCompressedBytes()};
+	}
+
+	/**
+	 * The moves of a game in progress at a table, buffered until its RESULT
+	 */
+	private static class GameHistory {
+		private final long[] hands = new long[NUM_OF_PLAYERS];
+		private long time;
+		private boolean dealt = false;
+		private int numOfMoves = 0;
+		private byte[] seats = new byte[64];
+		private byte[] handTypes = new byte[64];
+		private long[] masks = new long[64];
+
+		void deal(JournalReader reader) {
+			Arrays.fill(hands, 0L);
+			for(int i = 0; i < reader.getNumOfCards(); i++) {
+				int ordinal = reader.getCardOrdinal(i);
+				hands[i % NUM_OF_PLAYERS] |= 1L << CardSet.indexOf(ordinal / 13, ordinal % 13);
+			}
+			time = reader.getTime();
+			numOfMoves = 0;
+			dealt = true;
+		}
+
+		boolean isDealt() {
+			return dealt;
+		}
+
+		void clear() {
+			dealt = false;
+			numOfMoves = 0;
+		}
+
+		void move(JournalReader reader) {
+			if(numOfMoves == masks.length) {
+				seats = Arrays.copyOf(seats, numOfMoves * 2);
+				handTypes = Arrays.copyOf(handTypes, numOfMoves * 2);
+				masks = Arrays.copyOf(masks, numOfMoves * 2);
+			}
+			seats[numOfMoves] = (byte) reader.getPlayerID();
+			handTypes[numOfMoves] = (byte) reader.getHandType();
+			masks[numOfMoves] = reader.getCardMask();
+			numOfMoves++;
+		}
+
+		void write(int id, int tableID, JournalReader result, ColumnarTable.Writer moveWriter,
+				ColumnarTable.Writer seatWriter, ColumnarTable.Writer gameWriter) throws IOException {
+			for(int i = 0; i < numOfMoves; i++) {
+				boolean pass = masks[i] == 0L;
+				int top = pass ? -1 : HandClassifier.topIndexOf(HandClassifier.classify(masks[i]));
+				moveWriter.set(MOVE_GAME, id);
+				moveWriter.set(MOVE_SEAT, seats[i]);
+				moveWriter.set(MOVE_TURN, i);
+				moveWriter.set(MOVE_HAND_TYPE, handTypes[i]);
+				moveWriter.set(MOVE_TOP_CARD, top < 0 ? -1 : Card.ordinal(CardSet.suitOf(top), CardSet.rankOf(top)));
+				moveWriter.set(MOVE_CARD_MASK, masks[i]);
+				moveWriter.set(MOVE_PASS, pass ? 1 : 0);
+				moveWriter.endRow();
+			}
+			for(int seat = 0; seat < NUM_OF_PLAYERS; seat++) {
+				seatWriter.set(SEAT_GAME, id);
+				seatWriter.set(SEAT_ID, seat);
+				seatWriter.set(SEAT_HAND, hands[seat]);
+				seatWriter.set(SEAT_CARDS_LEFT, result.getCardsLeft(seat));
+				seatWriter.set(SEAT_WON, seat == result.getPlayerID() ? 1 : 0);
+				seatWriter.endRow();
+			}
+			gameWriter.set(GAME_ID, id);
+			gameWriter.set(GAME_TABLE, tableID);
+			gameWriter.set(GAME_TIME, time);
+			gameWriter.set(GAME_TURNS, numOfMoves);
+			gameWriter.set(GAME_WINNER, result.getPlayerID());
+			gameWriter.set(GAME_OPENING_TYPE, numOfMoves == 0 ? -1 : handTypes[0]);
+			gameWriter.endRow();
+			clear();
+		}
+	}
+
+	/**
+	 * build a store from a journal, then print a few statistics to show the queries
+	 * @param args
+	 * 		the directory of the journal (default "journal") and the directory of the store
+	 * 		(default "history")
+	 */
+	public static void main(String[] args) throws IOException {
+		File journalDirectory = new File(args.length > 0 ? args[0] : "journal");
+		File directory = new File(args.length > 1 ? args[1] : "history");
+		long start = System.nanoTime();
+		long[] bytes = build(journalDirectory, directory);
+		try(HandHistoryStore store = new HandHistoryStore(directory)) {
+			System.out.println(String.format("built %d games, %d moves in %.2f s (%d bytes, %d compressed)",
+					store.getNumOfGames(), store.getNumOfMoves(), (System.nanoTime() - start) / 1e9, bytes[0],
+					bytes[1]));
+
+			start = System.nanoTime();
+			long twoOfSpades = CardSet.bitOf(BigTwoCard.of(3, 1));
+			LongSummaryStatistics won = store.seats().whereAll(SEAT_HAND, twoOfSpades).summarize(SEAT_WON);
+			System.out.println(String.format("win rate holding the 2 of Spades: %.2f%% of %d hands",
+					100 * won.getAverage(), won.getCount()));
+			System.out.println("average turns per game by opening hand type:");
+			for(Map.Entry<Long, LongSummaryStatistics> group : store.games().groupBy(GAME_OPENING_TYPE, GAME_TURNS)
+					.entrySet()) {
+				System.out.println(String.format("  %s: %.2f turns in %d games",
+						HandType.values()[group.getKey().intValue()], group.getValue().getAverage(),
+						group.getValue().getCount()));
+			}
+			long passes = store.moves().whereEquals(MOVE_PASS, 1).count();
+			System.out.println(String.format("passes: %.2f%% of the moves", 100.0 * passes / store.getNumOfMoves()));
+			System.out.println(String.format("queries in %.2f s", (System.nanoTime() - start) / 1e9));
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * This enum lists the types of hands in a Big Two card game, and packs a hand
+ * of a given type into an int strength key, so that comparing two hands is a
+ * single integer comparison.
+ * <p>
+ * A strength key holds, from the highest bits to the lowest: the number of
+ * cards in the hand, the tier of the hand type (Straight &lt; Flush &lt; Full
+ * House &lt; Quad &lt; Straight Flush), and the top card. The top card is
+ * compared by rank then suit, except for a flush, which is compared by suit
+ * then rank.
+ *
+ * @author yuening
+ *
+ */
+public enum HandType {
+	SINGLE("Single", 1, 0),
+	PAIR("Pair", 2, 0),
+	TRIPLE("Triple", 3, 0),
+	STRAIGHT("Straight", 5, 1),
+	FLUSH("Flush", 5, 2),
+	FULL_HOUSE("Full House", 5, 3),
+	QUAD("Quad", 5, 4),
+	STRAIGHT_FLUSH("Straight Flush", 5, 5);
+
+	private static final HandType[] VALUES = values();
+
+	private final String name;
+	private final int size;
+	private final int tier;
+
+	private HandType(String name, int size, int tier) {
+		this.name = name;
+		this.size = size;
+		this.tier = tier;
+	}
+
+	/**
+	 * return the name of this type, as returned by Hand.getType()
+	 * @return the name of this type
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * return the number of cards in a hand of this type
+	 * @return the number of cards in a hand of this type
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * return the tier of this type among the hands with the same size
+	 * @return 0 for singles, pairs and triples, and 1 (Straight) to 5 (Straight
+	 * 		Flush) for hands of five cards
+	 */
+	public int getTier() {
+		return tier;
+	}
+
+	/**
+	 * return the strength key of a hand of this type with the specified top card
+	 * @param topIndex
+	 * 		the bit index of the top card (see CardSet)
+	 * @return a positive int. A hand beats another hand with the same size if and
+	 * 		only if its strength key is larger
+	 */
+	public int keyOf(int topIndex) {
+		int top = this == FLUSH ? ((topIndex & 3) << 4) | (topIndex >> 2) : topIndex;
+		return (size << 16) | (tier << 8) | top;
+	}
+
+	/**
+	 * return the number of cards of a hand with the specified strength key
+	 * @param key
+	 * 		a strength key returned by keyOf()
+	 * @return the number of cards of the hand
+	 */
+	public static int sizeOfKey(int key) {
+		return key >>> 16;
+	}
+
+	/**
+	 * return the hand type with the specified ordinal
+	 * @param ordinal
+	 * 		the ordinal of the hand type
+	 * @return the hand type, or null if the ordinal is out of range
+	 */
+	public static HandType of(int ordinal) {
+		return ordinal >= 0 && ordinal < VALUES.length ? VALUES[ordinal] : null;
+	}
+
+	/**
+	 * return the name of this type
+	 */
+	public String toString() {
+		return name;
+	}
+}
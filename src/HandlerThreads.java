@@ -0,0 +1,75 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class creates the threads running the handlers of the connections (e.g. the
+ * ClientHandler of a server and the ServerHandler of a client), either as platform
+ * threads or as virtual threads.
+ * <p>
+ * A virtual thread blocked on a socket releases its carrier thread, so a handler can
+ * keep its plain blocking I/O while thousands of connections share a few carriers.
+ * Virtual threads are looked up at runtime (Thread.ofVirtual(), Java 21), so that the
+ * game still runs on older JVMs, where platform threads are used instead.
+ * @author yuening
+ *
+ */
+public final class HandlerThreads {
+	//the factory of the platform threads
+	private static final ThreadFactory PLATFORM = new ThreadFactory() {
+		public Thread newThread(Runnable task) {
+			return new Thread(task);
+		}
+	};
+	//the factory of the virtual threads, or null if the JVM has none
+	private static final ThreadFactory VIRTUAL = virtualThreadFactory();
+
+	private HandlerThreads() {
+	}
+
+	/**
+	 * check if the JVM supports virtual threads
+	 * @return true if virtual threads are available
+	 */
+	public static boolean isVirtualAvailable() {
+		return VIRTUAL != null;
+	}
+
+	/**
+	 * retrieve the factory of the threads of an execution mode
+	 * @param virtual
+	 * 		true for virtual threads, false for platform threads
+	 * @return a factory of virtual threads if requested and available, or of platform
+	 * 		threads otherwise
+	 */
+	public static ThreadFactory factory(boolean virtual) {
+		return virtual && VIRTUAL != null ? VIRTUAL : PLATFORM;
+	}
+
+	/**
+	 * start a thread running a task
+	 * @param task
+	 * 		the task
+	 * @param virtual
+	 * 		true to run the task on a virtual thread, if available
+	 * @return the thread started
+	 */
+	public static Thread start(Runnable task, boolean virtual) {
+		Thread t = factory(virtual).newThread(task);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * look up Thread.ofVirtual().factory(), which is thread-safe unlike the builder
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch(ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+}
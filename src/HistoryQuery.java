@@ -0,0 +1,367 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LongSummaryStatistics;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * This class queries a ColumnarTable, e.g. a table of a HandHistoryStore. The
+ * predicates are added with the where...() methods and combined with AND, and the rows
+ * matching them are counted, summarized or grouped by the terminal methods.
+ * <p>
+ * The blocks of the table are scanned in parallel with a parallel stream. The
+ * predicates are pushed down to the statistics of each block: a block which cannot
+ * match a predicate is skipped without being read, and a block which matches all the
+ * predicates in full is counted without being read. Otherwise, only the columns used
+ * by the query are decompressed, and each predicate narrows down an array of the
+ * matching rows of the block in turn.
+ * <p>
+ * For example, the win rate of the players holding the Two of Spades:
+ * <pre>
+ * store.seats().whereAll(HandHistoryStore.SEAT_HAND, twoOfSpades)
+ *      .summarize(HandHistoryStore.SEAT_WON).getAverage()
+ * </pre>
+ * A query is not thread-safe while it is being built, but it may be run by any number
+ * of threads.
+ * @author yuening
+ *
+ */
+public class HistoryQuery {
+	//the kinds of the predicates
+	private static final int RANGE = 0;
+	private static final int ALL_BITS = 1;
+	private static final int ANY_BITS = 2;
+	private static final int NO_BITS = 3;
+	//the buffers of the threads scanning the blocks
+	private static final ThreadLocal<ScanBuffers> BUFFERS = ThreadLocal.withInitial(ScanBuffers::new);
+
+	//the table queried
+	private final ColumnarTable table;
+	//the predicates, combined with AND
+	private final ArrayList<Condition> conditions = new ArrayList<Condition>();
+
+	/**
+	 * a constructor creating a query matching all the rows of a table
+	 * @param table
+	 * 		the table queried
+	 */
+	public HistoryQuery(ColumnarTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * match the rows whose value of a column is equal to a value
+	 * @param column
+	 * 		the index of the column
+	 * @param value
+	 * 		the value
+	 * @return this query
+	 */
+	public HistoryQuery whereEquals(int column, long value) {
+		return whereBetween(column, value, value);
+	}
+
+	/**
+	 * match the rows whose value of a column is within a range
+	 * @param column
+	 * 		the index of the column
+	 * @param min
+	 * 		the minimum value, inclusive
+	 * @param max
+	 * 		the maximum value, inclusive
+	 * @return this query
+	 */
+	public HistoryQuery whereBetween(int column, long min, long max) {
+		conditions.add(new Condition(RANGE, column, min, max));
+		return this;
+	}
+
+	/**
+	 * match the rows whose value of a column has all the bits of a mask set, e.g. the
+	 * card masks holding all the cards of a mask
+	 * @param column
+	 * 		the index of the column
+	 * @param bits
+	 * 		the mask
+	 * @return this query
+	 */
+	public HistoryQuery whereAll(int column, long bits) {
+		conditions.add(new Condition(ALL_BITS, column, bits, 0L));
+		return this;
+	}
+
+	/**
+	 * match the rows whose value of a column has any bit of a mask set
+	 * @param column
+	 * 		the index of the column
+	 * @param bits
+	 * 		the mask
+	 * @return this query
+	 */
+	public HistoryQuery whereAny(int column, long bits) {
+		conditions.add(new Condition(ANY_BITS, column, bits, 0L));
+		return this;
+	}
+
+	/**
+	 * match the rows whose value of a column has no bit of a mask set
+	 * @param column
+	 * 		the index of the column
+	 * @param bits
+	 * 		the mask
+	 * @return this query
+	 */
+	public HistoryQuery whereNone(int column, long bits) {
+		conditions.add(new Condition(NO_BITS, column, bits, 0L));
+		return this;
+	}
+
+	/**
+	 * count the matching rows
+	 */
+	public long count() {
+		return blocks().mapToLong(block -> {
+			if(matchesAll(block)) {
+				return table.getBlockRows(block);
+			}
+			return scan(block, -1, -1, (buffers, rows, selected) -> (long) selected).longValue();
+		}).sum();
+	}
+
+	/**
+	 * summarize the values of a column of the matching rows
+	 * @param column
+	 * 		the index of the column
+	 * @return the count, the sum, the minimum and the maximum of the values
+	 */
+	public LongSummaryStatistics summarize(int column) {
+		return blocks().mapToObj(block -> scan(block, column, -1, (buffers, rows, selected) -> {
+			LongSummaryStatistics stats = new LongSummaryStatistics();
+			long[] values = buffers.columns[column];
+			for(int i = 0; i < selected; i++) {
+				stats.accept(values[rows[i]]);
+			}
+			return stats;
+		})).collect(LongSummaryStatistics::new, LongSummaryStatistics::combine, LongSummaryStatistics::combine);
+	}
+
+	/**
+	 * summarize the values of a column of the matching rows by the value of another column
+	 * @param keyColumn
+	 * 		the index of the column grouping the rows
+	 * @param valueColumn
+	 * 		the index of the column summarized
+	 * @return the count, the sum, the minimum and the maximum of the values of each group,
+	 * 		by key in ascending order
+	 */
+	public TreeMap<Long, LongSummaryStatistics> groupBy(int keyColumn, int valueColumn) {
+		return blocks().mapToObj(block -> scan(block, keyColumn, valueColumn, (buffers, rows, selected) -> {
+			TreeMap<Long, LongSummaryStatistics> groups = new TreeMap<Long, LongSummaryStatistics>();
+			long[] keys = buffers.columns[keyColumn];
+			long[] values = buffers.columns[valueColumn];
+			for(int i = 0; i < selected; i++) {
+				groups.computeIfAbsent(keys[rows[i]], key -> new LongSummaryStatistics()).accept(values[rows[i]]);
+			}
+			return groups;
+		})).collect(TreeMap::new, HistoryQuery::mergeGroups, HistoryQuery::mergeGroups);
+	}
+
+	/**
+	 * add the groups of some rows to the groups of other rows
+	 */
+	private static void mergeGroups(TreeMap<Long, LongSummaryStatistics> groups,
+			TreeMap<Long, LongSummaryStatistics> other) {
+		other.forEach((key, stats) -> groups.merge(key, stats, (a, b) -> {
+			a.combine(b);
+			return a;
+		}));
+	}
+
+	/**
+	 * stream the values of a column of the matching rows, in no particular order, for the
+	 * aggregations which the other methods do not cover
+	 * @param column
+	 * 		the index of the column
+	 * @return a parallel stream of the values
+	 */
+	public LongStream values(int column) {
+		return blocks().mapToObj(block -> scan(block, column, -1, (buffers, rows, selected) -> {
+			long[] values = new long[selected];
+			for(int i = 0; i < selected; i++) {
+				values[i] = buffers.columns[column][rows[i]];
+			}
+			return values;
+		})).flatMapToLong(LongStream::of);
+	}
+
+	/**
+	 * stream the indices of the blocks which may match the predicates, in parallel
+	 */
+	private IntStream blocks() {
+		return IntStream.range(0, table.getNumOfBlocks()).parallel().filter(this::mayMatch);
+	}
+
+	/**
+	 * check if the statistics of a block allow some of its rows to match all the predicates
+	 */
+	private boolean mayMatch(int block) {
+		for(Condition condition : conditions) {
+			if(!condition.mayMatch(table, block)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * check if the statistics of a block show that all its rows match all the predicates
+	 */
+	private boolean matchesAll(int block) {
+		for(Condition condition : conditions) {
+			if(!condition.matchesAll(table, block)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * read the columns of a block used by the predicates and the query, select the
+	 * matching rows and aggregate them
+	 * @param column1
+	 * 		a column used by the query, or -1
+	 * @param column2
+	 * 		another column used by the query, or -1
+	 */
+	private <R> R scan(int block, int column1, int column2, BlockAggregator<R> aggregator) {
+		ScanBuffers buffers = BUFFERS.get();
+		int rowsInBlock = table.getBlockRows(block);
+		buffers.reserve(Math.max(column1, column2));
+		Arrays.fill(buffers.read, false);
+		int[] rows = buffers.rows;
+		for(int i = 0; i < rowsInBlock; i++) {
+			rows[i] = i;
+		}
+		int selected = rowsInBlock;
+		try {
+			for(Condition condition : conditions) {
+				if(condition.matchesAll(table, block)) {
+					continue;
+				}
+				long[] values = buffers.read(table, block, condition.column);
+				int matched = 0;
+				for(int i = 0; i < selected; i++) {
+					if(condition.matches(values[rows[i]])) {
+						rows[matched++] = rows[i];
+					}
+				}
+				selected = matched;
+			}
+			if(selected > 0 && column1 >= 0) {
+				buffers.read(table, block, column1);
+			}
+			if(selected > 0 && column2 >= 0) {
+				buffers.read(table, block, column2);
+			}
+		} catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return aggregator.aggregate(buffers, rows, selected);
+	}
+
+	/**
+	 * An aggregation of the matching rows of a block
+	 */
+	private interface BlockAggregator<R> {
+		R aggregate(ScanBuffers buffers, int[] rows, int selected);
+	}
+
+	/**
+	 * A predicate on a column
+	 */
+	private static class Condition {
+		private final int kind;
+		private final int column;
+		private final long a;
+		private final long b;
+
+		Condition(int kind, int column, long a, long b) {
+			this.kind = kind;
+			this.column = column;
+			this.a = a;
+			this.b = b;
+		}
+
+		boolean matches(long value) {
+			switch(kind) {
+			case RANGE:
+				return value >= a && value <= b;
+			case ALL_BITS:
+				return (value & a) == a;
+			case ANY_BITS:
+				return (value & a) != 0L;
+			default:
+				return (value & a) == 0L;
+			}
+		}
+
+		boolean mayMatch(ColumnarTable table, int block) {
+			switch(kind) {
+			case RANGE:
+				return table.getMax(block, column) >= a && table.getMin(block, column) <= b;
+			case ALL_BITS:
+				return (table.getOr(block, column) & a) == a;
+			case ANY_BITS:
+				return (table.getOr(block, column) & a) != 0L;
+			default:
+				return (table.getAnd(block, column) & a) == 0L;
+			}
+		}
+
+		boolean matchesAll(ColumnarTable table, int block) {
+			switch(kind) {
+			case RANGE:
+				return table.getMin(block, column) >= a && table.getMax(block, column) <= b;
+			case ALL_BITS:
+				return (table.getAnd(block, column) & a) == a;
+			case ANY_BITS:
+				return (table.getAnd(block, column) & a) != 0L;
+			default:
+				return (table.getOr(block, column) & a) == 0L;
+			}
+		}
+	}
+
+	/**
+	 * The buffers of a thread scanning blocks: the values of the columns read from the
+	 * current block and the indices of its matching rows
+	 */
+	private static class ScanBuffers {
+		private long[][] columns = new long[0][];
+		private boolean[] read = new boolean[0];
+		private final int[] rows = new int[ColumnarTable.BLOCK_ROWS];
+		private final byte[] bytes = new byte[ColumnarTable.BLOCK_ROWS * 8];
+
+		void reserve(int column) {
+			if(column >= columns.length) {
+				columns = Arrays.copyOf(columns, column + 1);
+				read = Arrays.copyOf(read, column + 1);
+			}
+		}
+
+		long[] read(ColumnarTable table, int block, int column) throws IOException {
+			reserve(column);
+			if(columns[column] == null) {
+				columns[column] = new long[ColumnarTable.BLOCK_ROWS];
+			}
+			if(!read[column]) {
+				table.readColumn(block, column, columns[column], bytes);
+				read[column] = true;
+			}
+			return columns[column];
+		}
+	}
+}
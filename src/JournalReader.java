@@ -0,0 +1,199 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * This class reads the records of a segment of a GameJournal, one at a time, straight
+ * from the segment mapped into memory. The fields of the current record are decoded on
+ * demand into primitive values, so that reading a record allocates nothing.
+ * <p>
+ * The records are read up to the end marker of the segment, or up to the first record
+ * whose checksum does not match, which was torn by a crash. A reader is not
+ * thread-safe; each thread should use its own.
+ * @author yuening
+ *
+ */
+public class JournalReader {
+	//the segment, mapped into memory
+	private final ByteBuffer segment;
+	//the checksum of the records
+	private final CRC32C crc = new CRC32C();
+	//the position of the current record, or -1 before the first record
+	private int position = -1;
+	//the position of the next record
+	private int nextPosition = 0;
+	//a boolean indicating if the reading stopped at a torn record
+	private boolean torn = false;
+
+	/**
+	 * a constructor mapping a segment into memory for reading
+	 * @param file
+	 * 		the segment file
+	 * @throws IOException
+	 * 		if the segment cannot be read
+	 */
+	public JournalReader(File file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * move on to the next record
+	 * @return true if there is a next record, and false at the end of the segment
+	 */
+	public boolean next() {
+		if(nextPosition < 0) {
+			return false;
+		}
+		int start = nextPosition;
+		int length = start + 2 <= segment.limit() ? segment.getShort(start) & 0xffff : 0;
+		if(length == 0) {
+			return end();
+		}
+		if(length < GameJournal.BODY_HEADER_SIZE
+				|| start + GameJournal.RECORD_HEADER_SIZE + length > segment.limit()) {
+			torn = true;
+			return end();
+		}
+		ByteBuffer body = segment.slice(start + GameJournal.RECORD_HEADER_SIZE, length);
+		crc.reset();
+		crc.update(body);
+		if((int) crc.getValue() != segment.getInt(start + 2)) {
+			torn = true;
+			return end();
+		}
+		position = start;
+		nextPosition = start + GameJournal.RECORD_HEADER_SIZE + length;
+		return true;
+	}
+
+	private boolean end() {
+		position = -1;
+		nextPosition = -1;
+		return false;
+	}
+
+	/**
+	 * move back to a record, e.g. to continue replaying a game from a checkpoint
+	 * @param position
+	 * 		the position of the record, as returned by getPosition() or getNextPosition()
+	 */
+	public void seek(int position) {
+		this.position = -1;
+		this.nextPosition = position;
+		this.torn = false;
+	}
+
+	/**
+	 * retrieve the position of the current record in the segment
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * retrieve the position of the record after the current one in the segment
+	 */
+	public int getNextPosition() {
+		return nextPosition;
+	}
+
+	/**
+	 * check if the reading stopped at a torn record rather than at the end marker
+	 */
+	public boolean isTorn() {
+		return torn;
+	}
+
+	/**
+	 * retrieve the type of the current record (see GameJournal.DEAL, MOVE, RESULT and ABORT)
+	 */
+	public int getType() {
+		return segment.get(position + 6);
+	}
+
+	/**
+	 * retrieve the ID of the table of the current record
+	 */
+	public int getTableID() {
+		return segment.getInt(position + 7);
+	}
+
+	/**
+	 * retrieve the sequence number of the change at the table of the current record
+	 */
+	public int getSeq() {
+		return segment.getInt(position + 11);
+	}
+
+	/**
+	 * retrieve the time of the current record, in milliseconds since the epoch
+	 */
+	public long getTime() {
+		return segment.getLong(position + 15);
+	}
+
+	/**
+	 * retrieve the seed of the shuffle of a DEAL
+	 */
+	public long getSeed() {
+		return segment.getLong(position + 23);
+	}
+
+	/**
+	 * retrieve the number of cards of a DEAL
+	 */
+	public int getNumOfCards() {
+		return segment.get(position + 31);
+	}
+
+	/**
+	 * retrieve the ordinal (see Card.ordinal()) of a card of a DEAL
+	 * @param i
+	 * 		the position of the card in the shuffled deck
+	 */
+	public int getCardOrdinal(int i) {
+		return segment.get(position + 32 + i);
+	}
+
+	/**
+	 * retrieve the playerID of a MOVE, or of the winner of a RESULT
+	 */
+	public int getPlayerID() {
+		return segment.get(position + 23);
+	}
+
+	/**
+	 * retrieve the card mask (see CardSet) of a MOVE, or 0 for a pass
+	 */
+	public long getCardMask() {
+		return segment.getLong(position + 24);
+	}
+
+	/**
+	 * retrieve the ordinal of the hand type (see HandType) of a MOVE, or -1 for a pass
+	 */
+	public int getHandType() {
+		return segment.get(position + 32);
+	}
+
+	/**
+	 * retrieve the number of players of a RESULT
+	 */
+	public int getNumOfPlayers() {
+		return (segment.getShort(position) & 0xffff) - GameJournal.BODY_HEADER_SIZE - 1;
+	}
+
+	/**
+	 * retrieve the number of cards left to a player at the end of the game of a RESULT
+	 * @param playerID
+	 * 		the playerID of the player
+	 */
+	public int getCardsLeft(int playerID) {
+		return segment.get(position + 24 + playerID);
+	}
+}
@@ -0,0 +1,135 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records durations into buckets whose upper bounds double from one bucket
+ * to the next, from about a microsecond to about twenty minutes. Recording a duration
+ * adds to two LongAdders and a LongAccumulator, which stripe their cells across the
+ * threads recording, so that the threads of a busy server do not contend on a counter.
+ * <p>
+ * The percentiles are estimated as the upper bound of the bucket holding them, which is
+ * within a factor of two of the true value.
+ * @author yuening
+ *
+ */
+public class LatencyHistogram {
+	/**
+	 * The number of buckets
+	 */
+	public static final int NUM_OF_BUCKETS = 31;
+	//the base 2 logarithm of the upper bound of the first bucket, in nanoseconds
+	private static final int FIRST_SHIFT = 10;
+
+	//the number of durations recorded in each bucket
+	private final LongAdder[] counts = new LongAdder[NUM_OF_BUCKETS];
+	//the sum of the durations recorded, in nanoseconds
+	private final LongAdder sum = new LongAdder();
+	//the longest duration recorded, in nanoseconds
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+	/**
+	 * a constructor for building an empty histogram
+	 */
+	public LatencyHistogram() {
+		for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * record a duration
+	 * @param nanos
+	 * 		the duration, in nanoseconds
+	 */
+	public void record(long nanos) {
+		counts[bucketOf(nanos)].increment();
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * record the duration since a start time
+	 * @param startNanos
+	 * 		the start time, as returned by System.nanoTime()
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * retrieve the upper bound of a bucket
+	 * @param bucket
+	 * 		the index of the bucket
+	 * @return the largest duration counted in the bucket, in nanoseconds, or Long.MAX_VALUE
+	 * 		for the last bucket
+	 */
+	public static long upperBoundOf(int bucket) {
+		return bucket == NUM_OF_BUCKETS - 1 ? Long.MAX_VALUE : (1L << (FIRST_SHIFT + bucket)) - 1;
+	}
+
+	/**
+	 * retrieve the number of durations recorded in each bucket
+	 * @return a snapshot of the counts of the buckets
+	 */
+	public long[] getCounts() {
+		long[] snapshot = new long[NUM_OF_BUCKETS];
+		for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+			snapshot[i] = counts[i].sum();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * retrieve the number of durations recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for(LongAdder bucket : counts) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * retrieve the sum of the durations recorded, in nanoseconds
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * retrieve the longest duration recorded, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * estimate a percentile of the durations recorded
+	 * @param fraction
+	 * 		the fraction of the durations below the percentile, e.g. 0.99
+	 * @return the upper bound of the bucket holding the percentile (at most the longest
+	 * 		duration), in nanoseconds, or 0 if no duration has been recorded
+	 */
+	public long getPercentile(double fraction) {
+		long[] snapshot = getCounts();
+		long total = 0;
+		for(long count : snapshot) {
+			total += count;
+		}
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= rank && seen > 0) {
+				return Math.min(upperBoundOf(i), getMax());
+			}
+		}
+		return 0;
+	}
+
+	private static int bucketOf(long nanos) {
+		int bucket = 64 - Long.numberOfLeadingZeros(nanos >> FIRST_SHIFT);
+		return Math.min(bucket, NUM_OF_BUCKETS - 1);
+	}
+}
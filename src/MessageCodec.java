@@ -0,0 +1,294 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class frames and encodes the messages of a network game. Each message is sent
+ * as a frame made of the length of its payload in 4 bytes (big-endian) followed by its
+ * payload. A frame can therefore be read without blocking as soon as all its bytes
+ * have arrived, and a reader can skip or reject a frame by its length alone.
+ * <p>
+ * The payload is written by one of the versions of the codec, which is chosen for
+ * each connection by a handshake: a client that wants a binary version first sends a
+ * HELLO frame with the highest version it supports, and the server replies with a
+ * HELLO frame with the version both sides then use. A client that starts with a
+ * message instead gets version 0, which is Java serialization.
+ * @author yuening
+ *
+ */
+public abstract class MessageCodec {
+	/**
+	 * The maximum length of the payload of a frame, in bytes
+	 */
+	public static final int MAX_FRAME_SIZE = 1 << 16;
+	/**
+	 * The length of the header of a frame, in bytes
+	 */
+	public static final int HEADER_SIZE = 4;
+	/**
+	 * The version of the codec writing the messages with Java serialization
+	 */
+	public static final int SERIALIZED_VERSION = 0;
+	/**
+	 * The version of the codec writing the messages in a compact binary form (see
+	 * BinaryMessageCodec)
+	 */
+	public static final int BINARY_VERSION = 1;
+	/**
+	 * The codec writing the messages with Java serialization
+	 */
+	public static final MessageCodec SERIALIZED = new SerializedCodec();
+	/**
+	 * The codec writing the messages in a compact binary form
+	 */
+	public static final MessageCodec BINARY = new BinaryMessageCodec();
+	//the first byte of the payload of a HELLO frame, which is neither a message type of
+	//the binary codec nor the first byte of a serialization stream (0xAC)
+	private static final byte HELLO = (byte) 0xB2;
+
+	/**
+	 * retrieve the version of this codec
+	 * @return the version sent in the handshake
+	 */
+	public abstract int getVersion();
+
+	/**
+	 * write the payload of a message
+	 * @param message
+	 * 		the message to be encoded
+	 * @param out
+	 * 		the stream receiving the payload
+	 * @throws IOException
+	 * 		if the message cannot be encoded
+	 */
+	protected abstract void encodePayload(GameMessage message, ByteArrayOutputStream out) throws IOException;
+
+	/**
+	 * decode the payload of a frame
+	 * @param payload
+	 * 		the array holding the payload
+	 * @param offset
+	 * 		the position of the payload in the array
+	 * @param length
+	 * 		the length of the payload
+	 * @return the message of the frame
+	 * @throws IOException
+	 * 		if the payload is not a valid message
+	 */
+	public abstract GameMessage decode(byte[] payload, int offset, int length) throws IOException;
+
+	/**
+	 * encode a message into a frame
+	 * @param message
+	 * 		the message to be encoded
+	 * @return a buffer holding the header and the payload of the frame, ready to be written
+	 * @throws IOException
+	 * 		if the message cannot be encoded or is larger than MAX_FRAME_SIZE
+	 */
+	public ByteBuffer encode(GameMessage message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		bytes.write(new byte[HEADER_SIZE]);
+		encodePayload(message, bytes);
+		int length = bytes.size() - HEADER_SIZE;
+		if(length > MAX_FRAME_SIZE) {
+			throw new IOException("Message too large: " + length + " bytes");
+		}
+		ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+		frame.putInt(0, length);
+		return frame;
+	}
+
+	/**
+	 * write a message as a frame to a stream, and flush the stream
+	 * @param out
+	 * 		the stream
+	 * @param message
+	 * 		the message to be written
+	 * @throws IOException
+	 */
+	public void writeMessage(DataOutputStream out, GameMessage message) throws IOException {
+		writeFrame(out, encode(message));
+	}
+
+	/**
+	 * retrieve the codec of a version
+	 * @param version
+	 * 		the version
+	 * @return the codec, or null if the version is not supported
+	 */
+	public static MessageCodec forVersion(int version) {
+		switch(version) {
+		case SERIALIZED_VERSION:
+			return SERIALIZED;
+		case BINARY_VERSION:
+			return BINARY;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * build a HELLO frame
+	 * @param version
+	 * 		the highest version supported (sent by a client) or the version chosen (sent by
+	 * 		a server)
+	 * @return a buffer holding the frame, ready to be written
+	 */
+	public static ByteBuffer hello(int version) {
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + 2);
+		frame.putInt(2).put(HELLO).put((byte) version).flip();
+		return frame;
+	}
+
+	/**
+	 * check if the payload of a frame is a HELLO frame
+	 * @param payload
+	 * 		the array holding the payload
+	 * @param offset
+	 * 		the position of the payload in the array
+	 * @param length
+	 * 		the length of the payload
+	 * @return true if the frame is a HELLO frame
+	 */
+	public static boolean isHello(byte[] payload, int offset, int length) {
+		return length == 2 && payload[offset] == HELLO;
+	}
+
+	/**
+	 * read the version of a HELLO frame
+	 * @param payload
+	 * 		the array holding the payload of a HELLO frame
+	 * @param offset
+	 * 		the position of the payload in the array
+	 * @return the version
+	 */
+	public static int versionOf(byte[] payload, int offset) {
+		return payload[offset + 1] & 0xFF;
+	}
+
+	/**
+	 * choose the version of a connection from the HELLO frame of a client
+	 * @param clientVersion
+	 * 		the highest version supported by the client
+	 * @return the codec of the highest version supported by both sides
+	 */
+	public static MessageCodec negotiate(int clientVersion) {
+		return forVersion(Math.min(clientVersion, BINARY_VERSION));
+	}
+
+	/**
+	 * read the length of the payload from the header of a frame
+	 * @param buffer
+	 * 		the buffer holding the header at its position
+	 * @return the length of the payload
+	 * @throws IOException
+	 * 		if the length is negative or larger than MAX_FRAME_SIZE
+	 */
+	public static int lengthOf(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt(buffer.position());
+		if(length < 0 || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * write a frame to a stream, and flush the stream
+	 * @param out
+	 * 		the stream
+	 * @param frame
+	 * 		a buffer holding the frame, as returned by encode() or hello(); its position
+	 * 		is not changed
+	 * @throws IOException
+	 */
+	public static void writeFrame(DataOutputStream out, ByteBuffer frame) throws IOException {
+		writeFrames(out, new ByteBuffer[] {frame}, 1);
+	}
+
+	/**
+	 * write several frames to a stream, and flush the stream once
+	 * @param out
+	 * 		the stream
+	 * @param frames
+	 * 		the buffers holding the frames; their positions are not changed
+	 * @param count
+	 * 		the number of frames to be written
+	 * @throws IOException
+	 */
+	public static void writeFrames(DataOutputStream out, ByteBuffer[] frames, int count) throws IOException {
+		for(int i = 0; i < count; i++) {
+			ByteBuffer frame = frames[i];
+			if(frame.hasArray()) {
+				out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+			} else {
+				byte[] bytes = new byte[frame.remaining()];
+				frame.duplicate().get(bytes);
+				out.write(bytes);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * read a frame from a stream, blocking until all its bytes have arrived
+	 * @param in
+	 * 		the stream
+	 * @return the payload of the frame, or null if the stream ends between two frames
+	 * @throws IOException
+	 */
+	public static byte[] readFrame(DataInputStream in) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch(EOFException ex) {
+			return null;
+		}
+		if(length < 0 || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return payload;
+	}
+
+	/**
+	 * The codec of version 0, writing each message with an ObjectOutputStream of its
+	 * own, and reading it back through a filter limiting the objects read to the classes
+	 * of the messages, so that a client cannot make the server deserialize any other
+	 * class on the classpath
+	 */
+	private static class SerializedCodec extends MessageCodec {
+		private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+				"maxdepth=16;maxrefs=1024;maxbytes=" + MAX_FRAME_SIZE
+				+ ";GameMessage;CardGameMessage;Deck;BigTwoDeck;CardList;CardSet;Card;BigTwoCard"
+				+ ";HandType;BigTwoMove;BigTwoDelta;BigTwoSnapshot;BigTwoSync"
+				+ ";java.lang.String;java.lang.Integer;java.lang.Number;java.lang.Enum;[I;[J;[LCard;;[LBigTwoDelta;;[Ljava.lang.String;;!*");
+
+		public int getVersion() {
+			return SERIALIZED_VERSION;
+		}
+
+		protected void encodePayload(GameMessage message, ByteArrayOutputStream out) throws IOException {
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			oos.writeObject(message);
+			oos.close();
+		}
+
+		public GameMessage decode(byte[] payload, int offset, int length) throws IOException {
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload, offset, length));
+			ois.setObjectInputFilter(FILTER);
+			try {
+				return (GameMessage) ois.readObject();
+			} catch(ClassNotFoundException | ClassCastException ex) {
+				throw new IOException("Invalid message", ex);
+			}
+		}
+	}
+}
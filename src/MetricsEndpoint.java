@@ -0,0 +1,68 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the metrics of a server as plain text (see ServerMetrics.writeText())
+ * over HTTP on a local port, at /metrics, for a scraper such as Prometheus. It listens
+ * on the loopback address only, and answers on a single daemon thread, so that scraping
+ * never competes with the network threads of the server.
+ * @author yuening
+ *
+ */
+public class MetricsEndpoint {
+	//the HTTP server
+	private final HttpServer httpServer;
+
+	/**
+	 * a constructor creating an endpoint and starting it
+	 * @param port
+	 * 		the local port, or 0 for any free port
+	 * @param metrics
+	 * 		the metrics served
+	 * @throws IOException
+	 * 		if the port cannot be bound
+	 */
+	public MetricsEndpoint(int port, ServerMetrics metrics) throws IOException {
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/metrics", exchange -> serve(exchange, metrics));
+		httpServer.setExecutor(Executors.newSingleThreadExecutor(command -> {
+			Thread t = new Thread(command, "metrics-endpoint");
+			t.setDaemon(true);
+			return t;
+		}));
+		httpServer.start();
+	}
+
+	/**
+	 * retrieve the port of this endpoint
+	 * @return the local port at which the metrics are served
+	 */
+	public int getPort() {
+		return httpServer.getAddress().getPort();
+	}
+
+	/**
+	 * stop serving the metrics
+	 */
+	public void stop() {
+		httpServer.stop(0);
+	}
+
+	private static void serve(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+		StringBuilder text = new StringBuilder(8192);
+		metrics.writeText(text);
+		byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class generates the legal moves of a holding of cards in a Big Two card game.
+ * <p>
+ * The hands are enumerated directly from the rank buckets (4-bit nibbles) and suit
+ * masks of a card mask (see CardSet), rather than by trying every subset of the
+ * holding: singles, pairs and triples come from the subsets of one rank, straights
+ * from one card of each of five consecutive ranks, flushes from the five-card subsets
+ * of one suit, full houses from a triple plus a pair of another rank, and quads from
+ * four cards of a rank plus any other card. Each candidate is keyed once with
+ * HandClassifier and kept if it beats the hand to beat.
+ * <p>
+ * A generator keeps its buffers between calls, so that a bot or a simulation can
+ * reuse one generator without creating garbage. It is not thread-safe.
+ * @author yuening
+ *
+ */
+public class MoveGenerator {
+	//the bits of all cards with the same suit as the 3 of Diamonds
+	private static final long SUIT_MASK = 0x1111111111111L;
+	//the bit of the Three of Diamonds, which must be part of the opening hand
+	private static final long THREE_OF_DIAMONDS = 1L;
+
+	//the card masks of the moves generated
+	private long[] moves = new long[64];
+	//the strength keys of the moves generated
+	private int[] keys = new int[64];
+	//the number of moves generated
+	private int numOfMoves;
+	//the strength key to be beaten, or 0 if any hand can be played
+	private int beatKey;
+	//the cards that every move must include
+	private long required;
+	//a buffer holding the bit indices of the cards of a suit
+	private final int[] suitCards = new int[13];
+
+	/**
+	 * generate the legal moves of a holding
+	 * @param holding
+	 * 		the card mask of the cards held by the player
+	 * @param beatKey
+	 * 		the strength key of the hand to be beaten (see Hand.getStrengthKey()), or 0 if
+	 * 		the player may play any hand
+	 * @param required
+	 * 		the card mask of the cards every move must include, e.g. the Three of Diamonds
+	 * 		for the opening hand, or 0
+	 * @return the number of moves generated, which can be read with getMove() and getKey()
+	 */
+	public int generate(long holding, int beatKey, long required) {
+		this.beatKey = beatKey;
+		this.required = required;
+		numOfMoves = 0;
+		if((holding & required) != required) {
+			return 0;
+		}
+		int size = HandType.sizeOfKey(beatKey);
+		if(size == 0 || size == 1) {
+			for(long rest = holding; rest != 0L; rest &= rest - 1) {
+				emit(rest & -rest);
+			}
+		}
+		if(size == 0 || size == 2 || size == 3) {
+			for(int rank = 0; rank < 13; rank++) {
+				int nibble = nibble(holding, rank);
+				if(Integer.bitCount(nibble) >= 2) {
+					for(int sub = nibble; sub != 0; sub = (sub - 1) & nibble) {
+						int n = Integer.bitCount(sub);
+						if((n == 2 || n == 3) && (size == 0 || size == n)) {
+							emit((long) sub << (rank << 2));
+						}
+					}
+				}
+			}
+		}
+		if(size == 0 || size == 5) {
+			generateStraights(holding);
+			generateFlushes(holding);
+			generateFullHousesAndQuads(holding);
+		}
+		return numOfMoves;
+	}
+
+	/**
+	 * retrieve the number of moves generated by the last call to generate()
+	 * @return the number of moves generated
+	 */
+	public int getNumOfMoves() {
+		return numOfMoves;
+	}
+
+	/**
+	 * retrieve the card mask of a move generated by the last call to generate()
+	 * @param i
+	 * 		the index of the move
+	 * @return the card mask of the move
+	 */
+	public long getMove(int i) {
+		return moves[i];
+	}
+
+	/**
+	 * retrieve the strength key of a move generated by the last call to generate()
+	 * @param i
+	 * 		the index of the move
+	 * @return the strength key of the move
+	 */
+	public int getKey(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * return every legal hand a player can play with the specified holding
+	 * @param player
+	 * 		the player making the move
+	 * @param holding
+	 * 		the cards held by the player
+	 * @param lastHand
+	 * 		the last hand on the table, or null if no hand has been played in this game,
+	 * 		in which case only the hands including the Three of Diamonds are legal
+	 * @return the list of legal hands. Passing, which is legal whenever lastHand was
+	 * 		played by another player, is not included
+	 */
+	public static ArrayList<Hand> legalMoves(CardGamePlayer player, CardList holding, Hand lastHand) {
+		MoveGenerator generator = new MoveGenerator();
+		int n;
+		if(lastHand == null) {
+			n = generator.generate(holding.getMask(), 0, THREE_OF_DIAMONDS);
+		} else if(lastHand.getPlayer() == player) {
+			n = generator.generate(holding.getMask(), 0, 0L);
+		} else {
+			n = generator.generate(holding.getMask(), lastHand.getStrengthKey(), 0L);
+		}
+		ArrayList<Hand> hands = new ArrayList<Hand>(n);
+		for(int i = 0; i < n; i++) {
+			hands.add(toHand(player, generator.getMove(i)));
+		}
+		return hands;
+	}
+
+	/**
+	 * build the hand of the cards of a card mask
+	 * @param player
+	 * 		the player of the hand
+	 * @param mask
+	 * 		the card mask of the cards
+	 * @return the hand, or null if the cards do not form a valid hand
+	 */
+	public static Hand toHand(CardGamePlayer player, long mask) {
+		CardList cards = new CardList();
+		for(long rest = mask; rest != 0L; rest &= rest - 1) {
+			cards.addCard(BigTwoCard.ofIndex(Long.numberOfTrailingZeros(rest)));
+		}
+		return BigTwoEngine.composeHand(player, cards);
+	}
+
+	/**
+	 * enumerate the straights and straight flushes, taking one card of each of five
+	 * consecutive ranks
+	 */
+	private void generateStraights(long holding) {
+		for(int low = 0; low + 5 <= 13; low++) {
+			boolean complete = true;
+			for(int rank = low; rank < low + 5; rank++) {
+				if(nibble(holding, rank) == 0) {
+					complete = false;
+					break;
+				}
+			}
+			if(complete) {
+				generateStraights(holding, low, 0, 0L);
+			}
+		}
+	}
+
+	private void generateStraights(long holding, int low, int depth, long cards) {
+		if(depth == 5) {
+			emit(cards);
+			return;
+		}
+		long bucket = holding & (0xFL << ((low + depth) << 2));
+		for(long rest = bucket; rest != 0L; rest &= rest - 1) {
+			generateStraights(holding, low, depth + 1, cards | (rest & -rest));
+		}
+	}
+
+	/**
+	 * enumerate the flushes, taking five cards of one suit. The straight flushes
+	 * among them have already been enumerated as straights
+	 */
+	private void generateFlushes(long holding) {
+		for(int suit = 0; suit < 4; suit++) {
+			long suited = holding & (SUIT_MASK << suit);
+			int n = 0;
+			for(long rest = suited; rest != 0L; rest &= rest - 1) {
+				suitCards[n++] = Long.numberOfTrailingZeros(rest);
+			}
+			for(int a = 0; a < n; a++) {
+				for(int b = a + 1; b < n; b++) {
+					for(int c = b + 1; c < n; c++) {
+						for(int d = c + 1; d < n; d++) {
+							for(int e = d + 1; e < n; e++) {
+								long cards = (1L << suitCards[a]) | (1L << suitCards[b]) | (1L << suitCards[c])
+										| (1L << suitCards[d]) | (1L << suitCards[e]);
+								if(HandClassifier.typeOf(HandClassifier.classify(cards)) == HandType.FLUSH) {
+									emit(cards);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * enumerate the full houses (a triple plus a pair of another rank) and the quads
+	 * (four cards of a rank plus any other card)
+	 */
+	private void generateFullHousesAndQuads(long holding) {
+		for(int rank = 0; rank < 13; rank++) {
+			int nibble = nibble(holding, rank);
+			if(Integer.bitCount(nibble) < 3) {
+				continue;
+			}
+			for(int triple = nibble; triple != 0; triple = (triple - 1) & nibble) {
+				if(Integer.bitCount(triple) != 3) {
+					continue;
+				}
+				long tripleCards = (long) triple << (rank << 2);
+				for(int other = 0; other < 13; other++) {
+					int otherNibble = other == rank ? 0 : nibble(holding, other);
+					if(Integer.bitCount(otherNibble) < 2) {
+						continue;
+					}
+					for(int pair = otherNibble; pair != 0; pair = (pair - 1) & otherNibble) {
+						if(Integer.bitCount(pair) == 2) {
+							emit(tripleCards | ((long) pair << (other << 2)));
+						}
+					}
+				}
+			}
+			if(nibble == 0xF) {
+				long quadCards = 0xFL << (rank << 2);
+				for(long rest = holding & ~quadCards; rest != 0L; rest &= rest - 1) {
+					emit(quadCards | (rest & -rest));
+				}
+			}
+		}
+	}
+
+	/**
+	 * keep a candidate if it includes the required cards and beats the hand to beat
+	 */
+	private void emit(long cards) {
+		if((cards & required) != required) {
+			return;
+		}
+		int key = HandClassifier.keyOf(HandClassifier.classify(cards));
+		if(key == 0 || (beatKey != 0 && key <= beatKey)) {
+			return;
+		}
+		if(numOfMoves == moves.length) {
+			moves = Arrays.copyOf(moves, numOfMoves * 2);
+			keys = Arrays.copyOf(keys, numOfMoves * 2);
+		}
+		moves[numOfMoves] = cards;
+		keys[numOfMoves] = key;
+		numOfMoves++;
+	}
+
+	/**
+	 * return the 4-bit bucket of the cards of a rank (in Big Two order) in a card mask
+	 */
+	private static int nibble(long mask, int rank) {
+		return (int) (mask >>> (rank << 2)) & 0xF;
+	}
+}
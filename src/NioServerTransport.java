@@ -0,0 +1,354 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is an event-driven transport for a server: a ServerSocketChannel accepts
+ * the clients on the calling thread, and a small fixed set of I/O threads, each with a
+ * Selector of its own, reads and writes the frames (see MessageCodec) of the
+ * connections with non-blocking channels.
+ * <p>
+ * Each connection has its own read buffer, which collects the bytes of a frame until
+ * it is complete, and its own bounded queue of frames to be written (see
+ * OutboundQueue), which is flushed with gathering writes when the channel becomes
+ * writable. The queue holds slices of the frames, so that a frame broadcast to many
+ * connections is shared by their queues and never copied (see BroadcastFrames). The events of a connection are reported to the
+ * ConnectionListener on the I/O thread of the connection, so the listener must not
+ * block. A connection is opened once its first frame has chosen its codec. Thousands of idle connections therefore cost a few buffers each, rather than
+ * a thread and its stack each.
+ * @author yuening
+ *
+ */
+public class NioServerTransport {
+	//the initial size of the read buffer of a connection
+	private static final int READ_BUFFER_SIZE = 1024;
+	//the grace period before a rejected connection is closed, in milliseconds
+	private static final long REJECT_GRACE_MILLIS = 1000;
+	//the maximum number of queued frames written by one gathering write
+	private static final int MAX_GATHER = 16;
+
+	//the listener of the events of the connections
+	private final ConnectionListener listener;
+	//the limits of the outbound queues of the connections
+	private final OutboundQueue.Limits outboundLimits;
+	//the channel accepting the clients
+	private final ServerSocketChannel serverChannel;
+	//the I/O threads
+	private final Worker[] workers;
+	//the index of the I/O thread of the next connection
+	private int nextWorker = 0;
+	//a boolean indicating if the transport is running
+	private volatile boolean running = true;
+
+	/**
+	 * a constructor creating a transport bound to a port
+	 * @param port
+	 * 		the port at which the clients connect, or 0 for any free port
+	 * @param numOfThreads
+	 * 		the number of I/O threads
+	 * @param listener
+	 * 		the listener of the events of the connections
+	 * @param outboundLimits
+	 * 		the limits of the outbound queues of the connections
+	 * @throws IOException
+	 * 		if the port cannot be bound
+	 */
+	public NioServerTransport(int port, int numOfThreads, ConnectionListener listener,
+			OutboundQueue.Limits outboundLimits) throws IOException {
+		this.listener = listener;
+		this.outboundLimits = outboundLimits;
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		workers = new Worker[numOfThreads];
+		for(int i = 0; i < numOfThreads; i++) {
+			workers[i] = new Worker();
+		}
+	}
+
+	/**
+	 * retrieve the port at which the clients connect
+	 * @return the local port of the server channel
+	 */
+	public int getLocalPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * start the I/O threads and accept the clients on the calling thread until stop() is
+	 * called. The accepted connections are spread over the I/O threads in turn
+	 * @throws IOException
+	 * 		if the server channel fails
+	 */
+	public void run() throws IOException {
+		for(int i = 0; i < workers.length; i++) {
+			Thread t = new Thread(workers[i], "nio-io-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		try {
+			while(running) {
+				SocketChannel channel = serverChannel.accept();
+				workers[nextWorker].register(channel);
+				nextWorker = (nextWorker + 1) % workers.length;
+			}
+		} catch(ClosedChannelException ex) {
+			//stopped
+		} finally {
+			stop();
+		}
+	}
+
+	/**
+	 * stop accepting clients and close all connections
+	 */
+	public void stop() {
+		running = false;
+		try {
+			serverChannel.close();
+		} catch(IOException ex) {
+			listener.transportError("Error in closing the server channel", ex);
+		}
+		for(Worker worker : workers) {
+			worker.selector.wakeup();
+		}
+	}
+
+	/**
+	 * An I/O thread, running a Selector over its connections
+	 */
+	private class Worker implements Runnable {
+		private final Selector selector;
+		//the channels accepted but not yet registered with the selector
+		private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+		//the rejected connections waiting for their grace period, in the order of their deadlines
+		private final ArrayDeque<NioConnection> rejected = new ArrayDeque<NioConnection>();
+		//the connections evicted by other threads, to be closed by this thread
+		private final ConcurrentLinkedQueue<NioConnection> evicted = new ConcurrentLinkedQueue<NioConnection>();
+		//the thread running this worker
+		private Thread thread;
+
+		Worker() throws IOException {
+			selector = Selector.open();
+		}
+
+		/**
+		 * hand an accepted channel over to this I/O thread
+		 */
+		void register(SocketChannel channel) {
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		public void run() {
+			thread = Thread.currentThread();
+			while(running) {
+				try {
+					long timeout = rejected.isEmpty() ? 0L
+							: Math.max(1L, rejected.peek().closeDeadline - System.currentTimeMillis());
+					selector.select(timeout);
+					registerPending();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						NioConnection connection = (NioConnection) key.attachment();
+						if(key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+						if(key.isValid() && key.isWritable()) {
+							connection.flush();
+						}
+					}
+					closeRejected();
+					NioConnection connection;
+					while((connection = evicted.poll()) != null) {
+						connection.close();
+					}
+				} catch(Exception ex) {
+					listener.transportError("Error in the I/O thread " + thread.getName(), ex);
+				}
+			}
+			for(SelectionKey key : selector.keys()) {
+				((NioConnection) key.attachment()).close();
+			}
+			try {
+				selector.close();
+			} catch(IOException ex) {
+				listener.transportError("Error in closing the selector of " + thread.getName(), ex);
+			}
+		}
+
+		private void registerPending() {
+			SocketChannel channel;
+			while((channel = pending.poll()) != null) {
+				try {
+					channel.configureBlocking(false);
+					channel.socket().setTcpNoDelay(true);
+					NioConnection connection = new NioConnection(channel, this);
+					connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+				} catch(IOException ex) {
+					listener.transportError("Error in registering a client channel", ex);
+					try {
+						channel.close();
+					} catch(IOException ex2) {
+						listener.transportError("Error in closing a client channel", ex2);
+					}
+				}
+			}
+		}
+
+		private void closeRejected() {
+			long now = System.currentTimeMillis();
+			while(!rejected.isEmpty() && rejected.peek().closeDeadline <= now) {
+				rejected.poll().close();
+			}
+		}
+	}
+
+	/**
+	 * A connection of this transport
+	 */
+	private class NioConnection extends ClientConnection {
+		private final SocketChannel channel;
+		private final Worker worker;
+		private SelectionKey key;
+		//the bytes read but not yet decoded, in read mode between two calls to read()
+		private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		//the frames of the next gathering write, used by the I/O thread only
+		private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+		//the time at which a rejected connection is closed
+		private long closeDeadline;
+		//a boolean indicating if the connection is closed
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+
+		NioConnection(SocketChannel channel, Worker worker) throws IOException {
+			super(channel.getRemoteAddress(), listener, outboundLimits);
+			this.channel = channel;
+			this.worker = worker;
+		}
+
+		/**
+		 * read the available bytes, and report every complete frame to the listener
+		 */
+		void read() {
+			try {
+				if(channel.read(readBuffer) < 0) {
+					close();
+					return;
+				}
+				readBuffer.flip();
+				while(key.isValid() && readBuffer.remaining() >= MessageCodec.HEADER_SIZE) {
+					int length = MessageCodec.lengthOf(readBuffer);
+					int frameSize = MessageCodec.HEADER_SIZE + length;
+					if(readBuffer.remaining() < frameSize) {
+						if(readBuffer.capacity() < frameSize) {
+							//grow the buffer to hold the whole frame
+							ByteBuffer larger = ByteBuffer.allocate(frameSize);
+							larger.put(readBuffer);
+							larger.flip();
+							readBuffer = larger;
+						}
+						break;
+					}
+					int position = readBuffer.position();
+					readBuffer.position(position + frameSize);
+					frameReceived(readBuffer.array(), position + MessageCodec.HEADER_SIZE, length);
+				}
+				readBuffer.compact();
+			} catch(IOException ex) {
+				//connection lost or protocol error
+				close();
+			}
+		}
+
+		/**
+		 * write the queued frames until the queue is empty or the channel is full, with
+		 * one system call for up to MAX_GATHER frames
+		 */
+		void flush() {
+			OutboundQueue outbound = getOutboundQueue();
+			try {
+				int n;
+				while((n = outbound.drainTo(gather)) > 0) {
+					channel.write(gather, 0, n);
+					int written = 0;
+					while(written < n && !gather[written].hasRemaining()) {
+						written++;
+					}
+					Arrays.fill(gather, 0, n, null);
+					outbound.release(written);
+					if(written < n) {
+						//the channel is full
+						return;
+					}
+				}
+				//stop waiting for the channel, unless a frame was queued meanwhile; a frame
+				//queued afterwards finds the queue empty and sets OP_WRITE again
+				key.interestOps(SelectionKey.OP_READ);
+				if(!outbound.isEmpty()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			} catch(IOException | CancelledKeyException ex) {
+				//connection lost
+				close();
+			}
+		}
+
+		public boolean prefersDirectFrames() {
+			return true;
+		}
+
+		protected void framesQueued() {
+			//the queue was empty, so the I/O thread has to wait for the channel to be writable
+			try {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			} catch(CancelledKeyException ex) {
+				//closed meanwhile
+				return;
+			}
+			if(Thread.currentThread() != worker.thread) {
+				worker.selector.wakeup();
+			}
+		}
+
+		protected void evict() {
+			worker.evicted.add(this);
+			worker.selector.wakeup();
+		}
+
+		public void reject(CardGameMessage message) {
+			try {
+				send(message);
+			} catch(IOException ex) {
+				listener.transportError("Error in rejecting the client at " + getRemoteSocketAddress(), ex);
+			}
+			closeDeadline = System.currentTimeMillis() + REJECT_GRACE_MILLIS;
+			worker.rejected.add(this);
+		}
+
+		public void close() {
+			if(!closed.compareAndSet(false, true)) {
+				return;
+			}
+			getOutboundQueue().close();
+			key.cancel();
+			try {
+				channel.close();
+			} catch(IOException ex) {
+				listener.transportError("Error in closing the client channel at " + getRemoteSocketAddress(), ex);
+			}
+			closed();
+		}
+	}
+}
@@ -0,0 +1,310 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is the bounded queue of the frames to be written to a client. The threads
+ * sending messages only add frames to the queue, and the I/O layer of the connection
+ * drains it, so that a client which reads slowly never blocks the table or the other
+ * clients.
+ * <p>
+ * The queue is bounded in bytes by its Limits. Once the queued bytes reach the high
+ * watermark, the queue is congested: the frames which may be dropped, such as chat
+ * messages, are dropped until the queued bytes fall back to the low watermark. A queue
+ * which would exceed its maximum size, or which has stayed congested for too long,
+ * overflows: it is closed, and the connection evicts its client.
+ * @author yuening
+ *
+ */
+public class OutboundQueue {
+	/**
+	 * The frame has been queued behind other frames
+	 */
+	public static final int QUEUED = 0;
+	/**
+	 * The frame has been queued into an empty queue, so the I/O layer may have to be woken
+	 */
+	public static final int QUEUED_FIRST = 1;
+	/**
+	 * The frame has been dropped, because the queue is congested or closed
+	 */
+	public static final int DROPPED = 2;
+	/**
+	 * The frame would exceed the limits of the queue, which has been closed
+	 */
+	public static final int OVERFLOW = 3;
+
+	//the limits of this queue
+	private final Limits limits;
+	//the lock of this queue
+	private final ReentrantLock lock = new ReentrantLock();
+	//the condition signalled when a frame is added to an empty queue or the queue is closed
+	private final Condition notEmpty = lock.newCondition();
+	//the frames to be written, each holding its frame between 0 and its limit
+	private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<ByteBuffer>();
+	//the number of bytes of the queued frames
+	private long queuedBytes = 0;
+	//the largest number of bytes ever queued
+	private long peakBytes = 0;
+	//the number of frames dropped
+	private long numOfDropped = 0;
+	//the time at which the queue became congested, in nanoseconds, or -1 if it is not
+	private long congestedSince = -1;
+	//a boolean indicating if the queue is closed
+	private boolean closed = false;
+
+	/**
+	 * a constructor for building an empty queue
+	 * @param limits
+	 * 		the limits of the queue
+	 */
+	public OutboundQueue(Limits limits) {
+		this.limits = limits;
+	}
+
+	/**
+	 * add a frame to the queue. It may be called by any thread
+	 * @param frame
+	 * 		a buffer holding the frame between its position and its limit, which is never
+	 * 		modified
+	 * @param droppable
+	 * 		true if the frame may be dropped when the queue is congested
+	 * @return QUEUED, QUEUED_FIRST, DROPPED or OVERFLOW. OVERFLOW is returned once, by the
+	 * 		call which closes the queue
+	 */
+	public int offer(ByteBuffer frame, boolean droppable) {
+		lock.lock();
+		try {
+			if(closed) {
+				numOfDropped++;
+				return DROPPED;
+			}
+			int size = frame.remaining();
+			if(droppable && (congestedSince >= 0 || queuedBytes + size > limits.maxBytes)) {
+				numOfDropped++;
+				return DROPPED;
+			}
+			if(queuedBytes + size > limits.maxBytes || (congestedSince >= 0
+					&& System.nanoTime() - congestedSince > limits.maxCongestedNanos)) {
+				numOfDropped++;
+				close();
+				return OVERFLOW;
+			}
+			boolean first = frames.isEmpty();
+			//a slice of its own lets the I/O layer write the frame without touching the original
+			frames.add(frame.slice());
+			queuedBytes += size;
+			peakBytes = Math.max(peakBytes, queuedBytes);
+			if(congestedSince < 0 && queuedBytes >= limits.highWatermark) {
+				congestedSince = System.nanoTime();
+			}
+			if(first) {
+				notEmpty.signal();
+				return QUEUED_FIRST;
+			}
+			return QUEUED;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * copy the frames at the head of the queue into an array, without removing them. The
+	 * frames must be removed with release() once they have been written
+	 * @param gather
+	 * 		the array receiving the frames
+	 * @return the number of frames copied, or 0 if the queue is empty or closed
+	 */
+	public int drainTo(ByteBuffer[] gather) {
+		lock.lock();
+		try {
+			if(closed) {
+				return 0;
+			}
+			int n = 0;
+			for(Iterator<ByteBuffer> it = frames.iterator(); it.hasNext() && n < gather.length;) {
+				gather[n++] = it.next();
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * wait until the queue has a frame or is closed, and copy the frames at its head into
+	 * an array, without removing them (see drainTo())
+	 * @param gather
+	 * 		the array receiving the frames
+	 * @return the number of frames copied, or 0 if the queue has been closed
+	 * @throws InterruptedException
+	 * 		if the calling thread is interrupted while waiting
+	 */
+	public int awaitDrainTo(ByteBuffer[] gather) throws InterruptedException {
+		lock.lock();
+		try {
+			while(frames.isEmpty() && !closed) {
+				notEmpty.await();
+			}
+			return drainTo(gather);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * remove the frames at the head of the queue once they have been written
+	 * @param n
+	 * 		the number of frames written
+	 */
+	public void release(int n) {
+		lock.lock();
+		try {
+			for(int i = 0; i < n && !frames.isEmpty(); i++) {
+				queuedBytes -= frames.poll().limit();
+			}
+			if(congestedSince >= 0 && queuedBytes <= limits.lowWatermark) {
+				congestedSince = -1;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * check if the queue is empty
+	 * @return true if no frame is waiting to be written
+	 */
+	public boolean isEmpty() {
+		lock.lock();
+		try {
+			return frames.isEmpty();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * close the queue, discarding its frames and waking the thread waiting in
+	 * awaitDrainTo()
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			frames.clear();
+			queuedBytes = 0;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * retrieve the depth of the queue
+	 * @return the number of frames waiting to be written
+	 */
+	public int getDepth() {
+		lock.lock();
+		try {
+			return frames.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * retrieve the number of bytes of the queue
+	 * @return the number of bytes waiting to be written
+	 */
+	public long getQueuedBytes() {
+		lock.lock();
+		try {
+			return queuedBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * retrieve the largest number of bytes ever queued
+	 * @return the peak of getQueuedBytes()
+	 */
+	public long getPeakBytes() {
+		lock.lock();
+		try {
+			return peakBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * retrieve the number of frames dropped, including the frame which overflowed
+	 * @return the number of frames which have not been queued
+	 */
+	public long getNumOfDropped() {
+		lock.lock();
+		try {
+			return numOfDropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * check if the queue is congested
+	 * @return true if the queued bytes have reached the high watermark and not yet fallen
+	 * 		back to the low watermark
+	 */
+	public boolean isCongested() {
+		lock.lock();
+		try {
+			return congestedSince >= 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * This class holds the limits of the outbound queues of a server
+	 */
+	public static class Limits {
+		/**
+		 * The default limits: a low watermark of 16 KB, a high watermark of 64 KB, a
+		 * maximum of 1 MB, and at most 10 seconds congested
+		 */
+		public static final Limits DEFAULT = new Limits(16 << 10, 64 << 10, 1 << 20, 10000);
+
+		private final long lowWatermark;
+		private final long highWatermark;
+		private final long maxBytes;
+		private final long maxCongestedNanos;
+
+		/**
+		 * a constructor for building the limits of a queue
+		 * @param lowWatermark
+		 * 		the number of bytes at which a congested queue stops dropping frames
+		 * @param highWatermark
+		 * 		the number of bytes at which a queue becomes congested
+		 * @param maxBytes
+		 * 		the number of bytes which a queue never exceeds
+		 * @param maxCongestedMillis
+		 * 		the time after which a queue which is still congested overflows, in milliseconds
+		 */
+		public Limits(long lowWatermark, long highWatermark, long maxBytes, long maxCongestedMillis) {
+			if(lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > maxBytes
+					|| maxCongestedMillis < 0) {
+				throw new IllegalArgumentException("Invalid limits: " + lowWatermark + ", "
+						+ highWatermark + ", " + maxBytes + ", " + maxCongestedMillis);
+			}
+			this.lowWatermark = lowWatermark;
+			this.highWatermark = highWatermark;
+			this.maxBytes = maxBytes;
+			this.maxCongestedNanos = TimeUnit.MILLISECONDS.toNanos(maxCongestedMillis);
+		}
+	}
+}
@@ -14,26 +14,6 @@ public class Pair extends Hand implements Serializable {
 	 * @param cards
 	 */
 	public Pair(CardGamePlayer player, CardList cards) {
-		super(player, cards);
+		super(player, cards, HandType.PAIR);
 	}
-	
-	/**
-	 * check if this is a valid pair
-	 */
-	public boolean isValid() {
-		if(size() == 2) {
-			sort();
-			if(getCard(0).getRank()==getCard(1).getRank()) 
-				return true;
-		}
-		return false;
-	}
-	
-	/**
-	 * return a string specifying the type 'pair'
-	 */
-	public String getType() {
-		return "Pair";
-	}
-
 }
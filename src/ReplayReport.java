@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class collects the results of replaying a GameJournal: the number of games
+ * verified, aborted, left unfinished by a crash and not matching the rules, and a
+ * description of each game which does not match.
+ * <p>
+ * Each replay worker fills its own instance without any synchronization, and the
+ * instances are combined with merge() in the order of the segments when the workers
+ * are done.
+ * @author yuening
+ *
+ */
+public class ReplayReport {
+	//the maximum number of mismatches described
+	private static final int MAX_DESCRIPTIONS = 100;
+
+	//the number of records read
+	private long records;
+	//the number of moves replayed
+	private long moves;
+	//the number of games whose moves and result match the rules
+	private long verifiedGames;
+	//the number of games aborted because a player left
+	private long abortedGames;
+	//the number of games without a result, e.g. in progress at a crash
+	private long unfinishedGames;
+	//the number of games which do not match the rules
+	private long mismatchedGames;
+	//the number of segments ending with a torn record
+	private long tornSegments;
+	//the descriptions of the first mismatches
+	private final ArrayList<String> mismatches = new ArrayList<String>();
+	//the games replayed, with their checkpoints, if the replayer keeps them
+	private final ArrayList<GameReplayer.ReplayedGame> games = new ArrayList<GameReplayer.ReplayedGame>();
+
+	/**
+	 * count a record read
+	 */
+	void recordRead() {
+		records++;
+	}
+
+	/**
+	 * count a move replayed
+	 */
+	void moveReplayed() {
+		moves++;
+	}
+
+	/**
+	 * count a segment ending with a torn record
+	 */
+	void segmentTorn() {
+		tornSegments++;
+	}
+
+	/**
+	 * count a game which has been replayed to its end
+	 * @param game
+	 * 		the game
+	 * @param keep
+	 * 		true to keep the game for seeking
+	 */
+	void gameReplayed(GameReplayer.ReplayedGame game, boolean keep) {
+		switch(game.getStatus()) {
+		case GameReplayer.ReplayedGame.VERIFIED:
+			verifiedGames++;
+			break;
+		case GameReplayer.ReplayedGame.ABORTED:
+			abortedGames++;
+			break;
+		case GameReplayer.ReplayedGame.UNFINISHED:
+			unfinishedGames++;
+			break;
+		default:
+			mismatchedGames++;
+			if(mismatches.size() < MAX_DESCRIPTIONS) {
+				mismatches.add(game.toString());
+			}
+		}
+		if(keep) {
+			games.add(game);
+		}
+	}
+
+	/**
+	 * add the results of the following segments to this one
+	 * @param other
+	 * @return this instance
+	 */
+	public ReplayReport merge(ReplayReport other) {
+		records += other.records;
+		moves += other.moves;
+		verifiedGames += other.verifiedGames;
+		abortedGames += other.abortedGames;
+		unfinishedGames += other.unfinishedGames;
+		mismatchedGames += other.mismatchedGames;
+		tornSegments += other.tornSegments;
+		for(String mismatch : other.mismatches) {
+			if(mismatches.size() < MAX_DESCRIPTIONS) {
+				mismatches.add(mismatch);
+			}
+		}
+		games.addAll(other.games);
+		return this;
+	}
+
+	/**
+	 * retrieve the number of records read
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * retrieve the number of moves replayed
+	 */
+	public long getMoves() {
+		return moves;
+	}
+
+	/**
+	 * retrieve the number of games whose moves and result match the rules
+	 */
+	public long getVerifiedGames() {
+		return verifiedGames;
+	}
+
+	/**
+	 * retrieve the number of games aborted because a player left
+	 */
+	public long getAbortedGames() {
+		return abortedGames;
+	}
+
+	/**
+	 * retrieve the number of games without a result, e.g. in progress at a crash
+	 */
+	public long getUnfinishedGames() {
+		return unfinishedGames;
+	}
+
+	/**
+	 * retrieve the number of games which do not match the rules
+	 */
+	public long getMismatchedGames() {
+		return mismatchedGames;
+	}
+
+	/**
+	 * retrieve the descriptions of the first 100 games which do not match the rules
+	 */
+	public List<String> getMismatches() {
+		return mismatches;
+	}
+
+	/**
+	 * retrieve the games replayed, in the order they were dealt in each segment
+	 * @return the games, or an empty list if the replayer keeps no checkpoints
+	 */
+	public List<GameReplayer.ReplayedGame> getGames() {
+		return games;
+	}
+
+	/**
+	 * find a game replayed
+	 * @param tableID
+	 * 		the ID of the table
+	 * @param dealSeq
+	 * 		the sequence number of the deal at the table
+	 * @return the first game found, or null if it has not been kept
+	 */
+	public GameReplayer.ReplayedGame findGame(int tableID, int dealSeq) {
+		for(GameReplayer.ReplayedGame game : games) {
+			if(game.getTableID() == tableID && game.getDealSeq() == dealSeq) {
+				return game;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * return a report of the results
+	 */
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("records: %d (torn segments: %d)%n", records, tornSegments));
+		report.append(String.format("moves: %d%n", moves));
+		report.append(String.format("games verified: %d, aborted: %d, unfinished: %d, mismatched: %d%n",
+				verifiedGames, abortedGames, unfinishedGames, mismatchedGames));
+		for(String mismatch : mismatches) {
+			report.append(mismatch).append(String.format("%n"));
+		}
+		return report.toString();
+	}
+}
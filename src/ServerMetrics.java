@@ -0,0 +1,356 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects the metrics of a card game server: the messages received and sent
+ * by type, the bytes in and out, the connections, the tables and the outbound queues,
+ * the games started and finished, the latency of decoding, handling and
+ * broadcasting a message, and the CPU time taken by the bots seated by the server to
+ * choose their moves.
+ * <p>
+ * The counters are LongAdders and the latencies LatencyHistograms, which the network
+ * threads update without locking. The gauges of the tables and of the queues are read
+ * from the server only when the metrics are read, through JMX (see ServerMetricsMXBean)
+ * or as text (see MetricsEndpoint).
+ * @author yuening
+ *
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+	//the names of the message types, by type
+	private static final String[] TYPE_NAMES = {"PLAYER_LIST", "JOIN", "FULL", "QUIT", "READY",
+			"START", "MOVE", "MSG", "ILLEGAL_MOVE", "TOKEN", "AWAY", "RESUME", "SYNC"};
+
+	//the server whose gauges are read
+	private final CardGameServer server;
+	//the number of messages received, by type, the last counter counting unknown types
+	private final LongAdder[] messagesReceived = newAdders(TYPE_NAMES.length + 1);
+	//the number of messages sent, by type
+	private final LongAdder[] messagesSent = newAdders(TYPE_NAMES.length + 1);
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder connectionsOpened = new LongAdder();
+	private final LongAdder connectionsClosed = new LongAdder();
+	private final LongAdder gamesStarted = new LongAdder();
+	private final LongAdder gamesFinished = new LongAdder();
+	private final MinuteRate gamesStartedRate = new MinuteRate();
+	private final MinuteRate gamesFinishedRate = new MinuteRate();
+	private final LatencyHistogram decodeLatency = new LatencyHistogram();
+	private final LatencyHistogram parseLatency = new LatencyHistogram();
+	private final LatencyHistogram broadcastLatency = new LatencyHistogram();
+	private final LongAdder botMoves = new LongAdder();
+	private final LongAdder botBudgetOverruns = new LongAdder();
+	private final LatencyHistogram botMoveTime = new LatencyHistogram();
+
+	/**
+	 * a constructor for building the metrics of a server
+	 * @param server
+	 * 		the server whose tables and queues are reported
+	 */
+	public ServerMetrics(CardGameServer server) {
+		this.server = server;
+	}
+
+	/**
+	 * record a message received
+	 * @param type
+	 * 		the type of the message
+	 */
+	public void messageReceived(int type) {
+		messagesReceived[indexOf(type)].increment();
+	}
+
+	/**
+	 * record a message sent
+	 * @param type
+	 * 		the type of the message
+	 * @param recipients
+	 * 		the number of clients the message was sent to
+	 */
+	public void messageSent(int type, int recipients) {
+		messagesSent[indexOf(type)].add(recipients);
+	}
+
+	/**
+	 * record a frame received and the time taken to decode it
+	 * @param bytes
+	 * 		the size of the frame, including its header
+	 * @param decodeNanos
+	 * 		the time taken to decode the frame, in nanoseconds
+	 */
+	public void frameReceived(int bytes, long decodeNanos) {
+		bytesIn.add(bytes);
+		decodeLatency.record(decodeNanos);
+	}
+
+	/**
+	 * record a frame queued to be sent
+	 * @param bytes
+	 * 		the size of the frame, including its header
+	 */
+	public void frameSent(int bytes) {
+		bytesOut.add(bytes);
+	}
+
+	public void connectionOpened() {
+		connectionsOpened.increment();
+	}
+
+	public void connectionClosed() {
+		connectionsClosed.increment();
+	}
+
+	public void gameStarted() {
+		gamesStarted.increment();
+		gamesStartedRate.increment();
+	}
+
+	public void gameFinished() {
+		gamesFinished.increment();
+		gamesFinishedRate.increment();
+	}
+
+	/**
+	 * record a move chosen by a bot
+	 * @param cpuNanos
+	 * 		the CPU time taken to choose the move, in nanoseconds
+	 * @param overrun
+	 * 		true if the bot took more than its budget
+	 */
+	public void botMoved(long cpuNanos, boolean overrun) {
+		botMoves.increment();
+		if(overrun) {
+			botBudgetOverruns.increment();
+		}
+		botMoveTime.record(cpuNanos);
+	}
+
+	/**
+	 * retrieve the histogram of the CPU time taken by a bot to choose a move
+	 */
+	public LatencyHistogram getBotMoveTime() {
+		return botMoveTime;
+	}
+
+	/**
+	 * retrieve the histogram of the time taken to decode a message
+	 */
+	public LatencyHistogram getDecodeLatency() {
+		return decodeLatency;
+	}
+
+	/**
+	 * retrieve the histogram of the time taken to handle a message at its table
+	 */
+	public LatencyHistogram getParseLatency() {
+		return parseLatency;
+	}
+
+	/**
+	 * retrieve the histogram of the time taken to broadcast a message to a table
+	 */
+	public LatencyHistogram getBroadcastLatency() {
+		return broadcastLatency;
+	}
+
+	public long getActiveConnections() {
+		return connectionsOpened.sum() - connectionsClosed.sum();
+	}
+
+	public int getTablesInUse() {
+		return server.getNumOfTables();
+	}
+
+	public Map<String, Long> getMessagesReceived() {
+		return toMap(messagesReceived);
+	}
+
+	public Map<String, Long> getMessagesSent() {
+		return toMap(messagesSent);
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	public long getQueuedBytes() {
+		long sum = 0;
+		for(long depth : server.getOutboundQueueDepths()) {
+			sum += depth;
+		}
+		return sum;
+	}
+
+	public long getMaxQueuedBytes() {
+		long max = 0;
+		for(long depth : server.getOutboundQueueDepths()) {
+			max = Math.max(max, depth);
+		}
+		return max;
+	}
+
+	public long getGamesStarted() {
+		return gamesStarted.sum();
+	}
+
+	public long getGamesFinished() {
+		return gamesFinished.sum();
+	}
+
+	public long getGamesStartedPerMinute() {
+		return gamesStartedRate.lastMinute();
+	}
+
+	public long getGamesFinishedPerMinute() {
+		return gamesFinishedRate.lastMinute();
+	}
+
+	public double getDecodeP99Micros() {
+		return decodeLatency.getPercentile(0.99) / 1e3;
+	}
+
+	public double getParseP99Micros() {
+		return parseLatency.getPercentile(0.99) / 1e3;
+	}
+
+	public double getBroadcastP99Micros() {
+		return broadcastLatency.getPercentile(0.99) / 1e3;
+	}
+
+	public long getBotMoves() {
+		return botMoves.sum();
+	}
+
+	public long getBotBudgetOverruns() {
+		return botBudgetOverruns.sum();
+	}
+
+	public double getBotMoveP99Micros() {
+		return botMoveTime.getPercentile(0.99) / 1e3;
+	}
+
+	/**
+	 * write the metrics in the Prometheus text format
+	 * @param out
+	 * 		the builder receiving the text
+	 */
+	public void writeText(StringBuilder out) {
+		writeByType(out, "bigtwo_messages_received_total", "Messages received, by type", messagesReceived);
+		writeByType(out, "bigtwo_messages_sent_total", "Messages sent, by type, once per recipient", messagesSent);
+		writeValue(out, "bigtwo_bytes_received_total", "counter", "Bytes received", getBytesIn());
+		writeValue(out, "bigtwo_bytes_sent_total", "counter", "Bytes queued to be sent", getBytesOut());
+		writeValue(out, "bigtwo_connections_active", "gauge", "Connections open", getActiveConnections());
+		writeValue(out, "bigtwo_tables_in_use", "gauge", "Tables with at least one player", getTablesInUse());
+		long[] depths = server.getOutboundQueueDepths();
+		long sum = 0, max = 0;
+		for(long depth : depths) {
+			sum += depth;
+			max = Math.max(max, depth);
+		}
+		writeValue(out, "bigtwo_outbound_queued_bytes", "gauge", "Bytes waiting in the outbound queues", sum);
+		writeValue(out, "bigtwo_outbound_queued_bytes_max", "gauge", "Bytes waiting in the longest outbound queue", max);
+		writeValue(out, "bigtwo_games_started_total", "counter", "Games started", getGamesStarted());
+		writeValue(out, "bigtwo_games_finished_total", "counter", "Games played to the end", getGamesFinished());
+		writeValue(out, "bigtwo_games_started_per_minute", "gauge", "Games started during the last minute",
+				getGamesStartedPerMinute());
+		writeValue(out, "bigtwo_games_finished_per_minute", "gauge", "Games finished during the last minute",
+				getGamesFinishedPerMinute());
+		writeHistogram(out, "bigtwo_decode_seconds", "Time taken to decode a message", decodeLatency);
+		writeHistogram(out, "bigtwo_parse_seconds", "Time taken to handle a message at its table", parseLatency);
+		writeHistogram(out, "bigtwo_broadcast_seconds", "Time taken to broadcast a message to a table",
+				broadcastLatency);
+		writeValue(out, "bigtwo_bot_moves_total", "counter", "Moves chosen by bots", getBotMoves());
+		writeValue(out, "bigtwo_bot_budget_overruns_total", "counter",
+				"Moves for which a bot took more CPU time than its budget", getBotBudgetOverruns());
+		writeHistogram(out, "bigtwo_bot_move_cpu_seconds", "CPU time taken by a bot to choose a move", botMoveTime);
+	}
+
+	private static void writeValue(StringBuilder out, String name, String type, String help, long value) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void writeByType(StringBuilder out, String name, String help, LongAdder[] counters) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" counter\n");
+		for(Map.Entry<String, Long> entry : toMap(counters).entrySet()) {
+			out.append(name).append("{type=\"").append(entry.getKey()).append("\"} ")
+					.append(entry.getValue()).append('\n');
+		}
+	}
+
+	private static void writeHistogram(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" histogram\n");
+		long[] counts = histogram.getCounts();
+		long cumulative = 0;
+		for(int i = 0; i < counts.length - 1; i++) {
+			cumulative += counts[i];
+			out.append(name).append("_bucket{le=\"").append((LatencyHistogram.upperBoundOf(i) + 1) / 1e9)
+					.append("\"} ").append(cumulative).append('\n');
+		}
+		cumulative += counts[counts.length - 1];
+		out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+		out.append(name).append("_sum ").append(histogram.getSum() / 1e9).append('\n');
+		out.append(name).append("_count ").append(cumulative).append('\n');
+	}
+
+	private static Map<String, Long> toMap(LongAdder[] counters) {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for(int i = 0; i < TYPE_NAMES.length; i++) {
+			map.put(TYPE_NAMES[i], counters[i].sum());
+		}
+		map.put("UNKNOWN", counters[TYPE_NAMES.length].sum());
+		return map;
+	}
+
+	private static int indexOf(int type) {
+		return type >= 0 && type < TYPE_NAMES.length ? type : TYPE_NAMES.length;
+	}
+
+	private static LongAdder[] newAdders(int n) {
+		LongAdder[] adders = new LongAdder[n];
+		for(int i = 0; i < n; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * A count of events over the last minute, kept in one slot per second. Each slot
+	 * packs the second it counts (high 32 bits) and its count (low 32 bits) into one
+	 * long, so that an event moving a slot to a new second resets the count in the same
+	 * compare-and-set, and no event of the new second is lost
+	 */
+	private static class MinuteRate {
+		private final AtomicLongArray slots = new AtomicLongArray(60);
+
+		void increment() {
+			long second = System.currentTimeMillis() / 1000;
+			int slot = (int) (second % 60);
+			long packed, next;
+			do {
+				packed = slots.get(slot);
+				next = (packed >>> 32) == second ? packed + 1 : (second << 32) | 1L;
+			} while(!slots.compareAndSet(slot, packed, next));
+		}
+
+		long lastMinute() {
+			long second = System.currentTimeMillis() / 1000;
+			long total = 0;
+			for(int slot = 0; slot < 60; slot++) {
+				long packed = slots.get(slot);
+				if(second - (packed >>> 32) < 60) {
+					total += packed & 0xFFFFFFFFL;
+				}
+			}
+			return total;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+import java.util.Map;
+
+/**
+ * This interface is the management interface of ServerMetrics, which a card game server
+ * registers with the platform MBean server, so that JConsole or any JMX client can read
+ * the metrics of the server.
+ * @author yuening
+ *
+ */
+public interface ServerMetricsMXBean {
+	/**
+	 * retrieve the number of connections opened and not yet closed
+	 */
+	long getActiveConnections();
+
+	/**
+	 * retrieve the number of tables with at least one player
+	 */
+	int getTablesInUse();
+
+	/**
+	 * retrieve the number of messages received since the server started, by message type
+	 */
+	Map<String, Long> getMessagesReceived();
+
+	/**
+	 * retrieve the number of messages sent since the server started, by message type;
+	 * a message broadcast to four players counts four times
+	 */
+	Map<String, Long> getMessagesSent();
+
+	/**
+	 * retrieve the number of bytes received since the server started, including the
+	 * headers of the frames
+	 */
+	long getBytesIn();
+
+	/**
+	 * retrieve the number of bytes queued to be sent since the server started, including
+	 * the headers of the frames
+	 */
+	long getBytesOut();
+
+	/**
+	 * retrieve the number of bytes waiting in the outbound queues of all the clients
+	 */
+	long getQueuedBytes();
+
+	/**
+	 * retrieve the number of bytes waiting in the longest outbound queue
+	 */
+	long getMaxQueuedBytes();
+
+	/**
+	 * retrieve the number of games started since the server started
+	 */
+	long getGamesStarted();
+
+	/**
+	 * retrieve the number of games played to the end since the server started
+	 */
+	long getGamesFinished();
+
+	/**
+	 * retrieve the number of games started during the last minute
+	 */
+	long getGamesStartedPerMinute();
+
+	/**
+	 * retrieve the number of games played to the end during the last minute
+	 */
+	long getGamesFinishedPerMinute();
+
+	/**
+	 * retrieve the 99th percentile of the time taken to decode a message, in microseconds
+	 */
+	double getDecodeP99Micros();
+
+	/**
+	 * retrieve the 99th percentile of the time taken to handle a message at its table,
+	 * including the wait for the lock of the table, in microseconds
+	 */
+	double getParseP99Micros();
+
+	/**
+	 * retrieve the 99th percentile of the time taken to broadcast a message to a table,
+	 * in microseconds
+	 */
+	double getBroadcastP99Micros();
+
+	/**
+	 * retrieve the number of moves chosen by the bots seated by the server
+	 */
+	long getBotMoves();
+
+	/**
+	 * retrieve the number of moves for which a bot took more CPU time than its budget
+	 */
+	long getBotBudgetOverruns();
+
+	/**
+	 * retrieve the 99th percentile of the CPU time taken by a bot to choose a move, in
+	 * microseconds
+	 */
+	double getBotMoveP99Micros();
+}
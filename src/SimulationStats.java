@@ -0,0 +1,193 @@
+/**
+ * This class collects the statistics of simulated Big Two games: the wins of each seat,
+ * the length of the games and the number of hands of each type played.
+ * <p>
+ * Each simulation worker fills its own instance without any synchronization, and the
+ * instances are combined with merge() when the workers are done.
+ * @author yuening
+ *
+ */
+public class SimulationStats implements BigTwoEngineListener {
+	//the number of moves counted by the histogram of game lengths; longer games are put
+	//into the last bucket
+	private static final int MAX_GAME_LENGTH = 256;
+
+	//the number of games finished
+	private long games;
+	//the number of games aborted because they did not finish in time
+	private long abortedGames;
+	//the number of games won by each seat
+	private final long[] wins = new long[4];
+	//the total number of moves (including passes) of the finished games
+	private long moves;
+	//the number of moves (including passes) of the game in progress
+	private int currentMoves;
+	//a histogram of the number of moves of the finished games
+	private final long[] gameLengths = new long[MAX_GAME_LENGTH + 1];
+	//the number of hands of each type played
+	private final long[] handTypes = new long[HandType.values().length];
+	//the number of passes
+	private long passes;
+
+	/**
+	 * reset the number of moves when a game starts
+	 */
+	public void gameStarted(int beginnerIdx) {
+		currentMoves = 0;
+	}
+
+	/**
+	 * count a move and the type of its hand
+	 */
+	public void movePlayed(int playerID, Hand hand) {
+		currentMoves++;
+		if(hand == null) {
+			passes++;
+		} else {
+			handTypes[hand.getHandType().ordinal()]++;
+		}
+	}
+
+	/**
+	 * illegal moves are not counted
+	 */
+	public void illegalMove(int playerID, CardList cards, Hand hand) {
+	}
+
+	/**
+	 * turn changes are not counted
+	 */
+	public void turnChanged(int currentIdx) {
+	}
+
+	/**
+	 * count the win and the length of a finished game
+	 */
+	public void gameEnded(int winnerIdx) {
+		games++;
+		wins[winnerIdx]++;
+		moves += currentMoves;
+		gameLengths[Math.min(currentMoves, MAX_GAME_LENGTH)]++;
+	}
+
+	/**
+	 * count a game that has been aborted
+	 */
+	public void gameAborted() {
+		abortedGames++;
+	}
+
+	/**
+	 * add the statistics of another instance to this one
+	 * @param other
+	 * @return this instance
+	 */
+	public SimulationStats merge(SimulationStats other) {
+		games += other.games;
+		abortedGames += other.abortedGames;
+		moves += other.moves;
+		passes += other.passes;
+		for(int i = 0; i < wins.length; i++) {
+			wins[i] += other.wins[i];
+		}
+		for(int i = 0; i < gameLengths.length; i++) {
+			gameLengths[i] += other.gameLengths[i];
+		}
+		for(int i = 0; i < handTypes.length; i++) {
+			handTypes[i] += other.handTypes[i];
+		}
+		return this;
+	}
+
+	/**
+	 * retrieve the number of games finished
+	 */
+	public long getGames() {
+		return games;
+	}
+
+	/**
+	 * retrieve the number of games aborted
+	 */
+	public long getAbortedGames() {
+		return abortedGames;
+	}
+
+	/**
+	 * retrieve the number of games won by a seat
+	 * @param seat, an index between 0 and 3
+	 */
+	public long getWins(int seat) {
+		return wins[seat];
+	}
+
+	/**
+	 * retrieve the win rate of a seat
+	 * @param seat, an index between 0 and 3
+	 * @return the fraction of the finished games won by the seat
+	 */
+	public double getWinRate(int seat) {
+		return games == 0 ? 0 : (double) wins[seat] / games;
+	}
+
+	/**
+	 * retrieve the average number of moves (including passes) of the finished games
+	 */
+	public double getAverageGameLength() {
+		return games == 0 ? 0 : (double) moves / games;
+	}
+
+	/**
+	 * retrieve the number of finished games with a given number of moves
+	 * @param length, the number of moves; the last bucket counts all longer games
+	 */
+	public long getGamesOfLength(int length) {
+		return gameLengths[Math.min(length, MAX_GAME_LENGTH)];
+	}
+
+	/**
+	 * retrieve the number of hands of a type played
+	 * @param type
+	 */
+	public long getHandCount(HandType type) {
+		return handTypes[type.ordinal()];
+	}
+
+	/**
+	 * retrieve the number of passes
+	 */
+	public long getPasses() {
+		return passes;
+	}
+
+	/**
+	 * return a report of the statistics
+	 */
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("games: %d (aborted: %d)%n", games, abortedGames));
+		for(int i = 0; i < wins.length; i++) {
+			report.append(String.format("seat %d wins: %d (%.2f%%)%n", i, wins[i], 100 * getWinRate(i)));
+		}
+		report.append(String.format("moves per game: %.2f%n", getAverageGameLength()));
+		int median = -1;
+		long seen = 0;
+		for(int i = 0; i < gameLengths.length && median < 0; i++) {
+			seen += gameLengths[i];
+			if(seen * 2 >= games && games > 0) {
+				median = i;
+			}
+		}
+		report.append(String.format("median moves per game: %d%n", median));
+		long hands = passes;
+		for(int i = 0; i < handTypes.length; i++) {
+			hands += handTypes[i];
+		}
+		for(HandType type : HandType.values()) {
+			report.append(String.format("%s: %d (%.2f%%)%n", type, handTypes[type.ordinal()],
+					hands == 0 ? 0 : 100.0 * handTypes[type.ordinal()] / hands));
+		}
+		report.append(String.format("Pass: %d (%.2f%%)%n", passes, hands == 0 ? 0 : 100.0 * passes / hands));
+		return report.toString();
+	}
+}
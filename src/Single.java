@@ -14,24 +14,6 @@ public class Single extends Hand implements Serializable {
 	 * @param cards
 	 */
 	public Single(CardGamePlayer player, CardList cards) {
-		super(player, cards);
-	}
-	
-	/**
-	 * check if this is a valid single
-	 */
-	public boolean isValid() {
-		if(size() == 1) {
-			return true;
-		}
-		return false;
-	}
-	
-	/**
-	 * return a string specifying the type 'single'
-	 */
-	public String getType() {
-		return "Single";
+		super(player, cards, HandType.SINGLE);
 	}
 }
-
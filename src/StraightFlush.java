@@ -14,32 +14,6 @@ public class StraightFlush extends Hand implements Serializable {
 	 * @param cards
 	 */
 	public StraightFlush(CardGamePlayer player, CardList cards) {
-		super(player, cards);
-	}
-	
-	/**
-	 * check if this is a valid Straight Flush
-	 */
-	public boolean isValid() {
-		if(size() == 5) {
-			sort();
-			for(int i=0; i<4; i++) {
-				if ((getCard(i).getRank()+11)%13+1 != (getCard(i+1).getRank()+11)%13)
-					return false;
-			}
-			for(int i=0; i<4; i++) {
-				if(getCard(i).getSuit() != getCard(i+1).getSuit())
-					return false;
-			}
-			return true;
-		}
-		return false;
-	}
-	
-	/**
-	 * return a string specifying the type 'Straight Flush'
-	 */
-	public String getType() {
-		return "Straight Flush";
+		super(player, cards, HandType.STRAIGHT_FLUSH);
 	}
 }
@@ -14,25 +14,6 @@ public class Triple extends Hand implements Serializable {
 	 * @param cards
 	 */
 	public Triple(CardGamePlayer player, CardList cards) {
-		super(player, cards);
-	}
-	
-	/**
-	 * check if this is a valid triple
-	 */
-	public boolean isValid() {
-		if(size() == 3) {
-			sort();
-			if(getCard(0).getRank()==getCard(1).getRank() && getCard(1).getRank()==getCard(2).getRank())
-				return true;
-		}
-		return false;
-	}
-	
-	/**
-	 * return a string specifying the type 'triple'
-	 */
-	public String getType() {
-		return "Triple";
+		super(player, cards, HandType.TRIPLE);
 	}
 }